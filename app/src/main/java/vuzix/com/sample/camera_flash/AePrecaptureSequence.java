@@ -0,0 +1,193 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+/**
+ * Waits for the automatic exposure to finish its precapture metering before a flash still is taken.
+ *
+ * After the precapture trigger is sent, its own result is fed to onTriggerResult() and every later
+ * capture result to onResult(). Results from before the trigger are ignored. The sequence first waits
+ * for AE to enter PRECAPTURE (or report that it needs the flash), then waits for a later result that is
+ * not PRECAPTURE, as the Camera2Basic sample does. A result that only says CONVERGED does not show that
+ * the trigger has taken effect, so it does not end the wait. If any of this takes longer than the
+ * timeout the still is taken anyway.
+ * The Listener is called exactly once per sequence with the time AE took.
+ */
+public class AePrecaptureSequence {
+
+    // These mirror the CaptureResult.CONTROL_AE_STATE_* values so this class needs no Android types
+    public static final int AE_STATE_INACTIVE        = 0;
+    public static final int AE_STATE_SEARCHING       = 1;
+    public static final int AE_STATE_CONVERGED       = 2;
+    public static final int AE_STATE_LOCKED          = 3;
+    public static final int AE_STATE_FLASH_REQUIRED  = 4;
+    public static final int AE_STATE_PRECAPTURE      = 5;
+
+    /**
+     * Interface for receiving callbacks from this sequence
+     */
+    public interface Listener {
+        /**
+         * Method that is called when the still should be taken
+         * @param converged boolean true if AE finished metering, false if the sequence timed out
+         * @param latencyNanos long time from start() until this call
+         */
+        void onReadyToCapture(boolean converged, long latencyNanos);
+    }
+
+    public enum State {
+        /** No precapture sequence is running */
+        IDLE,
+        /** The trigger was sent and its result has not arrived, so results describe earlier frames */
+        WAITING_TRIGGER,
+        /** The trigger was sent and AE has not started precapture metering yet */
+        WAITING_PRECAPTURE,
+        /** AE is metering and we are waiting for it to finish */
+        WAITING_NON_PRECAPTURE
+    }
+
+    private final Listener mListener;
+    private final long mTimeoutNanos;
+    private State mState = State.IDLE;
+    private long mStartNanos;
+    private long mLastLatencyNanos;
+
+    /**
+     * @param timeoutMillis long how long to wait for AE before taking the still anyway
+     * @param listener Listener to be called when the still should be taken
+     */
+    public AePrecaptureSequence(long timeoutMillis, Listener listener) {
+        mTimeoutNanos = timeoutMillis * 1000000L;
+        mListener = listener;
+    }
+
+    /**
+     * Begin waiting. Call just before the precapture trigger is submitted.
+     * @param nowNanos long current time from System.nanoTime()
+     */
+    public synchronized void start(long nowNanos) {
+        mState = State.WAITING_TRIGGER;
+        mStartNanos = nowNanos;
+    }
+
+    /**
+     * Abandon the sequence without calling the listener
+     */
+    public synchronized void cancel() {
+        mState = State.IDLE;
+    }
+
+    public synchronized boolean isActive() {
+        return mState != State.IDLE;
+    }
+
+    /**
+     * Feed the AE state of the result of the precapture trigger request itself
+     *
+     * @param aeState Integer CONTROL_AE_STATE of the result, or null if the device does not report it
+     * @param nowNanos long current time from System.nanoTime()
+     */
+    public void onTriggerResult(Integer aeState, long nowNanos) {
+        synchronized (this) {
+            if (mState == State.WAITING_TRIGGER) {
+                mState = State.WAITING_PRECAPTURE;
+            }
+        }
+        onResult(aeState, nowNanos);
+    }
+
+    /**
+     * Feed the AE state of one capture result
+     *
+     * @param aeState Integer CONTROL_AE_STATE of the result, or null if the device does not report it
+     * @param nowNanos long current time from System.nanoTime()
+     */
+    public void onResult(Integer aeState, long nowNanos) {
+        boolean converged = false;
+        long latency;
+        synchronized (this) {
+            switch (mState) {
+                case WAITING_TRIGGER:
+                    // Only the timeout applies until the trigger's own result arrives
+                    break;
+                case WAITING_PRECAPTURE:
+                    // Only advance here. The sequence ends on a later result, never the one that started metering.
+                    if (null == aeState || aeState == AE_STATE_PRECAPTURE || aeState == AE_STATE_FLASH_REQUIRED) {
+                        mState = State.WAITING_NON_PRECAPTURE;
+                    }
+                    break;
+                case WAITING_NON_PRECAPTURE:
+                    converged = null == aeState || aeState != AE_STATE_PRECAPTURE;
+                    break;
+                default:
+                    return;
+            }
+            if (converged) {
+                // Ready to capture
+            } else if (nowNanos - mStartNanos >= mTimeoutNanos) {
+                converged = false;
+            } else {
+                return;
+            }
+            mState = State.IDLE;
+            latency = nowNanos - mStartNanos;
+            mLastLatencyNanos = latency;
+        }
+        mListener.onReadyToCapture(converged, latency);
+    }
+
+    /**
+     * Give up on AE if the timeout has passed. Results normally drive the timeout, so this is only
+     * needed in case they stop arriving.
+     *
+     * @param nowNanos long current time from System.nanoTime()
+     */
+    public void checkTimeout(long nowNanos) {
+        long latency;
+        synchronized (this) {
+            if (mState == State.IDLE || nowNanos - mStartNanos < mTimeoutNanos) {
+                return;
+            }
+            mState = State.IDLE;
+            latency = nowNanos - mStartNanos;
+            mLastLatencyNanos = latency;
+        }
+        mListener.onReadyToCapture(false, latency);
+    }
+
+    /**
+     * @return long AE latency of the most recent completed sequence, in nanoseconds
+     */
+    public synchronized long getLastLatencyNanos() {
+        return mLastLatencyNanos;
+    }
+}
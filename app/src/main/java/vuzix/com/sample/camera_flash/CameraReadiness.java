@@ -0,0 +1,209 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import android.content.Context;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Keeps what is needed to open the camera ready for as long as the activity exists, so resuming only
+ * has to open the device.
+ *
+ * The camera ID and characteristics are queried once, on the background thread, as soon as this is
+ * created. The background and capture HandlerThreads are started once too, and reused across every
+ * pause and resume instead of being started and joined each time. The device is opened on the
+ * background thread, so its callbacks never wait for the UI thread and the TextureView can create its
+ * surface at the same time. The time from resume to the first preview frame is recorded as
+ * LatencyRecorder.STAGE_STARTUP.
+ */
+public class CameraReadiness {
+
+    private static final String TAG = "CameraFlash_Readiness";
+
+    private final CameraManager mCameraManager;
+    private final LatencyRecorder mLatencyRecorder;
+    private final HandlerThread mBackgroundThread;
+    private final Handler mBackgroundHandler;
+    private final HandlerThread mCaptureThread;
+    private final Handler mCaptureHandler;
+    // Marks the runnables the app posts to the two threads, so onPause() can drop them and leave
+    // the callbacks camera2 has queued there, such as a pending onOpened(), alone
+    private final Object mAppToken = new Object();
+    private String mCameraId;
+    private CameraCharacteristics mCharacteristics;
+    private volatile long mResumeNanos;
+
+    /**
+     * @param context Context to get the CameraManager from
+     * @param latencyRecorder LatencyRecorder that receives the startup time
+     */
+    public CameraReadiness(Context context, LatencyRecorder latencyRecorder) {
+        mCameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        mLatencyRecorder = latencyRecorder;
+
+        mBackgroundThread = new HandlerThread("Camera Background");
+        mBackgroundThread.start();
+        mBackgroundHandler = new Handler(mBackgroundThread.getLooper());
+
+        mCaptureThread = new HandlerThread("Camera Capture");
+        mCaptureThread.start();
+        mCaptureHandler = new Handler(mCaptureThread.getLooper());
+
+        // Warm the cache while the activity is still inflating its views
+        mBackgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    getCharacteristics();
+                } catch (CameraAccessException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return Handler of the thread that opens the camera and receives the device and session callbacks
+     */
+    public Handler getBackgroundHandler() {
+        return mBackgroundHandler;
+    }
+
+    /**
+     * @return Handler of the thread that receives capture results
+     */
+    public Handler getCaptureHandler() {
+        return mCaptureHandler;
+    }
+
+    /**
+     * Post app work to the background or capture thread, so that onPause() drops it if it has not run yet
+     *
+     * @param handler Handler of either thread
+     * @param runnable Runnable to run
+     */
+    public void post(Handler handler, Runnable runnable) {
+        postDelayed(handler, runnable, 0);
+    }
+
+    /**
+     * Post app work to the background or capture thread, so that onPause() drops it if it has not run yet
+     *
+     * @param handler Handler of either thread
+     * @param runnable Runnable to run
+     * @param delayMillis long delay before it runs
+     */
+    public void postDelayed(Handler handler, Runnable runnable, long delayMillis) {
+        handler.postAtTime(runnable, mAppToken, SystemClock.uptimeMillis() + delayMillis);
+    }
+
+    /**
+     * @return String ID of the camera. The M400 only has one camera, so it is the first one.
+     */
+    public synchronized String getCameraId() throws CameraAccessException {
+        if (null == mCameraId) {
+            mCameraId = mCameraManager.getCameraIdList()[0];
+        }
+        return mCameraId;
+    }
+
+    /**
+     * @return CameraCharacteristics of the camera, queried on the first call only
+     */
+    public synchronized CameraCharacteristics getCharacteristics() throws CameraAccessException {
+        if (null == mCharacteristics) {
+            mCharacteristics = mCameraManager.getCameraCharacteristics(getCameraId());
+        }
+        return mCharacteristics;
+    }
+
+    /**
+     * Open the camera. The callback is called on the background thread.
+     *
+     * @param callback CameraDevice.StateCallback for the device
+     */
+    public void openCamera(CameraDevice.StateCallback callback) throws CameraAccessException, SecurityException {
+        mCameraManager.openCamera(getCameraId(), callback, mBackgroundHandler);
+    }
+
+    /**
+     * Start timing a resume. Call from onResume().
+     */
+    public void onResume() {
+        mResumeNanos = System.nanoTime();
+    }
+
+    /**
+     * Call for every preview frame. Only the first one after a resume is recorded.
+     */
+    public void onPreviewFrame() {
+        long resumeNanos = mResumeNanos;
+        if (0 != resumeNanos) {
+            mResumeNanos = 0;
+            long startup = System.nanoTime() - resumeNanos;
+            mLatencyRecorder.record(LatencyRecorder.STAGE_STARTUP, startup);
+            Log.i(TAG, "Resume to first preview frame: " + (startup / 1000000) + " ms");
+        }
+    }
+
+    /**
+     * Drop app work posted with post() or postDelayed() that has not run yet. Callbacks camera2 has
+     * queued on the threads are still delivered, so a camera that finishes opening after the pause can
+     * be closed again. The threads keep running. Call from onPause().
+     */
+    public void onPause() {
+        mResumeNanos = 0;
+        mBackgroundHandler.removeCallbacksAndMessages(mAppToken);
+        mCaptureHandler.removeCallbacksAndMessages(mAppToken);
+    }
+
+    /**
+     * Stop the threads. Call from onDestroy(); this object cannot be used afterwards.
+     */
+    public void shutdown() {
+        mCaptureThread.quitSafely();
+        mBackgroundThread.quitSafely();
+        try {
+            mCaptureThread.join();
+            mBackgroundThread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,299 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Append-only log of the capture metadata of every photograph, one fixed size binary record per shot.
+ *
+ * The file starts with a HEADER_BYTES header (magic, version, record size and record count) followed by
+ * RECORD_BYTES records. Records are written through a memory mapped window that is extended
+ * WINDOW_RECORDS at a time, so appending a record is a few puts with no system call and no allocation.
+ * The count in the header is updated after the record, so a reader never sees a half written record.
+ * Because every record has the same size, reading thousands of shots is one sequential scan of a
+ * mapped file. Kept free of Android types so it can be benchmarked on a plain JVM.
+ */
+public class CaptureMetadataLog implements Closeable {
+
+    public static final int MAGIC           = 0x43464D4C;   // "CFML"
+    public static final int VERSION         = 1;
+    public static final int HEADER_BYTES    = 32;
+    public static final int RECORD_BYTES    = 128;
+    public static final int NAME_BYTES      = 64;
+    public static final int WINDOW_RECORDS  = 256;
+
+    // Header layout
+    private static final int HEADER_MAGIC           = 0;
+    private static final int HEADER_VERSION         = 4;
+    private static final int HEADER_RECORD_BYTES    = 8;
+    private static final int HEADER_COUNT           = 16;
+
+    // Record layout
+    private static final int SENSOR_TIMESTAMP       = 0;
+    private static final int WALL_TIME              = 8;
+    private static final int EXPOSURE_TIME          = 16;
+    private static final int FRAME_DURATION         = 24;
+    private static final int SENSITIVITY            = 32;
+    private static final int AE_MODE                = 36;
+    private static final int AE_STATE               = 40;
+    private static final int FLASH_MODE             = 44;
+    private static final int FLASH_STATE            = 48;
+    private static final int JPEG_ORIENTATION       = 52;
+    private static final int FRAME_NUMBER           = 56;
+    private static final int NAME                   = 64;
+
+    /**
+     * The metadata of one shot. Values the camera did not report are -1. A Record can be reused for
+     * every append, and scan() reuses one for every record it reads.
+     */
+    public static class Record {
+        /** CaptureResult.SENSOR_TIMESTAMP, the same as Image.getTimestamp() */
+        public long sensorTimestampNanos;
+        /** System.currentTimeMillis() when the result arrived */
+        public long wallTimeMillis;
+        public long exposureTimeNanos;
+        public long frameDurationNanos;
+        /** ISO */
+        public int sensitivity;
+        public int aeMode;
+        public int aeState;
+        public int flashMode;
+        public int flashState;
+        public int jpegOrientation;
+        public long frameNumber;
+        private final byte[] mName = new byte[NAME_BYTES];
+        private int mNameLength;
+
+        /**
+         * @param fileName String name of the image file, without the directory. ASCII, and cut to NAME_BYTES.
+         */
+        public void setFileName(String fileName) {
+            mNameLength = Math.min(fileName.length(), NAME_BYTES);
+            for (int i = 0; i < mNameLength; i++) {
+                mName[i] = (byte) fileName.charAt(i);
+            }
+        }
+
+        public String getFileName() {
+            return new String(mName, 0, mNameLength, StandardCharsets.US_ASCII);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s t=%d exposure=%dus iso=%d ae=%d/%d flash=%d/%d orientation=%d",
+                    getFileName(), sensorTimestampNanos, exposureTimeNanos / 1000, sensitivity,
+                    aeMode, aeState, flashMode, flashState, jpegOrientation);
+        }
+    }
+
+    /**
+     * Receives each record of a scan
+     */
+    public interface Visitor {
+        /**
+         * @param record Record that is only valid until this returns
+         * @return true to continue the scan, false to stop it
+         */
+        boolean visit(Record record);
+    }
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final MappedByteBuffer mHeader;
+    private MappedByteBuffer mWindow;
+    private long mWindowFirst;
+    private long mCount;
+
+    /**
+     * Open the log, creating it if it does not exist. New records are added after the existing ones.
+     *
+     * @param file File of the log
+     * @throws IOException if the file cannot be mapped or is not a log of this version
+     */
+    public CaptureMetadataLog(File file) throws IOException {
+        mFile = new RandomAccessFile(file, "rw");
+        mChannel = mFile.getChannel();
+        try {
+            boolean created = mChannel.size() < HEADER_BYTES;
+            mHeader = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+            mHeader.order(ByteOrder.LITTLE_ENDIAN);
+            if (created) {
+                mHeader.putInt(HEADER_MAGIC, MAGIC);
+                mHeader.putInt(HEADER_VERSION, VERSION);
+                mHeader.putInt(HEADER_RECORD_BYTES, RECORD_BYTES);
+                mHeader.putLong(HEADER_COUNT, 0);
+            } else {
+                checkHeader(mHeader, file);
+            }
+            mCount = mHeader.getLong(HEADER_COUNT);
+            mapWindow(mCount);
+        } catch (IOException e) {
+            mFile.close();
+            throw e;
+        }
+    }
+
+    private static void checkHeader(MappedByteBuffer header, File file) throws IOException {
+        if (header.getInt(HEADER_MAGIC) != MAGIC || header.getInt(HEADER_VERSION) != VERSION
+                || header.getInt(HEADER_RECORD_BYTES) != RECORD_BYTES) {
+            throw new IOException("Not a capture metadata log: " + file.getPath());
+        }
+    }
+
+    /**
+     * Map the window of WINDOW_RECORDS records that starts at record first, growing the file if needed
+     */
+    private void mapWindow(long first) throws IOException {
+        mWindow = mChannel.map(FileChannel.MapMode.READ_WRITE,
+                HEADER_BYTES + first * RECORD_BYTES, (long) WINDOW_RECORDS * RECORD_BYTES);
+        mWindow.order(ByteOrder.LITTLE_ENDIAN);
+        mWindowFirst = first;
+    }
+
+    /**
+     * Add one record to the end of the log
+     *
+     * @param record Record to copy into the log
+     */
+    public synchronized void append(Record record) throws IOException {
+        if (mCount - mWindowFirst == WINDOW_RECORDS) {
+            mapWindow(mCount);
+        }
+        int offset = (int) (mCount - mWindowFirst) * RECORD_BYTES;
+        MappedByteBuffer window = mWindow;
+        window.putLong(offset + SENSOR_TIMESTAMP, record.sensorTimestampNanos);
+        window.putLong(offset + WALL_TIME, record.wallTimeMillis);
+        window.putLong(offset + EXPOSURE_TIME, record.exposureTimeNanos);
+        window.putLong(offset + FRAME_DURATION, record.frameDurationNanos);
+        window.putInt(offset + SENSITIVITY, record.sensitivity);
+        window.putInt(offset + AE_MODE, record.aeMode);
+        window.putInt(offset + AE_STATE, record.aeState);
+        window.putInt(offset + FLASH_MODE, record.flashMode);
+        window.putInt(offset + FLASH_STATE, record.flashState);
+        window.putInt(offset + JPEG_ORIENTATION, record.jpegOrientation);
+        window.putLong(offset + FRAME_NUMBER, record.frameNumber);
+        for (int i = 0; i < NAME_BYTES; i++) {
+            window.put(offset + NAME + i, (i < record.mNameLength) ? record.mName[i] : 0);
+        }
+        mCount++;
+        mHeader.putLong(HEADER_COUNT, mCount);
+    }
+
+    /**
+     * @return long number of records in the log
+     */
+    public synchronized long getCount() {
+        return mCount;
+    }
+
+    /**
+     * Write the mapped records to storage. The log is consistent without this; it only bounds what
+     * a power loss can take.
+     */
+    public synchronized void flush() {
+        mWindow.force();
+        mHeader.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        mFile.close();
+    }
+
+    /**
+     * Read every record of a log, in the order they were appended
+     *
+     * @param file File of the log
+     * @param visitor Visitor to receive the records
+     * @return long number of records visited
+     * @throws IOException if the file cannot be read or is not a log of this version
+     */
+    public static long scan(File file, Visitor visitor) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            checkHeader(header, file);
+            long count = Math.min(header.getLong(HEADER_COUNT), (channel.size() - HEADER_BYTES) / RECORD_BYTES);
+            Record record = new Record();
+            long visited = 0;
+            // Map at most a window of records at a time so a large log does not need one huge mapping
+            long chunkRecords = (long) WINDOW_RECORDS * 64;
+            for (long first = 0; first < count; first += chunkRecords) {
+                int records = (int) Math.min(chunkRecords, count - first);
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY,
+                        HEADER_BYTES + first * RECORD_BYTES, (long) records * RECORD_BYTES);
+                chunk.order(ByteOrder.LITTLE_ENDIAN);
+                for (int i = 0; i < records; i++) {
+                    read(chunk, i * RECORD_BYTES, record);
+                    visited++;
+                    if (!visitor.visit(record)) {
+                        return visited;
+                    }
+                }
+            }
+            return visited;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void read(MappedByteBuffer chunk, int offset, Record record) {
+        record.sensorTimestampNanos = chunk.getLong(offset + SENSOR_TIMESTAMP);
+        record.wallTimeMillis = chunk.getLong(offset + WALL_TIME);
+        record.exposureTimeNanos = chunk.getLong(offset + EXPOSURE_TIME);
+        record.frameDurationNanos = chunk.getLong(offset + FRAME_DURATION);
+        record.sensitivity = chunk.getInt(offset + SENSITIVITY);
+        record.aeMode = chunk.getInt(offset + AE_MODE);
+        record.aeState = chunk.getInt(offset + AE_STATE);
+        record.flashMode = chunk.getInt(offset + FLASH_MODE);
+        record.flashState = chunk.getInt(offset + FLASH_STATE);
+        record.jpegOrientation = chunk.getInt(offset + JPEG_ORIENTATION);
+        record.frameNumber = chunk.getLong(offset + FRAME_NUMBER);
+        int length = 0;
+        while (length < NAME_BYTES && chunk.get(offset + NAME + length) != 0) {
+            record.mName[length] = chunk.get(offset + NAME + length);
+            length++;
+        }
+        record.mNameLength = length;
+    }
+}
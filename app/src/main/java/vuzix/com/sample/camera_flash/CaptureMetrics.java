@@ -0,0 +1,95 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+/**
+ * Throughput and dropped-frame counts for one capture sequence (a single still, a burst, or a
+ * continuous run). Called from the camera callback threads, so every method is synchronized.
+ */
+public class CaptureMetrics {
+
+    private long mStartNanos;
+    private long mLastFrameNanos;
+    private int mDelivered;
+    private int mDropped;
+
+    /**
+     * Reset the counters at the start of a capture sequence
+     * @param nowNanos long current time from System.nanoTime()
+     */
+    public synchronized void onSequenceStarted(long nowNanos) {
+        mStartNanos = nowNanos;
+        mLastFrameNanos = nowNanos;
+        mDelivered = 0;
+        mDropped = 0;
+    }
+
+    /**
+     * @param nowNanos long current time from System.nanoTime()
+     */
+    public synchronized void onFrameDelivered(long nowNanos) {
+        mDelivered++;
+        mLastFrameNanos = nowNanos;
+    }
+
+    /**
+     * Called when the camera reports a failed capture or a lost buffer
+     */
+    public synchronized void onFrameDropped() {
+        mDropped++;
+    }
+
+    public synchronized int getDeliveredFrames() {
+        return mDelivered;
+    }
+
+    public synchronized int getDroppedFrames() {
+        return mDropped;
+    }
+
+    /**
+     * @return double frames delivered per second between the start of the sequence and the last
+     * frame, or 0 if nothing has been delivered yet
+     */
+    public synchronized double getFramesPerSecond() {
+        long elapsed = mLastFrameNanos - mStartNanos;
+        if (mDelivered == 0 || elapsed <= 0) {
+            return 0;
+        }
+        return mDelivered * 1e9 / elapsed;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d frames, %.1f fps, %d dropped", mDelivered, getFramesPerSecond(), mDropped);
+    }
+}
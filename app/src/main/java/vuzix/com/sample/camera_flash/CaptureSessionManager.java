@@ -0,0 +1,310 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+/**
+ * Tracks the life of the single long-lived capture session used for both preview and stills.
+ *
+ * The session is configured once with the preview and JPEG outputs. Each still, burst or continuous
+ * run is then submitted on that session rather than a new session per shot. This class holds no
+ * Android types so the state machine can be driven by a fake Camera on a plain JVM.
+ */
+public class CaptureSessionManager {
+
+    /**
+     * The camera operations this manager drives. The implementation must report back through
+     * onSessionConfigured(), onSessionConfigureFailed(), onFrameStarted() and onFrameCompleted().
+     */
+    public interface Camera {
+        /**
+         * Create the capture session with every output surface it will ever need
+         */
+        void configureSession();
+
+        /**
+         * Start (or restart) the repeating preview request on the configured session
+         */
+        void startPreview();
+
+        /**
+         * Submit one still capture request on the configured session
+         */
+        void submitStill();
+
+        /**
+         * Submit count still requests as one burst on the configured session
+         * @param count int number of stills, always greater than one
+         */
+        void submitBurst(int count);
+
+        /**
+         * Replace the repeating preview request with a repeating still request
+         */
+        void startContinuous();
+
+        /**
+         * Stop the repeating still request. Frames already in flight are still delivered.
+         */
+        void stopContinuous();
+    }
+
+    public enum State {
+        /** No session exists */
+        CLOSED,
+        /** configureSession() has been called and we are waiting for the result */
+        CONFIGURING,
+        /** The session is running the preview and can take a still */
+        READY,
+        /** Stills have been submitted and have not all completed yet */
+        CAPTURING,
+        /** A repeating still request is running */
+        CONTINUOUS
+    }
+
+    private final Camera mCamera;
+    private State mState = State.CLOSED;
+    private int mPendingCount;
+    private int mOutstanding;
+    private boolean mDrainingContinuous;
+    private int mConfigureCount;
+    private int mStillCount;
+
+    /**
+     * @param camera Camera that performs the actual session and request work
+     */
+    public CaptureSessionManager(Camera camera) {
+        mCamera = camera;
+    }
+
+    /**
+     * Configure the session if there is not one already. Safe to call repeatedly.
+     */
+    public synchronized void open() {
+        if (mState == State.CLOSED) {
+            mState = State.CONFIGURING;
+            mConfigureCount++;
+            mCamera.configureSession();
+        }
+    }
+
+    /**
+     * Forget the current session. The next open() will configure a new one.
+     */
+    public synchronized void close() {
+        mState = State.CLOSED;
+        mPendingCount = 0;
+        mOutstanding = 0;
+        mDrainingContinuous = false;
+    }
+
+    /**
+     * Called by the Camera once the session has been created
+     */
+    public synchronized void onSessionConfigured() {
+        if (mState != State.CONFIGURING) {
+            return;
+        }
+        mState = State.READY;
+        mCamera.startPreview();
+        if (mPendingCount > 0) {
+            int count = mPendingCount;
+            mPendingCount = 0;
+            submit(count);
+        }
+    }
+
+    /**
+     * Called by the Camera if the session could not be created
+     */
+    public synchronized void onSessionConfigureFailed() {
+        mState = State.CLOSED;
+        mPendingCount = 0;
+    }
+
+    /**
+     * Request a still. If the session is still being configured the still is taken as soon as it is ready.
+     *
+     * @return true if the still was submitted or queued, false if a capture is already in progress
+     */
+    public synchronized boolean requestStill() {
+        return requestBurst(1);
+    }
+
+    /**
+     * Request a burst of stills, submitted together so they are in flight in parallel
+     *
+     * @param count int number of stills
+     * @return true if the burst was submitted or queued, false if a capture is already in progress
+     */
+    public synchronized boolean requestBurst(int count) {
+        if (count < 1) {
+            return false;
+        }
+        switch (mState) {
+            case READY:
+                submit(count);
+                return true;
+            case CLOSED:
+                mPendingCount = count;
+                open();
+                return true;
+            case CONFIGURING:
+                if (mPendingCount > 0) {
+                    return false;
+                }
+                mPendingCount = count;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return true if a still or burst requested now would be submitted or queued, rather than refused
+     */
+    public synchronized boolean canRequest() {
+        switch (mState) {
+            case READY:
+            case CLOSED:
+                return true;
+            case CONFIGURING:
+                return mPendingCount == 0;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Start taking stills continuously until stopContinuous() is called
+     *
+     * @return true if continuous capture started
+     */
+    public synchronized boolean startContinuous() {
+        if (mState != State.READY) {
+            return false;
+        }
+        mState = State.CONTINUOUS;
+        mCamera.startContinuous();
+        return true;
+    }
+
+    /**
+     * Stop continuous capture. The manager stays in CAPTURING until the frames in flight are delivered.
+     *
+     * @return true if the capture sequence is already complete
+     */
+    public synchronized boolean stopContinuous() {
+        if (mState != State.CONTINUOUS) {
+            return false;
+        }
+        mCamera.stopContinuous();
+        if (mOutstanding > 0) {
+            mState = State.CAPTURING;
+            mDrainingContinuous = true;
+            return false;
+        }
+        mState = State.READY;
+        return true;
+    }
+
+    /**
+     * Called by the Camera when a repeating still request starts a frame. Single stills and bursts
+     * are counted when they are submitted, so this only matters for continuous capture.
+     */
+    public synchronized void onFrameStarted() {
+        if (mState == State.CONTINUOUS || mDrainingContinuous) {
+            mOutstanding++;
+            mStillCount++;
+        }
+    }
+
+    /**
+     * Called by the Camera once a frame has been delivered, or has been lost. The session stays configured.
+     *
+     * @return true if this was the last frame of the capture sequence
+     */
+    public synchronized boolean onFrameCompleted() {
+        if (mOutstanding > 0) {
+            mOutstanding--;
+        }
+        if (mState == State.CAPTURING && mOutstanding == 0) {
+            mState = State.READY;
+            mDrainingContinuous = false;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Called when a capture could not be submitted, so no frames will arrive for it
+     *
+     * @return true if a capture sequence was abandoned
+     */
+    public synchronized boolean abortCapture() {
+        if (mState != State.CAPTURING) {
+            return false;
+        }
+        mState = State.READY;
+        mOutstanding = 0;
+        mDrainingContinuous = false;
+        return true;
+    }
+
+    private void submit(int count) {
+        mState = State.CAPTURING;
+        mOutstanding = count;
+        mStillCount += count;
+        if (count == 1) {
+            mCamera.submitStill();
+        } else {
+            mCamera.submitBurst(count);
+        }
+    }
+
+    public synchronized State getState() {
+        return mState;
+    }
+
+    /**
+     * @return int number of times the session has been configured since this manager was created
+     */
+    public synchronized int getConfigureCount() {
+        return mConfigureCount;
+    }
+
+    /**
+     * @return int number of stills submitted since this manager was created
+     */
+    public synchronized int getStillCount() {
+        return mStillCount;
+    }
+}
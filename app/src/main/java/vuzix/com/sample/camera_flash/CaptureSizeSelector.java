@@ -0,0 +1,267 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+/**
+ * Picks the preview and still sizes for a capture target from the sizes a camera supports.
+ *
+ * The supported sizes and their minimum frame durations are read from the StreamConfigurationMap once
+ * per camera and handed to the constructor, so a selection is only arithmetic over a few dozen entries.
+ * The preview is always the largest supported size, no larger than the preview bound, with the aspect
+ * ratio of the still. For Target.MAX_FRAME_RATE the preview must also be at least as fast as the still,
+ * since the slowest stream in a request sets the frame rate of the whole session. A minimum frame duration
+ * of 0 means the camera did not report one; such sizes are never assumed to be fast, and when no size
+ * reports a duration MAX_FRAME_RATE falls back to the largest size.
+ * Cameras support different sizes for YUV_420_888 than for JPEG, so a YUV still is
+ * chosen from its own table, preferring the aspect ratio of the JPEG still so the preview still fits it.
+ * This class has no Android types so it can be exercised on a plain JVM.
+ */
+public class CaptureSizeSelector {
+
+    public enum Target {
+        /** The largest still the camera can produce */
+        MAX_RESOLUTION,
+        /** The largest still that can be produced at the highest still frame rate */
+        MAX_FRAME_RATE,
+        /** The largest still with no more than the given number of pixels */
+        BOUNDED
+    }
+
+    /**
+     * One supported output size
+     */
+    public static final class Size {
+        public final int width;
+        public final int height;
+        /** Minimum frame duration at this size, in nanoseconds, or 0 if unknown */
+        public final long minFrameDurationNanos;
+
+        public Size(int width, int height, long minFrameDurationNanos) {
+            this.width = width;
+            this.height = height;
+            this.minFrameDurationNanos = minFrameDurationNanos;
+        }
+
+        public long getPixels() {
+            return (long) width * height;
+        }
+
+        @Override
+        public String toString() {
+            return width + "x" + height;
+        }
+    }
+
+    /**
+     * The chosen sizes
+     */
+    public static final class Selection {
+        public final Size preview;
+        /** Size of a JPEG still */
+        public final Size still;
+        /** Size of a YUV_420_888 still, for stills the app encodes or fuses itself */
+        public final Size yuvStill;
+
+        Selection(Size preview, Size still, Size yuvStill) {
+            this.preview = preview;
+            this.still = still;
+            this.yuvStill = yuvStill;
+        }
+
+        @Override
+        public String toString() {
+            return "preview " + preview + ", still " + still + ", YUV still " + yuvStill;
+        }
+    }
+
+    // Aspect ratios within this fraction of each other are treated as equal, e.g. 4208x3120 and 4:3
+    private static final double ASPECT_TOLERANCE = 0.02;
+
+    private final Size[] mPreviewSizes;
+    private final Size[] mStillSizes;
+    private final Size[] mYuvSizes;
+    private final long mMaxPreviewPixels;
+
+    /**
+     * For a camera whose YUV_420_888 sizes are the same as its JPEG sizes
+     *
+     * @param previewSizes Size[] sizes supported for the preview surface
+     * @param stillSizes Size[] sizes supported for JPEG output
+     * @param maxPreviewPixels long largest preview to choose, usually the display or 1920x1080
+     */
+    public CaptureSizeSelector(Size[] previewSizes, Size[] stillSizes, long maxPreviewPixels) {
+        this(previewSizes, stillSizes, stillSizes, maxPreviewPixels);
+    }
+
+    /**
+     * @param previewSizes Size[] sizes supported for the preview surface
+     * @param stillSizes Size[] sizes supported for JPEG output
+     * @param yuvSizes Size[] sizes supported for YUV_420_888 output
+     * @param maxPreviewPixels long largest preview to choose, usually the display or 1920x1080
+     */
+    public CaptureSizeSelector(Size[] previewSizes, Size[] stillSizes, Size[] yuvSizes, long maxPreviewPixels) {
+        if (0 == previewSizes.length || 0 == stillSizes.length || 0 == yuvSizes.length) {
+            throw new IllegalArgumentException("The camera reports no preview, JPEG or YUV sizes");
+        }
+        mPreviewSizes = previewSizes.clone();
+        mStillSizes = stillSizes.clone();
+        mYuvSizes = yuvSizes.clone();
+        mMaxPreviewPixels = maxPreviewPixels;
+    }
+
+    /**
+     * @param target Target to optimize for
+     * @param maxStillPixels long largest still for Target.BOUNDED, ignored otherwise
+     * @return Selection with the preview and still sizes to configure
+     */
+    public Selection select(Target target, long maxStillPixels) {
+        Size still = selectStill(mStillSizes, target, maxStillPixels, null);
+        Size yuvStill = selectStill(mYuvSizes, target, maxStillPixels, still);
+        if (null == yuvStill) {
+            yuvStill = selectStill(mYuvSizes, target, maxStillPixels, null);
+        }
+        Size preview = null;
+        if (Target.MAX_FRAME_RATE == target && 0 != still.minFrameDurationNanos) {
+            // A slower preview would hold every capture in the session to its rate
+            preview = fit(mPreviewSizes, mMaxPreviewPixels, still.minFrameDurationNanos, still);
+        }
+        if (null == preview) {
+            preview = fit(mPreviewSizes, mMaxPreviewPixels, Long.MAX_VALUE, still);
+        }
+        if (null == preview) {
+            preview = smallest(mPreviewSizes);
+        }
+        return new Selection(preview, still, yuvStill);
+    }
+
+    /**
+     * @return Size the largest size that fits, with the aspect ratio of aspectOf if any has it
+     * (otherwise the preview will be letterboxed), or null if none fits
+     */
+    private static Size fit(Size[] sizes, long maxPixels, long maxFrameDurationNanos, Size aspectOf) {
+        Size size = largest(sizes, maxPixels, maxFrameDurationNanos, aspectOf);
+        if (null == size) {
+            size = largest(sizes, maxPixels, maxFrameDurationNanos, null);
+        }
+        return size;
+    }
+
+    /**
+     * @return Size of the still for the target, or null if none has the aspect ratio of aspectOf
+     */
+    private static Size selectStill(Size[] sizes, Target target, long maxStillPixels, Size aspectOf) {
+        Size still;
+        switch (target) {
+            case MAX_FRAME_RATE:
+                still = largest(sizes, Long.MAX_VALUE, fastest(sizes), aspectOf);
+                break;
+            case BOUNDED:
+                still = largest(sizes, maxStillPixels, Long.MAX_VALUE, aspectOf);
+                break;
+            case MAX_RESOLUTION:
+            default:
+                still = largest(sizes, Long.MAX_VALUE, Long.MAX_VALUE, aspectOf);
+                break;
+        }
+        if (null == still && null == aspectOf) {
+            still = smallest(sizes);
+        }
+        return still;
+    }
+
+    /**
+     * Pick a size for an extra preview stream, such as one for frame analysis
+     *
+     * @param maxPixels long largest size to choose
+     * @param aspectOf Size whose aspect ratio is preferred, usually the preview
+     * @return Size the largest preview size that fits, or the smallest if none does
+     */
+    public Size selectPreview(long maxPixels, Size aspectOf) {
+        Size size = fit(mPreviewSizes, maxPixels, Long.MAX_VALUE, aspectOf);
+        return (null == size) ? smallest(mPreviewSizes) : size;
+    }
+
+    /**
+     * @param maxFrameDurationNanos long slowest size to choose, or Long.MAX_VALUE for any; when bounded,
+     * sizes with an unknown duration are skipped
+     * @return Size with the most pixels that fits the bounds, or null if none does
+     */
+    private static Size largest(Size[] sizes, long maxPixels, long maxFrameDurationNanos, Size aspectOf) {
+        Size best = null;
+        for (Size size : sizes) {
+            if (size.getPixels() > maxPixels) {
+                continue;
+            }
+            if (Long.MAX_VALUE != maxFrameDurationNanos
+                    && (0 == size.minFrameDurationNanos || size.minFrameDurationNanos > maxFrameDurationNanos)) {
+                continue;
+            }
+            if (null != aspectOf && !sameAspect(size, aspectOf)) {
+                continue;
+            }
+            if (null == best || size.getPixels() > best.getPixels()
+                    || (size.getPixels() == best.getPixels() && size.width > best.width)) {
+                best = size;
+            }
+        }
+        return best;
+    }
+
+    private static Size smallest(Size[] sizes) {
+        Size best = sizes[0];
+        for (Size size : sizes) {
+            if (size.getPixels() < best.getPixels()) {
+                best = size;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return long shortest known minimum frame duration of any size, or Long.MAX_VALUE if none is known
+     */
+    private static long fastest(Size[] sizes) {
+        long fastest = Long.MAX_VALUE;
+        for (Size size : sizes) {
+            if (0 != size.minFrameDurationNanos) {
+                fastest = Math.min(fastest, size.minFrameDurationNanos);
+            }
+        }
+        return fastest;
+    }
+
+    private static boolean sameAspect(Size a, Size b) {
+        double ratioA = (double) a.width / a.height;
+        double ratioB = (double) b.width / b.height;
+        return Math.abs(ratioA - ratioB) <= ASPECT_TOLERANCE * ratioB;
+    }
+}
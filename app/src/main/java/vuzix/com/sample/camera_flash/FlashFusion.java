@@ -0,0 +1,261 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fuses an ambient frame and a flash frame of the same scene, both NV21, into one image that has the
+ * detail of the flash frame without its specular highlights.
+ *
+ * Where the flash frame is below highlightStart the flash pixel is used. Towards highlightFull the
+ * ambient pixel is blended in, and at or above it the ambient pixel replaces it, so a glare spot on a
+ * reflective surface shows what was under it. The ambient luma is first scaled by a gain that matches
+ * its brightness to the flash frame outside the highlights, so the patches do not show as dark holes.
+ * Chroma follows the weight of the top left luma of its 2x2 block.
+ *
+ * Both passes, measuring the gain and blending, split the image into one strip of rows per thread. The
+ * calling thread works on the last strip itself, so threads - 1 pool threads are started. The kernels
+ * only use primitive arrays and do not allocate.
+ */
+public class FlashFusion {
+
+    // Fixed point scale of the weights and the gain
+    private static final int ONE = 256;
+    private static final int MIN_GAIN = ONE / 2;
+    private static final int MAX_GAIN = ONE * 4;
+
+    /**
+     * Work on the rows of one strip
+     */
+    private interface StripTask {
+        /**
+         * @param strip int index of the strip
+         * @param rowStart int first luma row, even
+         * @param rowEnd int luma row after the last, even unless it is the height
+         */
+        void run(int strip, int rowStart, int rowEnd);
+    }
+
+    private final int mStrips;
+    private final ExecutorService mPool;
+    private final int[] mWeights = new int[256];
+    private final long[] mFlashSums;
+    private final long[] mAmbientSums;
+    private volatile int mLastGain = ONE;
+
+    /**
+     * @param threads int number of threads, including the caller, to split each image across
+     * @param highlightStart int flash luma above which the ambient frame starts to be blended in
+     * @param highlightFull int flash luma at and above which only the ambient frame is used
+     */
+    public FlashFusion(int threads, int highlightStart, int highlightFull) {
+        mStrips = Math.max(1, threads);
+        mFlashSums = new long[mStrips];
+        mAmbientSums = new long[mStrips];
+        for (int luma = 0; luma < mWeights.length; luma++) {
+            if (luma <= highlightStart) {
+                mWeights[luma] = 0;
+            } else if (luma >= highlightFull) {
+                mWeights[luma] = ONE;
+            } else {
+                mWeights[luma] = (luma - highlightStart) * ONE / (highlightFull - highlightStart);
+            }
+        }
+        if (mStrips > 1) {
+            final AtomicInteger count = new AtomicInteger();
+            mPool = Executors.newFixedThreadPool(mStrips - 1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    return new Thread(runnable, "Flash Fusion " + count.getAndIncrement());
+                }
+            });
+        } else {
+            mPool = null;
+        }
+    }
+
+    /**
+     * Fuse one pair of frames. Only one fuse() may run at a time.
+     *
+     * @param ambient byte[] NV21 frame taken without the flash
+     * @param flash byte[] NV21 frame taken with the flash
+     * @param width int width of the frames in pixels, even
+     * @param height int height of the frames in pixels. Camera frames are even; when it is odd the last
+     *               luma row has no chroma row beneath it.
+     * @param out byte[] to receive the fused NV21 image, at least width * height * 3 / 2 bytes. May be ambient or flash.
+     * @throws InterruptedException if interrupted while waiting for the other strips
+     */
+    public void fuse(final byte[] ambient, final byte[] flash, final int width, final int height, final byte[] out)
+            throws InterruptedException {
+        runStrips(height, new StripTask() {
+            @Override
+            public void run(int strip, int rowStart, int rowEnd) {
+                sumRows(ambient, flash, width, rowStart, rowEnd, strip);
+            }
+        });
+        long flashSum = 0;
+        long ambientSum = 0;
+        for (int i = 0; i < mStrips; i++) {
+            flashSum += mFlashSums[i];
+            ambientSum += mAmbientSums[i];
+        }
+        final int gain = ambientSum == 0 ? ONE
+                : (int) Math.max(MIN_GAIN, Math.min(MAX_GAIN, flashSum * ONE / ambientSum));
+        mLastGain = gain;
+        runStrips(height, new StripTask() {
+            @Override
+            public void run(int strip, int rowStart, int rowEnd) {
+                fuseRows(ambient, flash, width, height, rowStart, rowEnd, gain, mWeights, out);
+            }
+        });
+    }
+
+    /**
+     * Run task over every strip, the last one on the calling thread, and wait for all of them
+     */
+    private void runStrips(int height, final StripTask task) throws InterruptedException {
+        // Strips start on an even row so each one owns whole chroma rows
+        final int rowsPerStrip = ((height / 2 + mStrips - 1) / mStrips) * 2;
+        final CountDownLatch done = new CountDownLatch(mStrips - 1);
+        for (int i = 0; i < mStrips - 1; i++) {
+            final int strip = i;
+            final int rowStart = Math.min(height, strip * rowsPerStrip);
+            final int rowEnd = Math.min(height, rowStart + rowsPerStrip);
+            mPool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run(strip, rowStart, rowEnd);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        int last = mStrips - 1;
+        task.run(last, Math.min(height, last * rowsPerStrip), height);
+        done.await();
+    }
+
+    /**
+     * Sum the luma of both frames over the pixels that are not highlights in the flash frame, on every
+     * other row and column
+     */
+    private void sumRows(byte[] ambient, byte[] flash, int width, int rowStart, int rowEnd, int strip) {
+        long flashSum = 0;
+        long ambientSum = 0;
+        for (int row = rowStart; row < rowEnd; row += 2) {
+            int index = row * width;
+            int end = index + width;
+            for (; index < end; index += 2) {
+                int f = flash[index] & 0xFF;
+                if (mWeights[f] == 0) {
+                    flashSum += f;
+                    ambientSum += ambient[index] & 0xFF;
+                }
+            }
+        }
+        mFlashSums[strip] = flashSum;
+        mAmbientSums[strip] = ambientSum;
+    }
+
+    /**
+     * Blend the luma rows rowStart to rowEnd, and the chroma rows beneath them, into out
+     *
+     * @param ambient byte[] NV21 frame taken without the flash
+     * @param flash byte[] NV21 frame taken with the flash
+     * @param width int width of the frames in pixels
+     * @param height int height of the frames in pixels
+     * @param rowStart int first luma row, even
+     * @param rowEnd int luma row after the last
+     * @param gain int ambient luma gain, 256 for 1.0
+     * @param weights int[] weight of the ambient frame, 0 to 256, for each flash luma
+     * @param out byte[] fused NV21 image
+     */
+    static void fuseRows(byte[] ambient, byte[] flash, int width, int height, int rowStart, int rowEnd,
+                         int gain, int[] weights, byte[] out) {
+        // Chroma first, as its weights come from the flash luma, which may be overwritten when out is flash
+        int chroma = width * height;
+        // An odd last row has no chroma row
+        int chromaEnd = Math.min(rowEnd, height & ~1);
+        for (int row = rowStart; row < chromaEnd; row += 2) {
+            int luma = row * width;
+            int index = chroma + (row / 2) * width;
+            int end = index + width;
+            for (; index < end; index += 2, luma += 2) {
+                int w = weights[flash[luma] & 0xFF];
+                if (w == 0) {
+                    out[index] = flash[index];
+                    out[index + 1] = flash[index + 1];
+                } else {
+                    out[index] = (byte) (((flash[index] & 0xFF) * (ONE - w) + (ambient[index] & 0xFF) * w) >> 8);
+                    out[index + 1] = (byte) (((flash[index + 1] & 0xFF) * (ONE - w) + (ambient[index + 1] & 0xFF) * w) >> 8);
+                }
+            }
+        }
+        for (int index = rowStart * width, end = rowEnd * width; index < end; index++) {
+            int f = flash[index] & 0xFF;
+            int w = weights[f];
+            if (w == 0) {
+                out[index] = (byte) f;
+            } else {
+                int a = Math.min(255, ((ambient[index] & 0xFF) * gain) >> 8);
+                out[index] = (byte) ((f * (ONE - w) + a * w) >> 8);
+            }
+        }
+    }
+
+    /**
+     * Stop the pool threads
+     */
+    public void shutdown() {
+        if (null != mPool) {
+            mPool.shutdown();
+        }
+    }
+
+    public int getThreads() {
+        return mStrips;
+    }
+
+    /**
+     * @return float ambient gain used by the most recent fuse()
+     */
+    public float getLastGain() {
+        return mLastGain / (float) ONE;
+    }
+}
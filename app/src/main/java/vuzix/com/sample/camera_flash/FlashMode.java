@@ -0,0 +1,102 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+/**
+ * The flash modes offered in the options menu, with the request keys each one needs.
+ *
+ * Flash and AE are only keys of the capture requests, so changing the mode never needs a new capture
+ * session. The values mirror the CameraMetadata constants so this class needs no Android types.
+ */
+public enum FlashMode {
+    /** No flash */
+    OFF(FlashMode.FLASH_MODE_OFF, FlashMode.CONTROL_AE_MODE_ON),
+    /** Fire the flash for every still, after an AE precapture sequence. FLASH_MODE is ignored by AE. */
+    ON(FlashMode.FLASH_MODE_OFF, FlashMode.CONTROL_AE_MODE_ON_ALWAYS_FLASH),
+    /** Keep the flash lit continuously */
+    TORCH(FlashMode.FLASH_MODE_TORCH, FlashMode.CONTROL_AE_MODE_ON),
+    /**
+     * Take an ambient frame and a flash frame back to back and fuse them into one image. The preview and
+     * precapture meter as for ON; each frame uses the still request of OFF or ON.
+     */
+    PAIRED(FlashMode.FLASH_MODE_OFF, FlashMode.CONTROL_AE_MODE_ON_ALWAYS_FLASH);
+
+    // These mirror CameraMetadata.FLASH_MODE_*, CONTROL_AE_MODE_* and CONTROL_AE_PRECAPTURE_TRIGGER_*
+    public static final int FLASH_MODE_OFF                  = 0;
+    public static final int FLASH_MODE_TORCH                = 2;
+    public static final int CONTROL_AE_MODE_ON              = 1;
+    public static final int CONTROL_AE_MODE_ON_ALWAYS_FLASH = 3;
+    public static final int CONTROL_AE_PRECAPTURE_TRIGGER_IDLE = 0;
+
+    /** CaptureRequest.FLASH_MODE for the preview and the still */
+    public final int flashMode;
+    /** CaptureRequest.CONTROL_AE_MODE for the preview and the still */
+    public final int aeMode;
+
+    FlashMode(int flashMode, int aeMode) {
+        this.flashMode = flashMode;
+        this.aeMode = aeMode;
+    }
+
+    /**
+     * @return true if the still fires the flash, so AE must run a precapture sequence first and a
+     * zero shutter lag frame, taken without the flash, cannot be used
+     */
+    public boolean firesFlash() {
+        return aeMode == CONTROL_AE_MODE_ON_ALWAYS_FLASH;
+    }
+
+    /**
+     * @return int CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER for the repeating preview request, which is
+     * only set, to idle, when the still fires the flash, or -1 if it is not set
+     */
+    public int getPreviewAeTrigger() {
+        return firesFlash() ? CONTROL_AE_PRECAPTURE_TRIGGER_IDLE : -1;
+    }
+
+    /**
+     * @return true if each image is fused from an ambient frame and a flash frame, so every image takes two stills
+     */
+    public boolean isPaired() {
+        return this == PAIRED;
+    }
+
+    /**
+     * @param mode FlashMode being switched to
+     * @param yuvStill boolean true if the stills are YUV whatever the flash mode
+     * @return true if switching from this mode to mode changes the format of the still output, so the
+     * capture session must be rebuilt. Every other switch only changes request keys.
+     */
+    public boolean needsNewSession(FlashMode mode, boolean yuvStill) {
+        return mode.isPaired() != isPaired() && !yuvStill;
+    }
+}
@@ -0,0 +1,365 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Joins the ambient and flash frames of a FlashMode.PAIRED capture and fuses each pair with FlashFusion.
+ *
+ * The frames of a pair are not told apart by the order they arrive in, as a lost frame would then pair
+ * the frames of two different pairs. Instead onFrameStarted() is told, as each capture starts, the frame
+ * number, sensor timestamp and whether the request fires the flash. submit() finds the frame by the
+ * timestamp of its image, and a flash frame is only fused with the ambient frame captured just before it,
+ * one frame number earlier. A frame whose partner was lost, or failed with onFrameFailed(), is dropped.
+ *
+ * submit() converts each frame to NV21 in one of a fixed number of pooled pairs, so the camera Image can
+ * be released at once. A complete pair is fused on the fusion thread, and its pool, in place of the flash
+ * frame, and the result is handed to the Listener. If every pair is still being fused when an ambient
+ * frame arrives, both frames of the new pair are dropped rather than waited for.
+ */
+public class FlashPairFuser {
+
+    public enum Result {
+        /** The ambient frame was kept until its flash frame arrives */
+        HELD,
+        /** The pair is complete and is being fused; the Listener will be called for it */
+        FUSING,
+        /** The frame was dropped */
+        DROPPED
+    }
+
+    // Frames started but not yet submitted or failed. A burst is far shorter than this.
+    private static final int MAX_FRAMES_STARTED = 32;
+    private static final long NO_FRAME = -1;
+
+    /**
+     * Interface for receiving callbacks from this fuser. Called on the fusion thread.
+     */
+    public interface Listener {
+        /**
+         * Method that is called when a pair has been fused
+         * @param nv21 byte[] fused NV21 image. It is only valid until this method returns.
+         * @param width int width of the image in pixels
+         * @param height int height of the image in pixels
+         * @param file File the flash frame was submitted with
+         */
+        void onPairFused(byte[] nv21, int width, int height, File file);
+
+        /**
+         * Method that is called when a complete pair could not be fused
+         * @param file File the flash frame was submitted with
+         */
+        void onPairDropped(File file);
+    }
+
+    private static final class Pair {
+        byte[] ambient = new byte[0];
+        byte[] flash = new byte[0];
+        int width;
+        int height;
+        long frameNumber;
+        File file;
+    }
+
+    private final FlashFusion mFusion;
+    private final Listener mListener;
+    private final BlockingQueue<Pair> mFreePairs;
+    private final ExecutorService mExecutor;
+
+    // Only used with this fuser locked
+    private byte[] mY = new byte[0];
+    private byte[] mU = new byte[0];
+    private byte[] mV = new byte[0];
+    private Pair mHeld;
+    // Frame number of the last ambient frame whose pair has been counted as dropped
+    private long mDroppedAmbient = NO_FRAME;
+    // Frame number of a failed flash frame whose ambient frame has not arrived yet
+    private long mFailedFlash = NO_FRAME;
+    private final long[] mStartedFrames = new long[MAX_FRAMES_STARTED];
+    private final long[] mStartedTimestamps = new long[MAX_FRAMES_STARTED];
+    private final boolean[] mStartedFlash = new boolean[MAX_FRAMES_STARTED];
+    private int mNextStarted;
+
+    private volatile int mPairsFused;
+    private volatile int mPairsDropped;
+    private volatile long mLastFuseNanos;
+
+    /**
+     * @param fusion FlashFusion that fuses each pair, which this fuser shuts down with itself
+     * @param pairs int number of pairs that may wait to be fused at once
+     * @param listener Listener to be called as each pair is fused
+     */
+    public FlashPairFuser(FlashFusion fusion, int pairs, Listener listener) {
+        mFusion = fusion;
+        mListener = listener;
+        mFreePairs = new ArrayBlockingQueue<Pair>(pairs);
+        for (int i = 0; i < pairs; i++) {
+            mFreePairs.add(new Pair());
+        }
+        Arrays.fill(mStartedFrames, NO_FRAME);
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "Flash Pair");
+            }
+        });
+    }
+
+    /**
+     * Record which frame of a pair a capture is, as it starts. Call for every frame of the capture, for
+     * example from CaptureCallback.onCaptureStarted(), before its image is submitted.
+     *
+     * @param frameNumber long frame number of the capture
+     * @param timestampNanos long sensor timestamp of the capture, which its image carries too
+     * @param flash boolean true for the flash frame, false for the ambient frame
+     */
+    public synchronized void onFrameStarted(long frameNumber, long timestampNanos, boolean flash) {
+        mStartedFrames[mNextStarted] = frameNumber;
+        mStartedTimestamps[mNextStarted] = timestampNanos;
+        mStartedFlash[mNextStarted] = flash;
+        mNextStarted = (mNextStarted + 1) % MAX_FRAMES_STARTED;
+    }
+
+    /**
+     * Abort the pair of a capture that failed, for example from CaptureCallback.onCaptureFailed()
+     *
+     * @param frameNumber long frame number of the failed capture
+     * @param flash boolean true if it was the flash frame, false if the ambient frame
+     */
+    public synchronized void onFrameFailed(long frameNumber, boolean flash) {
+        for (int i = 0; i < MAX_FRAMES_STARTED; i++) {
+            if (mStartedFrames[i] == frameNumber) {
+                mStartedFrames[i] = NO_FRAME;
+            }
+        }
+        if (!flash) {
+            dropPair(frameNumber);
+        } else if (null != mHeld && mHeld.frameNumber + 1 == frameNumber) {
+            releaseHeld();
+        } else if (frameNumber - 1 != mDroppedAmbient) {
+            // The ambient frame is still on its way
+            mFailedFlash = frameNumber;
+        }
+    }
+
+    /**
+     * Copy one frame of a pair. Call for every frame of the capture, after onFrameStarted() for it.
+     *
+     * @param y ByteBuffer of the luma plane
+     * @param yRowStride int row stride of the luma plane
+     * @param u ByteBuffer of the U plane
+     * @param v ByteBuffer of the V plane
+     * @param uvRowStride int row stride of the chroma planes
+     * @param uvPixelStride int pixel stride of the chroma planes, 1 for planar or 2 for semi-planar
+     * @param width int width of the frame in pixels
+     * @param height int height of the frame in pixels
+     * @param timestampNanos long sensor timestamp of the frame
+     * @param file File passed back to the Listener if this is the flash frame
+     * @return Result for the frame, DROPPED as well if onFrameStarted() was not called for it
+     */
+    public synchronized Result submit(ByteBuffer y, int yRowStride, ByteBuffer u, ByteBuffer v, int uvRowStride,
+                                      int uvPixelStride, int width, int height, long timestampNanos, File file) {
+        int started = findStarted(timestampNanos);
+        if (started < 0) {
+            return Result.DROPPED;
+        }
+        long frameNumber = mStartedFrames[started];
+        boolean flash = mStartedFlash[started];
+        mStartedFrames[started] = NO_FRAME;
+        if (!flash) {
+            // A frame still held lost its flash frame
+            releaseHeld();
+            Pair pair = (frameNumber + 1 == mFailedFlash) ? null : mFreePairs.poll();
+            if (null == pair) {
+                dropPair(frameNumber);
+                return Result.DROPPED;
+            }
+            pair.ambient = toNv21(y, yRowStride, u, v, uvRowStride, uvPixelStride, width, height, pair.ambient);
+            pair.width = width;
+            pair.height = height;
+            pair.frameNumber = frameNumber;
+            mHeld = pair;
+            return Result.HELD;
+        }
+        if (null == mHeld || mHeld.frameNumber + 1 != frameNumber
+                || mHeld.width != width || mHeld.height != height) {
+            releaseHeld();
+            dropPair(frameNumber - 1);
+            return Result.DROPPED;
+        }
+        final Pair pair = mHeld;
+        mHeld = null;
+        pair.flash = toNv21(y, yRowStride, u, v, uvRowStride, uvPixelStride, width, height, pair.flash);
+        pair.file = file;
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    fuse(pair);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pair.file = null;
+            mFreePairs.add(pair);
+            mPairsDropped++;
+            return Result.DROPPED;
+        }
+        return Result.FUSING;
+    }
+
+    /**
+     * @return int index of the started frame with this timestamp, or -1 if there is none
+     */
+    private int findStarted(long timestampNanos) {
+        for (int i = 0; i < MAX_FRAMES_STARTED; i++) {
+            if (mStartedFrames[i] != NO_FRAME && mStartedTimestamps[i] == timestampNanos) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Return the held ambient frame to the pool and count its pair as dropped
+     */
+    private void releaseHeld() {
+        if (null != mHeld) {
+            mFreePairs.add(mHeld);
+            dropPair(mHeld.frameNumber);
+            mHeld = null;
+        }
+    }
+
+    /**
+     * Count the pair of an ambient frame as dropped, once however many of its frames are dropped
+     *
+     * @param ambientFrameNumber long frame number of the ambient frame of the pair
+     */
+    private void dropPair(long ambientFrameNumber) {
+        if (ambientFrameNumber != mDroppedAmbient) {
+            mDroppedAmbient = ambientFrameNumber;
+            mPairsDropped++;
+        }
+    }
+
+    /**
+     * Fuse the pairs already queued, then stop the fusion threads. Call from your onPause()
+     */
+    public void shutdown() {
+        mExecutor.shutdown();
+        try {
+            mExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mFusion.shutdown();
+    }
+
+    private void fuse(Pair pair) {
+        File file = pair.file;
+        try {
+            long start = System.nanoTime();
+            mFusion.fuse(pair.ambient, pair.flash, pair.width, pair.height, pair.flash);
+            mLastFuseNanos = System.nanoTime() - start;
+            mPairsFused++;
+            mListener.onPairFused(pair.flash, pair.width, pair.height, file);
+        } catch (InterruptedException e) {
+            mPairsDropped++;
+            mListener.onPairDropped(file);
+        } finally {
+            pair.file = null;
+            mFreePairs.add(pair);
+        }
+    }
+
+    /**
+     * Utility to copy the planes of a YUV_420_888 frame into NV21
+     *
+     * @return byte[] holding the NV21 frame, dest if it is large enough
+     */
+    private byte[] toNv21(ByteBuffer y, int yRowStride, ByteBuffer u, ByteBuffer v, int uvRowStride,
+                          int uvPixelStride, int width, int height, byte[] dest) {
+        mY = copy(y, mY);
+        mU = copy(u, mU);
+        mV = copy(v, mV);
+        int size = width * height * 3 / 2;
+        if (dest.length < size) {
+            dest = new byte[size];
+        }
+        YuvJpegEncoder.toNv21(mY, yRowStride, mU, mV, uvRowStride, uvPixelStride, width, height, false, dest);
+        return dest;
+    }
+
+    /**
+     * @return byte[] holding the bytes of source from its position to its limit, dest if it is large enough
+     */
+    private static byte[] copy(ByteBuffer source, byte[] dest) {
+        ByteBuffer plane = source.duplicate();
+        int length = plane.remaining();
+        if (dest.length < length) {
+            dest = new byte[length];
+        }
+        plane.get(dest, 0, length);
+        return dest;
+    }
+
+    /**
+     * @return int number of pairs fused since this fuser was created
+     */
+    public int getPairsFused() {
+        return mPairsFused;
+    }
+
+    /**
+     * @return int number of pairs dropped, because every pooled pair was busy, a frame was lost or failed, or
+     * the frames did not match
+     */
+    public int getPairsDropped() {
+        return mPairsDropped;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d fused, %d dropped, last %d ms on %d threads, gain %.2f", mPairsFused, mPairsDropped,
+                mLastFuseNanos / 1000000L, mFusion.getThreads(), mFusion.getLastGain());
+    }
+}
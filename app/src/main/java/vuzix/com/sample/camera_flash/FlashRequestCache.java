@@ -0,0 +1,100 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import java.util.EnumMap;
+
+/**
+ * Keeps one prebuilt request per flash mode, so switching the flash or taking a picture only looks up
+ * a request instead of building one.
+ *
+ * A request also depends on the JPEG orientation it was built with, so it is rebuilt when asked for a
+ * different orientation. The whole cache must be invalidated when the request builders are replaced,
+ * which happens whenever the capture session is created. Kept free of Android types so it can be
+ * exercised on a plain JVM; on the device the requests are CaptureRequests.
+ */
+public class FlashRequestCache<R> {
+
+    /**
+     * Builds the request for one flash mode
+     */
+    public interface Factory<R> {
+        /**
+         * @param mode FlashMode the request is for
+         * @param jpegOrientation int JPEG orientation to put in the request, or -1 to leave it unset
+         * @return R the request
+         */
+        R build(FlashMode mode, int jpegOrientation);
+    }
+
+    private final Factory<R> mFactory;
+    private final EnumMap<FlashMode, R> mRequests = new EnumMap<FlashMode, R>(FlashMode.class);
+    private final int[] mOrientations = new int[FlashMode.values().length];
+    private int mBuilds;
+
+    /**
+     * @param factory Factory to build requests that are not cached
+     */
+    public FlashRequestCache(Factory<R> factory) {
+        mFactory = factory;
+    }
+
+    /**
+     * @param mode FlashMode of the request
+     * @param jpegOrientation int JPEG orientation of the request, or -1 if it does not carry one
+     * @return R the cached request, built first if it is not cached for this orientation
+     */
+    public synchronized R get(FlashMode mode, int jpegOrientation) {
+        R request = mRequests.get(mode);
+        if (null == request || mOrientations[mode.ordinal()] != jpegOrientation) {
+            request = mFactory.build(mode, jpegOrientation);
+            mRequests.put(mode, request);
+            mOrientations[mode.ordinal()] = jpegOrientation;
+            mBuilds++;
+        }
+        return request;
+    }
+
+    /**
+     * Forget every cached request, for example when a new session has new request builders
+     */
+    public synchronized void invalidate() {
+        mRequests.clear();
+    }
+
+    /**
+     * @return int number of requests built since this cache was created
+     */
+    public synchronized int getBuildCount() {
+        return mBuilds;
+    }
+}
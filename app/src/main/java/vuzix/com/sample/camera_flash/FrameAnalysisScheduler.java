@@ -0,0 +1,274 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands preview frames to FrameAnalyzers without ever blocking the thread that delivers them.
+ *
+ * submit() copies the luma plane once into a pooled direct buffer that every analyzer shares. Each
+ * analyzer has its own thread and a short queue. When the queue is full the oldest waiting frame is
+ * dropped in favour of the new one, so a slow analyzer always works on recent frames. The pool holds
+ * enough frames for every queue to be full while every analyzer is busy, so submit() never waits for
+ * a buffer and, once the buffers have grown to the frame size, never allocates. After shutdown() frames
+ * are ignored, and the counts and latencies of the stopped analyzers can still be read.
+ */
+public class FrameAnalysisScheduler {
+
+    private static final class Frame {
+        final AtomicInteger references = new AtomicInteger();
+        ByteBuffer luma = ByteBuffer.allocateDirect(0);
+        int rowStride;
+        int width;
+        int height;
+        long timestampNanos;
+    }
+
+    private static final Frame STOP = new Frame();
+
+    /**
+     * One analyzer with its thread, queue and statistics
+     */
+    private final class Lane implements Runnable {
+        final String name;
+        final FrameAnalyzer analyzer;
+        final BlockingQueue<Frame> pending;
+        final Thread thread;
+        final LatencyHistogram latency = new LatencyHistogram();
+        volatile long analyzed;
+        volatile long dropped;
+
+        Lane(String name, FrameAnalyzer analyzer, int depth) {
+            this.name = name;
+            this.analyzer = analyzer;
+            pending = new ArrayBlockingQueue<Frame>(depth);
+            thread = new Thread(this, "Analyzer " + name);
+        }
+
+        /**
+         * Queue a frame, dropping the oldest waiting frame if the queue is full. Only submit() calls this.
+         */
+        void offer(Frame frame) {
+            while (!pending.offer(frame)) {
+                Frame oldest = pending.poll();
+                if (null != oldest) {
+                    dropped++;
+                    release(oldest);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Frame frame;
+                try {
+                    frame = pending.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (frame == STOP) {
+                    return;
+                }
+                long start = System.nanoTime();
+                try {
+                    analyzer.analyze(frame.luma.duplicate(), frame.rowStride, frame.width, frame.height, frame.timestampNanos);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                } finally {
+                    release(frame);
+                }
+                long duration = System.nanoTime() - start;
+                synchronized (latency) {
+                    latency.record(duration);
+                }
+                analyzed++;
+            }
+        }
+    }
+
+    private final int mDepth;
+    private final List<Lane> mLanes = new ArrayList<Lane>();
+    private final ConcurrentLinkedQueue<Frame> mFreeFrames = new ConcurrentLinkedQueue<Frame>();
+    private volatile Lane[] mActiveLanes = new Lane[0];
+    // The lanes the statistics are read from, kept after shutdown() so the final counts can be reported
+    private volatile Lane[] mReportedLanes = new Lane[0];
+
+    /**
+     * @param depth int number of frames each analyzer may have waiting
+     */
+    public FrameAnalysisScheduler(int depth) {
+        mDepth = depth;
+        mFreeFrames.add(new Frame());
+    }
+
+    /**
+     * Register an analyzer and start its thread
+     *
+     * @param name String name used for the thread and in the summary
+     * @param analyzer FrameAnalyzer to call with each frame it keeps up with
+     */
+    public synchronized void addAnalyzer(String name, FrameAnalyzer analyzer) {
+        Lane lane = new Lane(name, analyzer, mDepth);
+        // Enough frames for this analyzer's full queue plus the one it is working on
+        for (int i = 0; i <= mDepth; i++) {
+            mFreeFrames.add(new Frame());
+        }
+        mLanes.add(lane);
+        mActiveLanes = mLanes.toArray(new Lane[mLanes.size()]);
+        mReportedLanes = mActiveLanes;
+        lane.thread.start();
+    }
+
+    /**
+     * Copy a frame and queue it for every analyzer. Never blocks. Call from one thread only, usually
+     * the ImageReader listener.
+     *
+     * @param luma ByteBuffer holding the Y plane between its position and limit. Its position is not changed.
+     * @param rowStride int bytes from the start of one row to the next
+     * @param width int width of the frame in pixels
+     * @param height int height of the frame in pixels
+     * @param timestampNanos long sensor timestamp of the frame
+     */
+    public void submit(ByteBuffer luma, int rowStride, int width, int height, long timestampNanos) {
+        Lane[] lanes = mActiveLanes;
+        if (0 == lanes.length) {
+            return;
+        }
+        Frame frame = mFreeFrames.poll();
+        if (null == frame) {
+            return;     // Only possible while shutting down
+        }
+        ByteBuffer source = luma.duplicate();
+        if (frame.luma.capacity() < source.remaining()) {
+            frame.luma = ByteBuffer.allocateDirect(source.remaining());
+        }
+        frame.luma.clear();
+        frame.luma.put(source);
+        frame.luma.flip();
+        frame.rowStride = rowStride;
+        frame.width = width;
+        frame.height = height;
+        frame.timestampNanos = timestampNanos;
+        frame.references.set(lanes.length);
+        for (Lane lane : lanes) {
+            lane.offer(frame);
+        }
+    }
+
+    private void release(Frame frame) {
+        if (0 == frame.references.decrementAndGet()) {
+            mFreeFrames.add(frame);
+        }
+    }
+
+    /**
+     * Let every analyzer finish the frames it has waiting, then stop their threads. Call from your onPause()
+     */
+    public synchronized void shutdown() {
+        Lane[] lanes = mActiveLanes;
+        mActiveLanes = new Lane[0];
+        mLanes.clear();
+        try {
+            for (Lane lane : lanes) {
+                lane.pending.put(STOP);
+            }
+            for (Lane lane : lanes) {
+                lane.thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return int number of registered analyzers, 0 once shut down
+     */
+    public int getAnalyzerCount() {
+        return mActiveLanes.length;
+    }
+
+    /**
+     * @param index int analyzer index, in the order they were added
+     * @return long number of frames the analyzer has finished
+     */
+    public long getFramesAnalyzed(int index) {
+        return mReportedLanes[index].analyzed;
+    }
+
+    /**
+     * @param index int analyzer index, in the order they were added
+     * @return long number of frames dropped because the analyzer was behind
+     */
+    public long getFramesDropped(int index) {
+        return mReportedLanes[index].dropped;
+    }
+
+    /**
+     * @param index int analyzer index, in the order they were added
+     * @param percentile double from 0 to 100
+     * @return long time the analyzer takes per frame at that percentile, in nanoseconds
+     */
+    public long getLatencyPercentile(int index, double percentile) {
+        LatencyHistogram latency = mReportedLanes[index].latency;
+        synchronized (latency) {
+            return latency.getPercentile(percentile);
+        }
+    }
+
+    /**
+     * Write one line per analyzer with its frame counts and p50/p95/p99 time per frame
+     *
+     * @param out Writer to receive the summary
+     */
+    public void writeSummary(Writer out) throws IOException {
+        for (Lane lane : mReportedLanes) {
+            long p50, p95, p99;
+            synchronized (lane.latency) {
+                p50 = lane.latency.getPercentile(50);
+                p95 = lane.latency.getPercentile(95);
+                p99 = lane.latency.getPercentile(99);
+            }
+            out.write(String.format("%-18s n=%-6d dropped=%-6d p50=%8.2fms p95=%8.2fms p99=%8.2fms%n",
+                    lane.name, lane.analyzed, lane.dropped, p50 / 1e6, p95 / 1e6, p99 / 1e6));
+        }
+    }
+}
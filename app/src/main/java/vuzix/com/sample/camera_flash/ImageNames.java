@@ -0,0 +1,91 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Builds the names of the image files written by this app.
+ *
+ * The directory is resolved and created once, before the generator is made, so naming a shot touches
+ * no file system. Each name carries the capture time and a sequence number from an AtomicLong, so two
+ * shots in the same millisecond, even from different threads, never get the same name. next() takes
+ * no locks. Kept free of Android types so the naming can be benchmarked on a plain JVM.
+ */
+public class ImageNames {
+
+    private final String mPrefix;
+    private final AtomicLong mSequence = new AtomicLong();
+
+    /**
+     * @param directory File directory the images are written to, which must already exist
+     */
+    public ImageNames(File directory) {
+        mPrefix = directory.getPath() + File.separator + "IMAGE_";
+    }
+
+    /**
+     * Utility to build the path of the next output image
+     *
+     * @param width int width of the image in pixels
+     * @param height int height of the image in pixels
+     * @return String full path such as directory/IMAGE_1527001234567_42_1920x1080.jpg
+     */
+    public String next(int width, int height) {
+        return next(System.currentTimeMillis(), width, height);
+    }
+
+    /**
+     * @param timeMillis long wall clock time of the capture
+     * @param width int width of the image in pixels
+     * @param height int height of the image in pixels
+     * @return String full path of the next output image, unique for this generator
+     */
+    public String next(long timeMillis, int width, int height) {
+        long sequence = mSequence.getAndIncrement();
+        return new StringBuilder(mPrefix.length() + 48)
+                .append(mPrefix)
+                .append(timeMillis).append('_')
+                .append(sequence).append('_')
+                .append(width).append('x').append(height)
+                .append(".jpg")
+                .toString();
+    }
+
+    /**
+     * @return long number of names handed out so far
+     */
+    public long getCount() {
+        return mSequence.get();
+    }
+}
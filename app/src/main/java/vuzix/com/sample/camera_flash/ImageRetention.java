@@ -0,0 +1,431 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the images directory within a maximum number of images, total size and age by deleting the
+ * oldest images first.
+ *
+ * The directory is listed once, on the retention thread, to build an index of the images ordered by
+ * capture time. After that every image written is added to the index with onImageWritten(), so the
+ * directory is never listed again, however many files it holds. An image written while the scan runs
+ * can be both listed and reported, so the scan remembers the names it found from the last
+ * WRITE_WINDOW_MILLIS and add() skips those. Only files named exactly as ImageNames
+ * names them are indexed or deleted; anything else in the directory is left alone. The directory should
+ * still be one the app owns, not a shared one other apps write to as well. The capture time comes from the
+ * name, so a file copied or touched later keeps its place in the order.
+ *
+ * All index work runs on one low priority thread, in the order it was requested. The scan(), add() and
+ * evict() methods that do the work are public so the index can be exercised directly on a plain JVM;
+ * they must not be mixed with a running retention thread.
+ */
+public class ImageRetention {
+
+    /** Pass as a limit to leave that dimension unbounded */
+    public static final long UNLIMITED = 0;
+
+    private static final String PREFIX = "IMAGE_";
+    private static final String SUFFIX = ".jpg";
+    // System.currentTimeMillis() has 13 digits from 2001 until 2286
+    private static final int TIME_DIGITS = 13;
+    private static final int MAX_SEQUENCE_DIGITS = 18;
+    // Longer than any image takes from being named to being reported written, so an image captured this
+    // long before the scan began has already been added, or never will be
+    private static final long WRITE_WINDOW_MILLIS = 60000;
+
+    /**
+     * Interface for receiving callbacks from the retention thread
+     */
+    public interface Listener {
+        /**
+         * Method that is called after an image has been deleted
+         * @param file File that was deleted
+         * @param length long size the file had, in bytes
+         */
+        void onImageEvicted(File file, long length);
+    }
+
+    /**
+     * One indexed image. Ordered by capture time, then by the sequence number of the name.
+     */
+    private static final class Entry implements Comparable<Entry> {
+        final String name;
+        final long timeMillis;
+        final long sequence;
+        final long length;
+
+        Entry(String name, long timeMillis, long sequence, long length) {
+            this.name = name;
+            this.timeMillis = timeMillis;
+            this.sequence = sequence;
+            this.length = length;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            if (timeMillis != other.timeMillis) {
+                return timeMillis < other.timeMillis ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    private final File mDirectory;
+    private final int mMaxImages;
+    private final long mMaxBytes;
+    private final long mMaxAgeMillis;
+    private final Listener mListener;
+    private final ExecutorService mExecutor;
+
+    // Only used on the retention thread, or by the caller when there is no retention thread
+    private PriorityQueue<Entry> mIndex = new PriorityQueue<Entry>();
+    private boolean mScanned;
+    // Names the scan found that onImageWritten() may still report
+    private HashSet<String> mRecentlyScanned = new HashSet<String>();
+
+    private volatile long mBytes;
+    private volatile int mImages;
+    private volatile long mEvictedImages;
+    private volatile long mEvictedBytes;
+    private volatile int mDeleteFailures;
+    private volatile long mScanNanos;
+    private volatile boolean mEnabled = true;
+
+    /**
+     * @param directory File directory the images are written to
+     * @param maxImages int most images to keep, or UNLIMITED
+     * @param maxBytes long most bytes the images may use together, or UNLIMITED
+     * @param maxAgeMillis long oldest capture, by the time in its name, to keep, or UNLIMITED
+     * @param listener Listener to be told of deleted images, or null
+     */
+    public ImageRetention(File directory, int maxImages, long maxBytes, long maxAgeMillis, Listener listener) {
+        mDirectory = directory;
+        mMaxImages = maxImages;
+        mMaxBytes = maxBytes;
+        mMaxAgeMillis = maxAgeMillis;
+        mListener = listener;
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Image Retention");
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Build the index in the background, then delete whatever is already over the limits. Call once,
+     * for example when the images directory has been resolved.
+     */
+    public void start() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                scan();
+                enforce();
+            }
+        });
+    }
+
+    /**
+     * Add a newly written image to the index and delete the oldest images if it took the directory
+     * over a limit. Returns straight away; the work is done on the retention thread.
+     *
+     * @param file File that was written
+     * @param length long size of the file, in bytes
+     */
+    public void onImageWritten(final File file, final long length) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (add(file.getName(), length)) {
+                    enforce();
+                }
+            }
+        });
+    }
+
+    /**
+     * Check the age limit again without a new image, for example when the app resumes
+     */
+    public void requestEviction() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                enforce();
+            }
+        });
+    }
+
+    /**
+     * @param enabled boolean false to keep indexing new images but delete nothing until enabled again
+     */
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+        if (enabled) {
+            requestEviction();
+        }
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Finish any queued work, then stop the retention thread
+     */
+    public void shutdown() {
+        mExecutor.shutdown();
+        try {
+            mExecutor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void enforce() {
+        if (mEnabled) {
+            evict(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * List the directory and replace the index with the images found
+     *
+     * @return int number of images indexed
+     */
+    public int scan() {
+        long start = System.nanoTime();
+        long windowStart = System.currentTimeMillis() - WRITE_WINDOW_MILLIS;
+        String[] names = mDirectory.list();
+        ArrayList<Entry> entries = new ArrayList<Entry>(null == names ? 0 : names.length);
+        HashSet<String> recent = new HashSet<String>();
+        long bytes = 0;
+        if (null != names) {
+            for (String name : names) {
+                Entry entry = parse(name, -1);
+                if (null != entry) {
+                    entries.add(entry);
+                    bytes += entry.length;
+                    if (entry.timeMillis >= windowStart) {
+                        recent.add(name);
+                    }
+                }
+            }
+        }
+        mRecentlyScanned = recent;
+        // Built from the whole list at once, which heapifies in linear time
+        mIndex = new PriorityQueue<Entry>(entries);
+        mBytes = bytes;
+        mImages = entries.size();
+        mScanned = true;
+        mScanNanos = System.nanoTime() - start;
+        return entries.size();
+    }
+
+    /**
+     * Add one image to the index. Ignored if the index has not been built yet, as the scan will find it,
+     * or if the scan already found it.
+     *
+     * @param name String file name of the image in the directory
+     * @param length long size of the file, in bytes
+     * @return true if the image was added, false if the index is not built, already holds it, or the name
+     * is not an image
+     */
+    public boolean add(String name, long length) {
+        if (!mScanned || (!mRecentlyScanned.isEmpty() && mRecentlyScanned.remove(name))) {
+            return false;
+        }
+        Entry entry = parse(name, length);
+        if (null == entry) {
+            return false;
+        }
+        mIndex.add(entry);
+        mBytes += length;
+        mImages++;
+        return true;
+    }
+
+    /**
+     * Delete the oldest images until the directory is within every limit
+     *
+     * @param nowMillis long current wall clock time, for the age limit
+     * @return int number of images removed from the index
+     */
+    public int evict(long nowMillis) {
+        int removed = 0;
+        Entry oldest;
+        while (null != (oldest = mIndex.peek()) && isOverLimit(oldest, nowMillis)) {
+            mIndex.poll();
+            mBytes -= oldest.length;
+            mImages--;
+            removed++;
+            File file = new File(mDirectory, oldest.name);
+            // A file that has already gone, say deleted by the user, is just dropped from the index.
+            // One that cannot be deleted is dropped too, so it is not retried on every shot.
+            if (file.delete()) {
+                mEvictedImages++;
+                mEvictedBytes += oldest.length;
+                if (null != mListener) {
+                    mListener.onImageEvicted(file, oldest.length);
+                }
+            } else if (file.exists()) {
+                mDeleteFailures++;
+            }
+        }
+        return removed;
+    }
+
+    private boolean isOverLimit(Entry oldest, long nowMillis) {
+        return (mMaxImages > UNLIMITED && mImages > mMaxImages)
+                || (mMaxBytes > UNLIMITED && mBytes > mMaxBytes)
+                || (mMaxAgeMillis > UNLIMITED && nowMillis - oldest.timeMillis > mMaxAgeMillis);
+    }
+
+    /**
+     * Utility to read the capture time and sequence number from an image name. Only the exact names
+     * ImageNames writes are accepted, IMAGE_time_sequence_WxH.jpg or the older IMAGE_time_WxH.jpg, with
+     * the time in milliseconds as 13 digits. Anything else, such as IMAGE_20240101_123456.jpg from
+     * another camera app, is not ours and is never indexed or deleted.
+     *
+     * @param name String file name
+     * @param length long size of the file, or -1 to read it from the file system
+     * @return Entry for the image, or null if the name is not one of ours
+     */
+    private Entry parse(String name, long length) {
+        if (!name.startsWith(PREFIX) || !name.endsWith(SUFFIX)) {
+            return null;
+        }
+        int end = name.length() - SUFFIX.length();
+        int index = PREFIX.length();
+        int timeEnd = skipDigits(name, index, end);
+        if (timeEnd - index != TIME_DIGITS || timeEnd == end || name.charAt(timeEnd) != '_') {
+            return null;
+        }
+        long time = Long.parseLong(name.substring(index, timeEnd));
+        index = timeEnd + 1;
+        long sequence = 0;
+        int next = skipDigits(name, index, end);
+        if (next > index && next < end && name.charAt(next) == '_') {
+            // Too many digits to be a sequence number of ours
+            if (next - index > MAX_SEQUENCE_DIGITS) {
+                return null;
+            }
+            sequence = Long.parseLong(name.substring(index, next));
+            index = next + 1;
+        }
+        // The older name has the size straight after the time
+        if (!isSize(name, index, end)) {
+            return null;
+        }
+        if (length < 0) {
+            length = new File(mDirectory, name).length();
+        }
+        return new Entry(name, time, sequence, length);
+    }
+
+    /**
+     * @return true if name holds exactly WxH, both non-empty runs of digits, from index to end
+     */
+    private static boolean isSize(String name, int index, int end) {
+        int width = skipDigits(name, index, end);
+        if (width == index || width == end || name.charAt(width) != 'x') {
+            return false;
+        }
+        int height = skipDigits(name, width + 1, end);
+        return height > width + 1 && height == end;
+    }
+
+    /**
+     * @return int index of the first character from index on that is not a digit, or end
+     */
+    private static int skipDigits(String name, int index, int end) {
+        char c;
+        while (index < end && (c = name.charAt(index)) >= '0' && c <= '9') {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * @return int number of images in the index
+     */
+    public int getImageCount() {
+        return mImages;
+    }
+
+    /**
+     * @return long total size of the images in the index, in bytes
+     */
+    public long getBytes() {
+        return mBytes;
+    }
+
+    public long getEvictedImages() {
+        return mEvictedImages;
+    }
+
+    public long getEvictedBytes() {
+        return mEvictedBytes;
+    }
+
+    /**
+     * @return int number of images that could not be deleted, and were dropped from the index anyway
+     */
+    public int getDeleteFailures() {
+        return mDeleteFailures;
+    }
+
+    /**
+     * @return long how long the directory scan took, in nanoseconds
+     */
+    public long getScanNanos() {
+        return mScanNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s, %d images, %d MB, %d evicted (%d MB), %d failed, scan %d ms",
+                mEnabled ? "on" : "off", mImages, mBytes / (1024 * 1024), mEvictedImages,
+                mEvictedBytes / (1024 * 1024), mDeleteFailures, mScanNanos / 1000000L);
+    }
+}
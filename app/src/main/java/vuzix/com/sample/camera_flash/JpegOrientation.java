@@ -0,0 +1,85 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+/**
+ * The JPEG orientation for each of the four display rotations of one camera.
+ *
+ * The sensor orientation and lens facing never change for a camera, so the table is computed once
+ * when the camera opens and each capture is just an array lookup.
+ */
+public class JpegOrientation {
+
+    /**
+     * Degrees for each display rotation index, Surface.ROTATION_0 through Surface.ROTATION_270
+     */
+    public static final int[] ROTATION_DEGREES = {  /* ROTATION_0 = 0 */      0,
+                                                    /* ROTATION_90 = 1; */   90,
+                                                    /* ROTATION_180 = 2; */ 180,
+                                                    /* ROTATION_270 = 3; */ 270 };
+
+    private final int[] mTable = new int[ROTATION_DEGREES.length];
+
+    /**
+     * @param sensorOrientation int CameraCharacteristics.SENSOR_ORIENTATION, a multiple of 90
+     * @param frontFacing boolean true if CameraCharacteristics.LENS_FACING is LENS_FACING_FRONT
+     */
+    public JpegOrientation(int sensorOrientation, boolean frontFacing) {
+        for (int rotation = 0; rotation < mTable.length; rotation++) {
+            mTable[rotation] = compute(sensorOrientation, frontFacing, ROTATION_DEGREES[rotation]);
+        }
+    }
+
+    /**
+     * @param displayRotation int one of Surface.ROTATION_0, ROTATION_90, ROTATION_180 or ROTATION_270
+     * @return int degree value from 0-359 to rotate the captured image to the right to view it normally
+     */
+    public int forRotation(int displayRotation) {
+        return mTable[displayRotation & 3];
+    }
+
+    /**
+     * Utility to determine the correct image rotation
+     *
+     * @param sensorOrientation int CameraCharacteristics.SENSOR_ORIENTATION
+     * @param frontFacing boolean true for a front facing lens
+     * @param displayDegrees int rotation of the display in degrees
+     * @return int degree value from 0-359 to rotate the captured image to the right to view it normally
+     */
+    public static int compute(int sensorOrientation, boolean frontFacing, int displayDegrees) {
+        int degrees = displayDegrees;
+        if(frontFacing) {
+            degrees = -degrees;
+        }
+        return (sensorOrientation - degrees + 360) % 360;
+    }
+}
@@ -0,0 +1,240 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes only the encoded part of a JPEG buffer.
+ *
+ * Many camera HALs size the JPEG plane for the largest possible image, so the encoded data is followed
+ * by padding. This walks the JPEG segments to find the end-of-image marker and writes the bytes up to
+ * it directly from the ByteBuffer, without copying them to the heap.
+ */
+public final class JpegSink {
+
+    private static final int MARKER_PREFIX = 0xFF;
+    private static final int SOI = 0xD8;
+    private static final int EOI = 0xD9;
+    private static final int SOS = 0xDA;
+    private static final int TEM = 0x01;
+    private static final int RST0 = 0xD0;
+    private static final int RST7 = 0xD7;
+    private static final int APP0 = 0xE0;
+    private static final int APP15 = 0xEF;
+    private static final int COM = 0xFE;
+    private static final int MAX_COMMENT_LENGTH = 0xFFFF - 2;
+
+    private static final int SCAN_CHUNK_SIZE = 8192;
+
+    // Scratch space for skipEntropyCodedData(), one per thread so validLength() stays thread safe
+    private static final ThreadLocal<byte[]> sScanChunk = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[SCAN_CHUNK_SIZE];
+        }
+    };
+
+    private JpegSink() {
+    }
+
+    /**
+     * Find the length of the JPEG that starts at the position of the buffer. The buffer is not modified.
+     *
+     * @param jpeg ByteBuffer holding a JPEG between its position and limit, possibly followed by padding
+     * @return int number of bytes from the position through the end-of-image marker. If the data is not a
+     * well formed JPEG, this is jpeg.remaining() so nothing is lost.
+     */
+    public static int validLength(ByteBuffer jpeg) {
+        final int start = jpeg.position();
+        final int limit = jpeg.limit();
+        if (limit - start < 4 || (jpeg.get(start) & 0xFF) != MARKER_PREFIX || (jpeg.get(start + 1) & 0xFF) != SOI) {
+            return limit - start;
+        }
+
+        int i = start + 2;
+        while (i + 1 < limit) {
+            if ((jpeg.get(i) & 0xFF) != MARKER_PREFIX) {
+                break;
+            }
+            int marker = jpeg.get(i + 1) & 0xFF;
+            if (marker == MARKER_PREFIX) {
+                i++;    // Fill byte before a marker
+                continue;
+            }
+            if (marker == EOI) {
+                return i + 2 - start;
+            }
+            if (marker == TEM || (marker >= RST0 && marker <= RST7)) {
+                i += 2;
+                continue;
+            }
+            if (i + 3 >= limit) {
+                break;
+            }
+            int segmentLength = ((jpeg.get(i + 2) & 0xFF) << 8) | (jpeg.get(i + 3) & 0xFF);
+            i += 2 + segmentLength;
+            if (marker == SOS) {
+                i = skipEntropyCodedData(jpeg, i, limit);
+            }
+        }
+        return limit - start;
+    }
+
+    /**
+     * Write the JPEG that starts at the position of the buffer, without any padding that follows it.
+     * The position of the buffer is not changed.
+     *
+     * @param jpeg ByteBuffer holding a JPEG between its position and limit
+     * @param channel FileChannel to write to
+     * @return int number of bytes written
+     * @throws IOException if the channel cannot be written
+     */
+    public static int write(ByteBuffer jpeg, FileChannel channel) throws IOException {
+        return write(jpeg, validLength(jpeg), channel);
+    }
+
+    private static int write(ByteBuffer jpeg, int length, FileChannel channel) throws IOException {
+        ByteBuffer data = jpeg.duplicate();
+        data.limit(data.position() + length);
+        while (data.hasRemaining()) {
+            channel.write(data);
+        }
+        return length;
+    }
+
+    /**
+     * Write the JPEG that starts at the position of the buffer, without any padding that follows it,
+     * with a comment (COM) segment added after the APPn segments so EXIF stays where readers expect it.
+     * The position of the buffer is not changed.
+     *
+     * @param jpeg ByteBuffer holding a JPEG between its position and limit
+     * @param comment CharSequence of ASCII text to store, or an empty one for none
+     * @param channel FileChannel to write to
+     * @return int number of bytes written
+     * @throws IOException if the channel cannot be written
+     */
+    public static int write(ByteBuffer jpeg, CharSequence comment, FileChannel channel) throws IOException {
+        return write(jpeg, validLength(jpeg), comment, channel);
+    }
+
+    /**
+     * Write the first length bytes from the position of the buffer, which the caller already knows to be
+     * the whole JPEG, with a comment (COM) segment added after the APPn segments. Use this when the
+     * padding has already been trimmed, to avoid scanning the image again. The position of the buffer is
+     * not changed.
+     *
+     * @param jpeg ByteBuffer holding a JPEG from its position
+     * @param length int number of bytes in the JPEG, as found by validLength()
+     * @param comment CharSequence of ASCII text to store, or an empty one for none
+     * @param channel FileChannel to write to
+     * @return int number of bytes written
+     * @throws IOException if the channel cannot be written
+     */
+    public static int write(ByteBuffer jpeg, int length, CharSequence comment, FileChannel channel) throws IOException {
+        int insertAt = (0 == comment.length()) ? -1 : commentOffset(jpeg, length);
+        if (insertAt < 0) {
+            return write(jpeg, length, channel);
+        }
+        int commentLength = Math.min(comment.length(), MAX_COMMENT_LENGTH);
+        ByteBuffer segment = ByteBuffer.allocate(4 + commentLength);
+        segment.put((byte) MARKER_PREFIX).put((byte) COM).putShort((short) (2 + commentLength));
+        for (int i = 0; i < commentLength; i++) {
+            segment.put((byte) comment.charAt(i));
+        }
+        segment.flip();
+        ByteBuffer head = jpeg.duplicate();
+        head.limit(head.position() + insertAt);
+        ByteBuffer tail = jpeg.duplicate();
+        tail.position(tail.position() + insertAt);
+        tail.limit(jpeg.position() + length);
+        ByteBuffer[] parts = { head, segment, tail };
+        while (tail.hasRemaining()) {
+            channel.write(parts);
+        }
+        return length + segment.limit();
+    }
+
+    /**
+     * @return int offset from the position of the buffer just past SOI and any APPn segments, or -1 if
+     * the JPEG cannot be parsed that far
+     */
+    private static int commentOffset(ByteBuffer jpeg, int length) {
+        final int start = jpeg.position();
+        final int end = start + length;
+        if (length < 4 || (jpeg.get(start) & 0xFF) != MARKER_PREFIX || (jpeg.get(start + 1) & 0xFF) != SOI) {
+            return -1;
+        }
+        int i = start + 2;
+        while (i + 3 < end && (jpeg.get(i) & 0xFF) == MARKER_PREFIX) {
+            int marker = jpeg.get(i + 1) & 0xFF;
+            if (marker < APP0 || marker > APP15) {
+                break;
+            }
+            i += 2 + (((jpeg.get(i + 2) & 0xFF) << 8) | (jpeg.get(i + 3) & 0xFF));
+        }
+        return (i <= end) ? i - start : -1;
+    }
+
+    /**
+     * @return int index of the first marker after the scan data, which is a 0xFF that is neither a
+     * stuffed zero byte nor a restart marker
+     */
+    private static int skipEntropyCodedData(ByteBuffer jpeg, int i, int limit) {
+        // The scan data is nearly all of the image, so look for 0xFF a chunk at a time with bulk
+        // gets rather than one absolute get() per byte
+        byte[] chunk = sScanChunk.get();
+        ByteBuffer view = jpeg.duplicate();
+        while (i + 1 < limit) {
+            int count = Math.min(chunk.length, limit - i);
+            view.limit(i + count);
+            view.position(i);
+            view.get(chunk, 0, count);
+            int j = 0;
+            while (j < count && chunk[j] != (byte) MARKER_PREFIX) {
+                j++;
+            }
+            i += j;
+            if (j == count || i + 1 >= limit) {
+                continue;
+            }
+            int next = jpeg.get(i + 1) & 0xFF;
+            if (next != 0 && !(next >= RST0 && next <= RST7)) {
+                return i;
+            }
+            i += 2;
+        }
+        return limit;
+    }
+}
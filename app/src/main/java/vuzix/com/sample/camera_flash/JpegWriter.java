@@ -0,0 +1,338 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes JPEG images to files on a dedicated thread, away from the camera callback threads.
+ *
+ * The bytes of each image are copied into one of a fixed number of reusable direct buffers, so the
+ * caller can release the camera Image as soon as submit() returns. When every buffer is waiting to be
+ * written, submit() blocks for a bounded time and then rejects the image. That backpressure keeps a
+ * slow flash device from growing the queue without limit. An optional Inspector sees each image just
+ * before it is written, and can add a comment to the file or discard the image. An optional
+ * StorageManager accounts for the bytes written and syncs the files as its Durability asks.
+ */
+public class JpegWriter {
+
+    /**
+     * Interface for receiving callbacks from this writer. Called on the writer thread.
+     */
+    public interface Listener {
+        /**
+         * Method that is called when an image has been written
+         * @param file File that was written
+         * @param length int number of bytes written
+         */
+        void onImageWritten(File file, int length);
+
+        /**
+         * Method that is called when the Inspector chose not to write an image
+         * @param file File that was not written
+         */
+        void onImageDiscarded(File file);
+
+        /**
+         * Method that is called when an image could not be written
+         * @param file File that was being written
+         * @param e IOException describing the failure
+         */
+        void onImageWriteFailed(File file, IOException e);
+    }
+
+    /**
+     * Looks at each image on the writer thread just before it is written
+     */
+    public interface Inspector {
+        /**
+         * @param jpeg ByteBuffer holding the JPEG. It is only valid until this method returns.
+         * @param file File the image is about to be written to
+         * @param comment StringBuilder, empty on entry. Any text appended is stored in the file as a JPEG comment.
+         * @return true to write the image, false to discard it
+         */
+        boolean inspect(ByteBuffer jpeg, File file, StringBuilder comment);
+    }
+
+    private static final class Job {
+        File file;
+        ByteBuffer buffer;
+    }
+
+    private static final Job STOP = new Job();
+
+    private final BlockingQueue<ByteBuffer> mFreeBuffers;
+    private final BlockingQueue<Job> mFreeJobs;
+    private final BlockingQueue<Job> mPendingJobs;
+    private final Listener mListener;
+    private final long mSubmitTimeoutMillis;
+    private final Thread mThread;
+    private volatile LatencyRecorder mLatencyRecorder;
+    private volatile Inspector mInspector;
+    private volatile StorageManager mStorage;
+    // Only used on the writer thread
+    private final StringBuilder mComment = new StringBuilder();
+
+    // Only changed on the writer thread
+    private volatile long mBytesWritten;
+    private volatile int mImagesWritten;
+    private volatile int mImagesDiscarded;
+    // Changed by whichever threads call submit()
+    private final AtomicInteger mImagesRejected = new AtomicInteger();
+    private final AtomicInteger mBufferAllocations = new AtomicInteger();
+
+    /**
+     * @param depth int number of images that may wait to be written at once
+     * @param initialBufferSize int size of each pooled buffer. Buffers grow if an image is larger.
+     * @param submitTimeoutMillis long how long submit() waits for a free buffer before rejecting the image
+     * @param listener Listener to be called as each image is written
+     */
+    public JpegWriter(int depth, int initialBufferSize, long submitTimeoutMillis, Listener listener) {
+        mFreeBuffers = new ArrayBlockingQueue<ByteBuffer>(depth);
+        mFreeJobs = new ArrayBlockingQueue<Job>(depth);
+        mPendingJobs = new ArrayBlockingQueue<Job>(depth + 1);
+        for (int i = 0; i < depth; i++) {
+            mFreeBuffers.add(allocate(initialBufferSize));
+            mFreeJobs.add(new Job());
+        }
+        mListener = listener;
+        mSubmitTimeoutMillis = submitTimeoutMillis;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "JPEG Writer");
+        mThread.start();
+    }
+
+    /**
+     * Copy the JPEG in source and queue it to be written to file. Any padding after the end-of-image
+     * marker is left behind. The source buffer can be reused or released as soon as this returns.
+     *
+     * @param source ByteBuffer holding the JPEG between its position and limit. Its position is not changed.
+     * @param file File to write
+     * @return true if the image was queued, false if the writer was too far behind and the image was dropped
+     * @throws InterruptedException if interrupted while waiting for a free buffer
+     */
+    public boolean submit(ByteBuffer source, File file) throws InterruptedException {
+        ByteBuffer buffer = mFreeBuffers.poll(mSubmitTimeoutMillis, TimeUnit.MILLISECONDS);
+        if (null == buffer) {
+            mImagesRejected.incrementAndGet();
+            return false;
+        }
+        // Only copy the encoded image, not the padding the HAL may leave after it
+        int length = JpegSink.validLength(source);
+        if (buffer.capacity() < length) {
+            buffer = allocate(length);
+        }
+        ByteBuffer image = source.duplicate();
+        image.limit(image.position() + length);
+        buffer.clear();
+        buffer.put(image);
+        buffer.flip();
+
+        // There is always a free job for every free buffer
+        Job job = mFreeJobs.poll();
+        job.file = file;
+        job.buffer = buffer;
+        mPendingJobs.put(job);
+        return true;
+    }
+
+    /**
+     * Write everything already queued, then stop the writer thread. Call from your onPause()
+     */
+    public void shutdown() {
+        try {
+            mPendingJobs.put(STOP);
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                Job job = nextJob();
+                if (job == STOP) {
+                    commit();
+                    return;
+                }
+                File file = job.file;
+                ByteBuffer buffer = job.buffer;
+                int length = buffer.remaining();
+                try {
+                    Inspector inspector = mInspector;
+                    mComment.setLength(0);
+                    if (null != inspector && !inspector.inspect(buffer.duplicate(), file, mComment)) {
+                        mImagesDiscarded++;
+                        mListener.onImageDiscarded(file);
+                        continue;
+                    }
+                    long start = System.nanoTime();
+                    length = write(buffer, mComment, file, mStorage);
+                    LatencyRecorder recorder = mLatencyRecorder;
+                    if (null != recorder) {
+                        recorder.recordSince(LatencyRecorder.STAGE_FILE_WRITE, start);
+                    }
+                    mBytesWritten += length;
+                    mImagesWritten++;
+                    mListener.onImageWritten(file, length);
+                } catch (IOException e) {
+                    mListener.onImageWriteFailed(file, e);
+                } finally {
+                    // Return the job first so a free buffer always has a free job
+                    job.file = null;
+                    job.buffer = null;
+                    mFreeJobs.put(job);
+                    mFreeBuffers.put(buffer);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Just stop.  Anything still queued is discarded
+        }
+    }
+
+    /**
+     * Wait for the next job. While files are waiting for a group commit, only wait until the commit is
+     * due, and commit them if no job arrives before then.
+     */
+    private Job nextJob() throws InterruptedException {
+        while (true) {
+            StorageManager storage = mStorage;
+            long delay = (null == storage) ? -1 : storage.getCommitDelayMillis();
+            if (delay < 0) {
+                return mPendingJobs.take();
+            }
+            Job job = mPendingJobs.poll(delay, TimeUnit.MILLISECONDS);
+            if (null != job) {
+                return job;
+            }
+            commit();
+        }
+    }
+
+    private void commit() {
+        StorageManager storage = mStorage;
+        if (null != storage) {
+            try {
+                storage.commit();
+            } catch (IOException e) {
+                // The files were already reported written, so all that can be done is to say so
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static int write(ByteBuffer buffer, CharSequence comment, File file, StorageManager storage) throws IOException {
+        FileOutputStream output = new FileOutputStream(file);
+        boolean handedOver = false;
+        try {
+            // submit() already trimmed the padding, so there is no need to scan the image again
+            int length = JpegSink.write(buffer, buffer.remaining(), comment, output.getChannel());
+            if (null != storage) {
+                handedOver = true;
+                storage.onFileWritten(output, length);
+            }
+            return length;
+        } finally {
+            if (!handedOver) {
+                output.close();
+            }
+        }
+    }
+
+    /**
+     * @param inspector Inspector to see each image before it is written, or null for none
+     */
+    public void setInspector(Inspector inspector) {
+        mInspector = inspector;
+    }
+
+    /**
+     * @param storage StorageManager to account for and sync each file, or null to just close it. Set it
+     *                before the first image is submitted, and leave it for the life of this writer.
+     */
+    public void setStorageManager(StorageManager storage) {
+        mStorage = storage;
+    }
+
+    /**
+     * @param recorder LatencyRecorder to receive the time each file write takes, or null for none
+     */
+    public void setLatencyRecorder(LatencyRecorder recorder) {
+        mLatencyRecorder = recorder;
+    }
+
+    private ByteBuffer allocate(int size) {
+        mBufferAllocations.incrementAndGet();
+        return ByteBuffer.allocateDirect(size);
+    }
+
+    public long getBytesWritten() {
+        return mBytesWritten;
+    }
+
+    public int getImagesWritten() {
+        return mImagesWritten;
+    }
+
+    /**
+     * @return int number of images dropped because no buffer became free in time
+     */
+    public int getImagesRejected() {
+        return mImagesRejected.get();
+    }
+
+    /**
+     * @return int number of images the Inspector chose not to write
+     */
+    public int getImagesDiscarded() {
+        return mImagesDiscarded;
+    }
+
+    /**
+     * @return int number of direct buffers allocated, including the initial pool
+     */
+    public int getBufferAllocations() {
+        return mBufferAllocations.get();
+    }
+}
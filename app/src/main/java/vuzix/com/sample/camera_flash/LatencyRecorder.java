@@ -0,0 +1,191 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Records how long each stage of the capture pipeline takes.
+ *
+ * The most recent durations of every stage are kept in a fixed ring of longs, and every duration is
+ * also added to a LatencyHistogram for p50/p95/p99 summaries. record() never allocates, so it can be
+ * called from the camera callbacks and the writer thread on every shot.
+ */
+public class LatencyRecorder {
+
+    // Stages of the pipeline, in the order a photograph goes through them
+    public static final int STAGE_SESSION_CONFIGURE  = 0;
+    public static final int STAGE_PRECAPTURE         = 1;
+    public static final int STAGE_CAPTURE_SUBMIT     = 2;
+    public static final int STAGE_IMAGE_AVAILABLE    = 3;
+    public static final int STAGE_BUFFER_COPY        = 4;
+    public static final int STAGE_FILE_WRITE         = 5;
+    public static final int STAGE_PREVIEW_RESTART    = 6;
+    public static final int STAGE_SHOT_TOTAL         = 7;
+    // Not part of a photograph: from onResume() to the first preview frame
+    public static final int STAGE_STARTUP            = 8;
+    public static final int STAGE_COUNT              = 9;
+
+    private static final String[] STAGE_NAMES = {
+            "session_configure",
+            "precapture",
+            "capture_submit",
+            "image_available",
+            "buffer_copy",
+            "file_write",
+            "preview_restart",
+            "shot_total",
+            "startup" };
+
+    private final long[][] mRing;
+    private final int[] mNext;
+    private final int[] mSize;
+    private final LatencyHistogram[] mHistograms;
+
+    /**
+     * @param capacity int number of recent durations to keep for each stage
+     */
+    public LatencyRecorder(int capacity) {
+        mRing = new long[STAGE_COUNT][capacity];
+        mNext = new int[STAGE_COUNT];
+        mSize = new int[STAGE_COUNT];
+        mHistograms = new LatencyHistogram[STAGE_COUNT];
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            mHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * @param stage int one of the STAGE_ constants
+     * @param durationNanos long time the stage took
+     */
+    public void record(int stage, long durationNanos) {
+        long[] ring = mRing[stage];
+        synchronized (ring) {
+            ring[mNext[stage]] = durationNanos;
+            mNext[stage] = (mNext[stage] + 1) % ring.length;
+            if (mSize[stage] < ring.length) {
+                mSize[stage]++;
+            }
+            mHistograms[stage].record(durationNanos);
+        }
+    }
+
+    /**
+     * Convenience for record(stage, System.nanoTime() - startNanos)
+     *
+     * @param stage int one of the STAGE_ constants
+     * @param startNanos long System.nanoTime() when the stage began
+     */
+    public void recordSince(int stage, long startNanos) {
+        record(stage, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @param stage int one of the STAGE_ constants
+     * @param percentile double from 0 to 100
+     * @return long duration in nanoseconds, or 0 if the stage has not been recorded
+     */
+    public long getPercentile(int stage, double percentile) {
+        synchronized (mRing[stage]) {
+            return mHistograms[stage].getPercentile(percentile);
+        }
+    }
+
+    public long getCount(int stage) {
+        synchronized (mRing[stage]) {
+            return mHistograms[stage].getCount();
+        }
+    }
+
+    public static String getStageName(int stage) {
+        return STAGE_NAMES[stage];
+    }
+
+    /**
+     * Write one line per stage with its count and p50/p95/p99/max in milliseconds
+     *
+     * @param out Writer to receive the summary
+     */
+    public void writeSummary(Writer out) throws IOException {
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            long count;
+            long p50, p95, p99, max;
+            synchronized (mRing[stage]) {
+                LatencyHistogram histogram = mHistograms[stage];
+                count = histogram.getCount();
+                p50 = histogram.getPercentile(50);
+                p95 = histogram.getPercentile(95);
+                p99 = histogram.getPercentile(99);
+                max = histogram.getMax();
+            }
+            out.write(String.format("%-18s n=%-6d p50=%8.2fms p95=%8.2fms p99=%8.2fms max=%8.2fms%n",
+                    STAGE_NAMES[stage], count, p50 / 1e6, p95 / 1e6, p99 / 1e6, max / 1e6));
+        }
+    }
+
+    /**
+     * Write the recent durations of every stage as CSV lines of stage name and nanoseconds, oldest first
+     *
+     * @param out Writer to receive the samples
+     */
+    public void writeSamples(Writer out) throws IOException {
+        out.write("stage,nanos\n");
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            long[] ring = mRing[stage];
+            synchronized (ring) {
+                int size = mSize[stage];
+                int first = (mNext[stage] - size + ring.length) % ring.length;
+                for (int i = 0; i < size; i++) {
+                    out.write(STAGE_NAMES[stage]);
+                    out.write(',');
+                    out.write(Long.toString(ring[(first + i) % ring.length]));
+                    out.write('\n');
+                }
+            }
+        }
+    }
+
+    /**
+     * Forget every recorded duration
+     */
+    public void reset() {
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            synchronized (mRing[stage]) {
+                mNext[stage] = 0;
+                mSize[stage] = 0;
+                mHistograms[stage].reset();
+            }
+        }
+    }
+}
@@ -33,45 +33,58 @@ package vuzix.com.sample.camera_flash;
 
 import android.Manifest;
 import android.app.Activity;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.graphics.ImageFormat;
+import android.graphics.Rect;
 import android.graphics.SurfaceTexture;
+import android.graphics.YuvImage;
 import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraDevice;
-import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.CaptureFailure;
 import android.hardware.camera2.CaptureRequest;
 import android.hardware.camera2.CaptureResult;
 import android.hardware.camera2.TotalCaptureResult;
+import android.hardware.camera2.params.StreamConfigurationMap;
 import android.media.Image;
 import android.media.ImageReader;
 import android.os.Bundle;
 import android.os.Environment;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.util.Log;
+import android.view.KeyEvent;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
+import android.view.MotionEvent;
 import android.view.Surface;
 import android.view.TextureView;
 import android.view.View;
 import android.view.WindowManager;
 import android.widget.Button;
+import android.widget.ImageView;
 import android.widget.Toast;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Sample activity to demonstrate modifying the camera flash settings for applications that want to
@@ -82,36 +95,149 @@ public class MainActivity extends Activity implements RotationListener.rotationC
     private static final long PREVIEW_TIME_MILLISECS = 2000;
     private Button mTakingButton;
     private TextureView mTextureView;
-    private String mCameraId;
+    private CameraReadiness mCameraReadiness;
+    private JpegOrientation mJpegOrientation;
+    private volatile int mDisplayRotation;
     private CameraDevice mCameraDevice;
-    private CameraManager mCameraManager;
-    private CameraCaptureSession mCameraPreviewSessions;
-    private CameraCaptureSession mCameraCaptureSessions;
+    private boolean mSurfaceAvailable;
+    private CameraCaptureSession mCameraSession;
     private CaptureRequest.Builder mCaptureRequestBuilder;
+    private CaptureRequest.Builder mStillRequestBuilder;
+    private Surface mPreviewSurface;
     private ImageReader mImageReader;
-
-    private int mFlashMode;
+    private ImageReader mZslImageReader;
+    // Sensor timestamps of stills expected on mZslImageReader, 0 when free. Only used on mBackgroundHandler.
+    private final long[] mZslStills = new long[ZSL_EXPECTED_STILLS];
+    private int mNextZslStill;
+    private ImageReader mAnalysisImageReader;
+    private FrameAnalysisScheduler mFrameAnalysis;
+    private final MeanLumaAnalyzer mMeanLumaAnalyzer = new MeanLumaAnalyzer();
+    private final SharpnessAnalyzer mSharpnessAnalyzer = new SharpnessAnalyzer(SHARPNESS_WORKING_WIDTH);
+    // Scores the Y plane of YUV stills. Only used on mBackgroundHandler.
+    private final SharpnessScorer mStillScorer = new SharpnessScorer(SHARPNESS_WORKING_WIDTH);
+    // The sharpness of each still on its way to the writer, recorded when its image arrives. A still that
+    // is dropped before the writer is never removed, so the oldest entries are let go.
+    private final LinkedHashMap<File, Double> mStillSharpness = new LinkedHashMap<File, Double>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<File, Double> eldest) {
+            return size() > SHARPNESS_PENDING_LIMIT;
+        }
+    };
+    private ZslRingBuffer mZslRingBuffer;
+    private boolean mZslRealtimeTimestamps;
+    private long mShutterNanos;
+    private ImageNames mImageNames;
+    private CaptureMetadataLog mMetadataLog;
+    private StorageManager mStorage;
+    private ImageRetention mRetention;
+    private boolean mAutoCleanup = true;
+    private StorageManager.Durability mDurability = StorageManager.Durability.GROUP_COMMIT;
+    // The capture result and the image of a still arrive on different threads in either order. Whichever
+    // comes first waits here, by sensor timestamp, for the other: a Record for a result, a String for an image.
+    private final LinkedHashMap<Long, Object> mPendingMetadata = new LinkedHashMap<Long, Object>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Object> eldest) {
+            return size() > METADATA_PENDING_LIMIT;
+        }
+    };
+    private CaptureSizeSelector mSizeSelector;
+    private CaptureSizeSelector.Target mSizeTarget = CaptureSizeSelector.Target.BOUNDED;
+    private long mMaxStillPixels = IMAGE_WIDTH * IMAGE_HEIGHT;
+    private volatile CaptureSizeSelector.Selection mCaptureSizes;
+
+    // Stage timings, all from System.nanoTime()
+    private final LatencyRecorder mLatencyRecorder = new LatencyRecorder(LATENCY_RING_SIZE);
+    private volatile long mShutterPressNanos;
+    private volatile long mSessionConfigureNanos;
+    // When the last single still or burst was submitted, 0 during continuous capture
+    private volatile long mCaptureSubmitNanos;
+    private volatile long mPreviewRestartNanos;
+
+    private ShotController mShotController;
+    private CaptureSessionManager mSessionManager;
+    private ReviewScheduler mReviewScheduler;
+    private final CaptureMetrics mCaptureMetrics = new CaptureMetrics();
+    private final PreviewRequestState mPreviewRequestState = new PreviewRequestState();
+    private AePrecaptureSequence mAePrecapture;
+
+    private volatile FlashMode mFlashMode = FlashMode.OFF;
+    private int mSessionCreations;
     private boolean mTakingPicture;
+    private boolean mBurstEnabled;
+    private boolean mZslEnabled;
+    private boolean mYuvEnabled;
+    private boolean mAnalysisEnabled;
+    private volatile boolean mDiscardBlurry;
+
+    // Review. mRecentShots is guarded by itself, mReviewIndex is only used on the UI thread.
+    private ImageView mReviewView;
+    private ThumbnailCache<File, Bitmap> mThumbnails;
+    // The thumbnail on mReviewView, which must not be decoded into while it is shown
+    private volatile Bitmap mShownThumbnail;
+    // A thumbnail dropped from mThumbnails, waiting for decodeThumbnail() to decode the next one into
+    private final AtomicReference<Bitmap> mSpareThumbnail = new AtomicReference<Bitmap>();
+    private final ArrayList<File> mRecentShots = new ArrayList<File>(REVIEW_HISTORY);
+    private int mReviewIndex = -1;
+    // True between onPause() and onResume(), so a camera that finishes opening after the pause is closed again
     private boolean mSuspending;
 
     private RotationListener mRotationListener;
     private Handler mBackgroundHandler;
-    private HandlerThread mBackgroundThread;
     private Handler mBackgroundCaptureHandler;
-    private HandlerThread mBackgroundCaptureThread;
     private Handler mHandler;
+    private JpegWriter mJpegWriter;
+    private YuvJpegEncoder mYuvEncoder;
+    private FlashPairFuser mPairFuser;
 
     private final static int TAKEPICTURE_COMPLETED      = 1001;
+    private final static int TAKEPICTURE_ABORTED        = 1002;
     private static final int REQUEST_CAMERA_PERMISSION  = 200;
 
-    private static final int FLASH_OFF                  = 2001;
-    private static final int FLASH_ON                   = 2002;
-    private static final int FLASH_TORCH                = 2003;
-
-    private final int[] RotationConversion = {  /* ROTATION_0 = 0 */      0,
-                                                /* ROTATION_90 = 1; */   90,
-                                                /* ROTATION_180 = 2; */ 180,
-                                                /* ROTATION_270 = 3; */ 270 };
+    // Largest preview, and the default bound on the still size
+    private static final int IMAGE_WIDTH                = 1920;
+    private static final int IMAGE_HEIGHT               = 1080;
+    private static final int SMALL_STILL_WIDTH          = 1280;
+    private static final int SMALL_STILL_HEIGHT         = 720;
+    private static final int BURST_COUNT                = 5;
+    private static final int STILL_QUEUE_DEPTH          = 4;
+    private static final int METADATA_PENDING_LIMIT     = 4 * STILL_QUEUE_DEPTH;
+    private static final String METADATA_LOG_NAME       = "capture_metadata.bin";
+    private static final String IMAGE_DIRECTORY_NAME    = "CameraFlash";
+    // Below the low watermark a burst becomes one still, below the critical one nothing is taken
+    private static final long STORAGE_LOW_WATERMARK_BYTES       = 200L * 1024 * 1024;
+    private static final long STORAGE_CRITICAL_WATERMARK_BYTES  = 50L * 1024 * 1024;
+    private static final int GROUP_COMMIT_FILES         = 8;
+    private static final long GROUP_COMMIT_MILLIS       = 1000;
+    // The oldest images are deleted once any of these is exceeded
+    private static final int RETENTION_MAX_IMAGES       = 2000;
+    private static final long RETENTION_MAX_BYTES       = 2L * 1024 * 1024 * 1024;
+    private static final long RETENTION_MAX_AGE_MILLIS  = 30L * 24 * 60 * 60 * 1000;
+    private static final long WRITE_SUBMIT_TIMEOUT_MILLISECS = 500;
+    private static final long AE_PRECAPTURE_TIMEOUT_MILLISECS = 1000;
+    private static final int ZSL_RING_SIZE              = 4;
+    private static final int ZSL_EXPECTED_STILLS        = 2 * BURST_COUNT;
+    private static final int LATENCY_RING_SIZE          = 256;
+    private static final int YUV_JPEG_QUALITY           = 90;
+    private static final int MAX_YUV_ENCODERS           = 4;
+    // Flash pairs: the ambient frame is blended in from FLASH_HIGHLIGHT_START and replaces the flash
+    // frame from FLASH_HIGHLIGHT_FULL, both flash luma values
+    private static final int MAX_FUSION_THREADS         = 4;
+    private static final int FUSION_PAIRS               = 2;
+    private static final int FLASH_HIGHLIGHT_START      = 200;
+    private static final int FLASH_HIGHLIGHT_FULL       = 245;
+    private static final int ANALYSIS_QUEUE_DEPTH       = 2;
+    private static final int ANALYSIS_MAX_PIXELS        = 640 * 480;
+    private static final int SHARPNESS_WORKING_WIDTH    = 480;
+    // A JPEG still is judged by a preview frame no further than this from it
+    private static final long SHARPNESS_MATCH_NANOS     = 100000000L;
+    private static final int SHARPNESS_PENDING_LIMIT    = 2 * BURST_COUNT + STILL_QUEUE_DEPTH;
+    // Starting point for typical indoor scenes. Flat scenes score lower, so tune this per workflow.
+    private static final double SHARPNESS_THRESHOLD     = 50.0;
+    private static final int REVIEW_HISTORY             = 20;
+    private static final long REVIEW_CACHE_BYTES        = 8 * 1024 * 1024;
+    private static final int THUMBNAIL_WIDTH            = 480;
+
+    private final int[] RotationConversion = JpegOrientation.ROTATION_DEGREES;
 
     /**
      * Setup the view including camera preview, implements UI code for
@@ -122,6 +248,11 @@ public class MainActivity extends Activity implements RotationListener.rotationC
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
+        // Query the camera and start its threads while the views are set up
+        mCameraReadiness = new CameraReadiness(this, mLatencyRecorder);
+        mBackgroundHandler = mCameraReadiness.getBackgroundHandler();
+        mBackgroundCaptureHandler = mCameraReadiness.getCaptureHandler();
+
         // Handle taking the picture. Disable the button while it processes.
         mTakingButton = (Button) findViewById(R.id.btn_takepicture);
         mTakingButton.setOnClickListener(new View.OnClickListener() {
@@ -130,19 +261,53 @@ public class MainActivity extends Activity implements RotationListener.rotationC
                 onClickTakePicture();
             }
         });
+        // Hold the button to shoot continuously, release it to stop
+        mTakingButton.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View v) {
+                onLongClickTakePicture();
+                return true;
+            }
+        });
+        mTakingButton.setOnTouchListener(new View.OnTouchListener() {
+            @Override
+            public boolean onTouch(View v, MotionEvent event) {
+                int action = event.getActionMasked();
+                if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) {
+                    onReleaseTakePicture();
+                }
+                return false;
+            }
+        });
 
         // Set up the preview
         mTextureView = (TextureView) findViewById(R.id.texture);
+        mReviewView = (ImageView) findViewById(R.id.review);
+        mThumbnails = new ThumbnailCache<File, Bitmap>(REVIEW_CACHE_BYTES, new ThumbnailCache.Sizer<Bitmap>() {
+            @Override
+            public int sizeOf(Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+        }, new ThumbnailCache.EvictionListener<File, Bitmap>() {
+            @Override
+            public void onEvicted(File key, Bitmap value) {
+                // Called with the cache locked, so the UI thread cannot pick this one to show meanwhile
+                if (value != mShownThumbnail && value.isMutable()) {
+                    mSpareThumbnail.set(value);
+                }
+            }
+        });
         mTextureView.setSurfaceTextureListener(new TextureView.SurfaceTextureListener() {
             @Override
             public void onSurfaceTextureAvailable(SurfaceTexture surface, int width, int height) {
-                openCamera();
+                onPreviewSurfaceAvailable(true);
             }
             @Override
             public void onSurfaceTextureSizeChanged(SurfaceTexture surface, int width, int height) {
             }
             @Override
             public boolean onSurfaceTextureDestroyed(SurfaceTexture surface) {
+                onPreviewSurfaceAvailable(false);
                 return false;
             }
 
@@ -159,6 +324,9 @@ public class MainActivity extends Activity implements RotationListener.rotationC
                     case TAKEPICTURE_COMPLETED:
                         onPictureComplete();
                         break;
+                    case TAKEPICTURE_ABORTED:
+                        onCaptureSequenceComplete();
+                        break;
                     default:
                         super.handleMessage(msg);
                         break;
@@ -168,6 +336,63 @@ public class MainActivity extends Activity implements RotationListener.rotationC
 
         // Create the listener to handle M400 orientation changes
         mRotationListener = new RotationListener();
+
+        // The capture flow, with this activity as its camera2 backend. With FlashMode.ON the still is taken
+        // only once the AE precapture metering has finished.
+        mShotController = new ShotController(new ShotController.Backend() {
+            @Override
+            public void configureSession() {
+                createCameraSession();
+            }
+            @Override
+            public void startPreview() {
+                updatePreview();
+            }
+            @Override
+            public void submitStill() {
+                capture();
+            }
+            @Override
+            public void submitBurst(int count) {
+                captureBurst(count);
+            }
+            @Override
+            public void startContinuous() {
+                startContinuousCapture();
+            }
+            @Override
+            public void stopContinuous() {
+                stopContinuousCapture();
+            }
+            @Override
+            public void triggerPrecapture() {
+                precaptureTrigger();
+            }
+            @Override
+            public void onPrecaptureFinished(boolean converged, long latencyNanos) {
+                mBackgroundCaptureHandler.removeCallbacks(mAePrecaptureTimeout);
+                Log.i(TAG, "AE precapture " + (converged ? "converged" : "timed out") + " after " + (latencyNanos / 1000000) + " ms");
+            }
+        }, AE_PRECAPTURE_TIMEOUT_MILLISECS, mLatencyRecorder);
+        mSessionManager = mShotController.getSessionManager();
+        mAePrecapture = mShotController.getAePrecapture();
+
+        // Hold the photograph on screen after it is taken without blocking the main thread
+        mReviewScheduler = new ReviewScheduler(new ReviewScheduler.Scheduler() {
+            @Override
+            public void postDelayed(Runnable runnable, long delayMillis) {
+                mHandler.postDelayed(runnable, delayMillis);
+            }
+            @Override
+            public void cancel(Runnable runnable) {
+                mHandler.removeCallbacks(runnable);
+            }
+        }, new ReviewScheduler.Listener() {
+            @Override
+            public void onReviewFinished() {
+                onReviewComplete();
+            }
+        }, PREVIEW_TIME_MILLISECS);
     }
 
     /**
@@ -175,134 +400,640 @@ public class MainActivity extends Activity implements RotationListener.rotationC
      */
     private void onClickTakePicture() {
         if(!mTakingPicture) {
+            mShutterPressNanos = System.nanoTime();
+            mShutterNanos = SystemClock.elapsedRealtimeNanos();
+            if (takeStillPicture()) {
+                mTakingPicture = true;
+                mTakingButton.setEnabled(false);
+            }
+        }
+    }
+
+    /**
+     * Called when the user holds the "Take Picture" button. Shoots continuously until it is released.
+     */
+    private void onLongClickTakePicture() {
+        mShutterPressNanos = System.nanoTime();
+        // Continuous capture only starts with plenty of room, as it is the quickest way to fill it
+        // A paired image needs its two frames in order, which a repeating request cannot promise
+        if(!mTakingPicture && !mFlashMode.isPaired()
+                && admitCapture(BURST_COUNT) == StorageManager.Admission.ACCEPT && mSessionManager.startContinuous()) {
             mTakingPicture = true;
-            takeStillPicture();
+        }
+    }
+
+    /**
+     * Called when the user lets go of the "Take Picture" button. Ends continuous shooting if it is running.
+     */
+    private void onReleaseTakePicture() {
+        if (mSessionManager.getState() == CaptureSessionManager.State.CONTINUOUS) {
             mTakingButton.setEnabled(false);
+            if (mSessionManager.stopContinuous()) {
+                onCaptureSequenceComplete();
+            }
         }
     }
 
     /**
-     * Called when processing the picture request completes
+     * Called when processing each picture of a request completes, or when one is lost
      */
     private void onPictureComplete() {
-        createCameraPreview();
-        try {
-            Thread.sleep(PREVIEW_TIME_MILLISECS); // Sleep for 3 seconds to allow the user to see the photograph
-        } catch (InterruptedException e) {
-            // Just discard the exception.  We don't care if we were aborted
+        if (mSessionManager.onFrameCompleted()) {
+            onCaptureSequenceComplete();
+        }
+    }
+
+    /**
+     * Called when every picture of a still, burst or continuous request is done. Starts the review
+     * window, which ends asynchronously in onReviewComplete()
+     */
+    private void onCaptureSequenceComplete() {
+        mLatencyRecorder.recordSince(LatencyRecorder.STAGE_SHOT_TOTAL, mShutterPressNanos);
+        Log.i(TAG, "Capture complete: " + mCaptureMetrics);
+        if (mReviewScheduler.getMode() == ReviewScheduler.Mode.HOLD) {
+            showReviewImage(getRecentShot(-1));
+        }
+        mReviewScheduler.startReview();
+    }
+
+    /**
+     * Called when the user has had time to see the photograph. Restarts the live preview and allows
+     * the next picture.
+     */
+    private void onReviewComplete() {
+        if (mReviewScheduler.getMode() == ReviewScheduler.Mode.HOLD) {
+            updatePreview();
+        }
+        if (mReviewIndex < 0) {
+            mReviewView.setVisibility(View.GONE);
         }
         mTakingButton.setEnabled(true);
         mTakingPicture = false;
     }
 
     /**
-     * Utility to start the background threads
+     * Utility to start the writer, encoder and analysis threads. The camera threads belong to
+     * mCameraReadiness and run for as long as the activity exists.
      */
     protected synchronized  void startBackgroundThread() {
-        mBackgroundThread = new HandlerThread("Camera Background");
-        mBackgroundThread.start();
-        mBackgroundHandler = new Handler(mBackgroundThread.getLooper());
+        mJpegWriter = new JpegWriter(STILL_QUEUE_DEPTH, IMAGE_WIDTH * IMAGE_HEIGHT / 2, WRITE_SUBMIT_TIMEOUT_MILLISECS, new JpegWriter.Listener() {
+            @Override
+            public void onImageWritten(File file, int length) {
+                Log.d(TAG, "Wrote: " + file.getPath());
+                if (null != mRetention) {
+                    mRetention.onImageWritten(file, length);
+                }
+                sendPictureCompleted();  // Send ourselves a message that we're completed
+            }
+            @Override
+            public void onImageDiscarded(File file) {
+                Log.w(TAG, "Discarded blurry shot: " + file.getPath());
+                mCaptureMetrics.onFrameDropped();
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(MainActivity.this, "Blurry shot discarded, please take it again", Toast.LENGTH_SHORT).show();
+                    }
+                });
+                sendPictureCompleted();
+            }
+            @Override
+            public void onImageWriteFailed(File file, IOException e) {
+                Log.e(TAG, "Could not write: " + file.getPath(), e);
+                mCaptureMetrics.onFrameDropped();
+                forgetShot(file);
+                sendPictureCompleted();
+            }
+        });
+        mJpegWriter.setLatencyRecorder(mLatencyRecorder);
+        mJpegWriter.setInspector(new SharpnessInspector());
+        if (null != mStorage) {
+            mJpegWriter.setStorageManager(mStorage);
+        }
+
+        mFrameAnalysis = new FrameAnalysisScheduler(ANALYSIS_QUEUE_DEPTH);
+        mFrameAnalysis.addAnalyzer("Mean Luma", mMeanLumaAnalyzer);
+        mFrameAnalysis.addAnalyzer("Sharpness", mSharpnessAnalyzer);
+
+        int encoders = Math.min(MAX_YUV_ENCODERS, Runtime.getRuntime().availableProcessors());
+        mYuvEncoder = new YuvJpegEncoder(encoders, STILL_QUEUE_DEPTH, WRITE_SUBMIT_TIMEOUT_MILLISECS, new YuvJpegEncoder.Encoder() {
+            @Override
+            public void encode(byte[] nv21, int width, int height, OutputStream out) throws IOException {
+                YuvImage image = new YuvImage(nv21, ImageFormat.NV21, width, height, null);
+                if (!image.compressToJpeg(new Rect(0, 0, width, height), YUV_JPEG_QUALITY, out)) {
+                    throw new IOException("YuvImage could not compress the frame");
+                }
+            }
+        }, new YuvJpegEncoder.Listener() {
+            @Override
+            public void onImageEncoded(ByteBuffer jpeg, File file) {
+                boolean queued = false;
+                try {
+                    queued = mJpegWriter.submit(jpeg, file);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (!queued) {
+                    Log.w(TAG, "Writer is behind, dropped: " + file.getPath());
+                    mCaptureMetrics.onFrameDropped();
+                    sendPictureCompleted();
+                }
+            }
+            @Override
+            public void onImageEncodeFailed(File file, IOException e) {
+                Log.e(TAG, "Could not encode: " + file.getPath(), e);
+                mCaptureMetrics.onFrameDropped();
+                sendPictureCompleted();
+            }
+        });
+
+        int fusionThreads = Math.min(MAX_FUSION_THREADS, Runtime.getRuntime().availableProcessors());
+        FlashFusion fusion = new FlashFusion(fusionThreads, FLASH_HIGHLIGHT_START, FLASH_HIGHLIGHT_FULL);
+        mPairFuser = new FlashPairFuser(fusion, FUSION_PAIRS, new FlashPairFuser.Listener() {
+            @Override
+            public void onPairFused(byte[] nv21, int width, int height, File file) {
+                boolean queued = false;
+                try {
+                    queued = submitNv21(nv21, width, height, file);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (!queued) {
+                    Log.w(TAG, "Encoder is behind, dropped: " + file.getPath());
+                    mCaptureMetrics.onFrameDropped();
+                    sendPictureCompleted();
+                }
+            }
+            @Override
+            public void onPairDropped(File file) {
+                Log.w(TAG, "Could not fuse: " + file.getPath());
+                mCaptureMetrics.onFrameDropped();
+                sendPictureCompleted();
+            }
+        });
+    }
 
-        mBackgroundCaptureThread = new HandlerThread("Camera Capture");
-        mBackgroundCaptureThread.start();
-        mBackgroundCaptureHandler = new Handler(mBackgroundCaptureThread.getLooper());
+    /**
+     * Judges every still on the writer thread before it is written, by the sharpness recorded for it when
+     * its image arrived, so nothing is decoded here. The score is stored in the JPEG as a comment such as
+     * "sharpness=123.4", and shots below SHARPNESS_THRESHOLD are logged, or discarded when that option is
+     * selected. A still with no score, because there was no luma to judge it by, is kept.
+     */
+    private class SharpnessInspector implements JpegWriter.Inspector {
+        @Override
+        public boolean inspect(ByteBuffer jpeg, File file, StringBuilder comment) {
+            Double score;
+            synchronized (mStillSharpness) {
+                score = mStillSharpness.remove(file);
+            }
+            boolean keep = true;
+            if (null != score) {
+                comment.append("sharpness=").append(Math.round(score * 10) / 10.0);
+                if (score < SHARPNESS_THRESHOLD) {
+                    Log.w(TAG, "Blurry shot, sharpness " + score + ": " + file.getPath());
+                    keep = !mDiscardBlurry;
+                }
+            }
+            if (keep) {
+                rememberShot(file);
+            }
+            return keep;
+        }
     }
 
     /**
-     * Utility to stop the background threads
+     * Utility to record the sharpness of a JPEG still, from the analyzed preview frame closest to it.
+     * Nothing is recorded unless the analysis stream is running.
+     *
+     * @param file File the still will be written to
+     * @param timestampNanos long sensor timestamp of the still
      */
-    protected synchronized void stopBackgroundThread() {
-        mBackgroundCaptureThread.quitSafely();
-        mBackgroundThread.quitSafely();
+    private void recordSharpness(File file, long timestampNanos) {
+        double score = mSharpnessAnalyzer.getScore(timestampNanos, SHARPNESS_MATCH_NANOS);
+        if (!Double.isNaN(score)) {
+            synchronized (mStillSharpness) {
+                mStillSharpness.put(file, score);
+            }
+        }
+    }
 
-        try {
-            mBackgroundCaptureThread.join();
-            mBackgroundCaptureThread = null;
-            mBackgroundCaptureHandler = null;
+    /**
+     * Utility to record the sharpness of a YUV still from its own Y plane. Called on mBackgroundHandler.
+     *
+     * @param file File the still will be written to
+     * @param image Image in YUV_420_888
+     */
+    private void recordSharpness(File file, Image image) {
+        Image.Plane luma = image.getPlanes()[0];
+        double score = mStillScorer.scoreLuma(luma.getBuffer(), luma.getRowStride(), image.getWidth(), image.getHeight());
+        synchronized (mStillSharpness) {
+            mStillSharpness.put(file, score);
+        }
+    }
 
-            mBackgroundThread.join();
-            mBackgroundThread = null;
-            mBackgroundHandler = null;
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+    /**
+     * Utility to add a shot to the review history. Its thumbnail is decoded when it is first shown.
+     * Called on the writer thread.
+     */
+    private void rememberShot(File file) {
+        synchronized (mRecentShots) {
+            if (mRecentShots.size() == REVIEW_HISTORY) {
+                mThumbnails.remove(mRecentShots.remove(0));
+            }
+            mRecentShots.add(file);
         }
     }
 
     /**
-     * Take the photograph
+     * Utility to drop a shot that was never written from the review history
      */
-    protected void takeStillPicture() {
-        if (null == mCameraDevice) {
-            Log.e(TAG, "mCameraDevice is null");
+    private void forgetShot(File file) {
+        mThumbnails.remove(file);
+        synchronized (mRecentShots) {
+            mRecentShots.remove(file);
+        }
+    }
+
+    /**
+     * @param index int position in the review history, oldest first, or negative to count back from the newest
+     * @return File of that shot, or null if there is none
+     */
+    private File getRecentShot(int index) {
+        synchronized (mRecentShots) {
+            if (index < 0) {
+                index += mRecentShots.size();
+            }
+            return (index >= 0 && index < mRecentShots.size()) ? mRecentShots.get(index) : null;
+        }
+    }
+
+    /**
+     * Show the thumbnail of a shot over the preview. A thumbnail that has been evicted from the cache is
+     * decoded from the file on the background thread and shown when it is ready. Call on the UI thread.
+     *
+     * @param file File of the shot, or null to show nothing
+     */
+    private void showReviewImage(final File file) {
+        if (null == file) {
+            return;
+        }
+        Bitmap thumbnail;
+        synchronized (mThumbnails) {
+            // Marked shown before the cache can drop it and hand it to decodeThumbnail()
+            thumbnail = mThumbnails.get(file);
+            if (null != thumbnail) {
+                mShownThumbnail = thumbnail;
+            }
+        }
+        if (null != thumbnail) {
+            mReviewView.setImageBitmap(thumbnail);
+            mReviewView.setTag(file);
+            mReviewView.setVisibility(View.VISIBLE);
+            return;
+        }
+        mReviewView.setTag(file);
+        if (null == mBackgroundHandler) {
             return;
         }
+        mCameraReadiness.post(mBackgroundHandler, new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap decoded = decodeThumbnail(file);
+                if (null == decoded) {
+                    return;
+                }
+                mThumbnails.put(file, decoded);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Only if the user has not moved on to another shot meanwhile
+                        if (!file.equals(mReviewView.getTag())) {
+                            return;
+                        }
+                        synchronized (mThumbnails) {
+                            // If the cache has dropped it since, it may already be reused
+                            if (decoded != mThumbnails.get(file)) {
+                                return;
+                            }
+                            mShownThumbnail = decoded;
+                        }
+                        mReviewView.setImageBitmap(decoded);
+                        mReviewView.setVisibility(View.VISIBLE);
+                    }
+                });
+            }
+        });
+    }
 
-        switch (mFlashMode) {
-            case FLASH_ON:
-                // This does some extra work, then falls through to createCameraStillCapture()
-                precaptureTrigger();
-                break;
-            case FLASH_OFF:
-            case FLASH_TORCH:
-                Log.i(TAG, "Capture called from takeStillPicture");
-                createCameraStillCapture();
+    /**
+     * Utility to decode a subsampled thumbnail of a written JPEG, about THUMBNAIL_WIDTH wide, into a
+     * thumbnail the cache has dropped when there is one
+     *
+     * @param file File of the JPEG
+     * @return Bitmap thumbnail, or null if the file cannot be decoded
+     */
+    private Bitmap decodeThumbnail(File file) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= THUMBNAIL_WIDTH) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        // Half the memory of ARGB_8888 per cached thumbnail
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        // Needed for inBitmap
+        options.inMutable = true;
+        Bitmap spare = mSpareThumbnail.getAndSet(null);
+        options.inBitmap = spare;
+        Bitmap thumbnail = BitmapFactory.decodeFile(file.getPath(), options);
+        if (null == thumbnail && null != spare) {
+            // decodeFile() logs and swallows the failure when the spare is too small, so let it go and retry
+            options.inBitmap = null;
+            thumbnail = BitmapFactory.decodeFile(file.getPath(), options);
+        }
+        return thumbnail;
+    }
+
+    /**
+     * Start flipping through the recent shots, newest first. DPAD left and right (a swipe on the M400
+     * touchpad) move through them, and back or the center key returns to the camera.
+     */
+    private void startReviewBrowsing() {
+        File newest = getRecentShot(-1);
+        if (null == newest) {
+            Toast.makeText(this, "No shots to review", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        synchronized (mRecentShots) {
+            mReviewIndex = mRecentShots.size() - 1;
+        }
+        showReviewImage(newest);
+    }
+
+    private void stopReviewBrowsing() {
+        mReviewIndex = -1;
+        mReviewView.setVisibility(View.GONE);
+        mReviewView.setImageBitmap(null);
+        mShownThumbnail = null;
+    }
+
+    /**
+     * Moves through the review history while it is being browsed
+     */
+    @Override
+    public boolean onKeyDown(int keyCode, KeyEvent event) {
+        if (mReviewIndex >= 0) {
+            switch (keyCode) {
+                case KeyEvent.KEYCODE_DPAD_LEFT:
+                case KeyEvent.KEYCODE_DPAD_RIGHT:
+                    int next = mReviewIndex + ((keyCode == KeyEvent.KEYCODE_DPAD_LEFT) ? -1 : 1);
+                    File file = getRecentShot(next);
+                    if (null != file) {
+                        mReviewIndex = next;
+                        showReviewImage(file);
+                    }
+                    return true;
+                case KeyEvent.KEYCODE_BACK:
+                case KeyEvent.KEYCODE_DPAD_CENTER:
+                case KeyEvent.KEYCODE_ENTER:
+                    stopReviewBrowsing();
+                    return true;
+            }
+        }
+        return super.onKeyDown(keyCode, event);
+    }
+
+    /**
+     * Utility to stop the writer, fusion, encoder and analysis threads, once the images already captured are written
+     */
+    protected synchronized void stopBackgroundThread() {
+        mFrameAnalysis.shutdown();
+        mFrameAnalysis = null;
+
+        // Let the images already captured reach the file system
+        mPairFuser.shutdown();
+        mPairFuser = null;
+        mYuvEncoder.shutdown();
+        mYuvEncoder = null;
+        mJpegWriter.shutdown();
+        mJpegWriter = null;
+    }
+
+    /**
+     * Take the photograph, if there is room for it. When storage is low a burst is cut to one still. In
+     * FlashMode.PAIRED every image takes an ambient and a flash still.
+     *
+     * @return true if the capture was started, false if there is no room or the camera is busy
+     */
+    protected boolean takeStillPicture() {
+        if (null == mCameraDevice) {
+            Log.e(TAG, "mCameraDevice is null");
+            return false;
+        }
+        int images = mBurstEnabled ? BURST_COUNT : 1;
+        switch (admitCapture(images)) {
+            case REJECT:
+                return false;
+            case DEGRADE:
+                images = 1;
                 break;
         }
+
+        // A flash still does some extra work first, then is requested on the same session
+        Log.i(TAG, "Capture called from takeStillPicture");
+        if (!mShotController.takeStill(mFlashMode, mFlashMode.isPaired() ? 2 * images : images)) {
+            Log.w(TAG, "Capture refused, the camera is busy");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Utility to check the tracked free space before a capture, telling the user if it is refused
+     *
+     * @param images int number of images the capture would write
+     * @return StorageManager.Admission for the capture
+     */
+    private StorageManager.Admission admitCapture(int images) {
+        if (null == mStorage) {
+            return StorageManager.Admission.ACCEPT;
+        }
+        StorageManager.Admission admission = mStorage.admit(images);
+        if (admission == StorageManager.Admission.REJECT) {
+            Toast.makeText(this, "Storage is full, free some space to take pictures", Toast.LENGTH_LONG).show();
+        } else if (admission == StorageManager.Admission.DEGRADE) {
+            Log.w(TAG, "Storage is low: " + mStorage);
+        }
+        return admission;
     }
 
 
     /**
-     * Creates the full path to the image file. Includes timestamp and dimensions
+     * Creates the full path to the image file. Includes timestamp, sequence number and dimensions
      *
      * @param width - int Width of image in pixels
      * @param height - int Height of image in pixels
-     * @return
+     * @return String unique path for the next image
      */
     public String getOutputImagePath(int width, int height){
-        File mediaStorageDir = new File(Environment.getExternalStorageDirectory(), "Pictures");
+        return mImageNames.next(width, height);
+    }
+
+    /**
+     * Utility to resolve, and if needed create, the app's own directory under Pictures, start tracking its free space and
+     * cleaning out old images, and open the capture metadata log beside Pictures. Done once when the camera is opened rather than for every shot.
+     * The images have a directory of their own so the cleanup can never reach photos other apps saved in Pictures.
+     */
+    private void createImageNames() {
+        File picturesDir = new File(Environment.getExternalStorageDirectory(), "Pictures");
+        File mediaStorageDir = new File(picturesDir, IMAGE_DIRECTORY_NAME);
         if (!mediaStorageDir.exists()) {
             if (!mediaStorageDir.mkdirs()) {
                 Log.e(TAG, "can not create the directory " + mediaStorageDir.getPath());
             }
         }
-        String timeStamp = String.valueOf(System.currentTimeMillis());
-        return (mediaStorageDir.getPath() + File.separator + "IMAGE_" + timeStamp + "_" + width + "x" + height + ".jpg");
+        mImageNames = new ImageNames(mediaStorageDir);
+        // Reads the free space once; after this it is tracked from the bytes written
+        mStorage = new StorageManager(mediaStorageDir, STORAGE_LOW_WATERMARK_BYTES, STORAGE_CRITICAL_WATERMARK_BYTES,
+                GROUP_COMMIT_FILES, GROUP_COMMIT_MILLIS, IMAGE_WIDTH * IMAGE_HEIGHT / 2);
+        mStorage.setDurability(mDurability);
+        if (null != mJpegWriter) {
+            mJpegWriter.setStorageManager(mStorage);
+        }
+        // Lists the directory once, in the background; after this it is told of each image written
+        mRetention = new ImageRetention(mediaStorageDir, RETENTION_MAX_IMAGES, RETENTION_MAX_BYTES, RETENTION_MAX_AGE_MILLIS,
+                new ImageRetention.Listener() {
+            @Override
+            public void onImageEvicted(File file, long length) {
+                forgetShot(file);
+                mStorage.onFileDeleted(length);
+            }
+        });
+        mRetention.setEnabled(mAutoCleanup);
+        mRetention.start();
+        try {
+            // Beside the Pictures directory, so gallery apps do not scan it
+            mMetadataLog = new CaptureMetadataLog(new File(picturesDir.getParentFile(), METADATA_LOG_NAME));
+        } catch (IOException e) {
+            Log.e(TAG, "can not open the capture metadata log", e);
+        }
     }
 
-
     /**
-     * Utility to get the screen rotation in degrees
+     * Utility to get the screen rotation in degrees, from the rotation last reported by the RotationListener
      * @return int angle. For an Activity properly in sensorLandscape, this is either 0 or 180.
      */
     private int getScreenRotationDegrees() {
-        // Get one of the 4 integer indexes of a system rotation
-        final int systemRotation = ((WindowManager)getSystemService(Context.WINDOW_SERVICE)).getDefaultDisplay().getRotation();
-        // Convert to corresponding degrees
-        return RotationConversion[systemRotation];
+        // Convert one of the 4 integer indexes of a system rotation to corresponding degrees
+        return RotationConversion[mDisplayRotation];
     }
 
     /**
-     * Utility to determine the correct image rotation
+     * Utility to determine the correct image rotation. Uses the table built when the camera was opened
+     * and the rotation last reported by the RotationListener, so no system service is called.
      * @return int degree value from 0-359 to rotate the captured image to the right to view it normally
      */
     private int rotateImageForOrientation() {
-        int sensorOrientation = 0;
-        boolean isFrontFacing = false;
-        try {
-            CameraCharacteristics cameraCharacteristics = mCameraManager.getCameraCharacteristics(mCameraId);
-            sensorOrientation = cameraCharacteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
-            isFrontFacing = (cameraCharacteristics.get(CameraCharacteristics.LENS_FACING) == CameraCharacteristics.LENS_FACING_FRONT);
-        } catch (CameraAccessException e) {
-            Log.d(TAG, "Did not get orientation. ", e);
+        if (null == mJpegOrientation) {
             return 0;
         }
-        int degrees = getScreenRotationDegrees();
-        if(isFrontFacing) {
-            degrees = -degrees;
+        return mJpegOrientation.forRotation(mDisplayRotation);
+    }
+
+    /**
+     * Utility to read the camera characteristics once, and build the JPEG orientation table from them
+     */
+    private void loadCameraCharacteristics() throws CameraAccessException {
+        CameraCharacteristics characteristics = mCameraReadiness.getCharacteristics();
+        Integer sensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+        Integer lensFacing = characteristics.get(CameraCharacteristics.LENS_FACING);
+        boolean isFrontFacing = (null != lensFacing) && (lensFacing == CameraCharacteristics.LENS_FACING_FRONT);
+        mJpegOrientation = new JpegOrientation((null == sensorOrientation) ? 0 : sensorOrientation, isFrontFacing);
+        Integer timestampSource = characteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+        mZslRealtimeTimestamps = (null != timestampSource) && (timestampSource == CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME);
+        Log.d(TAG, "Sensor front facing: " + isFrontFacing + " orientation: " + sensorOrientation);
+        if (null == mSizeSelector) {
+            mSizeSelector = createSizeSelector(characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP));
+        }
+        mCaptureSizes = mSizeSelector.select(mSizeTarget, mMaxStillPixels);
+        Log.d(TAG, "Capture sizes: " + mCaptureSizes);
+    }
+
+    /**
+     * Utility to copy the preview, JPEG and YUV sizes, with their minimum frame durations, out of the
+     * stream configuration map. Done once per camera.
+     *
+     * @param map StreamConfigurationMap of the camera
+     * @return CaptureSizeSelector for the camera
+     */
+    private static CaptureSizeSelector createSizeSelector(StreamConfigurationMap map) {
+        android.util.Size[] previewSizes = map.getOutputSizes(SurfaceTexture.class);
+        CaptureSizeSelector.Size[] previews = new CaptureSizeSelector.Size[previewSizes.length];
+        for (int i = 0; i < previewSizes.length; i++) {
+            previews[i] = new CaptureSizeSelector.Size(previewSizes[i].getWidth(), previewSizes[i].getHeight(),
+                    map.getOutputMinFrameDuration(SurfaceTexture.class, previewSizes[i]));
+        }
+        return new CaptureSizeSelector(previews, getStillSizes(map, ImageFormat.JPEG),
+                getStillSizes(map, ImageFormat.YUV_420_888), IMAGE_WIDTH * IMAGE_HEIGHT);
+    }
+
+    /**
+     * @param map StreamConfigurationMap of the camera
+     * @param format int ImageFormat of the still output
+     * @return CaptureSizeSelector.Size[] sizes the camera supports for the format
+     */
+    private static CaptureSizeSelector.Size[] getStillSizes(StreamConfigurationMap map, int format) {
+        android.util.Size[] sizes = map.getOutputSizes(format);
+        CaptureSizeSelector.Size[] stills = new CaptureSizeSelector.Size[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            stills[i] = new CaptureSizeSelector.Size(sizes[i].getWidth(), sizes[i].getHeight(),
+                    map.getOutputMinFrameDuration(format, sizes[i]));
+        }
+        return stills;
+    }
+
+    /**
+     * Switch to the sizes chosen for a new target. The output surfaces are sized when they are created,
+     * so they are released and the session is rebuilt.
+     *
+     * @param target CaptureSizeSelector.Target to optimize for
+     * @param maxStillPixels long largest still for Target.BOUNDED
+     */
+    private synchronized void setCaptureSizeTarget(CaptureSizeSelector.Target target, long maxStillPixels) {
+        mSizeTarget = target;
+        mMaxStillPixels = maxStillPixels;
+        if (null == mSizeSelector) {
+            return;     // The camera is not open yet. loadCameraCharacteristics() will use the new target.
+        }
+        CaptureSizeSelector.Selection sizes = mSizeSelector.select(target, maxStillPixels);
+        if (sizes.still == mCaptureSizes.still && sizes.yuvStill == mCaptureSizes.yuvStill
+                && sizes.preview == mCaptureSizes.preview) {
+            return;
+        }
+        Log.d(TAG, "Capture sizes: " + sizes);
+        mCaptureSizes = sizes;
+        mZslRingBuffer = null;  // Its slots are sized for the old still
+        recreateCameraOutputs();
+    }
+
+    /**
+     * Release the image readers and rebuild the session, for changes to the size or format of the
+     * still output. Unlike createCameraPreview(), the outputs are created again too.
+     */
+    private synchronized void recreateCameraOutputs() {
+        mSessionManager.close();
+        mPreviewRequestState.onStopped();
+        if (null != mCameraSession) {
+            mCameraSession.close();
+            mCameraSession = null;
         }
-        degrees = (sensorOrientation - degrees + 360) % 360;
-        Log.d(TAG, "Sensor front facing: " + isFrontFacing + " orientation: " + sensorOrientation + " jpeg orientation: " + degrees);
-        return degrees;
+        closeStillImageReader();
+        closeZslImageReader();
+        closeAnalysisImageReader();
+        mSessionManager.open();
     }
 
     /**
@@ -313,105 +1044,303 @@ public class MainActivity extends Activity implements RotationListener.rotationC
     @Override
     public void onRotationChanged(int newRotation) {
         //Log.d(TAG, "Rotation changed to " + Integer.toString(newRotation));
-        updatePreview();
+        mDisplayRotation = newRotation;
+        // Only the view transform depends on the rotation, so the repeating request is left running
+        // unless it is producing zero shutter lag JPEGs, whose orientation has changed
+        updatePreviewRotation();
+        if (null != mZslImageReader) {
+            updatePreviewRequest();
+        }
     }
 
     /**
-     * Create the camera preview
+     * Create the one capture session used for the preview and for every photograph.
+     *
+     * The preview surface and the still ImageReader are both outputs of this session, so taking a
+     * picture is just a capture request and never requires the session to be rebuilt. With zero shutter
+     * lag the JPEG output that fills the ring is the only still output, and stills are taken on it too, so
+     * the session is at most PRIV PREVIEW + YUV PREVIEW (analysis) + JPEG MAXIMUM. That is in the table of
+     * stream combinations every camera device supports, where two JPEG MAXIMUM outputs are not. Zero
+     * shutter lag is not used while the stills are YUV.
      */
-    protected synchronized void createCameraPreview() {
+    private synchronized void createCameraSession() {
         try {
             SurfaceTexture texture = mTextureView.getSurfaceTexture();
             if ( (null == texture) || (null==mCameraDevice) ){
+                mSessionManager.onSessionConfigureFailed();
                 return;
             }
-            texture.setDefaultBufferSize(1920, 1080);// preview size
-            Surface surface = new Surface(texture);
-
-            mCaptureRequestBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
-            mCaptureRequestBuilder.addTarget(surface);
+            CaptureSizeSelector.Size preview = mCaptureSizes.preview;
+            texture.setDefaultBufferSize(preview.width, preview.height);
+            if (null == mPreviewSurface) {
+                mPreviewSurface = new Surface(texture);
+            }
+            List<Surface> outputSurfaces = new ArrayList<Surface>(3);
+            outputSurfaces.add(mPreviewSurface);
+            Surface stillSurface;
+            if (mZslEnabled && !mYuvEnabled && !mFlashMode.isPaired()) {
+                // Every preview frame fills the zero shutter lag ring buffer, and stills come on the same output
+                closeStillImageReader();
+                if (null == mZslImageReader) {
+                    mZslImageReader = createZslImageReader();
+                }
+                stillSurface = mZslImageReader.getSurface();
+                mCaptureRequestBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_ZERO_SHUTTER_LAG);
+                mCaptureRequestBuilder.addTarget(mPreviewSurface);
+                mCaptureRequestBuilder.addTarget(stillSurface);
+            } else {
+                closeZslImageReader();
+                if (null == mImageReader) {
+                    mImageReader = createStillImageReader();
+                }
+                stillSurface = mImageReader.getSurface();
+                mCaptureRequestBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+                mCaptureRequestBuilder.addTarget(mPreviewSurface);
+            }
+            outputSurfaces.add(stillSurface);
+            if (isAnalysisStreamNeeded()) {
+                // A small YUV copy of every preview frame for the frame analyzers
+                if (null == mAnalysisImageReader) {
+                    mAnalysisImageReader = createAnalysisImageReader();
+                }
+                outputSurfaces.add(mAnalysisImageReader.getSurface());
+                mCaptureRequestBuilder.addTarget(mAnalysisImageReader.getSurface());
+            } else {
+                closeAnalysisImageReader();
+            }
 
-            mCameraDevice.createCaptureSession(Arrays.asList(surface), new CameraCaptureSession.StateCallback(){
+            // Add an output surface to view the result of the photograph in place of the preview,
+            // and one to write the image to a file
+            mStillRequestBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
+            mStillRequestBuilder.addTarget(mPreviewSurface);
+            mStillRequestBuilder.addTarget(stillSurface);
+            // The cached requests were built from the old builders
+            mPreviewRequests.invalidate();
+            mStillRequests.invalidate();
+
+            mSessionConfigureNanos = System.nanoTime();
+            mSessionCreations++;
+            mCameraDevice.createCaptureSession(outputSurfaces, new CameraCaptureSession.StateCallback(){
                 @Override
                 public void onConfigured(CameraCaptureSession session) {
                     if (null == mCameraDevice) {
                         return;
                     }
-                    mCameraPreviewSessions = session;
-                    updatePreview();
+                    mLatencyRecorder.recordSince(LatencyRecorder.STAGE_SESSION_CONFIGURE, mSessionConfigureNanos);
+                    mCameraSession = session;
+                    mPreviewRequestState.onStopped();
+                    mSessionManager.onSessionConfigured();
                 }
                 @Override
                 public void onConfigureFailed(CameraCaptureSession cameraCaptureSession) {
+                    mSessionManager.onSessionConfigureFailed();
                     Toast.makeText(MainActivity.this, "Configuration change", Toast.LENGTH_SHORT).show();
                 }
             }, mBackgroundHandler);
         } catch (CameraAccessException e) {
+            mSessionManager.onSessionConfigureFailed();
             e.printStackTrace();
         }
     }
 
     /**
-     * This activates the camera.  It includes permissions checks. If successful it then opens the preview.
+     * Recreate the capture session, for changes that the running session cannot absorb
+     */
+    protected void createCameraPreview() {
+        mSessionManager.close();
+        mSessionManager.open();
+    }
+
+    /**
+     * This activates the camera.  It includes permissions checks. If successful the camera is opened on the
+     * background thread, while the TextureView may still be creating its surface.
      */
     private synchronized void openCamera() {
-        mCameraManager = (CameraManager) getSystemService(Context.CAMERA_SERVICE);
         Log.i(TAG, "is camera open");
-        try {
-            // The M400 only has one camera, so the index can be constant
-            mCameraId = mCameraManager.getCameraIdList()[0];
-            // Add permission for camera, let user grant the permission.
-            if (checkSelfPermission(Manifest.permission.CAMERA) != PackageManager.PERMISSION_GRANTED && checkSelfPermission(Manifest.permission.WRITE_EXTERNAL_STORAGE) != PackageManager.PERMISSION_GRANTED) {
-                requestPermissions(new String[]{Manifest.permission.CAMERA, Manifest.permission.WRITE_EXTERNAL_STORAGE}, REQUEST_CAMERA_PERMISSION);
-                return;
-            }
-            // Open the camera and provide the required callbacks
-            mCameraManager.openCamera(mCameraId, new CameraDevice.StateCallback() {
-                @Override
-                public void onOpened(CameraDevice camera) {
-                    Log.i(TAG, "onOpened");
-                    mCameraDevice = camera;
-                    mFlashMode = FLASH_OFF;
-                    createCameraPreview();   // Only open the preview if the camera is opened successfully
-                }
-                @Override
-                public void onDisconnected(CameraDevice camera) {
-                    mCameraDevice.close();
-                }
-                @Override
-                public void onError(CameraDevice camera, int error) {
-                    if(null != mCameraDevice){
-                        mCameraDevice.close();
-                        mCameraDevice = null;
+        mDisplayRotation = ((WindowManager)getSystemService(Context.WINDOW_SERVICE)).getDefaultDisplay().getRotation();
+        // Add permission for camera, let user grant the permission.
+        if (checkSelfPermission(Manifest.permission.CAMERA) != PackageManager.PERMISSION_GRANTED && checkSelfPermission(Manifest.permission.WRITE_EXTERNAL_STORAGE) != PackageManager.PERMISSION_GRANTED) {
+            requestPermissions(new String[]{Manifest.permission.CAMERA, Manifest.permission.WRITE_EXTERNAL_STORAGE}, REQUEST_CAMERA_PERMISSION);
+            return;
+        }
+        if (null == mImageNames) {
+            createImageNames();
+        }
+        mCameraReadiness.post(mBackgroundHandler, mOpenCameraDevice);
+    }
+
+    /**
+     * Reads the cached characteristics and opens the device, on the background thread
+     */
+    private final Runnable mOpenCameraDevice = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                loadCameraCharacteristics();
+                // Open the camera and provide the required callbacks
+                mCameraReadiness.openCamera(new CameraDevice.StateCallback() {
+                    @Override
+                    public void onOpened(CameraDevice camera) {
+                        Log.i(TAG, "onOpened");
+                        onCameraOpened(camera);
                     }
-                }
-            }, null);
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
-            mCameraManager = null;
+                    @Override
+                    public void onDisconnected(CameraDevice camera) {
+                        camera.close();
+                    }
+                    @Override
+                    public void onError(CameraDevice camera, int error) {
+                        camera.close();
+                        onCameraLost(camera);
+                    }
+                });
+            } catch (CameraAccessException e) {
+                e.printStackTrace();
+            } catch (SecurityException e) {
+                e.printStackTrace();
+            }
+        }
+    };
+
+    /**
+     * Keep the opened camera, and open the session if the preview surface is ready too. A camera that
+     * finishes opening after onPause() is closed straight away.
+     */
+    private synchronized void onCameraOpened(CameraDevice camera) {
+        if (mSuspending) {
+            camera.close();
+            return;
+        }
+        mCameraDevice = camera;
+        mFlashMode = FlashMode.OFF;
+        openSessionIfReady();
+    }
+
+    private synchronized void onCameraLost(CameraDevice camera) {
+        if (mCameraDevice == camera) {
             mCameraDevice = null;
-        }catch(SecurityException e){
-            e.printStackTrace();
         }
     }
 
     /**
-     * Utility to set the flash modes and start the preview
+     * Called on the UI thread when the TextureView surface is created or destroyed
      */
-    protected void updatePreview() {
-        if(null == mCameraDevice) {
-            Log.e(TAG, "updatePreview error, return");
+    private synchronized void onPreviewSurfaceAvailable(boolean available) {
+        mSurfaceAvailable = available;
+        if (available) {
+            openSessionIfReady();
         }
-        try {
-            setPreviewFlashMode();
+    }
+
+    /**
+     * The camera and the preview surface are prepared in parallel, so whichever is ready last opens the
+     * session. mSessionManager ignores the call if a session is already open.
+     */
+    private synchronized void openSessionIfReady() {
+        if (null != mCameraDevice && mSurfaceAvailable) {
+            mSessionManager.open();
+        }
+    }
+
+    /**
+     * Utility to set the preview rotation, the flash modes and start the preview
+     */
+    protected void updatePreview() {
+        updatePreviewRotation();
+        updatePreviewRequest();
+    }
+
+    /**
+     * Utility to rotate the preview to match the screen. This is only a view transform, so it never
+     * touches the capture session.
+     */
+    protected void updatePreviewRotation() {
+        runOnUiThread(mApplyPreviewRotation);
+    }
+
+    private final Runnable mApplyPreviewRotation = new Runnable() {
+        @Override
+        public void run() {
             int rotation = -getScreenRotationDegrees();
             mTextureView.setRotation(rotation);
             Log.d(TAG, "Screen rotated. Setting preview rotation to: " + rotation);
-            mCameraPreviewSessions.setRepeatingRequest(mCaptureRequestBuilder.build(), null, mBackgroundCaptureHandler);
-        } catch (CameraAccessException e) {
+        }
+    };
+
+    /**
+     * Utility to set the flash modes and start the repeating preview request. The request is only
+     * submitted if the preview is not running or its parameters have changed.
+     */
+    protected void updatePreviewRequest() {
+        if(null == mCameraDevice || null == mCameraSession) {
+            Log.e(TAG, "updatePreview error, return");
+            return;
+        }
+        final int jpegOrientation = getPreviewJpegOrientation();
+        if (!mPreviewRequestState.shouldSubmit(mFlashMode, jpegOrientation)) {
+            return;
+        }
+        try {
+            CaptureRequest request = mPreviewRequests.get(mFlashMode, jpegOrientation);
+            mPreviewRestartNanos = System.nanoTime();
+            mCameraSession.setRepeatingRequest(request, mPreviewCaptureCallback, mBackgroundCaptureHandler);
+            mPreviewRequestState.onSubmitted(mFlashMode, jpegOrientation);
+        } catch (CameraAccessException | IllegalStateException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * @return int number of times the repeating preview request has been submitted, for example to
+     * confirm that rotating the M400 does not restart it
+     */
+    public int getPreviewRequestSubmissionCount() {
+        return mPreviewRequestState.getSubmissionCount();
+    }
+
+    /**
+     * @return int number of capture sessions created since the activity started, for example to
+     * confirm that changing the flash mode does not rebuild the session
+     */
+    public int getSessionCreationCount() {
+        return mSessionCreations;
+    }
+
+    /**
+     * Utility to get the still request for the current flash mode and image orientation
+     *
+     * @return CaptureRequest for one still
+     */
+    private CaptureRequest buildStillRequest() {
+        // Properly account for the sensor rotation
+        return mStillRequests.get(mFlashMode, rotateImageForOrientation());
+    }
+
+    /**
+     * Change the flash mode. Flash and AE are only request keys, so the running session is kept and the
+     * repeating preview request is swapped for the cached one of the new mode. While a picture is being
+     * taken the preview is restarted later, with the new mode, when the picture is done. Only switching to
+     * or from FlashMode.PAIRED, without YUV capture, rebuilds the session, as the still output changes format.
+     * mPreviewRequestState decides which of these a switch needs.
+     *
+     * @param mode FlashMode to use from now on
+     */
+    private void setFlashMode(FlashMode mode) {
+        PreviewRequestState.FlashSwitch change = mPreviewRequestState.switchFlashMode(mFlashMode, mode, mYuvEnabled,
+                mTakingPicture, getPreviewJpegOrientation());
+        mFlashMode = mode;
+        switch (change) {
+            case NEW_SESSION:
+                recreateCameraOutputs();
+                break;
+            case SUBMIT:
+                updatePreviewRequest();
+                break;
+            default:
+                break;
+        }
+    }
+
     /**
      * Utility to set the flash modes and capture the image.
      *
@@ -419,232 +1348,811 @@ public class MainActivity extends Activity implements RotationListener.rotationC
      */
     private void capture(){
         try {
-            setCaptureFlashMode();
-            // Properly account for the sensor rotation
-            int degrees = rotateImageForOrientation();
-            mCaptureRequestBuilder.set(CaptureRequest.JPEG_ORIENTATION, degrees);
-            mCameraCaptureSessions.capture(mCaptureRequestBuilder.build(), null, mBackgroundCaptureHandler);
-        } catch (CameraAccessException e) {
+            mCaptureMetrics.onSequenceStarted(System.nanoTime());
+            if (mReviewScheduler.getMode() == ReviewScheduler.Mode.HOLD) {
+                // Leave the photograph as the last frame on the preview surface until the review ends
+                mCameraSession.stopRepeating();
+                mPreviewRequestState.onStopped();
+            }
+        } catch (CameraAccessException | IllegalStateException e) {
             e.printStackTrace();
+            onCaptureSubmitFailed();
+            return;
         }
+        if (!mFlashMode.firesFlash() && null != mZslImageReader) {
+            // Handing the frame to the writer can wait for a free buffer, and this may be the UI thread
+            mCameraReadiness.post(mBackgroundCaptureHandler, mCaptureFromZsl);
+            return;
+        }
+        submitStill();
     }
 
+    /**
+     * Takes the photograph from the zero shutter lag ring buffer on the capture thread, falling back
+     * to a regular capture if no frame could be handed to the writer
+     */
+    private final Runnable mCaptureFromZsl = new Runnable() {
+        @Override
+        public void run() {
+            if (!captureFromZsl()) {
+                submitStill();
+            }
+        }
+    };
 
     /**
-     * Sets up the camera device with all the required call-backs, and initiates the capture
+     * Utility to submit the still request of the current flash mode
      */
-    private void createCameraStillCapture(){
+    private void submitStill() {
+        // The session may have closed while a zero shutter lag frame was being taken
+        CameraCaptureSession session = mCameraSession;
+        if (null == session) {
+            onCaptureSubmitFailed();
+            return;
+        }
         try {
-            final int imageWidth =1920;        // image size
-            final int imageHeight =1080;       // image size
+            CaptureRequest request = buildStillRequest();
+            mCaptureSubmitNanos = System.nanoTime();
+            session.capture(request, mStillCaptureCallback, mBackgroundCaptureHandler);
+            mLatencyRecorder.recordSince(LatencyRecorder.STAGE_CAPTURE_SUBMIT, mShutterPressNanos);
+        } catch (CameraAccessException | IllegalStateException e) {
+            e.printStackTrace();
+            onCaptureSubmitFailed();
+        }
+    }
 
-            List<Surface> outputSurfaces = new ArrayList<Surface>();
-            // Add an output surface to view the result of the photograph in place of the preview
-            SurfaceTexture texture = mTextureView.getSurfaceTexture();
-            texture.setDefaultBufferSize(1920, 1080); // preview size
-            Surface surface = new Surface(texture);
-            outputSurfaces.add(surface);
+    /**
+     * Take the photograph from the zero shutter lag ring buffer, choosing the frame closest to the
+     * moment the button was pressed. The flash cannot have fired for these frames, so this is only
+     * used with FlashMode.OFF and FlashMode.TORCH. Called on the capture thread, as the writer may
+     * block while it waits for a free buffer. A frame the writer refuses stays in the ring.
+     *
+     * @return true if a frame was handed to the writer, false if a regular capture is needed
+     */
+    private boolean captureFromZsl() {
+        ZslRingBuffer ring = mZslRingBuffer;
+        if (null == ring) {
+            return false;
+        }
+        CaptureSizeSelector.Size still = mCaptureSizes.still;
+        final File file = new File(getOutputImagePath(still.width, still.height));
+        // Without a realtime sensor clock the press cannot be matched, so use the newest frame
+        long shutterNanos = mZslRealtimeTimestamps ? mShutterNanos : Long.MAX_VALUE;
+        try {
+            return ring.takeClosest(shutterNanos, new ZslRingBuffer.Consumer() {
+                @Override
+                public boolean accept(ByteBuffer jpeg, long timestampNanos) throws InterruptedException {
+                    long copyStart = System.nanoTime();
+                    mCaptureMetrics.onFrameDelivered(copyStart);
+                    recordSharpness(file, timestampNanos);
+                    boolean queued = mJpegWriter.submit(jpeg, file);
+                    mLatencyRecorder.recordSince(LatencyRecorder.STAGE_BUFFER_COPY, copyStart);
+                    return queued;
+                }
+            });
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
 
-            // Add an output surface to write the image to a file
-            ImageReader reader = ImageReader.newInstance(imageWidth, imageHeight, ImageFormat.JPEG, 1);
-            outputSurfaces.add(reader.getSurface());
+    /**
+     * Capture several images as one burst. All of the requests are queued together so the frames
+     * are in flight in parallel rather than one after another. In FlashMode.PAIRED the stills alternate
+     * between an ambient and a flash frame.
+     *
+     * @param count int number of stills
+     */
+    private void captureBurst(int count) {
+        try {
+            List<CaptureRequest> requests = new ArrayList<CaptureRequest>(count);
+            if (mFlashMode.isPaired()) {
+                // Ambient then flash. The fuser tells the frames apart by the flash mode each request is tagged with.
+                int orientation = rotateImageForOrientation();
+                CaptureRequest ambient = mStillRequests.get(FlashMode.OFF, orientation);
+                CaptureRequest flash = mStillRequests.get(FlashMode.ON, orientation);
+                for (int i = 0; i + 1 < count; i += 2) {
+                    requests.add(ambient);
+                    requests.add(flash);
+                }
+            } else {
+                CaptureRequest request = buildStillRequest();
+                for (int i = 0; i < count; i++) {
+                    requests.add(request);
+                }
+            }
+            mCaptureMetrics.onSequenceStarted(System.nanoTime());
+            if (mReviewScheduler.getMode() == ReviewScheduler.Mode.HOLD) {
+                mCameraSession.stopRepeating();
+                mPreviewRequestState.onStopped();
+            }
+            mCaptureSubmitNanos = System.nanoTime();
+            mCameraSession.captureBurst(requests, mStillCaptureCallback, mBackgroundCaptureHandler);
+            mLatencyRecorder.recordSince(LatencyRecorder.STAGE_CAPTURE_SUBMIT, mShutterPressNanos);
+        } catch (CameraAccessException | IllegalStateException e) {
+            e.printStackTrace();
+            onCaptureSubmitFailed();
+        }
+    }
 
-            mCaptureRequestBuilder =  mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
-            mCaptureRequestBuilder.addTarget(surface);
-            mCaptureRequestBuilder.addTarget(reader.getSurface());
+    /**
+     * Replace the repeating preview request with a repeating still request
+     */
+    private void startContinuousCapture() {
+        try {
+            mCaptureMetrics.onSequenceStarted(System.nanoTime());
+            // The frames are not submitted one by one, so there is no submit time to measure them from
+            mCaptureSubmitNanos = 0;
+            mCameraSession.setRepeatingRequest(buildStillRequest(), mStillCaptureCallback, mBackgroundCaptureHandler);
+            mPreviewRequestState.onStopped();
+        } catch (CameraAccessException | IllegalStateException e) {
+            e.printStackTrace();
+        }
+    }
 
-            // Create a listener that saves the image file and notifies us when complete
-            final File file = new File(getOutputImagePath(imageWidth,imageHeight));
-            reader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
-                @Override
-                public void onImageAvailable(ImageReader reader) {
-                    Image image = null;
-                    try {
-                        image = reader.acquireLatestImage();
-                        ByteBuffer buffer = image.getPlanes()[0].getBuffer();
-                        byte[] bytes = new byte[buffer.capacity()];
-                        buffer.get(bytes);
-                        save(bytes);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    } finally {
-                        if (image != null) {
-                            image.close();
-                        }
-                        Log.d(TAG, "Wrote: " + file.getPath());
-                        completed();  // Send ourselves a message that we're completed
-                    }
-                }
+    /**
+     * Stop the repeating still request, either freezing the last frame for review or going back to the preview
+     */
+    private void stopContinuousCapture() {
+        if (mReviewScheduler.getMode() == ReviewScheduler.Mode.HOLD) {
+            try {
+                mCameraSession.stopRepeating();
+            } catch (CameraAccessException | IllegalStateException e) {
+                e.printStackTrace();
+            }
+        } else {
+            updatePreview();
+        }
+    }
+
+    /**
+     * Called when a still request could not be submitted at all, so the UI does not wait for images
+     * that will never arrive.
+     */
+    private void onCaptureSubmitFailed() {
+        if (mSessionManager.abortCapture()) {
+            mHandler.sendEmptyMessage(TAKEPICTURE_ABORTED);
+        }
+    }
 
+    /**
+     * Utility to notify ourselves that one picture is complete
+     */
+    private void sendPictureCompleted() {
+        Message msg = mHandler.obtainMessage();
+        msg.what = TAKEPICTURE_COMPLETED;
+        mHandler.sendMessage(msg);
+    }
 
-                private void save(byte[] bytes) throws IOException {
-                    OutputStream output = null;
-                    try {
-                        output = new FileOutputStream(file);
-                        output.write(bytes);
-                    } finally {
-                        if (null != output) {
-                            output.close();
+    /**
+     * Tracks still frames as they start, and counts frames the camera could not deliver
+     */
+    private final CameraCaptureSession.CaptureCallback mStillCaptureCallback = new CameraCaptureSession.CaptureCallback() {
+        @Override
+        public void onCaptureStarted(CameraCaptureSession session, CaptureRequest request, long timestamp, long frameNumber) {
+            mSessionManager.onFrameStarted();
+            if (null != mZslImageReader) {
+                // The still comes on the zero shutter lag output, among the frames for the ring
+                expectZslStill(timestamp);
+            }
+            FlashPairFuser fuser = mPairFuser;
+            if (null != fuser && isPairFrame(request)) {
+                fuser.onFrameStarted(frameNumber, timestamp, FlashMode.ON == request.getTag());
+            }
+        }
+        @Override
+        public void onCaptureCompleted(CameraCaptureSession session, CaptureRequest request, TotalCaptureResult result) {
+            Long timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+            if (null != timestamp) {
+                onStillMetadata(timestamp, toMetadataRecord(result), null);
+            }
+        }
+        @Override
+        public void onCaptureFailed(CameraCaptureSession session, CaptureRequest request, CaptureFailure failure) {
+            Log.w(TAG, "Capture failed, reason: " + failure.getReason());
+            FlashPairFuser fuser = mPairFuser;
+            if (null != fuser && isPairFrame(request)) {
+                // The other frame of the pair cannot be fused without this one
+                fuser.onFrameFailed(failure.getFrameNumber(), FlashMode.ON == request.getTag());
+            }
+            mCaptureMetrics.onFrameDropped();
+            sendPictureCompleted();
+        }
+    };
+
+    /**
+     * @return true if the request is one frame of a FlashMode.PAIRED capture
+     */
+    private boolean isPairFrame(CaptureRequest request) {
+        Object mode = request.getTag();
+        return mFlashMode.isPaired() && (FlashMode.OFF == mode || FlashMode.ON == mode);
+    }
+
+    /**
+     * Utility to copy what the audit needs from the result of a still
+     *
+     * @param result TotalCaptureResult of the still
+     * @return CaptureMetadataLog.Record without a file name, -1 for anything the camera did not report
+     */
+    private static CaptureMetadataLog.Record toMetadataRecord(TotalCaptureResult result) {
+        CaptureMetadataLog.Record record = new CaptureMetadataLog.Record();
+        record.sensorTimestampNanos = valueOr(result.get(CaptureResult.SENSOR_TIMESTAMP), -1);
+        record.wallTimeMillis = System.currentTimeMillis();
+        record.exposureTimeNanos = valueOr(result.get(CaptureResult.SENSOR_EXPOSURE_TIME), -1);
+        record.frameDurationNanos = valueOr(result.get(CaptureResult.SENSOR_FRAME_DURATION), -1);
+        record.sensitivity = valueOr(result.get(CaptureResult.SENSOR_SENSITIVITY), -1);
+        record.aeMode = valueOr(result.get(CaptureResult.CONTROL_AE_MODE), -1);
+        record.aeState = valueOr(result.get(CaptureResult.CONTROL_AE_STATE), -1);
+        record.flashMode = valueOr(result.get(CaptureResult.FLASH_MODE), -1);
+        record.flashState = valueOr(result.get(CaptureResult.FLASH_STATE), -1);
+        record.jpegOrientation = valueOr(result.get(CaptureResult.JPEG_ORIENTATION), -1);
+        record.frameNumber = result.getFrameNumber();
+        return record;
+    }
+
+    private static long valueOr(Long value, long fallback) {
+        return (null == value) ? fallback : value;
+    }
+
+    private static int valueOr(Integer value, int fallback) {
+        return (null == value) ? fallback : value;
+    }
+
+    /**
+     * Pair the result and the image of one still, and append their record to the metadata log once
+     * both have arrived. Frames taken from the zero shutter lag ring have no still result, so they are
+     * not logged.
+     *
+     * @param timestampNanos long sensor timestamp of the still
+     * @param record CaptureMetadataLog.Record from the result, or null if this is the image
+     * @param fileName String name of the image file, or null if this is the result
+     */
+    private void onStillMetadata(long timestampNanos, CaptureMetadataLog.Record record, String fileName) {
+        synchronized (mPendingMetadata) {
+            Object pending = mPendingMetadata.remove(timestampNanos);
+            if (null == record) {
+                if (!(pending instanceof CaptureMetadataLog.Record)) {
+                    mPendingMetadata.put(timestampNanos, fileName);
+                    return;
+                }
+                record = (CaptureMetadataLog.Record) pending;
+            } else {
+                if (!(pending instanceof String)) {
+                    mPendingMetadata.put(timestampNanos, record);
+                    return;
+                }
+                fileName = (String) pending;
+            }
+        }
+        record.setFileName(fileName);
+        try {
+            if (null != mMetadataLog) {
+                mMetadataLog.append(record);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Could not log the metadata of " + fileName, e);
+        }
+    }
+
+    /**
+     * Creates the ImageReader that receives every still for the lifetime of the capture session,
+     * with a listener that saves each image and notifies us when complete. The stills are JPEGs from
+     * the camera, or YUV frames encoded by mYuvEncoder when YUV capture is selected. In FlashMode.PAIRED
+     * they are YUV frames that mPairFuser fuses in pairs before they are encoded.
+     *
+     * @return ImageReader for the still output surface
+     */
+    private ImageReader createStillImageReader() {
+        // Several images may be in flight at once during a burst or continuous capture
+        final boolean paired = mFlashMode.isPaired();
+        final boolean yuv = mYuvEnabled || paired;
+        // YUV_420_888 has its own list of supported sizes, which need not include the JPEG size
+        final CaptureSizeSelector.Size still = yuv ? mCaptureSizes.yuvStill : mCaptureSizes.still;
+        ImageReader reader = ImageReader.newInstance(still.width, still.height,
+                yuv ? ImageFormat.YUV_420_888 : ImageFormat.JPEG, STILL_QUEUE_DEPTH);
+        reader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
+            @Override
+            public void onImageAvailable(ImageReader reader) {
+                Image image = null;
+                boolean queued = false;
+                final File file = new File(getOutputImagePath(still.width, still.height));
+                try {
+                    image = reader.acquireNextImage();
+                    if (null == image) {
+                        return;
+                    }
+                    long copyStart = System.nanoTime();
+                    mCaptureMetrics.onFrameDelivered(copyStart);
+                    recordImageAvailable(copyStart);
+                    // Hand the bytes to the writer, fusion or encoder threads. The image is released as soon as they are copied.
+                    boolean held = false;
+                    if (yuv) {
+                        recordSharpness(file, image);
+                    } else {
+                        recordSharpness(file, image.getTimestamp());
+                    }
+                    if (paired) {
+                        FlashPairFuser.Result result = submitPair(image, file);
+                        queued = (result == FlashPairFuser.Result.FUSING);
+                        // The ambient frame is not saved by itself, so it is done once it has been copied
+                        held = (result == FlashPairFuser.Result.HELD);
+                    } else if (yuv) {
+                        queued = submitYuv(image, file);
+                    } else {
+                        ByteBuffer buffer = image.getPlanes()[0].getBuffer();
+                        queued = mJpegWriter.submit(buffer, file);
+                    }
+                    if (queued) {
+                        onStillMetadata(image.getTimestamp(), null, file.getName());
+                    }
+                    mLatencyRecorder.recordSince(LatencyRecorder.STAGE_BUFFER_COPY, copyStart);
+                    if (!queued && !held) {
+                        Log.w(TAG, (paired ? "Fusion" : yuv ? "Encoder" : "Writer") + " is behind, dropped: " + file.getPath());
+                        mCaptureMetrics.onFrameDropped();
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    if (image != null) {
+                        image.close();
+                        if (!queued) {
+                            sendPictureCompleted();  // None of the writer, fusion or encoder threads will report this one
                         }
                     }
                 }
+            }
+        }, mBackgroundHandler);
+        return reader;
+    }
 
-                private void completed(){
-                    Message msg = mHandler.obtainMessage();
-                    msg.what = TAKEPICTURE_COMPLETED;
-                    mHandler.sendMessage(msg);
-                }
+    /**
+     * Utility to queue a YUV_420_888 still to be encoded. The camera does not apply JPEG_ORIENTATION
+     * to YUV, so a landscape image held upside down is turned while it is converted.
+     *
+     * @param image Image in YUV_420_888
+     * @param file File to write the JPEG to
+     * @return true if the image was queued
+     */
+    private boolean submitYuv(Image image, File file) throws InterruptedException {
+        Image.Plane[] planes = image.getPlanes();
+        boolean rotate180 = (180 == rotateImageForOrientation());
+        return mYuvEncoder.submit(planes[0].getBuffer(), planes[0].getRowStride(),
+                planes[1].getBuffer(), planes[2].getBuffer(), planes[1].getRowStride(), planes[1].getPixelStride(),
+                image.getWidth(), image.getHeight(), rotate180, file);
+    }
 
-            }, mBackgroundHandler);
+    /**
+     * Utility to queue one frame of a flash pair. The fused image is turned, if need be, when it is encoded.
+     *
+     * @param image Image in YUV_420_888
+     * @param file File to write the fused JPEG to, if this is the flash frame
+     * @return FlashPairFuser.Result for the frame
+     */
+    private FlashPairFuser.Result submitPair(Image image, File file) {
+        Image.Plane[] planes = image.getPlanes();
+        return mPairFuser.submit(planes[0].getBuffer(), planes[0].getRowStride(),
+                planes[1].getBuffer(), planes[2].getBuffer(), planes[1].getRowStride(), planes[1].getPixelStride(),
+                image.getWidth(), image.getHeight(), image.getTimestamp(), file);
+    }
 
-            // Begin the capture session, and take the photograph
-            mCameraDevice.createCaptureSession(outputSurfaces, new CameraCaptureSession.StateCallback() {
-                @Override
-                public void onConfigured(CameraCaptureSession session) {
-                    mCameraCaptureSessions = session;
-                    capture();
+    /**
+     * Utility to queue a fused NV21 image to be encoded, presenting it to mYuvEncoder as the planes of a
+     * semi-planar YUV_420_888 image: V and U interleaved after the luma
+     *
+     * @param nv21 byte[] NV21 image
+     * @param width int width of the image in pixels
+     * @param height int height of the image in pixels
+     * @param file File to write the JPEG to
+     * @return true if the image was queued
+     */
+    private boolean submitNv21(byte[] nv21, int width, int height, File file) throws InterruptedException {
+        int luma = width * height;
+        boolean rotate180 = (180 == rotateImageForOrientation());
+        return mYuvEncoder.submit(ByteBuffer.wrap(nv21, 0, luma), width,
+                ByteBuffer.wrap(nv21, luma + 1, luma / 2 - 1), ByteBuffer.wrap(nv21, luma, luma / 2), width, 2,
+                width, height, rotate180, file);
+    }
+
+    /**
+     * Creates the ImageReader that receives a full resolution JPEG for every preview frame while zero
+     * shutter lag is selected. Each one is copied into the ring buffer and released at once. Stills are
+     * taken on this output too; those are told apart by their sensor timestamp and saved instead.
+     *
+     * @return ImageReader for the zero shutter lag output surface
+     */
+    private ImageReader createZslImageReader() {
+        CaptureSizeSelector.Size still = mCaptureSizes.still;
+        if (null == mZslRingBuffer) {
+            mZslRingBuffer = new ZslRingBuffer(ZSL_RING_SIZE, (int) (still.getPixels() / 2));
+        }
+        ImageReader reader = ImageReader.newInstance(still.width, still.height, ImageFormat.JPEG, 2);
+        reader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
+            @Override
+            public void onImageAvailable(ImageReader reader) {
+                // Not the latest image, which could skip a still
+                Image image = reader.acquireNextImage();
+                if (null == image) {
+                    return;
                 }
+                try {
+                    long timestamp = image.getTimestamp();
+                    ByteBuffer jpeg = image.getPlanes()[0].getBuffer();
+                    if (claimZslStill(timestamp)) {
+                        saveZslStill(jpeg, timestamp);
+                    } else {
+                        mZslRingBuffer.add(jpeg, timestamp);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    image.close();
+                }
+            }
+        }, mBackgroundHandler);
+        return reader;
+    }
 
-                @Override
-                public void onConfigureFailed(CameraCaptureSession session) {
+    /**
+     * Expect a still on the zero shutter lag output. Called as the still starts; the work is done on
+     * mBackgroundHandler, with the images of that output. A still whose image got there first is taken
+     * back out of the ring.
+     *
+     * @param timestampNanos long sensor timestamp of the still
+     */
+    private void expectZslStill(final long timestampNanos) {
+        mCameraReadiness.post(mBackgroundHandler, new Runnable() {
+            @Override
+            public void run() {
+                ZslRingBuffer ring = mZslRingBuffer;
+                try {
+                    if (null != ring && ring.take(timestampNanos, mZslStillConsumer)) {
+                        return;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
                 }
-            }, mBackgroundCaptureHandler);
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
+                mZslStills[mNextZslStill] = timestampNanos;
+                mNextZslStill = (mNextZslStill + 1) % mZslStills.length;
+            }
+        });
+    }
+
+    /**
+     * @param timestampNanos long sensor timestamp of an image on the zero shutter lag output
+     * @return true if the image is an expected still, which is then no longer expected
+     */
+    private boolean claimZslStill(long timestampNanos) {
+        for (int i = 0; i < mZslStills.length; i++) {
+            if (mZslStills[i] == timestampNanos) {
+                mZslStills[i] = 0;
+                return true;
+            }
         }
+        return false;
     }
 
     /**
-     * This sets up the Automatic Exposure to expect the flash. If the flash will be used for the
-     * photograph, this configures a pre-trigger to allow the AE algorithms to analyze the light levels
+     * Saves a still taken out of the ring. The still is done with whether or not the writer takes it.
      */
-    private void precaptureTrigger(){
-        SurfaceTexture texture = mTextureView.getSurfaceTexture();
-        texture.setDefaultBufferSize(1920, 1080); // preview size
-        Surface surface = new Surface(texture);
+    private final ZslRingBuffer.Consumer mZslStillConsumer = new ZslRingBuffer.Consumer() {
+        @Override
+        public boolean accept(ByteBuffer jpeg, long timestampNanos) throws InterruptedException {
+            saveZslStill(jpeg, timestampNanos);
+            return true;
+        }
+    };
 
-        try {
-            mCaptureRequestBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_ZERO_SHUTTER_LAG);
-            mCaptureRequestBuilder.addTarget(surface);
+    /**
+     * Utility to record how long a still took from its request being submitted to its image arriving.
+     * Frames of continuous capture, and those still arriving after it stops, are not recorded.
+     *
+     * @param nowNanos long System.nanoTime() when the image arrived
+     */
+    private void recordImageAvailable(long nowNanos) {
+        long submitNanos = mCaptureSubmitNanos;
+        if (0 != submitNanos) {
+            mLatencyRecorder.record(LatencyRecorder.STAGE_IMAGE_AVAILABLE, nowNanos - submitNanos);
+        }
+    }
 
-            mCameraDevice.createCaptureSession(Arrays.asList(surface), new CameraCaptureSession.StateCallback() {
-                @Override
-                public void onConfigured(CameraCaptureSession session) {
-                    try {
-                        mCaptureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CameraMetadata.CONTROL_AE_MODE_ON_ALWAYS_FLASH);
-                        mCaptureRequestBuilder.set(CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER, CameraMetadata.CONTROL_AE_PRECAPTURE_TRIGGER_START);
-                        mCaptureRequestBuilder.set(CaptureRequest.CONTROL_MODE, CameraMetadata.CONTROL_MODE_AUTO);
+    /**
+     * Utility to save a still that came on the zero shutter lag output, as the still reader saves a JPEG
+     *
+     * @param jpeg ByteBuffer holding the JPEG
+     * @param timestampNanos long sensor timestamp of the still
+     */
+    private void saveZslStill(ByteBuffer jpeg, long timestampNanos) throws InterruptedException {
+        CaptureSizeSelector.Size still = mCaptureSizes.still;
+        File file = new File(getOutputImagePath(still.width, still.height));
+        long copyStart = System.nanoTime();
+        mCaptureMetrics.onFrameDelivered(copyStart);
+        recordImageAvailable(copyStart);
+        recordSharpness(file, timestampNanos);
+        boolean queued = mJpegWriter.submit(jpeg, file);
+        mLatencyRecorder.recordSince(LatencyRecorder.STAGE_BUFFER_COPY, copyStart);
+        if (queued) {
+            onStillMetadata(timestampNanos, null, file.getName());
+        } else {
+            Log.w(TAG, "Writer is behind, dropped: " + file.getPath());
+            mCaptureMetrics.onFrameDropped();
+            sendPictureCompleted();
+        }
+    }
 
-                        session.capture(mCaptureRequestBuilder.build(), new CameraCaptureSession.CaptureCallback(){
-                            @Override
-                            public void onCaptureProgressed(CameraCaptureSession session, CaptureRequest request, CaptureResult partialResult) {
+    /**
+     * @return true if the session needs the analysis stream: frame analysis is selected, or blurry JPEG
+     * stills are to be discarded, which are judged by the analyzed preview frames closest to them
+     */
+    private boolean isAnalysisStreamNeeded() {
+        return mAnalysisEnabled || (mDiscardBlurry && !mYuvEnabled && !mFlashMode.isPaired());
+    }
 
-                            }
-                            @Override
-                            public void onCaptureCompleted(CameraCaptureSession session, CaptureRequest request, TotalCaptureResult result) {
-
-                                   if(result.get(CaptureResult.CONTROL_AE_STATE) == CaptureResult.CONTROL_AE_STATE_INACTIVE
-                                           || result.get(CaptureResult.CONTROL_AE_STATE) == CaptureResult.CONTROL_AE_STATE_FLASH_REQUIRED
-                                           || result.get(CaptureResult.CONTROL_AE_STATE) == CaptureResult.CONTROL_AE_STATE_CONVERGED
-                                           || result.get(CaptureResult.CONTROL_AE_STATE) == CaptureResult.CONTROL_AE_STATE_LOCKED){
-                                       Log.i(TAG, "Capture called from precaptureTrigger. AE_STATE: " + Integer.toString(result.get(CaptureResult.CONTROL_AE_STATE)));
-                                   }
-                            }
-                        },mBackgroundHandler);
+    /**
+     * Creates the ImageReader that receives a low resolution YUV copy of every preview frame while
+     * the analysis stream is needed. Only the newest frame is taken, and its luma plane is copied to
+     * mFrameAnalysis, which never blocks, so a slow analyzer cannot stall the preview.
+     *
+     * @return ImageReader for the analysis output surface
+     */
+    private ImageReader createAnalysisImageReader() {
+        CaptureSizeSelector.Size size = mSizeSelector.selectPreview(ANALYSIS_MAX_PIXELS, mCaptureSizes.preview);
+        ImageReader reader = ImageReader.newInstance(size.width, size.height, ImageFormat.YUV_420_888, 2);
+        reader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
+            @Override
+            public void onImageAvailable(ImageReader reader) {
+                Image image = reader.acquireLatestImage();
+                if (null == image) {
+                    return;
+                }
+                try {
+                    // Frames can still arrive after stopBackgroundThread() has shut the analyzers down
+                    FrameAnalysisScheduler analysis = mFrameAnalysis;
+                    if (null == analysis) {
+                        return;
+                    }
+                    Image.Plane luma = image.getPlanes()[0];
+                    analysis.submit(luma.getBuffer(), luma.getRowStride(), image.getWidth(), image.getHeight(), image.getTimestamp());
+                } finally {
+                    image.close();
+                }
+            }
+        }, mBackgroundHandler);
+        return reader;
+    }
 
-                        createCameraStillCapture();
+    /**
+     * Utility to release the frame analysis output
+     */
+    private void closeAnalysisImageReader() {
+        if (null != mAnalysisImageReader) {
+            mAnalysisImageReader.close();
+            mAnalysisImageReader = null;
+        }
+    }
 
-                    } catch (CameraAccessException e) {
-                        e.printStackTrace();
-                    }
+    /**
+     * Utility to release the still output used without zero shutter lag
+     */
+    private void closeStillImageReader() {
+        if (null != mImageReader) {
+            mImageReader.close();
+            mImageReader = null;
+        }
+    }
 
-                }
+    /**
+     * Utility to release the zero shutter lag output and the frames it kept
+     */
+    private void closeZslImageReader() {
+        if (null != mZslImageReader) {
+            mZslImageReader.close();
+            mZslImageReader = null;
+        }
+        if (null != mZslRingBuffer) {
+            mZslRingBuffer.clear();
+        }
+    }
 
+    /**
+     * This sets up the Automatic Exposure to expect the flash. If the flash will be used for the
+     * photograph, this sends a pre-trigger on the running session to allow the AE algorithms to
+     * analyze the light levels. The still is requested on that same session by mShotController once
+     * AE has converged, or has timed out.
+     */
+    private void precaptureTrigger(){
+        if (null == mCameraSession) {
+            mShotController.onPrecaptureFailed();
+            return;
+        }
+        try {
+            CaptureRequest.Builder builder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+            builder.addTarget(mPreviewSurface);
+            builder.set(CaptureRequest.CONTROL_AE_MODE, CameraMetadata.CONTROL_AE_MODE_ON_ALWAYS_FLASH);
+            builder.set(CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER, CameraMetadata.CONTROL_AE_PRECAPTURE_TRIGGER_START);
+            builder.set(CaptureRequest.CONTROL_MODE, CameraMetadata.CONTROL_MODE_AUTO);
+
+            // Results for this request and for the preview must arrive on the same thread to stay in order
+            mCameraSession.capture(builder.build(), new CameraCaptureSession.CaptureCallback(){
                 @Override
-                public void onConfigureFailed(CameraCaptureSession session) {
+                public void onCaptureCompleted(CameraCaptureSession session, CaptureRequest request, TotalCaptureResult result) {
+                    mAePrecapture.onTriggerResult(result.get(CaptureResult.CONTROL_AE_STATE), System.nanoTime());
                 }
-            }, mBackgroundHandler);
-        } catch (CameraAccessException e) {
+            }, mBackgroundCaptureHandler);
+            mCameraReadiness.postDelayed(mBackgroundCaptureHandler, mAePrecaptureTimeout, AE_PRECAPTURE_TIMEOUT_MILLISECS);
+        } catch (CameraAccessException | IllegalStateException e) {
             e.printStackTrace();
+            mShotController.onPrecaptureFailed();
         }
     }
 
+    private final Runnable mAePrecaptureTimeout = new Runnable() {
+        @Override
+        public void run() {
+            mAePrecapture.checkTimeout(System.nanoTime());
+        }
+    };
+
     /**
-     * Utility to translate our desired flash mode to the required API for the capture
+     * Times the first preview frame after the preview is (re)started, and feeds the AE state of every
+     * preview frame to mAePrecapture while a precapture sequence is running
      */
-    private void setCaptureFlashMode(){
-
-            switch(mFlashMode) {
-                case FLASH_OFF:
-                    mCaptureRequestBuilder.set(CaptureRequest.FLASH_MODE, CameraMetadata.FLASH_MODE_OFF);
-                    mCaptureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, CameraMetadata.CONTROL_AE_MODE_ON);
-                    break;
-                case FLASH_TORCH:
-                    mCaptureRequestBuilder.set(CaptureRequest.FLASH_MODE, CameraMetadata.FLASH_MODE_TORCH);
-                    break;
+    private final CameraCaptureSession.CaptureCallback mPreviewCaptureCallback = new CameraCaptureSession.CaptureCallback() {
+        @Override
+        public void onCaptureCompleted(CameraCaptureSession session, CaptureRequest request, TotalCaptureResult result) {
+            if (0 != mPreviewRestartNanos) {
+                mLatencyRecorder.recordSince(LatencyRecorder.STAGE_PREVIEW_RESTART, mPreviewRestartNanos);
+                mPreviewRestartNanos = 0;
             }
-    }
+            mCameraReadiness.onPreviewFrame();
+            if (mAePrecapture.isActive()) {
+                mAePrecapture.onResult(result.get(CaptureResult.CONTROL_AE_STATE), System.nanoTime());
+            }
+        }
+    };
 
     /**
-     * Utility to translate our desired flash mode to the required API for the preview
+     * Builds the still request of each flash mode from mStillRequestBuilder. The still shares its session
+     * with the precapture trigger, so in FlashMode.ON it uses the same AE mode.
      */
-    private void setPreviewFlashMode(){
+    private final FlashRequestCache<CaptureRequest> mStillRequests = new FlashRequestCache<CaptureRequest>(
+            new FlashRequestCache.Factory<CaptureRequest>() {
+                @Override
+                public CaptureRequest build(FlashMode mode, int jpegOrientation) {
+                    mStillRequestBuilder.set(CaptureRequest.FLASH_MODE, mode.flashMode);
+                    mStillRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, mode.aeMode);
+                    mStillRequestBuilder.set(CaptureRequest.JPEG_ORIENTATION, jpegOrientation);
+                    // Lets the capture callback tell the frames of a FlashMode.PAIRED burst apart
+                    mStillRequestBuilder.setTag(mode);
+                    return mStillRequestBuilder.build();
+                }
+            });
 
-        switch(mFlashMode){
-            case FLASH_OFF:
-                mCaptureRequestBuilder.set(CaptureRequest.FLASH_MODE, CameraMetadata.FLASH_MODE_OFF);
-                break;
-            case FLASH_TORCH:
-                mCaptureRequestBuilder.set(CaptureRequest.FLASH_MODE, CameraMetadata.FLASH_MODE_TORCH);
-                break;
-            case FLASH_ON:
-                mCaptureRequestBuilder.set(CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER, CameraMetadata.CONTROL_AE_PRECAPTURE_TRIGGER_IDLE);
-                break;
-        }
+    /**
+     * Builds the repeating preview request of each flash mode from mCaptureRequestBuilder. In FlashMode.ON
+     * the preview meters the same way as the precapture trigger and the still.
+     */
+    private final FlashRequestCache<CaptureRequest> mPreviewRequests = new FlashRequestCache<CaptureRequest>(
+            new FlashRequestCache.Factory<CaptureRequest>() {
+                @Override
+                public CaptureRequest build(FlashMode mode, int jpegOrientation) {
+                    mCaptureRequestBuilder.set(CaptureRequest.FLASH_MODE, mode.flashMode);
+                    mCaptureRequestBuilder.set(CaptureRequest.CONTROL_AE_MODE, mode.aeMode);
+                    int aeTrigger = mode.getPreviewAeTrigger();
+                    if (aeTrigger >= 0) {
+                        mCaptureRequestBuilder.set(CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER, aeTrigger);
+                    }
+                    if (jpegOrientation >= 0) {
+                        mCaptureRequestBuilder.set(CaptureRequest.JPEG_ORIENTATION, jpegOrientation);
+                    }
+                    return mCaptureRequestBuilder.build();
+                }
+            });
+
+    /**
+     * @return int the JPEG orientation the repeating preview request carries, or -1 if it produces no JPEGs
+     */
+    private int getPreviewJpegOrientation() {
+        // Frames kept for zero shutter lag are JPEGs, so the preview carries their orientation
+        return (null != mZslImageReader) ? rotateImageForOrientation() : -1;
     }
 
     /**
      * Utility function to close the camera
      */
     private synchronized void closeCamera() {
+        mAePrecapture.cancel();
+        mSessionManager.close();
+        mPreviewRequestState.onStopped();
+        if (null != mCameraSession) {
+            mCameraSession.close();
+            mCameraSession = null;
+        }
         if (null != mCameraDevice) {
             mCameraDevice.close();
             mCameraDevice = null;
         }
-        if (null != mImageReader) {
-            mImageReader.close();
-            mImageReader = null;
+        closeStillImageReader();
+        closeZslImageReader();
+        closeAnalysisImageReader();
+        if (null != mPreviewSurface) {
+            mPreviewSurface.release();
+            mPreviewSurface = null;
         }
-        mCameraManager = null;
     }
 
     /**
-     * When we resume, start the worker thread.  Re-open the camera if we previously closed it.
+     * When we resume, start the worker threads and open the camera. The session opens once the camera
+     * and the preview surface are both ready.
      */
     @Override
     protected void onResume() {
         super.onResume();
         Log.i(TAG, "onResume");
+        mCameraReadiness.onResume();
+        mSuspending = false;
         mRotationListener.listen(this, this);
         startBackgroundThread();
-        if(mSuspending)
-            openCamera();
-        mSuspending = false;
+        openCamera();
+        if (null != mRetention) {
+            // Shots may have aged past the limit while we were away
+            mRetention.requestEviction();
+        }
+    }
+
+    /**
+     * Give the review thumbnails back when the system is short of memory. They can be decoded again.
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            mThumbnails.trimTo(0);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            mThumbnails.trimTo(mThumbnails.getMaxBytes() / 2);
+        }
     }
 
     /**
-     * When we pause, close the camera, stop the worker thread, and remember we've done so
+     * When we pause, close the camera, stop the worker threads, and remember we've done so. The camera
+     * threads are kept for the next resume.
      */
     @Override
     protected void onPause() {
         Log.i(TAG, "onPause");
+        mSuspending = true;
+        mReviewScheduler.cancel();
+        stopReviewBrowsing();
+        mTakingPicture = false;
+        mTakingButton.setEnabled(true);
+        mCameraReadiness.onPause();
         closeCamera();
         stopBackgroundThread();
+        if (null != mMetadataLog) {
+            mMetadataLog.flush();
+        }
         mRotationListener.stop();
-        mSuspending = true;
         super.onPause();
     }
 
+    /**
+     * Stop the camera and retention threads and close the metadata log for good
+     */
+    @Override
+    protected void onDestroy() {
+        mCameraReadiness.shutdown();
+        if (null != mRetention) {
+            mRetention.shutdown();
+        }
+        if (null != mMetadataLog) {
+            try {
+                mMetadataLog.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        super.onDestroy();
+    }
+
     /**
      * Required interface for any activity that requests a run-time permission
      *
@@ -667,7 +2175,10 @@ public class MainActivity extends Activity implements RotationListener.rotationC
     /**
      * Handler called upon the user selecting a flash mode using the options menu
      *
-     * This simply stores the selected mode in a member variable
+     * This switches the flash mode, on the running session unless a flash pair needs the YUV output, toggles
+     * the burst, zero shutter lag, rapid capture, YUV capture, frame analysis, discard blurry and delete old
+     * shots options, selects the capture size or the durability of saved images, reviews recent shots, or
+     * writes the latency report
      *
      * @param item MenuItem: The menu item that was selected.
      * @return true if the item was consumed
@@ -676,19 +2187,144 @@ public class MainActivity extends Activity implements RotationListener.rotationC
     public boolean onOptionsItemSelected(MenuItem item) {
         switch(item.getItemId()){
             case R.id.flashoff:
-                mFlashMode = FLASH_OFF;
-                break;
+                setFlashMode(FlashMode.OFF);
+                return true;
             case R.id.flashon:
-                mFlashMode = FLASH_ON;
-                break;
+                setFlashMode(FlashMode.ON);
+                return true;
             case R.id.flashtorch:
-                mFlashMode = FLASH_TORCH;
-                break;
+                setFlashMode(FlashMode.TORCH);
+                return true;
+            case R.id.flashpaired:
+                setFlashMode(FlashMode.PAIRED);
+                return true;
+            case R.id.burst:
+                item.setChecked(!item.isChecked());
+                mBurstEnabled = item.isChecked();
+                return true;
+            case R.id.zsl:
+                // The ring buffer needs its own output surface, so the session has to be rebuilt
+                item.setChecked(!item.isChecked());
+                mZslEnabled = item.isChecked();
+                createCameraPreview();
+                return true;
+            case R.id.sizemaxresolution:
+                item.setChecked(true);
+                setCaptureSizeTarget(CaptureSizeSelector.Target.MAX_RESOLUTION, 0);
+                return true;
+            case R.id.sizemaxframerate:
+                item.setChecked(true);
+                setCaptureSizeTarget(CaptureSizeSelector.Target.MAX_FRAME_RATE, 0);
+                return true;
+            case R.id.size1080:
+                item.setChecked(true);
+                setCaptureSizeTarget(CaptureSizeSelector.Target.BOUNDED, IMAGE_WIDTH * IMAGE_HEIGHT);
+                return true;
+            case R.id.size720:
+                item.setChecked(true);
+                setCaptureSizeTarget(CaptureSizeSelector.Target.BOUNDED, SMALL_STILL_WIDTH * SMALL_STILL_HEIGHT);
+                return true;
+            case R.id.durabilitynone:
+                item.setChecked(true);
+                setDurability(StorageManager.Durability.NONE);
+                return true;
+            case R.id.durabilityperfile:
+                item.setChecked(true);
+                setDurability(StorageManager.Durability.PER_FILE);
+                return true;
+            case R.id.durabilitygroup:
+                item.setChecked(true);
+                setDurability(StorageManager.Durability.GROUP_COMMIT);
+                return true;
+            case R.id.reviewshots:
+                startReviewBrowsing();
+                return true;
+            case R.id.discardblurry:
+                // Read by the writer thread for the next image. JPEG stills are judged by the preview
+                // frames, so the session is rebuilt if that adds or removes the analysis stream.
+                boolean analysisStream = isAnalysisStreamNeeded();
+                item.setChecked(!item.isChecked());
+                mDiscardBlurry = item.isChecked();
+                if (analysisStream != isAnalysisStreamNeeded()) {
+                    createCameraPreview();
+                }
+                return true;
+            case R.id.autocleanup:
+                item.setChecked(!item.isChecked());
+                mAutoCleanup = item.isChecked();
+                if (null != mRetention) {
+                    mRetention.setEnabled(mAutoCleanup);
+                }
+                return true;
+            case R.id.frameanalysis:
+                // The analysis stream is another output surface, so the session has to be rebuilt
+                item.setChecked(!item.isChecked());
+                mAnalysisEnabled = item.isChecked();
+                createCameraPreview();
+                return true;
+            case R.id.yuvcapture:
+                // The still output changes format, so the image reader and session are rebuilt
+                item.setChecked(!item.isChecked());
+                mYuvEnabled = item.isChecked();
+                recreateCameraOutputs();
+                return true;
+            case R.id.latencyreport:
+                reportLatency();
+                return true;
+            case R.id.rapidcapture:
+                // Only changes what happens after the next photograph, so the session is left alone
+                item.setChecked(!item.isChecked());
+                mReviewScheduler.setMode(item.isChecked() ? ReviewScheduler.Mode.NONE : ReviewScheduler.Mode.HOLD);
+                return true;
             default:
                 return super.onOptionsItemSelected(item);
         }
-        createCameraPreview();
-        return true;
+    }
+
+    /**
+     * Choose how hard saved images are pushed to the flash device. Applies from the next image written.
+     *
+     * @param durability StorageManager.Durability to use
+     */
+    private void setDurability(StorageManager.Durability durability) {
+        mDurability = durability;
+        if (null != mStorage) {
+            mStorage.setDurability(durability);
+        }
+    }
+
+    /**
+     * Log the p50/p95/p99 of every capture stage and frame analyzer, and save the recent capture samples
+     * to latency.csv in the app's external files directory
+     */
+    private void reportLatency() {
+        try {
+            StringWriter summary = new StringWriter();
+            mLatencyRecorder.writeSummary(summary);
+            summary.write("Review cache: " + mThumbnails + "\n");
+            summary.write("Storage: " + mStorage + "\n");
+            summary.write("Retention: " + mRetention + "\n");
+            if (null != mPairFuser) {
+                summary.write("Flash pairs: " + mPairFuser + "\n");
+            }
+            if (mAnalysisEnabled) {
+                mFrameAnalysis.writeSummary(summary);
+                summary.write("Preview mean luma: " + mMeanLumaAnalyzer.getMeanLuma() + "\n");
+            }
+            for (String line : summary.toString().split("\n")) {
+                Log.i(TAG, line);
+            }
+            File file = new File(getExternalFilesDir(null), "latency.csv");
+            Writer samples = new FileWriter(file);
+            try {
+                mLatencyRecorder.writeSamples(samples);
+            } finally {
+                samples.close();
+            }
+            Toast.makeText(this, "Latency written to " + file.getPath(), Toast.LENGTH_SHORT).show();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not write the latency report", e);
+        }
     }
 
     /**
@@ -0,0 +1,69 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A FrameAnalyzer that tracks the average brightness of the preview, from every 8th pixel of every
+ * 8th row. It is cheap enough to keep up with every frame and shows whether the scene is under exposed.
+ */
+public class MeanLumaAnalyzer implements FrameAnalyzer {
+
+    private static final int STEP = 8;
+
+    private volatile int mMeanLuma = -1;
+
+    @Override
+    public void analyze(ByteBuffer luma, int rowStride, int width, int height, long timestampNanos) {
+        long sum = 0;
+        int count = 0;
+        int base = luma.position();
+        for (int y = 0; y < height; y += STEP) {
+            int row = base + y * rowStride;
+            for (int x = 0; x < width; x += STEP) {
+                sum += luma.get(row + x) & 0xFF;
+                count++;
+            }
+        }
+        if (count > 0) {
+            mMeanLuma = (int) (sum / count);
+        }
+    }
+
+    /**
+     * @return int average luma of the latest analyzed frame, 0 to 255, or -1 before the first frame
+     */
+    public int getMeanLuma() {
+        return mMeanLuma;
+    }
+}
@@ -0,0 +1,127 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+/**
+ * Turns the raw orientation angle into one of four 90 degree buckets, with hysteresis.
+ *
+ * Angles within the dead-band of a boundary between two buckets are ignored, and a new bucket must be
+ * held for a minimum dwell time before it is reported. Sensor jitter near 45 degrees therefore does
+ * not produce a stream of changes. update() does not allocate, so it is safe to call for every sensor event.
+ */
+public class OrientationQuantizer {
+
+    /** Bucket value before any orientation has been accepted */
+    public static final int UNKNOWN = -1;
+
+    private final int mAcceptDistance;
+    private final long mMinDwellMillis;
+
+    private int mBucket = UNKNOWN;
+    private int mCandidate = UNKNOWN;
+    private long mCandidateSinceMillis;
+
+    /**
+     * @param deadBandDegrees int width of the ignored zone on each side of a bucket boundary, 0 to 44
+     * @param minDwellMillis long how long a new bucket must be held before it is reported
+     */
+    public OrientationQuantizer(int deadBandDegrees, long minDwellMillis) {
+        mAcceptDistance = 45 - deadBandDegrees;
+        mMinDwellMillis = minDwellMillis;
+    }
+
+    /**
+     * Feed one orientation reading
+     *
+     * @param orientation int angle in degrees from OrientationEventListener, or a negative value if unknown
+     * @param nowMillis long current time in milliseconds from a monotonic clock
+     * @return true if the reported bucket changed
+     */
+    public boolean update(int orientation, long nowMillis) {
+        if (orientation >= 0) {
+            int angle = orientation % 360;
+            int nearest = ((angle + 45) / 90) & 3;
+            int distance = Math.abs(angle - nearest * 90);
+            if (distance > 180) {
+                distance = 360 - distance;
+            }
+            if (distance <= mAcceptDistance && nearest != mCandidate) {
+                mCandidate = nearest;
+                mCandidateSinceMillis = nowMillis;
+            }
+        }
+        if (mCandidate != UNKNOWN && mCandidate != mBucket && nowMillis - mCandidateSinceMillis >= mMinDwellMillis) {
+            mBucket = mCandidate;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Report a new bucket whose dwell time has passed since the last reading. A sensor may stop sending
+     * readings once the device is held still, so without this a turn would not be reported until the
+     * device moved again.
+     *
+     * @param nowMillis long current time in milliseconds from the same clock as update()
+     * @return true if the reported bucket changed
+     */
+    public boolean check(long nowMillis) {
+        return update(UNKNOWN, nowMillis);
+    }
+
+    /**
+     * @param nowMillis long current time in milliseconds from the same clock as update()
+     * @return long milliseconds until a new bucket is due to be reported by check(), 0 if it is due now,
+     * or -1 if no new bucket is waiting
+     */
+    public long getRemainingDwellMillis(long nowMillis) {
+        if (mCandidate == UNKNOWN || mCandidate == mBucket) {
+            return -1;
+        }
+        return Math.max(0, mCandidateSinceMillis + mMinDwellMillis - nowMillis);
+    }
+
+    /**
+     * @return int current bucket, 0 to 3 for 0, 90, 180 and 270 degrees, or UNKNOWN
+     */
+    public int getBucket() {
+        return mBucket;
+    }
+
+    /**
+     * Forget the current bucket, for example when the listener is restarted
+     */
+    public void reset() {
+        mBucket = UNKNOWN;
+        mCandidate = UNKNOWN;
+    }
+}
@@ -0,0 +1,119 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+/**
+ * Remembers the parameters of the repeating preview request that is running, so the request is only
+ * submitted again when one of them changes or the preview has been stopped. Also decides what a change
+ * of flash mode needs: a new request, a new capture session, or nothing yet.
+ */
+public class PreviewRequestState {
+
+    /**
+     * What a change of flash mode needs done
+     */
+    public enum FlashSwitch {
+        /** Nothing, as the running preview request already suits the new mode */
+        NONE,
+        /** Submit the repeating preview request of the new mode */
+        SUBMIT,
+        /** Rebuild the capture session, as the still output changes format */
+        NEW_SESSION,
+        /** Nothing for now; the preview is restarted with the new mode when the picture being taken is done */
+        DEFERRED
+    }
+
+    private boolean mRunning;
+    private FlashMode mFlashMode;
+    private int mAeTrigger;
+    private int mJpegOrientation;
+    private int mSubmissions;
+
+    /**
+     * @param flashMode FlashMode the preview should use, which also sets its AE precapture trigger
+     * @param jpegOrientation int JPEG orientation for a preview that also produces JPEGs, otherwise -1
+     * @return true if the repeating preview request must be submitted to get these parameters
+     */
+    public synchronized boolean shouldSubmit(FlashMode flashMode, int jpegOrientation) {
+        return !mRunning || flashMode != mFlashMode || flashMode.getPreviewAeTrigger() != mAeTrigger
+                || jpegOrientation != mJpegOrientation;
+    }
+
+    /**
+     * Called after the repeating preview request has been submitted
+     */
+    public synchronized void onSubmitted(FlashMode flashMode, int jpegOrientation) {
+        mRunning = true;
+        mFlashMode = flashMode;
+        mAeTrigger = flashMode.getPreviewAeTrigger();
+        mJpegOrientation = jpegOrientation;
+        mSubmissions++;
+    }
+
+    /**
+     * Decide what switching the flash mode needs. Flash and AE are only request keys, so the running session
+     * is kept unless the still output changes format, which only switching to or from FlashMode.PAIRED without
+     * YUV capture does. A session that is to be rebuilt counts as stopped.
+     *
+     * @param from FlashMode in use
+     * @param to FlashMode to use from now on
+     * @param yuvStill boolean true if the stills are YUV whatever the flash mode
+     * @param takingPicture boolean true while a picture is being taken
+     * @param jpegOrientation int JPEG orientation the preview would be submitted with, otherwise -1
+     * @return FlashSwitch to carry out
+     */
+    public synchronized FlashSwitch switchFlashMode(FlashMode from, FlashMode to, boolean yuvStill,
+                                                    boolean takingPicture, int jpegOrientation) {
+        if (from.needsNewSession(to, yuvStill)) {
+            mRunning = false;
+            return FlashSwitch.NEW_SESSION;
+        }
+        if (takingPicture) {
+            return FlashSwitch.DEFERRED;
+        }
+        return shouldSubmit(to, jpegOrientation) ? FlashSwitch.SUBMIT : FlashSwitch.NONE;
+    }
+
+    /**
+     * Called when the repeating preview request stops or is replaced by another repeating request
+     */
+    public synchronized void onStopped() {
+        mRunning = false;
+    }
+
+    /**
+     * @return int number of times the repeating preview request has been submitted
+     */
+    public synchronized int getSubmissionCount() {
+        return mSubmissions;
+    }
+}
@@ -0,0 +1,130 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+/**
+ * Schedules the end of the post-capture review window without blocking the calling thread.
+ *
+ * Instead of sleeping, the end of the review is posted to a Scheduler (a Handler on the device) and
+ * the Listener is told when the next picture may be taken.
+ */
+public class ReviewScheduler {
+
+    /**
+     * Posts delayed work. On the device this wraps a Handler on the main looper.
+     */
+    public interface Scheduler {
+        void postDelayed(Runnable runnable, long delayMillis);
+        void cancel(Runnable runnable);
+    }
+
+    /**
+     * Interface for receiving callbacks from this scheduler
+     */
+    public interface Listener {
+        /**
+         * Method that is called when the review window is over and the next picture may be taken
+         */
+        void onReviewFinished();
+    }
+
+    public enum Mode {
+        /** Finish the review immediately, for rapid capture */
+        NONE,
+        /** Hold the photograph on screen for the configured time */
+        HOLD
+    }
+
+    private final Scheduler mScheduler;
+    private final Listener mListener;
+    private final long mHoldMillis;
+    private Mode mMode = Mode.HOLD;
+    private boolean mReviewing;
+
+    private final Runnable mFinishReview = new Runnable() {
+        @Override
+        public void run() {
+            finishReview();
+        }
+    };
+
+    /**
+     * @param scheduler Scheduler used to post the end of the review
+     * @param listener Listener to be called when the review ends
+     * @param holdMillis long time to hold the photograph on screen in Mode.HOLD
+     */
+    public ReviewScheduler(Scheduler scheduler, Listener listener, long holdMillis) {
+        mScheduler = scheduler;
+        mListener = listener;
+        mHoldMillis = holdMillis;
+    }
+
+    /**
+     * Begin the review window. Returns immediately in every mode.
+     */
+    public void startReview() {
+        mScheduler.cancel(mFinishReview);
+        mReviewing = true;
+        if (mMode == Mode.NONE) {
+            finishReview();
+        } else {
+            mScheduler.postDelayed(mFinishReview, mHoldMillis);
+        }
+    }
+
+    /**
+     * Abandon any review in progress without calling the listener. Call from your onPause()
+     */
+    public void cancel() {
+        mScheduler.cancel(mFinishReview);
+        mReviewing = false;
+    }
+
+    private void finishReview() {
+        if (mReviewing) {
+            mReviewing = false;
+            mListener.onReviewFinished();
+        }
+    }
+
+    public boolean isReviewing() {
+        return mReviewing;
+    }
+
+    public Mode getMode() {
+        return mMode;
+    }
+
+    public void setMode(Mode mode) {
+        mMode = mode;
+    }
+}
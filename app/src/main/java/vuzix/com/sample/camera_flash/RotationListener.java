@@ -33,6 +33,9 @@ package vuzix.com.sample.camera_flash;
 
 import android.content.Context;
 import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.view.OrientationEventListener;
 import android.view.WindowManager;
 
@@ -52,12 +55,48 @@ public class RotationListener {
         void onRotationChanged(int newRotation);
     }
 
+    private static final int DEFAULT_DEAD_BAND_DEGREES   = 10;
+    private static final long DEFAULT_MIN_DWELL_MILLIS   = 200;
+    // The display rotates shortly after the device does, so keep checking for a while after a change
+    private static final long DISPLAY_SETTLE_MILLIS      = 1000;
+    // How often the display is checked in that time when no readings arrive
+    private static final long DISPLAY_POLL_MILLIS        = 100;
+
     private int lastRotation;
+    private long mCheckDisplayUntilMillis;
     private WindowManager mWindowManager;
     private OrientationEventListener mOrientationEventListener;
+    private final OrientationQuantizer mQuantizer;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private boolean mCheckPosted;
+
+    /**
+     * Checks the dwell and the display when the sensor has gone quiet, as it may once the device is still
+     */
+    private final Runnable mCheck = new Runnable() {
+        @Override
+        public void run() {
+            mCheckPosted = false;
+            onOrientationChangedHandler(OrientationEventListener.ORIENTATION_UNKNOWN);
+        }
+    };
 
     private rotationCallbackFn mCallback;
 
+    /**
+     * Create a listener with the default dead-band and dwell time
+     */
+    public RotationListener() {
+        this(DEFAULT_DEAD_BAND_DEGREES, DEFAULT_MIN_DWELL_MILLIS);
+    }
+
+    /**
+     * @param deadBandDegrees int width of the ignored zone on each side of a 45 degree boundary
+     * @param minDwellMillis long how long a new orientation must be held before the display is checked
+     */
+    public RotationListener(int deadBandDegrees, long minDwellMillis) {
+        mQuantizer = new OrientationQuantizer(deadBandDegrees, minDwellMillis);
+    }
 
     /**
      * Register a listener
@@ -68,13 +107,15 @@ public class RotationListener {
         // registering the listening only once.
         stop();
         mCallback = callback;
+        mQuantizer.reset();
+        mCheckDisplayUntilMillis = 0;
         mWindowManager = (WindowManager)context.getSystemService(Context.WINDOW_SERVICE);
 
         // set to a rate suitable for screen orientation changes
         mOrientationEventListener = new OrientationEventListener(context, SensorManager.SENSOR_DELAY_NORMAL) {
             @Override
             public void onOrientationChanged(int orientation) {
-                onOrientationChangedHandler();
+                onOrientationChangedHandler(orientation);
             }
         };
         mOrientationEventListener.enable();
@@ -82,15 +123,46 @@ public class RotationListener {
     }
 
     /**
-     * Handles the rotation change. Called for every degree.  Only calls the callback if it is significant
+     * Handles the rotation change. Called for every degree.  Only asks the WindowManager for the display
+     * rotation once the quantized orientation changes, and only calls the callback if it is significant.
+     * Also called from mCheck, with an unknown orientation, when no reading has come in time.
+     *
+     * @param orientation int angle in degrees, or OrientationEventListener.ORIENTATION_UNKNOWN
      */
-    private void onOrientationChangedHandler() {
+    private void onOrientationChangedHandler(int orientation) {
         if( mWindowManager != null && mCallback != null) {
-            int newRotation = mWindowManager.getDefaultDisplay().getRotation();
-            if (newRotation != lastRotation) {
-                mCallback.onRotationChanged(newRotation);
-                lastRotation = newRotation;
+            long now = SystemClock.uptimeMillis();
+            if (mQuantizer.update(orientation, now)) {
+                mCheckDisplayUntilMillis = now + DISPLAY_SETTLE_MILLIS;
+            }
+            if (now < mCheckDisplayUntilMillis) {
+                int newRotation = mWindowManager.getDefaultDisplay().getRotation();
+                if (newRotation != lastRotation) {
+                    mCallback.onRotationChanged(newRotation);
+                    lastRotation = newRotation;
+                    mCheckDisplayUntilMillis = 0;
+                }
             }
+            postCheck(now);
+        }
+    }
+
+    /**
+     * Utility to make sure mCheck runs when a new orientation is due, or while the display is still
+     * expected to rotate, in case no further readings arrive. At most one check is posted at a time.
+     *
+     * @param now long current uptime in milliseconds
+     */
+    private void postCheck(long now) {
+        if (mCheckPosted) {
+            return;
+        }
+        long delay = mQuantizer.getRemainingDwellMillis(now);
+        if (now < mCheckDisplayUntilMillis && (delay < 0 || delay > DISPLAY_POLL_MILLIS)) {
+            delay = DISPLAY_POLL_MILLIS;
+        }
+        if (delay >= 0) {
+            mCheckPosted = mHandler.postDelayed(mCheck, delay);
         }
     }
 
@@ -102,6 +174,8 @@ public class RotationListener {
             mOrientationEventListener.disable();
         }
         mOrientationEventListener = null;
+        mHandler.removeCallbacks(mCheck);
+        mCheckPosted = false;
         mWindowManager = null;
         mCallback = null;
     }    
@@ -0,0 +1,89 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A FrameAnalyzer that scores the sharpness of every preview frame it keeps up with, so that a JPEG
+ * still can be judged by the preview frame taken closest to it without the still ever being decoded.
+ * The scores of the last FRAMES_KEPT frames are kept by sensor timestamp, which is long enough to cover
+ * the time a full size JPEG takes to arrive after its exposure.
+ */
+public class SharpnessAnalyzer implements FrameAnalyzer {
+
+    private static final int FRAMES_KEPT = 32;
+
+    // Only used on the analyzer thread
+    private final SharpnessScorer mScorer;
+    // A ring of the latest scores, guarded by this
+    private final long[] mTimestamps = new long[FRAMES_KEPT];
+    private final double[] mScores = new double[FRAMES_KEPT];
+    private int mNext;
+    private int mCount;
+
+    /**
+     * @param workingWidth int width to reduce frames to before scoring, as for SharpnessScorer
+     */
+    public SharpnessAnalyzer(int workingWidth) {
+        mScorer = new SharpnessScorer(workingWidth);
+    }
+
+    @Override
+    public void analyze(ByteBuffer luma, int rowStride, int width, int height, long timestampNanos) {
+        double score = mScorer.scoreLuma(luma, rowStride, width, height);
+        synchronized (this) {
+            mTimestamps[mNext] = timestampNanos;
+            mScores[mNext] = score;
+            mNext = (mNext + 1) % FRAMES_KEPT;
+            mCount = Math.min(mCount + 1, FRAMES_KEPT);
+        }
+    }
+
+    /**
+     * @param timestampNanos long sensor timestamp of the still
+     * @param toleranceNanos long furthest a frame may be from the still to stand in for it
+     * @return double sharpness of the analyzed frame closest to timestampNanos, or NaN if none is close enough
+     */
+    public synchronized double getScore(long timestampNanos, long toleranceNanos) {
+        double score = Double.NaN;
+        long closest = Long.MAX_VALUE;
+        for (int i = 0; i < mCount; i++) {
+            long distance = Math.abs(mTimestamps[i] - timestampNanos);
+            if (distance <= toleranceNanos && distance < closest) {
+                closest = distance;
+                score = mScores[i];
+            }
+        }
+        return score;
+    }
+}
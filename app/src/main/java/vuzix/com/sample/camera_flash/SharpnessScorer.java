@@ -0,0 +1,184 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Scores how sharp an image is as the variance of its Laplacian. Motion blur and missed focus remove
+ * edges, which flattens the Laplacian, so a blurred shot scores far lower than a sharp one of the
+ * same scene.
+ *
+ * The image is first box filtered down to about the working width, because blur that matters to the
+ * user shows at that scale and the sensor noise does not. The reduced image lives in an int array and
+ * luma rows are bulk copied into a byte array, both reused between calls, so once the largest image
+ * has been seen scoring allocates nothing but a buffer view. The inner loops are branch free passes
+ * over arrays, which the JIT can unroll and vectorize. An instance is not thread safe; give each
+ * thread its own.
+ */
+public class SharpnessScorer {
+
+    private final int mWorkingWidth;
+    private int[] mSmall = new int[0];
+    private int[] mRowSums = new int[0];
+    private byte[] mLumaRow = new byte[0];
+    private int mSmallWidth;
+    private int mSmallHeight;
+
+    /**
+     * @param workingWidth int width to reduce images to before scoring, e.g. 480
+     */
+    public SharpnessScorer(int workingWidth) {
+        mWorkingWidth = workingWidth;
+    }
+
+    /**
+     * @param luma ByteBuffer holding a Y plane starting at its position
+     * @param rowStride int bytes from the start of one row to the next
+     * @param width int width of the image in pixels
+     * @param height int height of the image in pixels
+     * @return double variance of the Laplacian, higher is sharper
+     */
+    public double scoreLuma(ByteBuffer luma, int rowStride, int width, int height) {
+        int factor = prepare(width, height);
+        if (mLumaRow.length < width) {
+            mLumaRow = new byte[width];
+        }
+        final byte[] pixels = mLumaRow;
+        ByteBuffer plane = luma.duplicate();
+        int base = luma.position();
+        for (int sy = 0; sy < mSmallHeight; sy++) {
+            clearRowSums();
+            for (int dy = 0; dy < factor; dy++) {
+                // One bulk copy per row rather than a get() per pixel
+                plane.position(base + (sy * factor + dy) * rowStride);
+                plane.get(pixels, 0, width);
+                for (int sx = 0; sx < mSmallWidth; sx++) {
+                    int pixel = sx * factor;
+                    int sum = 0;
+                    for (int dx = 0; dx < factor; dx++) {
+                        sum += pixels[pixel + dx] & 0xFF;
+                    }
+                    mRowSums[sx] += sum;
+                }
+            }
+            storeRow(sy, factor);
+        }
+        return laplacianVariance();
+    }
+
+    /**
+     * @param argb int[] pixels as from Bitmap.getPixels()
+     * @param stride int entries from the start of one row to the next
+     * @param width int width of the image in pixels
+     * @param height int height of the image in pixels
+     * @return double variance of the Laplacian of the luma, higher is sharper
+     */
+    public double scoreArgb(int[] argb, int stride, int width, int height) {
+        int factor = prepare(width, height);
+        for (int sy = 0; sy < mSmallHeight; sy++) {
+            clearRowSums();
+            for (int dy = 0; dy < factor; dy++) {
+                int row = (sy * factor + dy) * stride;
+                for (int sx = 0; sx < mSmallWidth; sx++) {
+                    int pixel = row + sx * factor;
+                    int sum = 0;
+                    for (int dx = 0; dx < factor; dx++) {
+                        int color = argb[pixel + dx];
+                        // Integer BT.601 luma: (77 R + 150 G + 29 B) / 256
+                        sum += (77 * ((color >> 16) & 0xFF) + 150 * ((color >> 8) & 0xFF) + 29 * (color & 0xFF)) >> 8;
+                    }
+                    mRowSums[sx] += sum;
+                }
+            }
+            storeRow(sy, factor);
+        }
+        return laplacianVariance();
+    }
+
+    /**
+     * Size the working image for the input and grow the reused arrays if needed
+     *
+     * @return int box filter factor
+     */
+    private int prepare(int width, int height) {
+        int factor = Math.max(1, width / mWorkingWidth);
+        mSmallWidth = width / factor;
+        mSmallHeight = height / factor;
+        if (mSmall.length < mSmallWidth * mSmallHeight) {
+            mSmall = new int[mSmallWidth * mSmallHeight];
+        }
+        if (mRowSums.length < mSmallWidth) {
+            mRowSums = new int[mSmallWidth];
+        }
+        return factor;
+    }
+
+    private void clearRowSums() {
+        for (int sx = 0; sx < mSmallWidth; sx++) {
+            mRowSums[sx] = 0;
+        }
+    }
+
+    private void storeRow(int sy, int factor) {
+        int area = factor * factor;
+        int row = sy * mSmallWidth;
+        for (int sx = 0; sx < mSmallWidth; sx++) {
+            mSmall[row + sx] = mRowSums[sx] / area;
+        }
+    }
+
+    /**
+     * @return double variance of the 4-neighbour Laplacian over the interior of the working image
+     */
+    private double laplacianVariance() {
+        int width = mSmallWidth;
+        int height = mSmallHeight;
+        if (width < 3 || height < 3) {
+            return 0;
+        }
+        final int[] small = mSmall;
+        long sum = 0;
+        long sumSquares = 0;
+        for (int y = 1; y < height - 1; y++) {
+            int row = y * width;
+            for (int x = row + 1; x < row + width - 1; x++) {
+                int laplacian = 4 * small[x] - small[x - 1] - small[x + 1] - small[x - width] - small[x + width];
+                sum += laplacian;
+                sumSquares += laplacian * laplacian;
+            }
+        }
+        long count = (long) (width - 2) * (height - 2);
+        double mean = (double) sum / count;
+        return (double) sumSquares / count - mean * mean;
+    }
+}
@@ -0,0 +1,132 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+/**
+ * Takes a photograph the same way whatever camera is underneath.
+ *
+ * With a flash that fires, the AE precapture sequence runs first and the still is requested once it
+ * is over. Otherwise the still, or burst, is requested at once. Either way the CaptureSessionManager
+ * submits it on the running session. Backend is the seam between this flow and the hardware:
+ * MainActivity implements it with camera2, and SimulatedCamera with configurable latencies so the
+ * whole flow can be timed on a plain JVM.
+ */
+public class ShotController {
+
+    /**
+     * The camera operations the capture flow needs, on top of those of CaptureSessionManager.Camera
+     */
+    public interface Backend extends CaptureSessionManager.Camera {
+        /**
+         * Submit the AE precapture trigger on the configured session. The AE state of the trigger's own
+         * result must be fed to getAePrecapture().onTriggerResult(), and that of every later result to
+         * onResult(). If the trigger cannot be submitted, call onPrecaptureFailed() instead.
+         */
+        void triggerPrecapture();
+
+        /**
+         * Method that is called when the precapture sequence is over, just before the still is requested
+         * @param converged boolean true if AE finished metering, false if the sequence timed out
+         * @param latencyNanos long time AE took
+         */
+        void onPrecaptureFinished(boolean converged, long latencyNanos);
+    }
+
+    private final Backend mBackend;
+    private final CaptureSessionManager mSessionManager;
+    private final AePrecaptureSequence mAePrecapture;
+    private final LatencyRecorder mLatencyRecorder;
+    private volatile int mCount = 1;
+
+    /**
+     * @param backend Backend that performs the camera work
+     * @param aeTimeoutMillis long how long to wait for AE before taking a flash still anyway
+     * @param latencyRecorder LatencyRecorder to receive the precapture time, or null
+     */
+    public ShotController(Backend backend, long aeTimeoutMillis, LatencyRecorder latencyRecorder) {
+        mBackend = backend;
+        mLatencyRecorder = latencyRecorder;
+        mSessionManager = new CaptureSessionManager(backend);
+        mAePrecapture = new AePrecaptureSequence(aeTimeoutMillis, new AePrecaptureSequence.Listener() {
+            @Override
+            public void onReadyToCapture(boolean converged, long latencyNanos) {
+                if (null != mLatencyRecorder) {
+                    mLatencyRecorder.record(LatencyRecorder.STAGE_PRECAPTURE, latencyNanos);
+                }
+                mBackend.onPrecaptureFinished(converged, latencyNanos);
+                mSessionManager.requestBurst(mCount);
+            }
+        });
+    }
+
+    /**
+     * Take a photograph
+     *
+     * @param mode FlashMode to take it with
+     * @param count int number of stills, more than one for a burst
+     * @return true if the shot was started, false if another capture is in progress and it was refused
+     */
+    public boolean takeStill(FlashMode mode, int count) {
+        // A flash shot is in progress from its precapture trigger, before the session manager knows of it
+        if (count < 1 || mAePrecapture.isActive()) {
+            return false;
+        }
+        if (mode.firesFlash()) {
+            if (!mSessionManager.canRequest()) {
+                return false;
+            }
+            mCount = count;
+            mAePrecapture.start(System.nanoTime());
+            mBackend.triggerPrecapture();
+            return true;
+        }
+        mCount = count;
+        return mSessionManager.requestBurst(count);
+    }
+
+    /**
+     * Called by the Backend if the precapture trigger could not be submitted. The still is taken without
+     * waiting for AE.
+     */
+    public void onPrecaptureFailed() {
+        mAePrecapture.cancel();
+        mSessionManager.requestBurst(mCount);
+    }
+
+    public CaptureSessionManager getSessionManager() {
+        return mSessionManager;
+    }
+
+    public AePrecaptureSequence getAePrecapture() {
+        return mAePrecapture;
+    }
+}
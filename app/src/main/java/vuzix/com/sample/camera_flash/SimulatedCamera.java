@@ -0,0 +1,204 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A camera with no hardware, for timing the capture flow on a plain JVM.
+ *
+ * Every operation completes after a fixed, configurable delay on one scheduler thread, so a run
+ * repeats exactly: the session is configured after configureMillis, AE reports PRECAPTURE for
+ * aeConvergeFrames frames and then CONVERGED, and each still is delivered jpegDeliveryMillis after it
+ * is submitted, frames of a burst frameIntervalMillis apart. Every still is the same JPEG, handed to
+ * a FrameSink, which must report the frame to the CaptureSessionManager once it is done with it, just
+ * as MainActivity does once the writer has saved the file.
+ */
+public class SimulatedCamera implements ShotController.Backend {
+
+    /**
+     * Receives the simulated stills, on the scheduler thread
+     */
+    public interface FrameSink {
+        /**
+         * @param jpeg ByteBuffer holding the JPEG, only valid until this returns
+         * @param timestampNanos long simulated sensor timestamp
+         */
+        void onFrame(ByteBuffer jpeg, long timestampNanos);
+    }
+
+    private final long mConfigureMillis;
+    private final long mFrameIntervalMillis;
+    private final int mAeConvergeFrames;
+    private final long mJpegDeliveryMillis;
+    private final ByteBuffer mJpeg;
+    private final FrameSink mSink;
+    private final ScheduledExecutorService mScheduler = Executors.newSingleThreadScheduledExecutor();
+    private ShotController mController;
+    private ScheduledFuture<?> mContinuous;
+    private long mFrameCount;
+    private int mPreviewStarts;
+
+    /**
+     * @param configureMillis long time to create a capture session
+     * @param frameIntervalMillis long time between frames, for AE results, bursts and continuous capture
+     * @param aeConvergeFrames int frames AE spends in PRECAPTURE after the trigger
+     * @param jpegDeliveryMillis long time from submitting a still to its JPEG being available
+     * @param jpeg ByteBuffer holding the JPEG every still delivers
+     * @param sink FrameSink to receive the stills
+     */
+    public SimulatedCamera(long configureMillis, long frameIntervalMillis, int aeConvergeFrames,
+                           long jpegDeliveryMillis, ByteBuffer jpeg, FrameSink sink) {
+        mConfigureMillis = configureMillis;
+        mFrameIntervalMillis = frameIntervalMillis;
+        mAeConvergeFrames = aeConvergeFrames;
+        mJpegDeliveryMillis = jpegDeliveryMillis;
+        mJpeg = jpeg;
+        mSink = sink;
+    }
+
+    /**
+     * Connect the controller whose session manager and AE sequence this camera reports to. Call once,
+     * before the session is opened.
+     */
+    public void attach(ShotController controller) {
+        mController = controller;
+    }
+
+    @Override
+    public void configureSession() {
+        mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                mController.getSessionManager().onSessionConfigured();
+            }
+        }, mConfigureMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void startPreview() {
+        mPreviewStarts++;
+    }
+
+    @Override
+    public void submitStill() {
+        deliver(mJpegDeliveryMillis);
+    }
+
+    @Override
+    public void submitBurst(int count) {
+        for (int i = 0; i < count; i++) {
+            deliver(mJpegDeliveryMillis + i * mFrameIntervalMillis);
+        }
+    }
+
+    @Override
+    public synchronized void startContinuous() {
+        mContinuous = mScheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                mController.getSessionManager().onFrameStarted();
+                deliver(mJpegDeliveryMillis);
+            }
+        }, 0, mFrameIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void stopContinuous() {
+        if (null != mContinuous) {
+            mContinuous.cancel(false);
+            mContinuous = null;
+        }
+    }
+
+    @Override
+    public void triggerPrecapture() {
+        final AePrecaptureSequence sequence = mController.getAePrecapture();
+        for (int frame = 0; frame <= mAeConvergeFrames; frame++) {
+            final boolean trigger = (frame == 0);
+            final int aeState = (frame < mAeConvergeFrames) ? AePrecaptureSequence.AE_STATE_PRECAPTURE
+                    : AePrecaptureSequence.AE_STATE_CONVERGED;
+            mScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (trigger) {
+                        sequence.onTriggerResult(aeState, System.nanoTime());
+                    } else {
+                        sequence.onResult(aeState, System.nanoTime());
+                    }
+                }
+            }, (frame + 1) * mFrameIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void onPrecaptureFinished(boolean converged, long latencyNanos) {
+    }
+
+    private void deliver(long delayMillis) {
+        mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                long timestamp;
+                synchronized (SimulatedCamera.this) {
+                    timestamp = ++mFrameCount * mFrameIntervalMillis * 1000000L;
+                }
+                mSink.onFrame(mJpeg.duplicate(), timestamp);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return int number of times the preview has been started
+     */
+    public synchronized int getPreviewStartCount() {
+        return mPreviewStarts;
+    }
+
+    /**
+     * @return long number of stills delivered
+     */
+    public synchronized long getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * Stop the scheduler. Work not yet due is dropped.
+     */
+    public void shutdown() {
+        mScheduler.shutdownNow();
+    }
+}
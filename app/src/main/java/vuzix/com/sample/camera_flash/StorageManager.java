@@ -0,0 +1,303 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides whether there is room for the next capture, and how hard each written image is pushed to
+ * the flash device.
+ *
+ * Free space is read from the file system (one statfs) when this is created, then reduced by every
+ * byte written, and only read again after REFRESH_BYTES have been written or REFRESH_MILLIS have
+ * passed, so asking about a shot costs no system call. Below the low watermark captures are degraded,
+ * below the critical watermark they are rejected. The read goes through FreeSpace, so a test can set
+ * the free space.
+ *
+ * The Durability policy chooses between an fsync per file, a group commit that syncs every groupFiles
+ * files or after groupMillis, whichever comes first, and no sync at all. onFileWritten(), commit() and
+ * getCommitDelayMillis() must be called from the one writer thread; admit() and onFileDeleted() may be
+ * called from any thread.
+ */
+public class StorageManager {
+
+    public enum Durability {
+        /** Leave the data in the page cache. Fastest, but a power loss can lose recent images. */
+        NONE,
+        /** Sync each file before it is reported written */
+        PER_FILE,
+        /** Sync files in groups, trading a bounded window of exposure for fewer syncs */
+        GROUP_COMMIT
+    }
+
+    public enum Admission {
+        /** There is plenty of room */
+        ACCEPT,
+        /** Below the low watermark: take the capture in its cheapest form */
+        DEGRADE,
+        /** Below the critical watermark: do not take the capture */
+        REJECT
+    }
+
+    /**
+     * Reads the free space of the file system the images are written to
+     */
+    public interface FreeSpace {
+        /**
+         * @return long bytes this app may still write
+         */
+        long getUsableBytes();
+    }
+
+    public static final long REFRESH_BYTES  = 64L * 1024 * 1024;
+    public static final long REFRESH_MILLIS = 30000;
+
+    private final FreeSpace mFreeSpace;
+    private final long mLowWatermarkBytes;
+    private final long mCriticalWatermarkBytes;
+    private final int mGroupFiles;
+    private final long mGroupNanos;
+    private volatile Durability mDurability = Durability.NONE;
+
+    private final AtomicLong mFreeBytes = new AtomicLong();
+    private final AtomicLong mBytesSinceRefresh = new AtomicLong();
+    private volatile long mRefreshNanos;
+    private volatile long mExpectedImageBytes;
+    private volatile int mRefreshes;
+    private volatile int mSyncs;
+
+    // Only used on the writer thread
+    private final ArrayList<FileOutputStream> mUncommitted = new ArrayList<FileOutputStream>();
+    private long mFirstUncommittedNanos;
+
+    /**
+     * @param directory File directory the images are written to
+     * @param lowWatermarkBytes long free space below which captures are degraded
+     * @param criticalWatermarkBytes long free space below which captures are rejected
+     * @param groupFiles int most files in one group commit
+     * @param groupMillis long longest a written file waits for its group commit
+     * @param initialImageBytes long size to expect of an image until some have been written
+     */
+    public StorageManager(final File directory, long lowWatermarkBytes, long criticalWatermarkBytes,
+                          int groupFiles, long groupMillis, long initialImageBytes) {
+        this(new FreeSpace() {
+            @Override
+            public long getUsableBytes() {
+                return directory.getUsableSpace();
+            }
+        }, lowWatermarkBytes, criticalWatermarkBytes, groupFiles, groupMillis, initialImageBytes);
+    }
+
+    /**
+     * @param freeSpace FreeSpace to read the free space from
+     * @param lowWatermarkBytes long free space below which captures are degraded
+     * @param criticalWatermarkBytes long free space below which captures are rejected
+     * @param groupFiles int most files in one group commit
+     * @param groupMillis long longest a written file waits for its group commit
+     * @param initialImageBytes long size to expect of an image until some have been written
+     */
+    public StorageManager(FreeSpace freeSpace, long lowWatermarkBytes, long criticalWatermarkBytes,
+                          int groupFiles, long groupMillis, long initialImageBytes) {
+        mFreeSpace = freeSpace;
+        mLowWatermarkBytes = lowWatermarkBytes;
+        mCriticalWatermarkBytes = criticalWatermarkBytes;
+        mGroupFiles = groupFiles;
+        mGroupNanos = groupMillis * 1000000L;
+        mExpectedImageBytes = initialImageBytes;
+        refresh();
+    }
+
+    /**
+     * @param durability Durability for the files written from now on. Files waiting for a group commit
+     *                   are still committed.
+     */
+    public void setDurability(Durability durability) {
+        mDurability = durability;
+    }
+
+    public Durability getDurability() {
+        return mDurability;
+    }
+
+    /**
+     * Decide whether a capture fits. Makes no system call.
+     *
+     * @param images int number of images the capture writes
+     * @return Admission for the capture
+     */
+    public Admission admit(int images) {
+        long remaining = mFreeBytes.get() - images * mExpectedImageBytes;
+        if (remaining < mCriticalWatermarkBytes) {
+            return Admission.REJECT;
+        }
+        if (remaining < mLowWatermarkBytes) {
+            return Admission.DEGRADE;
+        }
+        return Admission.ACCEPT;
+    }
+
+    /**
+     * Account for a file whose bytes have all been written, and make it as durable as the policy asks.
+     * This takes over the stream: it is closed now, or at the group commit.
+     *
+     * @param output FileOutputStream the image was written to
+     * @param length long number of bytes written
+     * @throws IOException if the file could not be synced or closed
+     */
+    public void onFileWritten(FileOutputStream output, long length) throws IOException {
+        mFreeBytes.addAndGet(-length);
+        // A running average, so the admission estimate follows the scene and the capture size
+        mExpectedImageBytes += (length - mExpectedImageBytes) / 8;
+        if (mBytesSinceRefresh.addAndGet(length) >= REFRESH_BYTES || System.nanoTime() - mRefreshNanos >= REFRESH_MILLIS * 1000000L) {
+            refresh();
+        }
+        switch (mDurability) {
+            case PER_FILE:
+                try {
+                    output.getFD().sync();
+                    mSyncs++;
+                } finally {
+                    output.close();
+                }
+                break;
+            case GROUP_COMMIT:
+                if (mUncommitted.isEmpty()) {
+                    mFirstUncommittedNanos = System.nanoTime();
+                }
+                mUncommitted.add(output);
+                if (mUncommitted.size() >= mGroupFiles || getCommitDelayMillis() == 0) {
+                    commit();
+                }
+                break;
+            default:
+                output.close();
+                break;
+        }
+    }
+
+    /**
+     * Account for a file that has been deleted, so its space can be admitted again before the next refresh
+     *
+     * @param length long size the file had, in bytes
+     */
+    public void onFileDeleted(long length) {
+        mFreeBytes.addAndGet(length);
+    }
+
+    /**
+     * @return long milliseconds until the waiting files must be committed, 0 if they are due, or -1 if
+     * no file is waiting
+     */
+    public long getCommitDelayMillis() {
+        if (mUncommitted.isEmpty()) {
+            return -1;
+        }
+        long waited = System.nanoTime() - mFirstUncommittedNanos;
+        return Math.max(0, (mGroupNanos - waited) / 1000000L);
+    }
+
+    /**
+     * Sync and close every file waiting for a group commit
+     *
+     * @throws IOException from the first file that could not be synced or closed. The others are still committed.
+     */
+    public void commit() throws IOException {
+        IOException failure = null;
+        for (FileOutputStream output : mUncommitted) {
+            try {
+                output.getFD().sync();
+                mSyncs++;
+            } catch (IOException e) {
+                if (null == failure) {
+                    failure = e;
+                }
+            } finally {
+                try {
+                    output.close();
+                } catch (IOException e) {
+                    if (null == failure) {
+                        failure = e;
+                    }
+                }
+            }
+        }
+        mUncommitted.clear();
+        if (null != failure) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Read the free space from the file system again
+     */
+    private void refresh() {
+        mFreeBytes.set(mFreeSpace.getUsableBytes());
+        mBytesSinceRefresh.set(0);
+        mRefreshNanos = System.nanoTime();
+        mRefreshes++;
+    }
+
+    /**
+     * @return long free bytes as currently tracked
+     */
+    public long getFreeBytes() {
+        return mFreeBytes.get();
+    }
+
+    public long getExpectedImageBytes() {
+        return mExpectedImageBytes;
+    }
+
+    /**
+     * @return int number of times the free space has been read from the file system
+     */
+    public int getRefreshCount() {
+        return mRefreshes;
+    }
+
+    /**
+     * @return int number of files synced
+     */
+    public int getSyncCount() {
+        return mSyncs;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s, %d MB free, %d KB per image, %d refreshes, %d syncs",
+                mDurability, getFreeBytes() / (1024 * 1024), mExpectedImageBytes / 1024, mRefreshes, mSyncs);
+    }
+}
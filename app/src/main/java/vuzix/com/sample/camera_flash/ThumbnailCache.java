@@ -0,0 +1,194 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used cache bounded by the total size of its values in bytes rather than by their count,
+ * so thumbnails of different sizes share one memory budget.
+ *
+ * The size of each value is measured once, when it is added, and kept with the entry so the running
+ * total stays exact however the values change later. Values are never recycled by the cache; the
+ * EvictionListener is told so the owner can. All methods are synchronized. Kept free of Android types
+ * so it can be exercised on a plain JVM; on the device the values are Bitmaps.
+ */
+public class ThumbnailCache<K, V> {
+
+    /**
+     * Measures a value
+     */
+    public interface Sizer<V> {
+        /**
+         * @return int bytes of memory the value holds, e.g. Bitmap.getAllocationByteCount()
+         */
+        int sizeOf(V value);
+    }
+
+    /**
+     * Interface for receiving callbacks from this cache
+     */
+    public interface EvictionListener<K, V> {
+        /**
+         * Method that is called, with the cache locked, when a value is dropped to make room or replaced
+         */
+        void onEvicted(K key, V value);
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        final int bytes;
+
+        Entry(V value, int bytes) {
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+
+    // Access ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<K, Entry<V>> mEntries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true);
+    private final Sizer<V> mSizer;
+    private final EvictionListener<K, V> mEvictionListener;
+    private final long mMaxBytes;
+    private long mBytes;
+    private int mHits;
+    private int mMisses;
+    private int mEvictions;
+
+    /**
+     * @param maxBytes long most bytes the values may hold together
+     * @param sizer Sizer that measures each value
+     * @param evictionListener EvictionListener to be told of dropped values, or null
+     */
+    public ThumbnailCache(long maxBytes, Sizer<V> sizer, EvictionListener<K, V> evictionListener) {
+        mMaxBytes = maxBytes;
+        mSizer = sizer;
+        mEvictionListener = evictionListener;
+    }
+
+    /**
+     * @param key K key of the value
+     * @return V the value, which becomes the most recently used, or null if it is not cached
+     */
+    public synchronized V get(K key) {
+        Entry<V> entry = mEntries.get(key);
+        if (null == entry) {
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        return entry.value;
+    }
+
+    /**
+     * Add or replace a value, then drop least recently used values until the total fits
+     *
+     * @param key K key of the value
+     * @param value V value to cache
+     * @return true if the value was cached, false if it alone is larger than the whole cache
+     */
+    public synchronized boolean put(K key, V value) {
+        int bytes = mSizer.sizeOf(value);
+        if (bytes > mMaxBytes) {
+            remove(key);
+            return false;
+        }
+        Entry<V> previous = mEntries.put(key, new Entry<V>(value, bytes));
+        mBytes += bytes;
+        if (null != previous) {
+            mBytes -= previous.bytes;
+            if (previous.value != value) {
+                evicted(key, previous.value);
+            }
+        }
+        trimTo(mMaxBytes);
+        return true;
+    }
+
+    /**
+     * @param key K key of the value to drop
+     * @return V the value that was removed, or null if it was not cached. The EvictionListener is not called.
+     */
+    public synchronized V remove(K key) {
+        Entry<V> entry = mEntries.remove(key);
+        if (null == entry) {
+            return null;
+        }
+        mBytes -= entry.bytes;
+        return entry.value;
+    }
+
+    /**
+     * Drop least recently used values until the total is at most maxBytes
+     *
+     * @param maxBytes long size to shrink to, 0 to empty the cache, e.g. from onTrimMemory()
+     */
+    public synchronized void trimTo(long maxBytes) {
+        Iterator<Map.Entry<K, Entry<V>>> eldest = mEntries.entrySet().iterator();
+        while (mBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<K, Entry<V>> entry = eldest.next();
+            eldest.remove();
+            mBytes -= entry.getValue().bytes;
+            mEvictions++;
+            evicted(entry.getKey(), entry.getValue().value);
+        }
+    }
+
+    private void evicted(K key, V value) {
+        if (null != mEvictionListener) {
+            mEvictionListener.onEvicted(key, value);
+        }
+    }
+
+    /**
+     * @return long bytes held by the cached values
+     */
+    public synchronized long getBytes() {
+        return mBytes;
+    }
+
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d thumbnails, %d/%d KB, %d hits, %d misses, %d evicted",
+                mEntries.size(), mBytes / 1024, mMaxBytes / 1024, mHits, mMisses, mEvictions);
+    }
+}
@@ -0,0 +1,339 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Encodes YUV_420_888 frames to JPEG on a pool of worker threads, so a burst is encoded on every core.
+ *
+ * submit() only bulk copies the three planes into one of a fixed number of pooled frames, so the camera
+ * Image can be released at once. A worker then interleaves the chroma into NV21, rotating by 180 degrees
+ * if asked, returns the frame to the pool and encodes. Each worker keeps its own NV21 and output buffers,
+ * so the steady state does not allocate. The pooled planes are heap arrays rather than direct buffers,
+ * because the conversion and the Encoder both work on byte[] and a direct buffer would cost another copy.
+ * As in JpegWriter, submit() waits a bounded time for a free frame and then rejects the image. An image
+ * that cannot be converted or encoded, whether the Encoder throws an IOException or a RuntimeException,
+ * is reported to the Listener and counted, and the worker goes on to the next one.
+ */
+public class YuvJpegEncoder {
+
+    /**
+     * Compresses one NV21 image. Called on a worker thread, possibly on several at once.
+     */
+    public interface Encoder {
+        /**
+         * @param nv21 byte[] NV21 image, width * height * 3 / 2 bytes
+         * @param width int width of the image in pixels
+         * @param height int height of the image in pixels
+         * @param out OutputStream to write the JPEG to
+         * @throws IOException if the image could not be encoded
+         */
+        void encode(byte[] nv21, int width, int height, OutputStream out) throws IOException;
+    }
+
+    /**
+     * Interface for receiving callbacks from this encoder. Called on a worker thread.
+     */
+    public interface Listener {
+        /**
+         * Method that is called when an image has been encoded
+         * @param jpeg ByteBuffer holding the JPEG. It is only valid until this method returns.
+         * @param file File the image was submitted with
+         */
+        void onImageEncoded(ByteBuffer jpeg, File file);
+
+        /**
+         * Method that is called when an image could not be encoded
+         * @param file File the image was submitted with
+         * @param e IOException describing the failure
+         */
+        void onImageEncodeFailed(File file, IOException e);
+    }
+
+    private static final class Frame {
+        byte[] y = new byte[0];
+        byte[] u = new byte[0];
+        byte[] v = new byte[0];
+        int width;
+        int height;
+        int yRowStride;
+        int uvRowStride;
+        int uvPixelStride;
+        boolean rotate180;
+        File file;
+    }
+
+    /**
+     * A ByteArrayOutputStream whose bytes can be handed on without the copy toByteArray() makes
+     */
+    private static final class JpegOutputStream extends ByteArrayOutputStream {
+        JpegOutputStream(int size) {
+            super(size);
+        }
+
+        ByteBuffer asByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+
+    private static final Frame STOP = new Frame();
+
+    private final BlockingQueue<Frame> mFreeFrames;
+    private final BlockingQueue<Frame> mPendingFrames;
+    private final Thread[] mWorkers;
+    private final Encoder mEncoder;
+    private final Listener mListener;
+    private final long mSubmitTimeoutMillis;
+    private final AtomicInteger mImagesEncoded = new AtomicInteger();
+    private final AtomicInteger mImagesRejected = new AtomicInteger();
+    private final AtomicInteger mImagesFailed = new AtomicInteger();
+
+    /**
+     * @param workers int number of encoding threads
+     * @param frames int number of images that may wait to be encoded at once
+     * @param submitTimeoutMillis long how long submit() waits for a free frame before rejecting the image
+     * @param encoder Encoder that compresses each image
+     * @param listener Listener to be called as each image is encoded
+     */
+    public YuvJpegEncoder(int workers, int frames, long submitTimeoutMillis, Encoder encoder, Listener listener) {
+        mFreeFrames = new ArrayBlockingQueue<Frame>(frames);
+        mPendingFrames = new ArrayBlockingQueue<Frame>(frames + workers);
+        for (int i = 0; i < frames; i++) {
+            mFreeFrames.add(new Frame());
+        }
+        mEncoder = encoder;
+        mListener = listener;
+        mSubmitTimeoutMillis = submitTimeoutMillis;
+        mWorkers = new Thread[workers];
+        for (int i = 0; i < workers; i++) {
+            mWorkers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    encodeLoop();
+                }
+            }, "JPEG Encoder " + i);
+            mWorkers[i].start();
+        }
+    }
+
+    /**
+     * Copy the planes of a YUV_420_888 image and queue it to be encoded. The buffers can be reused or
+     * released as soon as this returns.
+     *
+     * @param y ByteBuffer of the luma plane
+     * @param yRowStride int row stride of the luma plane
+     * @param u ByteBuffer of the U plane
+     * @param v ByteBuffer of the V plane
+     * @param uvRowStride int row stride of the chroma planes
+     * @param uvPixelStride int pixel stride of the chroma planes, 1 for planar or 2 for semi-planar
+     * @param width int width of the image in pixels
+     * @param height int height of the image in pixels
+     * @param rotate180 boolean true to turn the image upside down while it is converted
+     * @param file File passed back to the Listener
+     * @return true if the image was queued, false if the workers were too far behind and it was dropped
+     * @throws InterruptedException if interrupted while waiting for a free frame
+     */
+    public boolean submit(ByteBuffer y, int yRowStride, ByteBuffer u, ByteBuffer v, int uvRowStride, int uvPixelStride,
+                          int width, int height, boolean rotate180, File file) throws InterruptedException {
+        Frame frame = mFreeFrames.poll(mSubmitTimeoutMillis, TimeUnit.MILLISECONDS);
+        if (null == frame) {
+            mImagesRejected.incrementAndGet();
+            return false;
+        }
+        frame.y = copy(y, frame.y);
+        frame.u = copy(u, frame.u);
+        frame.v = copy(v, frame.v);
+        frame.width = width;
+        frame.height = height;
+        frame.yRowStride = yRowStride;
+        frame.uvRowStride = uvRowStride;
+        frame.uvPixelStride = uvPixelStride;
+        frame.rotate180 = rotate180;
+        frame.file = file;
+        mPendingFrames.put(frame);
+        return true;
+    }
+
+    /**
+     * Encode everything already queued, then stop the worker threads. Call from your onPause()
+     */
+    public void shutdown() {
+        try {
+            for (int i = 0; i < mWorkers.length; i++) {
+                mPendingFrames.put(STOP);
+            }
+            for (Thread worker : mWorkers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void encodeLoop() {
+        byte[] nv21 = new byte[0];
+        JpegOutputStream out = new JpegOutputStream(0);
+        while (true) {
+            Frame frame;
+            try {
+                frame = mPendingFrames.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (frame == STOP) {
+                return;
+            }
+            int width = frame.width;
+            int height = frame.height;
+            File file = frame.file;
+            int size = width * height * 3 / 2;
+            if (nv21.length < size) {
+                nv21 = new byte[size];
+                out = new JpegOutputStream(size / 4);
+            }
+            IOException failure = null;
+            try {
+                toNv21(frame.y, frame.yRowStride, frame.u, frame.v, frame.uvRowStride, frame.uvPixelStride,
+                        width, height, frame.rotate180, nv21);
+            } catch (RuntimeException e) {
+                failure = new IOException("Could not convert the frame to NV21", e);
+            } finally {
+                // The planes have been consumed, so the frame can take the next image while this one encodes
+                frame.file = null;
+                mFreeFrames.add(frame);
+            }
+            if (null == failure) {
+                try {
+                    out.reset();
+                    mEncoder.encode(nv21, width, height, out);
+                } catch (IOException e) {
+                    failure = e;
+                } catch (RuntimeException e) {
+                    failure = new IOException("Encoder failed", e);
+                }
+            }
+            if (null != failure) {
+                mImagesFailed.incrementAndGet();
+                mListener.onImageEncodeFailed(file, failure);
+                continue;
+            }
+            mImagesEncoded.incrementAndGet();
+            mListener.onImageEncoded(out.asByteBuffer(), file);
+        }
+    }
+
+    /**
+     * Interleave YUV_420_888 planes into NV21: the full luma plane followed by V,U pairs
+     *
+     * @param y byte[] luma plane
+     * @param yRowStride int row stride of the luma plane
+     * @param u byte[] U plane
+     * @param v byte[] V plane
+     * @param uvRowStride int row stride of the chroma planes
+     * @param uvPixelStride int pixel stride of the chroma planes
+     * @param width int width of the image in pixels, even
+     * @param height int height of the image in pixels, even
+     * @param rotate180 boolean true to turn the image upside down
+     * @param out byte[] at least width * height * 3 / 2 bytes
+     */
+    static void toNv21(byte[] y, int yRowStride, byte[] u, byte[] v, int uvRowStride, int uvPixelStride,
+                       int width, int height, boolean rotate180, byte[] out) {
+        for (int row = 0; row < height; row++) {
+            if (rotate180) {
+                int src = row * yRowStride;
+                int dst = (height - row) * width - 1;
+                for (int x = 0; x < width; x++) {
+                    out[dst - x] = y[src + x];
+                }
+            } else {
+                System.arraycopy(y, row * yRowStride, out, row * width, width);
+            }
+        }
+        int chromaWidth = width / 2;
+        int chromaHeight = height / 2;
+        int chroma = width * height;
+        for (int row = 0; row < chromaHeight; row++) {
+            int src = row * uvRowStride;
+            int dst = rotate180 ? chroma + (chromaHeight - 1 - row) * width + width - 2 : chroma + row * width;
+            int step = rotate180 ? -2 : 2;
+            for (int x = 0; x < chromaWidth; x++) {
+                out[dst] = v[src];
+                out[dst + 1] = u[src];
+                src += uvPixelStride;
+                dst += step;
+            }
+        }
+    }
+
+    /**
+     * @return byte[] holding the bytes of source from its position to its limit, dest if it is large enough
+     */
+    private static byte[] copy(ByteBuffer source, byte[] dest) {
+        ByteBuffer plane = source.duplicate();
+        int length = plane.remaining();
+        if (dest.length < length) {
+            dest = new byte[length];
+        }
+        plane.get(dest, 0, length);
+        return dest;
+    }
+
+    /**
+     * @return int number of images encoded since this encoder was created
+     */
+    public int getImagesEncoded() {
+        return mImagesEncoded.get();
+    }
+
+    /**
+     * @return int number of images dropped because every frame was waiting to be encoded
+     */
+    public int getImagesRejected() {
+        return mImagesRejected.get();
+    }
+
+    /**
+     * @return int number of images that could not be converted or encoded
+     */
+    public int getImagesFailed() {
+        return mImagesFailed.get();
+    }
+}
@@ -0,0 +1,238 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps the most recent full resolution JPEG frames for zero shutter lag capture.
+ *
+ * Every slot is a direct buffer allocated up front, so adding a frame is only a copy. When all slots
+ * are full the oldest frame is overwritten. When the shutter is pressed the frame whose timestamp is
+ * closest to the press is handed to a Consumer. A still whose frame reached the ring before it was
+ * expected can be taken out by its exact timestamp instead. Its buffer is swapped with a spare under the lock and
+ * handed over outside it, so a slow Consumer never holds up add(). If the Consumer refuses the frame,
+ * it goes back into the ring if its slot has not been reused in the meantime.
+ */
+public class ZslRingBuffer {
+
+    /**
+     * Receives the selected frame, without the lock of the ring held. The buffer is only valid until
+     * accept() returns.
+     */
+    public interface Consumer {
+        /**
+         * @param jpeg ByteBuffer holding the JPEG between its position and limit
+         * @param timestampNanos long sensor timestamp of the frame
+         * @return boolean result passed back from takeClosest() or take(). false puts the frame back if it can.
+         */
+        boolean accept(ByteBuffer jpeg, long timestampNanos) throws InterruptedException;
+    }
+
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private final ByteBuffer[] mSlots;
+    private final long[] mTimestamps;
+    // Swapped into the slot of a frame while a Consumer has it, or null while a frame is taken
+    private ByteBuffer mSpare;
+    // Changed by clear(), so a frame taken before it is not put back after it
+    private int mGeneration;
+    private int mNext;
+    private int mFramesAdded;
+    private int mFramesEvicted;
+    private int mFramesTooLarge;
+
+    /**
+     * @param slotCount int number of frames to keep
+     * @param slotCapacity int largest JPEG, in bytes, a slot can hold
+     */
+    public ZslRingBuffer(int slotCount, int slotCapacity) {
+        mSlots = new ByteBuffer[slotCount];
+        mTimestamps = new long[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            mSlots[i] = ByteBuffer.allocateDirect(slotCapacity);
+            mTimestamps[i] = EMPTY;
+        }
+        mSpare = ByteBuffer.allocateDirect(slotCapacity);
+    }
+
+    /**
+     * Copy a frame into the ring, evicting the oldest frame if every slot is in use
+     *
+     * @param jpeg ByteBuffer holding the JPEG between its position and limit. Its position is not changed.
+     * @param timestampNanos long sensor timestamp of the frame
+     * @return true if the frame was kept, false if it is larger than a slot
+     */
+    public synchronized boolean add(ByteBuffer jpeg, long timestampNanos) {
+        int length = JpegSink.validLength(jpeg);
+        ByteBuffer slot = mSlots[mNext];
+        if (length > slot.capacity()) {
+            mFramesTooLarge++;
+            return false;
+        }
+        if (mTimestamps[mNext] != EMPTY) {
+            mFramesEvicted++;
+        }
+        ByteBuffer frame = jpeg.duplicate();
+        frame.limit(frame.position() + length);
+        slot.clear();
+        slot.put(frame);
+        slot.flip();
+        mTimestamps[mNext] = timestampNanos;
+        mNext = (mNext + 1) % mSlots.length;
+        mFramesAdded++;
+        return true;
+    }
+
+    /**
+     * Hand the frame closest to timestampNanos to consumer, and remove it from the ring. Only one frame
+     * can be out at a time.
+     *
+     * @param timestampNanos long time of the shutter press, in the same time base as the frames,
+     *                       or Long.MAX_VALUE for the newest frame
+     * @param consumer Consumer that copies or writes the frame. It is called without the lock held.
+     * @return the value returned by consumer, or false if the ring is empty or another frame is out
+     */
+    public boolean takeClosest(long timestampNanos, Consumer consumer) throws InterruptedException {
+        return take(timestampNanos, false, consumer);
+    }
+
+    /**
+     * Hand the frame with exactly this timestamp to consumer, and remove it from the ring. Only one frame
+     * can be out at a time.
+     *
+     * @param timestampNanos long sensor timestamp of the frame
+     * @param consumer Consumer that copies or writes the frame. It is called without the lock held.
+     * @return the value returned by consumer, or false if the frame is not in the ring or another frame is out
+     */
+    public boolean take(long timestampNanos, Consumer consumer) throws InterruptedException {
+        return take(timestampNanos, true, consumer);
+    }
+
+    private boolean take(long timestampNanos, boolean exact, Consumer consumer) throws InterruptedException {
+        ByteBuffer frame;
+        long timestamp;
+        int slot;
+        int generation;
+        synchronized (this) {
+            slot = exact ? find(timestampNanos) : findClosest(timestampNanos);
+            if (slot < 0 || null == mSpare) {
+                return false;
+            }
+            frame = mSlots[slot];
+            timestamp = mTimestamps[slot];
+            mSlots[slot] = mSpare;
+            mSpare = null;
+            mTimestamps[slot] = EMPTY;
+            generation = mGeneration;
+        }
+        boolean accepted = false;
+        try {
+            accepted = consumer.accept(frame.duplicate(), timestamp);
+            return accepted;
+        } finally {
+            synchronized (this) {
+                if (!accepted && generation == mGeneration && mTimestamps[slot] == EMPTY) {
+                    // Nothing has reused the slot, so the frame can be taken again
+                    mSpare = mSlots[slot];
+                    mSlots[slot] = frame;
+                    mTimestamps[slot] = timestamp;
+                } else {
+                    mSpare = frame;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return int index of the slot whose frame has this timestamp, or -1 if there is none
+     */
+    private int find(long timestampNanos) {
+        for (int i = 0; i < mSlots.length; i++) {
+            if (mTimestamps[i] == timestampNanos && timestampNanos != EMPTY) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return int index of the slot whose frame is closest to timestampNanos, or -1 if the ring is empty
+     */
+    private int findClosest(long timestampNanos) {
+        int best = -1;
+        long bestDistance = Long.MAX_VALUE;
+        for (int i = 0; i < mSlots.length; i++) {
+            long timestamp = mTimestamps[i];
+            if (timestamp == EMPTY) {
+                continue;
+            }
+            long distance = Math.abs(timestamp - timestampNanos);
+            if (timestampNanos == Long.MAX_VALUE) {
+                distance = Long.MAX_VALUE - timestamp;
+            }
+            if (distance < bestDistance || best < 0) {
+                best = i;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Empty every slot. The buffers are kept for reuse.
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < mTimestamps.length; i++) {
+            mTimestamps[i] = EMPTY;
+        }
+        mGeneration++;
+    }
+
+    public synchronized int getFramesAdded() {
+        return mFramesAdded;
+    }
+
+    /**
+     * @return int number of frames overwritten before anyone took them
+     */
+    public synchronized int getFramesEvicted() {
+        return mFramesEvicted;
+    }
+
+    /**
+     * @return int number of frames skipped because they did not fit in a slot
+     */
+    public synchronized int getFramesTooLarge() {
+        return mFramesTooLarge;
+    }
+}
@@ -0,0 +1,183 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static vuzix.com.sample.camera_flash.AePrecaptureSequence.AE_STATE_CONVERGED;
+import static vuzix.com.sample.camera_flash.AePrecaptureSequence.AE_STATE_FLASH_REQUIRED;
+import static vuzix.com.sample.camera_flash.AePrecaptureSequence.AE_STATE_PRECAPTURE;
+import static vuzix.com.sample.camera_flash.AePrecaptureSequence.AE_STATE_SEARCHING;
+
+public class AePrecaptureSequenceTest {
+
+    private static final long TIMEOUT_MILLIS = 1000;
+    private static final long FRAME_NANOS = 33000000L;
+
+    private AePrecaptureSequence mSequence;
+    private int mCalls;
+    private boolean mConverged;
+    private long mLatencyNanos;
+    private long mNow;
+    private int mFrame;
+
+    @Before
+    public void setUp() {
+        mSequence = new AePrecaptureSequence(TIMEOUT_MILLIS, new AePrecaptureSequence.Listener() {
+            @Override
+            public void onReadyToCapture(boolean converged, long latencyNanos) {
+                mCalls++;
+                mConverged = converged;
+                mLatencyNanos = latencyNanos;
+            }
+        });
+        mNow = 0;
+        mFrame = 0;
+        mSequence.start(mNow);
+    }
+
+    /**
+     * Feed a stream of AE states, one per frame, the first being the trigger's own result
+     *
+     * @return int frame on which the listener was first called, or -1 if it was not
+     */
+    private int feed(Integer... states) {
+        for (Integer state : states) {
+            mNow += FRAME_NANOS;
+            int before = mCalls;
+            if (0 == mFrame) {
+                mSequence.onTriggerResult(state, mNow);
+            } else {
+                mSequence.onResult(state, mNow);
+            }
+            if (0 == before && 1 == mCalls) {
+                return mFrame++;
+            }
+            mFrame++;
+        }
+        return -1;
+    }
+
+    @Test
+    public void precaptureThenConverged() {
+        assertEquals(4, feed(AE_STATE_PRECAPTURE, AE_STATE_PRECAPTURE, AE_STATE_PRECAPTURE, AE_STATE_PRECAPTURE,
+                AE_STATE_CONVERGED, AE_STATE_CONVERGED));
+        assertTrue(mConverged);
+        assertEquals(5 * FRAME_NANOS, mLatencyNanos);
+        assertEquals(mLatencyNanos, mSequence.getLastLatencyNanos());
+        assertFalse(mSequence.isActive());
+    }
+
+    @Test
+    public void precaptureReportedOneFrameLate() {
+        // The trigger's own result still shows the old converged state
+        assertEquals(2, feed(AE_STATE_CONVERGED, AE_STATE_PRECAPTURE, AE_STATE_CONVERGED));
+        assertTrue(mConverged);
+    }
+
+    @Test
+    public void convergedAloneDoesNotEndTheWait() {
+        assertEquals(-1, feed(AE_STATE_CONVERGED, AE_STATE_CONVERGED, AE_STATE_SEARCHING, AE_STATE_CONVERGED));
+        assertTrue(mSequence.isActive());
+    }
+
+    @Test
+    public void triggerResultNeverCompletes() {
+        assertEquals(-1, feed(AE_STATE_FLASH_REQUIRED));
+        assertEquals(1, feed(AE_STATE_FLASH_REQUIRED));
+        assertTrue(mConverged);
+    }
+
+    @Test
+    public void flashRequiredStartsTheWait() {
+        assertEquals(2, feed(AE_STATE_SEARCHING, AE_STATE_FLASH_REQUIRED, AE_STATE_CONVERGED));
+        assertTrue(mConverged);
+    }
+
+    @Test
+    public void missingAeStateCompletesOnTheNextResult() {
+        assertEquals(1, feed(null, null));
+        assertTrue(mConverged);
+    }
+
+    @Test
+    public void resultsBeforeTheTriggerAreIgnored() {
+        for (int i = 0; i < 5; i++) {
+            mNow += FRAME_NANOS;
+            mSequence.onResult(AE_STATE_CONVERGED, mNow);
+        }
+        assertEquals(0, mCalls);
+        assertEquals(2, feed(AE_STATE_PRECAPTURE, AE_STATE_PRECAPTURE, AE_STATE_CONVERGED));
+    }
+
+    @Test
+    public void resultsTimeOut() {
+        long frames = TIMEOUT_MILLIS * 1000000L / FRAME_NANOS;
+        for (int i = 0; i <= frames + 1 && 0 == mCalls; i++) {
+            feed(AE_STATE_PRECAPTURE);
+        }
+        assertEquals(1, mCalls);
+        assertFalse(mConverged);
+        assertTrue(mLatencyNanos >= TIMEOUT_MILLIS * 1000000L);
+    }
+
+    @Test
+    public void checkTimeoutWhenResultsStop() {
+        feed(AE_STATE_PRECAPTURE);
+        mSequence.checkTimeout(TIMEOUT_MILLIS * 1000000L - 1);
+        assertEquals(0, mCalls);
+        mSequence.checkTimeout(TIMEOUT_MILLIS * 1000000L);
+        assertEquals(1, mCalls);
+        assertFalse(mConverged);
+    }
+
+    @Test
+    public void listenerIsCalledOnce() {
+        feed(AE_STATE_PRECAPTURE, AE_STATE_CONVERGED, AE_STATE_CONVERGED, AE_STATE_PRECAPTURE, AE_STATE_CONVERGED);
+        mSequence.checkTimeout(Long.MAX_VALUE / 2);
+        assertEquals(1, mCalls);
+    }
+
+    @Test
+    public void cancelledSequenceIsSilent() {
+        feed(AE_STATE_PRECAPTURE);
+        mSequence.cancel();
+        feed(AE_STATE_CONVERGED);
+        mSequence.checkTimeout(Long.MAX_VALUE / 2);
+        assertEquals(0, mCalls);
+        assertFalse(mSequence.isActive());
+    }
+}
@@ -0,0 +1,216 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CaptureMetadataLogTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mFile;
+
+    @Before
+    public void setUp() {
+        mFile = new File(mFolder.getRoot(), "metadata.log");
+    }
+
+    /**
+     * Fill a record with values derived from its index, so each record can be checked on its own
+     */
+    private static void fill(CaptureMetadataLog.Record record, long index) {
+        record.sensorTimestampNanos = 1000000000L * index + 7;
+        record.wallTimeMillis = 1527001234567L + index;
+        record.exposureTimeNanos = 10000000L + index;
+        record.frameDurationNanos = 33333333L;
+        record.sensitivity = 100 + (int) (index % 1500);
+        record.aeMode = (int) (index % 4);
+        record.aeState = (int) (index % 6);
+        record.flashMode = (int) (index % 3);
+        record.flashState = -1;
+        record.jpegOrientation = (int) (index % 4) * 90;
+        record.frameNumber = index;
+        record.setFileName("IMAGE_" + index + ".jpg");
+    }
+
+    private static void assertRecord(long index, CaptureMetadataLog.Record record) {
+        CaptureMetadataLog.Record expected = new CaptureMetadataLog.Record();
+        fill(expected, index);
+        assertEquals(expected.sensorTimestampNanos, record.sensorTimestampNanos);
+        assertEquals(expected.wallTimeMillis, record.wallTimeMillis);
+        assertEquals(expected.exposureTimeNanos, record.exposureTimeNanos);
+        assertEquals(expected.frameDurationNanos, record.frameDurationNanos);
+        assertEquals(expected.sensitivity, record.sensitivity);
+        assertEquals(expected.aeMode, record.aeMode);
+        assertEquals(expected.aeState, record.aeState);
+        assertEquals(expected.flashMode, record.flashMode);
+        assertEquals(expected.flashState, record.flashState);
+        assertEquals(expected.jpegOrientation, record.jpegOrientation);
+        assertEquals(expected.frameNumber, record.frameNumber);
+        assertEquals(expected.getFileName(), record.getFileName());
+    }
+
+    private void append(long first, long count) throws IOException {
+        CaptureMetadataLog log = new CaptureMetadataLog(mFile);
+        try {
+            assertEquals(first, log.getCount());
+            CaptureMetadataLog.Record record = new CaptureMetadataLog.Record();
+            for (long i = first; i < first + count; i++) {
+                fill(record, i);
+                log.append(record);
+            }
+            assertEquals(first + count, log.getCount());
+        } finally {
+            log.close();
+        }
+    }
+
+    /**
+     * @return long number of records read, each checked against its index
+     */
+    private long scanAll() throws IOException {
+        final long[] next = { 0 };
+        long visited = CaptureMetadataLog.scan(mFile, new CaptureMetadataLog.Visitor() {
+            @Override
+            public boolean visit(CaptureMetadataLog.Record record) {
+                assertRecord(next[0]++, record);
+                return true;
+            }
+        });
+        assertEquals(next[0], visited);
+        return visited;
+    }
+
+    @Test
+    public void recordsRoundTrip() throws IOException {
+        append(0, 3);
+        assertEquals(3, scanAll());
+    }
+
+    @Test
+    public void appendingAcrossManyWindows() throws IOException {
+        int count = CaptureMetadataLog.WINDOW_RECORDS * 5 + 17;
+        append(0, count);
+        assertEquals(count, scanAll());
+    }
+
+    @Test
+    public void reopenedLogAppendsAfterTheExistingRecords() throws IOException {
+        // Reopen just before, exactly at and just after a window boundary
+        append(0, CaptureMetadataLog.WINDOW_RECORDS - 1);
+        append(CaptureMetadataLog.WINDOW_RECORDS - 1, 1);
+        append(CaptureMetadataLog.WINDOW_RECORDS, 1);
+        append(CaptureMetadataLog.WINDOW_RECORDS + 1, CaptureMetadataLog.WINDOW_RECORDS * 2);
+        assertEquals(CaptureMetadataLog.WINDOW_RECORDS * 3 + 1, scanAll());
+    }
+
+    @Test
+    public void scanCrossesItsMappingChunks() throws IOException {
+        // scan() maps 64 windows at a time
+        int count = CaptureMetadataLog.WINDOW_RECORDS * 64 + 3;
+        append(0, count);
+        assertEquals(count, scanAll());
+    }
+
+    @Test
+    public void visitorCanStopTheScan() throws IOException {
+        append(0, 10);
+        final int[] seen = { 0 };
+        long visited = CaptureMetadataLog.scan(mFile, new CaptureMetadataLog.Visitor() {
+            @Override
+            public boolean visit(CaptureMetadataLog.Record record) {
+                return ++seen[0] < 4;
+            }
+        });
+        assertEquals(4, visited);
+    }
+
+    @Test
+    public void longNamesAreCut() throws IOException {
+        StringBuilder name = new StringBuilder();
+        while (name.length() < CaptureMetadataLog.NAME_BYTES + 10) {
+            name.append('n');
+        }
+        CaptureMetadataLog log = new CaptureMetadataLog(mFile);
+        CaptureMetadataLog.Record record = new CaptureMetadataLog.Record();
+        record.setFileName(name.toString());
+        log.append(record);
+        log.close();
+        final String[] read = new String[1];
+        CaptureMetadataLog.scan(mFile, new CaptureMetadataLog.Visitor() {
+            @Override
+            public boolean visit(CaptureMetadataLog.Record record) {
+                read[0] = record.getFileName();
+                return true;
+            }
+        });
+        assertEquals(name.substring(0, CaptureMetadataLog.NAME_BYTES), read[0]);
+    }
+
+    @Test
+    public void emptyLogHasNoRecords() throws IOException {
+        append(0, 0);
+        assertEquals(0, scanAll());
+    }
+
+    @Test
+    public void otherFilesAreRejected() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.write(new byte[CaptureMetadataLog.HEADER_BYTES * 2]);
+        file.seek(0);
+        file.write("not a log".getBytes("US-ASCII"));
+        file.close();
+        try {
+            new CaptureMetadataLog(mFile);
+            throw new AssertionError("opened a file that is not a log");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains(mFile.getName()));
+        }
+        try {
+            CaptureMetadataLog.scan(mFile, null);
+            throw new AssertionError("scanned a file that is not a log");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains(mFile.getName()));
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CaptureSessionManagerTest {
+
+    private FakeCamera mCamera;
+    private CaptureSessionManager mManager;
+
+    @Before
+    public void setUp() {
+        mCamera = new FakeCamera();
+        mManager = new CaptureSessionManager(mCamera);
+        mManager.open();
+        mManager.onSessionConfigured();
+    }
+
+    /**
+     * Complete count frames, returning whether the last one ended the capture sequence
+     */
+    private boolean completeFrames(int count) {
+        boolean done = false;
+        for (int i = 0; i < count; i++) {
+            done = mManager.onFrameCompleted();
+        }
+        return done;
+    }
+
+    @Test
+    public void stillsReuseTheSession() {
+        for (int shot = 0; shot < 10; shot++) {
+            assertTrue(mManager.requestStill());
+            assertEquals(CaptureSessionManager.State.CAPTURING, mManager.getState());
+            assertTrue(completeFrames(1));
+            assertEquals(CaptureSessionManager.State.READY, mManager.getState());
+        }
+        assertEquals(1, mCamera.configures);
+        assertEquals(1, mManager.getConfigureCount());
+        assertEquals(10, mCamera.stills);
+        assertEquals(10, mManager.getStillCount());
+        // The preview was started once, when the session was configured, and never restarted per shot
+        assertEquals(1, mCamera.previews);
+    }
+
+    @Test
+    public void openIsIdempotent() {
+        mManager.open();
+        mManager.open();
+        assertEquals(1, mCamera.configures);
+    }
+
+    @Test
+    public void stillWhileBusyIsRefused() {
+        assertTrue(mManager.requestStill());
+        assertFalse(mManager.requestStill());
+        assertFalse(mManager.requestBurst(4));
+        assertEquals(1, mCamera.stills);
+        assertEquals(0, mCamera.bursts);
+    }
+
+    @Test
+    public void burstIsOneSubmission() {
+        assertTrue(mManager.requestBurst(5));
+        assertEquals(1, mCamera.bursts);
+        assertEquals(5, mCamera.burstStills);
+        assertFalse(completeFrames(4));
+        assertTrue(completeFrames(1));
+        assertEquals(1, mCamera.configures);
+    }
+
+    @Test
+    public void stillBeforeConfigurationIsTakenWhenReady() {
+        FakeCamera camera = new FakeCamera();
+        CaptureSessionManager manager = new CaptureSessionManager(camera);
+        assertTrue(manager.requestStill());
+        assertEquals(CaptureSessionManager.State.CONFIGURING, manager.getState());
+        assertEquals(1, camera.configures);
+        assertEquals(0, camera.stills);
+        // Only one capture may wait for the session
+        assertFalse(manager.requestStill());
+        manager.onSessionConfigured();
+        assertEquals(1, camera.stills);
+        assertEquals(CaptureSessionManager.State.CAPTURING, manager.getState());
+    }
+
+    @Test
+    public void closeThenShotConfiguresOnce() {
+        mManager.close();
+        assertTrue(mManager.requestStill());
+        assertEquals(2, mCamera.configures);
+        mManager.onSessionConfigured();
+        assertTrue(completeFrames(1));
+        assertTrue(mManager.requestStill());
+        assertEquals(2, mCamera.configures);
+    }
+
+    @Test
+    public void configureFailureAllowsRetry() {
+        mManager.close();
+        mManager.open();
+        mManager.onSessionConfigureFailed();
+        assertEquals(CaptureSessionManager.State.CLOSED, mManager.getState());
+        assertTrue(mManager.requestStill());
+        assertEquals(3, mCamera.configures);
+    }
+
+    @Test
+    public void continuousDrainsFramesInFlight() {
+        assertTrue(mManager.startContinuous());
+        for (int i = 0; i < 3; i++) {
+            mManager.onFrameStarted();
+        }
+        completeFrames(1);
+        assertFalse(mManager.stopContinuous());
+        assertEquals(CaptureSessionManager.State.CAPTURING, mManager.getState());
+        assertFalse(completeFrames(1));
+        assertTrue(completeFrames(1));
+        assertEquals(CaptureSessionManager.State.READY, mManager.getState());
+        assertEquals(3, mManager.getStillCount());
+        assertEquals(1, mCamera.continuousStarts);
+        assertEquals(1, mCamera.continuousStops);
+        assertEquals(1, mCamera.configures);
+    }
+
+    @Test
+    public void abortReturnsToReady() {
+        assertTrue(mManager.requestBurst(3));
+        assertTrue(mManager.abortCapture());
+        assertEquals(CaptureSessionManager.State.READY, mManager.getState());
+        assertFalse(mManager.abortCapture());
+        assertTrue(mManager.requestStill());
+    }
+}
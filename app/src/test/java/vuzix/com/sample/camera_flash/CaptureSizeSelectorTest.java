@@ -0,0 +1,234 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class CaptureSizeSelectorTest {
+
+    private static final long FPS_30 = 33333333L;
+    private static final long FPS_20 = 50000000L;
+    private static final long FPS_15 = 66666666L;
+    private static final long MAX_PREVIEW_PIXELS = 1920 * 1080;
+
+    private static CaptureSizeSelector.Size size(int width, int height, long minFrameDurationNanos) {
+        return new CaptureSizeSelector.Size(width, height, minFrameDurationNanos);
+    }
+
+    // A typical 12 MP phone camera, whose full resolution stills are slower than the rest
+    private static final CaptureSizeSelector.Size[] PHONE_JPEG = {
+            size(4032, 3024, FPS_20),
+            size(4032, 2268, FPS_30),
+            size(3840, 2160, FPS_30),
+            size(2688, 1512, FPS_30),
+            size(1920, 1080, FPS_30),
+            size(1440, 1080, FPS_30),
+            size(1280, 960, FPS_30),
+            size(640, 480, FPS_30),
+            size(320, 240, FPS_30),
+    };
+    private static final CaptureSizeSelector.Size[] PHONE_PREVIEW = {
+            size(1920, 1080, FPS_30),
+            size(1440, 1080, FPS_30),
+            size(1280, 960, FPS_30),
+            size(1280, 720, FPS_30),
+            size(960, 720, FPS_30),
+            size(640, 480, FPS_30),
+            size(640, 360, FPS_30),
+            size(320, 240, FPS_30),
+    };
+    // YUV_420_888 sizes of the same phone, which do not include the largest JPEG size
+    private static final CaptureSizeSelector.Size[] PHONE_YUV = {
+            size(4000, 3000, FPS_30),
+            size(3840, 2160, FPS_30),
+            size(1920, 1080, FPS_30),
+            size(640, 480, FPS_30),
+    };
+
+    // A smart glasses camera with only 16:9 previews, and a sensor that reports no frame durations
+    private static final CaptureSizeSelector.Size[] GLASSES_JPEG = {
+            size(4208, 3120, 0),
+            size(3264, 2448, 0),
+            size(1920, 1080, 0),
+    };
+    private static final CaptureSizeSelector.Size[] GLASSES_PREVIEW = {
+            size(1280, 720, 0),
+            size(1920, 1080, 0),
+            size(640, 360, 0),
+    };
+
+    private static void assertSize(String expected, CaptureSizeSelector.Size actual) {
+        assertEquals(expected, actual.toString());
+    }
+
+    @Test
+    public void maxResolutionTakesTheLargestStill() {
+        CaptureSizeSelector selector = new CaptureSizeSelector(PHONE_PREVIEW, PHONE_JPEG, MAX_PREVIEW_PIXELS);
+        CaptureSizeSelector.Selection selection = selector.select(CaptureSizeSelector.Target.MAX_RESOLUTION, 0);
+        assertSize("4032x3024", selection.still);
+        // The largest 4:3 preview that fits in 1920x1080
+        assertSize("1440x1080", selection.preview);
+    }
+
+    @Test
+    public void maxFrameRateSkipsTheSlowSizes() {
+        CaptureSizeSelector selector = new CaptureSizeSelector(PHONE_PREVIEW, PHONE_JPEG, MAX_PREVIEW_PIXELS);
+        CaptureSizeSelector.Selection selection = selector.select(CaptureSizeSelector.Target.MAX_FRAME_RATE, 0);
+        assertSize("4032x2268", selection.still);
+        assertSize("1920x1080", selection.preview);
+    }
+
+    @Test
+    public void boundedTakesTheLargestStillThatFits() {
+        CaptureSizeSelector selector = new CaptureSizeSelector(PHONE_PREVIEW, PHONE_JPEG, MAX_PREVIEW_PIXELS);
+        assertSize("1920x1080", selector.select(CaptureSizeSelector.Target.BOUNDED, 2000000 + 100000).still);
+        assertSize("1280x960", selector.select(CaptureSizeSelector.Target.BOUNDED, 1280 * 960).still);
+        // Nothing fits, so the smallest is used
+        assertSize("320x240", selector.select(CaptureSizeSelector.Target.BOUNDED, 1000).still);
+    }
+
+    @Test
+    public void previewWithoutTheStillAspectIsLetterboxed() {
+        CaptureSizeSelector selector = new CaptureSizeSelector(GLASSES_PREVIEW, GLASSES_JPEG, MAX_PREVIEW_PIXELS);
+        CaptureSizeSelector.Selection selection = selector.select(CaptureSizeSelector.Target.MAX_RESOLUTION, 0);
+        assertSize("4208x3120", selection.still);
+        assertSize("1920x1080", selection.preview);
+    }
+
+    @Test
+    public void unknownFrameDurationsDoNotExcludeAnything() {
+        CaptureSizeSelector selector = new CaptureSizeSelector(GLASSES_PREVIEW, GLASSES_JPEG, MAX_PREVIEW_PIXELS);
+        CaptureSizeSelector.Selection selection = selector.select(CaptureSizeSelector.Target.MAX_FRAME_RATE, 0);
+        assertSize("4208x3120", selection.still);
+        assertSize("1920x1080", selection.preview);
+    }
+
+    @Test
+    public void unknownFrameDurationIsNotTheFastest() {
+        CaptureSizeSelector.Size[] jpeg = {
+                size(4032, 3024, 0),
+                size(3840, 2160, FPS_30),
+                size(1920, 1080, 0),
+                size(640, 480, FPS_30),
+        };
+        CaptureSizeSelector selector = new CaptureSizeSelector(PHONE_PREVIEW, jpeg, MAX_PREVIEW_PIXELS);
+        assertSize("3840x2160", selector.select(CaptureSizeSelector.Target.MAX_FRAME_RATE, 0).still);
+    }
+
+    @Test
+    public void maxFrameRatePreviewIsNoSlowerThanTheStill() {
+        CaptureSizeSelector.Size[] preview = {
+                size(1920, 1080, FPS_20),
+                size(1280, 720, FPS_30),
+                size(640, 360, 0),
+        };
+        CaptureSizeSelector selector = new CaptureSizeSelector(preview, PHONE_JPEG, MAX_PREVIEW_PIXELS);
+        CaptureSizeSelector.Selection selection = selector.select(CaptureSizeSelector.Target.MAX_FRAME_RATE, 0);
+        assertSize("4032x2268", selection.still);
+        assertSize("1280x720", selection.preview);
+        // The other targets keep the largest preview
+        assertSize("1920x1080", selector.select(CaptureSizeSelector.Target.BOUNDED, 3840 * 2160).preview);
+        // With no preview as fast as the still, the largest preview is used
+        preview = new CaptureSizeSelector.Size[] { size(1920, 1080, FPS_20), size(1280, 720, 0) };
+        selector = new CaptureSizeSelector(preview, PHONE_JPEG, MAX_PREVIEW_PIXELS);
+        assertSize("1920x1080", selector.select(CaptureSizeSelector.Target.MAX_FRAME_RATE, 0).preview);
+    }
+
+    @Test
+    public void previewBoundBelowEverySizeTakesTheSmallest() {
+        CaptureSizeSelector selector = new CaptureSizeSelector(GLASSES_PREVIEW, GLASSES_JPEG, 1000);
+        assertSize("640x360", selector.select(CaptureSizeSelector.Target.MAX_RESOLUTION, 0).preview);
+    }
+
+    @Test
+    public void analysisStreamPrefersThePreviewAspect() {
+        CaptureSizeSelector selector = new CaptureSizeSelector(PHONE_PREVIEW, PHONE_JPEG, MAX_PREVIEW_PIXELS);
+        assertSize("640x360", selector.selectPreview(640 * 480, size(1920, 1080, 0)));
+        assertSize("640x480", selector.selectPreview(640 * 480, size(1440, 1080, 0)));
+        // No 2:1 preview, so any aspect will do
+        assertSize("640x480", selector.selectPreview(640 * 480, size(2000, 1000, 0)));
+        assertSize("320x240", selector.selectPreview(100, size(1920, 1080, 0)));
+    }
+
+    @Test
+    public void equalPixelCountsPreferTheWiderSize() {
+        CaptureSizeSelector.Size[] sizes = { size(1000, 2000, 0), size(2000, 1000, 0) };
+        CaptureSizeSelector selector = new CaptureSizeSelector(sizes, sizes, Long.MAX_VALUE);
+        assertSize("2000x1000", selector.select(CaptureSizeSelector.Target.MAX_RESOLUTION, 0).still);
+    }
+
+    @Test
+    public void tablesAreCopied() {
+        CaptureSizeSelector.Size[] jpeg = PHONE_JPEG.clone();
+        CaptureSizeSelector selector = new CaptureSizeSelector(PHONE_PREVIEW, jpeg, MAX_PREVIEW_PIXELS);
+        jpeg[0] = size(8000, 6000, FPS_15);
+        assertSize("4032x3024", selector.select(CaptureSizeSelector.Target.MAX_RESOLUTION, 0).still);
+    }
+
+    @Test
+    public void yuvStillComesFromTheYuvTable() {
+        CaptureSizeSelector selector = new CaptureSizeSelector(PHONE_PREVIEW, PHONE_JPEG, PHONE_YUV, MAX_PREVIEW_PIXELS);
+        CaptureSizeSelector.Selection selection = selector.select(CaptureSizeSelector.Target.MAX_RESOLUTION, 0);
+        assertSize("4032x3024", selection.still);
+        assertSize("4000x3000", selection.yuvStill);
+        assertSize("1920x1080", selector.select(CaptureSizeSelector.Target.BOUNDED, 2100000).yuvStill);
+        assertSize("640x480", selector.select(CaptureSizeSelector.Target.BOUNDED, 1000).yuvStill);
+    }
+
+    @Test
+    public void yuvStillPrefersTheAspectOfTheJpegStill() {
+        CaptureSizeSelector selector = new CaptureSizeSelector(PHONE_PREVIEW, PHONE_JPEG, PHONE_YUV, MAX_PREVIEW_PIXELS);
+        CaptureSizeSelector.Selection selection = selector.select(CaptureSizeSelector.Target.MAX_FRAME_RATE, 0);
+        assertSize("4032x2268", selection.still);
+        assertSize("3840x2160", selection.yuvStill);
+        // No 4:3 YUV size fits in 1.3 MP, so the aspect gives way
+        CaptureSizeSelector.Size[] yuv = { size(1920, 1080, FPS_30), size(1280, 720, FPS_30) };
+        selector = new CaptureSizeSelector(PHONE_PREVIEW, PHONE_JPEG, yuv, MAX_PREVIEW_PIXELS);
+        selection = selector.select(CaptureSizeSelector.Target.BOUNDED, 1280 * 960);
+        assertSize("1280x960", selection.still);
+        assertSize("1280x720", selection.yuvStill);
+    }
+
+    @Test
+    public void withoutAYuvTableTheJpegSizesAreUsed() {
+        CaptureSizeSelector selector = new CaptureSizeSelector(PHONE_PREVIEW, PHONE_JPEG, MAX_PREVIEW_PIXELS);
+        CaptureSizeSelector.Selection selection = selector.select(CaptureSizeSelector.Target.MAX_RESOLUTION, 0);
+        assertSize("4032x3024", selection.yuvStill);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyTableIsRejected() {
+        new CaptureSizeSelector(PHONE_PREVIEW, new CaptureSizeSelector.Size[0], MAX_PREVIEW_PIXELS);
+    }
+}
@@ -0,0 +1,175 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FlashFusionTest {
+
+    private static final int HIGHLIGHT_START = 200;
+    private static final int HIGHLIGHT_FULL = 245;
+    private static final int WIDTH = 16;
+    private static final int HEIGHT = 8;
+
+    // The flash frame is twice as bright as the ambient one outside the highlights
+    private static final int FLASH_LUMA = 120;
+    private static final int AMBIENT_LUMA = 60;
+    private static final int GLARE_LUMA = 250;
+    private static final int BLEND_LUMA = 222;
+    private static final int AMBIENT_UNDER_GLARE = 70;
+    private static final int FLASH_U = 90;
+    private static final int FLASH_V = 160;
+    private static final int AMBIENT_U = 110;
+    private static final int AMBIENT_V = 140;
+
+    private static int size(int width, int height) {
+        return width * height + width * (height / 2);
+    }
+
+    /**
+     * @return boolean true for the glare spot, columns 4 to 7 of rows 2 to 5
+     */
+    private static boolean isGlare(int x, int y) {
+        return x >= 4 && x < 8 && y >= 2 && y < 6;
+    }
+
+    private static byte[] frame(boolean flash) {
+        byte[] nv21 = new byte[size(WIDTH, HEIGHT)];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int luma;
+                if (isGlare(x, y)) {
+                    luma = flash ? GLARE_LUMA : AMBIENT_UNDER_GLARE;
+                } else if (x == 12 && y == 2) {
+                    luma = flash ? BLEND_LUMA : AMBIENT_UNDER_GLARE;
+                } else {
+                    luma = flash ? FLASH_LUMA : AMBIENT_LUMA;
+                }
+                nv21[y * WIDTH + x] = (byte) luma;
+            }
+        }
+        for (int i = WIDTH * HEIGHT; i < nv21.length; i += 2) {
+            nv21[i] = (byte) (flash ? FLASH_V : AMBIENT_V);
+            nv21[i + 1] = (byte) (flash ? FLASH_U : AMBIENT_U);
+        }
+        return nv21;
+    }
+
+    private static int at(byte[] nv21, int index) {
+        return nv21[index] & 0xFF;
+    }
+
+    @Test
+    public void highlightsAreReplacedByTheScaledAmbientFrame() throws InterruptedException {
+        FlashFusion fusion = new FlashFusion(1, HIGHLIGHT_START, HIGHLIGHT_FULL);
+        byte[] out = new byte[size(WIDTH, HEIGHT)];
+        fusion.fuse(frame(false), frame(true), WIDTH, HEIGHT, out);
+        fusion.shutdown();
+
+        assertEquals(2.0f, fusion.getLastGain(), 0);
+        int scaledAmbient = 2 * AMBIENT_UNDER_GLARE;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int luma = at(out, y * WIDTH + x);
+                if (isGlare(x, y)) {
+                    assertEquals("glare at " + x + "," + y, scaledAmbient, luma);
+                } else if (x == 12 && y == 2) {
+                    assertTrue("blend " + luma, luma > scaledAmbient && luma < BLEND_LUMA);
+                } else {
+                    assertEquals("flash at " + x + "," + y, FLASH_LUMA, luma);
+                }
+            }
+        }
+        // Chroma follows the top left luma of its 2x2 block
+        for (int y = 0; y < HEIGHT; y += 2) {
+            for (int x = 0; x < WIDTH; x += 2) {
+                int index = WIDTH * HEIGHT + (y / 2) * WIDTH + x;
+                if (isGlare(x, y)) {
+                    assertEquals(AMBIENT_V, at(out, index));
+                    assertEquals(AMBIENT_U, at(out, index + 1));
+                } else if (!(x == 12 && y == 2)) {
+                    assertEquals(FLASH_V, at(out, index));
+                    assertEquals(FLASH_U, at(out, index + 1));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void scaledAmbientIsClampedToWhite() throws InterruptedException {
+        FlashFusion fusion = new FlashFusion(1, HIGHLIGHT_START, HIGHLIGHT_FULL);
+        byte[] ambient = frame(false);
+        ambient[2 * WIDTH + 4] = (byte) 200;
+        byte[] out = new byte[ambient.length];
+        fusion.fuse(ambient, frame(true), WIDTH, HEIGHT, out);
+        fusion.shutdown();
+        assertEquals(255, at(out, 2 * WIDTH + 4));
+    }
+
+    private static byte[] random(Random random, int width, int height) {
+        byte[] nv21 = new byte[size(width, height)];
+        random.nextBytes(nv21);
+        return nv21;
+    }
+
+    @Test
+    public void stripsGiveTheSameImageAsOneThread() throws InterruptedException {
+        Random random = new Random(7);
+        int width = 24;
+        FlashFusion single = new FlashFusion(1, HIGHLIGHT_START, HIGHLIGHT_FULL);
+        // Odd heights, heights whose chroma rows do not split evenly, and heights below 2 * threads
+        int[] heights = { 1, 2, 3, 4, 5, 6, 7, 9, 10, 14, 31, 64 };
+        for (int threads = 2; threads <= 8; threads++) {
+            FlashFusion fusion = new FlashFusion(threads, HIGHLIGHT_START, HIGHLIGHT_FULL);
+            for (int height : heights) {
+                byte[] ambient = random(random, width, height);
+                byte[] flash = random(random, width, height);
+                byte[] expected = new byte[flash.length];
+                single.fuse(ambient, flash, width, height, expected);
+                byte[] out = new byte[flash.length];
+                fusion.fuse(ambient, flash, width, height, out);
+                assertArrayEquals(threads + " threads, height " + height, expected, out);
+                // In place, as FlashPairFuser fuses into the flash frame
+                fusion.fuse(ambient, flash, width, height, flash);
+                assertArrayEquals(threads + " threads in place, height " + height, expected, flash);
+            }
+            fusion.shutdown();
+        }
+        single.shutdown();
+    }
+}
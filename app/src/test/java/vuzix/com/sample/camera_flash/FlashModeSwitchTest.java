@@ -0,0 +1,191 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Switches flash modes as MainActivity.setFlashMode() does, carrying out what
+ * PreviewRequestState.switchFlashMode() decides with a FakeCamera behind the CaptureSessionManager, and
+ * counts the capture sessions created and the preview requests submitted.
+ */
+public class FlashModeSwitchTest {
+
+    private static final FlashMode[] FIELD_SEQUENCE = {
+            FlashMode.TORCH, FlashMode.OFF, FlashMode.TORCH, FlashMode.ON, FlashMode.OFF, FlashMode.ON, FlashMode.TORCH };
+
+    private FakeCamera mCamera;
+    private CaptureSessionManager mManager;
+    private PreviewRequestState mPreviewState;
+    private FlashRequestCache<FlashMode> mPreviewRequests;
+    private FlashMode mFlashMode;
+    private boolean mYuvEnabled;
+    private boolean mTakingPicture;
+
+    @Before
+    public void setUp() {
+        mCamera = new FakeCamera();
+        mManager = new CaptureSessionManager(mCamera);
+        mPreviewState = new PreviewRequestState();
+        mPreviewRequests = new FlashRequestCache<FlashMode>(new FlashRequestCache.Factory<FlashMode>() {
+            @Override
+            public FlashMode build(FlashMode mode, int jpegOrientation) {
+                return mode;
+            }
+        });
+        mFlashMode = FlashMode.OFF;
+        mManager.open();
+        onSessionConfigured();
+    }
+
+    private void onSessionConfigured() {
+        mPreviewRequests.invalidate();
+        mManager.onSessionConfigured();
+        updatePreviewRequest();
+    }
+
+    private void updatePreviewRequest() {
+        if (!mPreviewState.shouldSubmit(mFlashMode, -1)) {
+            return;
+        }
+        assertEquals(mFlashMode, mPreviewRequests.get(mFlashMode, -1));
+        mPreviewState.onSubmitted(mFlashMode, -1);
+    }
+
+    private PreviewRequestState.FlashSwitch setFlashMode(FlashMode mode) {
+        PreviewRequestState.FlashSwitch change = mPreviewState.switchFlashMode(mFlashMode, mode, mYuvEnabled,
+                mTakingPicture, -1);
+        mFlashMode = mode;
+        switch (change) {
+            case NEW_SESSION:
+                mManager.close();
+                mManager.open();
+                onSessionConfigured();
+                break;
+            case SUBMIT:
+                updatePreviewRequest();
+                break;
+            default:
+                break;
+        }
+        return change;
+    }
+
+    @Test
+    public void switchingFlashKeepsTheSession() {
+        int submissions = mPreviewState.getSubmissionCount();
+        int changes = 0;
+        for (int round = 0; round < 100; round++) {
+            for (FlashMode mode : FIELD_SEQUENCE) {
+                if (mode != mFlashMode) {
+                    changes++;
+                    assertEquals(PreviewRequestState.FlashSwitch.SUBMIT, setFlashMode(mode));
+                } else {
+                    assertEquals(PreviewRequestState.FlashSwitch.NONE, setFlashMode(mode));
+                }
+            }
+        }
+        assertEquals(1, mCamera.configures);
+        assertEquals(1, mManager.getConfigureCount());
+        // One repeating request per change of mode, each one built once and then taken from the cache
+        assertEquals(submissions + changes, mPreviewState.getSubmissionCount());
+        assertEquals(FlashMode.values().length - 1, mPreviewRequests.getBuildCount());
+    }
+
+    @Test
+    public void choosingTheSameModeSubmitsNothing() {
+        setFlashMode(FlashMode.TORCH);
+        int submissions = mPreviewState.getSubmissionCount();
+        assertEquals(PreviewRequestState.FlashSwitch.NONE, setFlashMode(FlashMode.TORCH));
+        assertEquals(PreviewRequestState.FlashSwitch.NONE, setFlashMode(FlashMode.TORCH));
+        assertEquals(submissions, mPreviewState.getSubmissionCount());
+        assertEquals(1, mCamera.configures);
+    }
+
+    @Test
+    public void pairedModeRebuildsOnlyForJpegStills() {
+        assertEquals(PreviewRequestState.FlashSwitch.NEW_SESSION, setFlashMode(FlashMode.PAIRED));
+        assertEquals(2, mCamera.configures);
+        assertEquals(PreviewRequestState.FlashSwitch.NEW_SESSION, setFlashMode(FlashMode.ON));
+        assertEquals(3, mCamera.configures);
+        assertEquals(PreviewRequestState.FlashSwitch.SUBMIT, setFlashMode(FlashMode.OFF));
+        assertEquals(3, mCamera.configures);
+
+        mYuvEnabled = true;
+        assertEquals(PreviewRequestState.FlashSwitch.SUBMIT, setFlashMode(FlashMode.PAIRED));
+        assertEquals(PreviewRequestState.FlashSwitch.SUBMIT, setFlashMode(FlashMode.TORCH));
+        assertEquals(3, mCamera.configures);
+    }
+
+    @Test
+    public void switchWhileTakingPictureWaitsForThePicture() {
+        int submissions = mPreviewState.getSubmissionCount();
+        mTakingPicture = true;
+        assertEquals(PreviewRequestState.FlashSwitch.DEFERRED, setFlashMode(FlashMode.ON));
+        assertEquals(submissions, mPreviewState.getSubmissionCount());
+        // A new session cannot wait, as the still output of the picture is the wrong format
+        assertEquals(PreviewRequestState.FlashSwitch.NEW_SESSION, setFlashMode(FlashMode.PAIRED));
+        mTakingPicture = false;
+        // The picture done, the preview is restarted with the mode chosen meanwhile
+        mPreviewState.onStopped();
+        updatePreviewRequest();
+        assertEquals(FlashMode.PAIRED, mPreviewRequests.get(mFlashMode, -1));
+        assertFalse(mPreviewState.shouldSubmit(FlashMode.PAIRED, -1));
+    }
+
+    @Test
+    public void previewAeTriggerFollowsTheFlash() {
+        for (FlashMode mode : FlashMode.values()) {
+            int expected = mode.firesFlash() ? FlashMode.CONTROL_AE_PRECAPTURE_TRIGGER_IDLE : -1;
+            assertEquals(mode.toString(), expected, mode.getPreviewAeTrigger());
+        }
+        assertEquals(-1, FlashMode.TORCH.getPreviewAeTrigger());
+        assertEquals(0, FlashMode.ON.getPreviewAeTrigger());
+    }
+
+    @Test
+    public void onlySwitchesToOrFromPairedNeedASession() {
+        for (FlashMode from : FlashMode.values()) {
+            for (FlashMode to : FlashMode.values()) {
+                boolean expected = from.isPaired() != to.isPaired();
+                assertEquals(from + " to " + to, expected, from.needsNewSession(to, false));
+                assertFalse(from + " to " + to, from.needsNewSession(to, true));
+            }
+        }
+        assertTrue(FlashMode.TORCH.needsNewSession(FlashMode.PAIRED, false));
+    }
+}
@@ -0,0 +1,237 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FlashPairFuserTest {
+
+    private static final int WIDTH = 16;
+    private static final int HEIGHT = 8;
+    private static final long FRAME_NANOS = 33333333L;
+
+    private final List<String> mFused = new ArrayList<String>();
+    private final List<String> mDropped = new ArrayList<String>();
+    // Held closed to keep a pair busy in onPairFused()
+    private CountDownLatch mRelease = new CountDownLatch(0);
+    private FlashPairFuser mFuser;
+
+    @Before
+    public void setUp() {
+        mFuser = createFuser(2);
+    }
+
+    @After
+    public void tearDown() {
+        mRelease.countDown();
+        mFuser.shutdown();
+    }
+
+    private FlashPairFuser createFuser(int pairs) {
+        return new FlashPairFuser(new FlashFusion(1, 200, 245), pairs, new FlashPairFuser.Listener() {
+            @Override
+            public void onPairFused(byte[] nv21, int width, int height, File file) {
+                synchronized (mFused) {
+                    mFused.add(file.getName());
+                }
+                try {
+                    mRelease.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            @Override
+            public void onPairDropped(File file) {
+                synchronized (mDropped) {
+                    mDropped.add(file.getName());
+                }
+            }
+        });
+    }
+
+    private static long timestamp(long frameNumber) {
+        return 1000000000L + frameNumber * FRAME_NANOS;
+    }
+
+    /**
+     * Start a burst of pairs, ambient then flash, from firstFrame on
+     */
+    private void start(long firstFrame, int pairs) {
+        for (long frame = firstFrame; frame < firstFrame + 2 * pairs; frame++) {
+            mFuser.onFrameStarted(frame, timestamp(frame), (frame - firstFrame) % 2 == 1);
+        }
+    }
+
+    private FlashPairFuser.Result submit(long frameNumber) {
+        return submit(frameNumber, WIDTH, HEIGHT);
+    }
+
+    /**
+     * Submit a planar YUV_420_888 frame filled with its frame number
+     */
+    private FlashPairFuser.Result submit(long frameNumber, int width, int height) {
+        byte value = (byte) frameNumber;
+        byte[] luma = new byte[width * height];
+        byte[] chroma = new byte[width * height / 4];
+        Arrays.fill(luma, value);
+        Arrays.fill(chroma, value);
+        return mFuser.submit(ByteBuffer.wrap(luma), width, ByteBuffer.wrap(chroma), ByteBuffer.wrap(chroma.clone()),
+                width / 2, 1, width, height, timestamp(frameNumber), new File("IMAGE_" + frameNumber + ".jpg"));
+    }
+
+    /**
+     * Wait for the queued pairs to be fused, and return the names of the files fused
+     */
+    private List<String> fused() {
+        mFuser.shutdown();
+        synchronized (mFused) {
+            return new ArrayList<String>(mFused);
+        }
+    }
+
+    @Test
+    public void pairsAreFusedFlashFrameFile() {
+        start(10, 2);
+        assertEquals(FlashPairFuser.Result.HELD, submit(10));
+        assertEquals(FlashPairFuser.Result.FUSING, submit(11));
+        assertEquals(FlashPairFuser.Result.HELD, submit(12));
+        assertEquals(FlashPairFuser.Result.FUSING, submit(13));
+        assertEquals(Arrays.asList("IMAGE_11.jpg", "IMAGE_13.jpg"), fused());
+        assertEquals(2, mFuser.getPairsFused());
+        assertEquals(0, mFuser.getPairsDropped());
+    }
+
+    @Test
+    public void lostAmbientFrameDropsItsFlashFrame() {
+        start(10, 2);
+        // Frame 10 never arrives. By arrival order 11 would be taken as the ambient frame of 12.
+        assertEquals(FlashPairFuser.Result.DROPPED, submit(11));
+        assertEquals(FlashPairFuser.Result.HELD, submit(12));
+        assertEquals(FlashPairFuser.Result.FUSING, submit(13));
+        assertEquals(Arrays.asList("IMAGE_13.jpg"), fused());
+        assertEquals(1, mFuser.getPairsDropped());
+    }
+
+    @Test
+    public void lostFlashFrameReleasesItsAmbientFrame() {
+        start(10, 3);
+        assertEquals(FlashPairFuser.Result.HELD, submit(10));
+        // Frame 11 never arrives, so 10 must not be fused with a later flash frame
+        assertEquals(FlashPairFuser.Result.HELD, submit(12));
+        assertEquals(FlashPairFuser.Result.FUSING, submit(13));
+        assertEquals(FlashPairFuser.Result.HELD, submit(14));
+        assertEquals(FlashPairFuser.Result.FUSING, submit(15));
+        assertEquals(Arrays.asList("IMAGE_13.jpg", "IMAGE_15.jpg"), fused());
+        assertEquals(1, mFuser.getPairsDropped());
+    }
+
+    @Test
+    public void failedFlashFrameAbortsHeldPair() {
+        start(10, 2);
+        assertEquals(FlashPairFuser.Result.HELD, submit(10));
+        mFuser.onFrameFailed(11, true);
+        assertEquals(FlashPairFuser.Result.HELD, submit(12));
+        assertEquals(FlashPairFuser.Result.FUSING, submit(13));
+        assertEquals(Arrays.asList("IMAGE_13.jpg"), fused());
+        assertEquals(1, mFuser.getPairsDropped());
+    }
+
+    @Test
+    public void failedFlashFrameDropsLaterAmbientFrame() {
+        start(10, 2);
+        // The failure is reported before the ambient image arrives
+        mFuser.onFrameFailed(11, true);
+        assertEquals(FlashPairFuser.Result.DROPPED, submit(10));
+        assertEquals(FlashPairFuser.Result.HELD, submit(12));
+        assertEquals(FlashPairFuser.Result.FUSING, submit(13));
+        assertEquals(Arrays.asList("IMAGE_13.jpg"), fused());
+        assertEquals(1, mFuser.getPairsDropped());
+    }
+
+    @Test
+    public void failedAmbientFrameDropsItsFlashFrame() {
+        start(10, 1);
+        mFuser.onFrameFailed(10, false);
+        assertEquals(FlashPairFuser.Result.DROPPED, submit(11));
+        assertTrue(fused().isEmpty());
+        assertEquals(1, mFuser.getPairsDropped());
+    }
+
+    @Test
+    public void frameNotStartedIsDropped() {
+        assertEquals(FlashPairFuser.Result.DROPPED, submit(10));
+        start(20, 1);
+        assertEquals(FlashPairFuser.Result.HELD, submit(20));
+        assertEquals(FlashPairFuser.Result.DROPPED, submit(12));
+        // The held frame is not disturbed by a frame it knows nothing of
+        assertEquals(FlashPairFuser.Result.FUSING, submit(21));
+        assertEquals(Arrays.asList("IMAGE_21.jpg"), fused());
+    }
+
+    @Test
+    public void sizeMismatchDropsPair() {
+        start(10, 1);
+        assertEquals(FlashPairFuser.Result.HELD, submit(10));
+        assertEquals(FlashPairFuser.Result.DROPPED, submit(11, 2 * WIDTH, HEIGHT));
+        assertTrue(fused().isEmpty());
+        assertEquals(1, mFuser.getPairsDropped());
+    }
+
+    @Test
+    public void busyPoolDropsBothFramesOfPair() {
+        mFuser.shutdown();
+        mFuser = createFuser(1);
+        mRelease = new CountDownLatch(1);
+        start(10, 2);
+        assertEquals(FlashPairFuser.Result.HELD, submit(10));
+        assertEquals(FlashPairFuser.Result.FUSING, submit(11));
+        // The only pair is kept busy by the listener
+        assertEquals(FlashPairFuser.Result.DROPPED, submit(12));
+        assertEquals(FlashPairFuser.Result.DROPPED, submit(13));
+        mRelease.countDown();
+        assertEquals(Arrays.asList("IMAGE_11.jpg"), fused());
+        assertEquals(1, mFuser.getPairsDropped());
+    }
+}
@@ -0,0 +1,142 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FlashRequestCacheTest {
+
+    // CameraMetadata values, written out so a change to FlashMode has to agree with the framework
+    private static final int FLASH_MODE_OFF = 0;
+    private static final int FLASH_MODE_TORCH = 2;
+    private static final int CONTROL_AE_MODE_ON = 1;
+    private static final int CONTROL_AE_MODE_ON_ALWAYS_FLASH = 3;
+
+    /**
+     * Stands in for a CaptureRequest, holding the keys the factory set
+     */
+    private static final class Request {
+        final int flashMode;
+        final int aeMode;
+        final int jpegOrientation;
+
+        Request(int flashMode, int aeMode, int jpegOrientation) {
+            this.flashMode = flashMode;
+            this.aeMode = aeMode;
+            this.jpegOrientation = jpegOrientation;
+        }
+    }
+
+    private FlashRequestCache<Request> mCache;
+
+    @Before
+    public void setUp() {
+        mCache = new FlashRequestCache<Request>(new FlashRequestCache.Factory<Request>() {
+            @Override
+            public Request build(FlashMode mode, int jpegOrientation) {
+                return new Request(mode.flashMode, mode.aeMode, jpegOrientation);
+            }
+        });
+    }
+
+    private void assertKeys(FlashMode mode, int flashMode, int aeMode) {
+        Request request = mCache.get(mode, 90);
+        assertEquals(mode.name(), flashMode, request.flashMode);
+        assertEquals(mode.name(), aeMode, request.aeMode);
+        assertEquals(mode.name(), 90, request.jpegOrientation);
+    }
+
+    @Test
+    public void eachModeSetsItsKeys() {
+        assertKeys(FlashMode.OFF, FLASH_MODE_OFF, CONTROL_AE_MODE_ON);
+        assertKeys(FlashMode.ON, FLASH_MODE_OFF, CONTROL_AE_MODE_ON_ALWAYS_FLASH);
+        assertKeys(FlashMode.TORCH, FLASH_MODE_TORCH, CONTROL_AE_MODE_ON);
+        assertKeys(FlashMode.PAIRED, FLASH_MODE_OFF, CONTROL_AE_MODE_ON_ALWAYS_FLASH);
+    }
+
+    @Test
+    public void onlyFlashStillsNeedAPrecapture() {
+        assertFalse(FlashMode.OFF.firesFlash());
+        assertTrue(FlashMode.ON.firesFlash());
+        assertFalse(FlashMode.TORCH.firesFlash());
+        assertTrue(FlashMode.PAIRED.firesFlash());
+        assertTrue(FlashMode.PAIRED.isPaired());
+    }
+
+    @Test
+    public void requestsAreReused() {
+        for (int i = 0; i < 100; i++) {
+            for (FlashMode mode : FlashMode.values()) {
+                mCache.get(mode, 90);
+            }
+        }
+        assertEquals(FlashMode.values().length, mCache.getBuildCount());
+        assertSame(mCache.get(FlashMode.ON, 90), mCache.get(FlashMode.ON, 90));
+    }
+
+    @Test
+    public void newOrientationRebuildsOnlyThatMode() {
+        Request off = mCache.get(FlashMode.OFF, 90);
+        Request on = mCache.get(FlashMode.ON, 90);
+        Request rotated = mCache.get(FlashMode.ON, 180);
+        assertNotSame(on, rotated);
+        assertEquals(180, rotated.jpegOrientation);
+        assertSame(off, mCache.get(FlashMode.OFF, 90));
+        assertEquals(3, mCache.getBuildCount());
+        // Switching back is another build, since only one orientation is kept per mode
+        assertEquals(90, mCache.get(FlashMode.ON, 90).jpegOrientation);
+        assertEquals(4, mCache.getBuildCount());
+    }
+
+    @Test
+    public void requestWithoutOrientationIsCachedToo() {
+        Request preview = mCache.get(FlashMode.TORCH, -1);
+        assertSame(preview, mCache.get(FlashMode.TORCH, -1));
+        assertEquals(1, mCache.getBuildCount());
+    }
+
+    @Test
+    public void invalidateRebuildsEveryMode() {
+        Request before = mCache.get(FlashMode.OFF, 0);
+        mCache.invalidate();
+        Request after = mCache.get(FlashMode.OFF, 0);
+        assertNotSame(before, after);
+        assertEquals(2, mCache.getBuildCount());
+    }
+}
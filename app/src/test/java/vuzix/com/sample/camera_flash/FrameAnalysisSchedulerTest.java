@@ -0,0 +1,197 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FrameAnalysisSchedulerTest {
+
+    private static final int DEPTH = 2;
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    private static final int FRAMES = 300;
+
+    /**
+     * Takes a fixed time per frame, and checks each frame is newer than the last and holds its own data
+     */
+    private static class SlowAnalyzer implements FrameAnalyzer {
+        final long sleepMillis;
+        final CountDownLatch release = new CountDownLatch(1);
+        volatile int analyzed;
+        volatile long lastTimestamp = -1;
+        volatile boolean inOrder = true;
+        volatile boolean intact = true;
+
+        SlowAnalyzer(long sleepMillis) {
+            this.sleepMillis = sleepMillis;
+        }
+
+        @Override
+        public void analyze(ByteBuffer luma, int rowStride, int width, int height, long timestampNanos) {
+            inOrder &= timestampNanos > lastTimestamp;
+            lastTimestamp = timestampNanos;
+            byte expected = (byte) timestampNanos;
+            for (int i = luma.position(); i < luma.limit(); i++) {
+                intact &= luma.get(i) == expected;
+            }
+            if (sleepMillis > 0) {
+                try {
+                    release.await(sleepMillis, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            analyzed++;
+        }
+    }
+
+    private FrameAnalysisScheduler mScheduler;
+    private ByteBuffer mLuma;
+
+    @Before
+    public void setUp() {
+        mScheduler = new FrameAnalysisScheduler(DEPTH);
+        mLuma = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+    }
+
+    @After
+    public void tearDown() {
+        mScheduler.shutdown();
+    }
+
+    /**
+     * Submit FRAMES frames, each filled with the low byte of its timestamp, one every intervalMillis
+     */
+    private void submitFrames(long intervalMillis) throws InterruptedException {
+        for (int frame = 0; frame < FRAMES; frame++) {
+            mLuma.clear();
+            while (mLuma.hasRemaining()) {
+                mLuma.put((byte) frame);
+            }
+            mLuma.flip();
+            mScheduler.submit(mLuma, WIDTH, WIDTH, HEIGHT, frame);
+            // The caller may reuse its buffer at once
+            mLuma.clear();
+            while (mLuma.hasRemaining()) {
+                mLuma.put((byte) -1);
+            }
+            if (intervalMillis > 0) {
+                Thread.sleep(intervalMillis);
+            }
+        }
+    }
+
+    @Test
+    public void slowAnalyzerDropsTheOldestFrames() throws InterruptedException {
+        SlowAnalyzer slow = new SlowAnalyzer(20);
+        mScheduler.addAnalyzer("slow", slow);
+        submitFrames(1);
+        long dropped = mScheduler.getFramesDropped(0);
+        mScheduler.shutdown();
+
+        // Every frame was either analyzed or dropped, so none was lost for want of a buffer
+        assertEquals(FRAMES, slow.analyzed + dropped);
+        assertTrue("dropped " + dropped, dropped > FRAMES / 2);
+        assertTrue(slow.inOrder);
+        assertTrue(slow.intact);
+        // Only the newest frames were waiting at the end, so the last one was analyzed
+        assertEquals(FRAMES - 1, slow.lastTimestamp);
+    }
+
+    /**
+     * The analyzer never returns while frames are submitted, so a submit() that waited for it would hang
+     * until the timeout. Wall clock bounds on submit() are left out, as a GC pause makes them flaky.
+     */
+    @Test(timeout = 10000)
+    public void backlogNeverExceedsTheQueueDepth() throws InterruptedException {
+        SlowAnalyzer stuck = new SlowAnalyzer(TimeUnit.MINUTES.toMillis(1));
+        mScheduler.addAnalyzer("stuck", stuck);
+        submitFrames(0);
+        // At most one frame in progress and DEPTH waiting, the rest dropped
+        long kept = FRAMES - mScheduler.getFramesDropped(0);
+        assertTrue("kept " + kept, kept >= DEPTH && kept <= DEPTH + 1);
+        assertEquals(0, stuck.analyzed);
+        stuck.release.countDown();
+    }
+
+    @Test
+    public void slowAnalyzerDoesNotHoldUpAFastOne() throws InterruptedException {
+        SlowAnalyzer slow = new SlowAnalyzer(20);
+        SlowAnalyzer fast = new SlowAnalyzer(0);
+        mScheduler.addAnalyzer("slow", slow);
+        mScheduler.addAnalyzer("fast", fast);
+        submitFrames(2);
+        long slowDropped = mScheduler.getFramesDropped(0);
+        long fastDropped = mScheduler.getFramesDropped(1);
+        mScheduler.shutdown();
+
+        assertEquals(FRAMES, slow.analyzed + slowDropped);
+        assertEquals(FRAMES, fast.analyzed + fastDropped);
+        assertTrue("fast " + fastDropped + " slow " + slowDropped, fastDropped < slowDropped);
+        assertTrue(fast.analyzed > FRAMES / 2);
+        assertTrue(slow.intact);
+        assertTrue(fast.intact);
+    }
+
+    @Test
+    public void countsAreKeptAfterShutdown() throws InterruptedException {
+        SlowAnalyzer slow = new SlowAnalyzer(20);
+        mScheduler.addAnalyzer("slow", slow);
+        submitFrames(1);
+        mScheduler.shutdown();
+        long dropped = mScheduler.getFramesDropped(0);
+
+        assertEquals(0, mScheduler.getAnalyzerCount());
+        assertEquals(slow.analyzed, mScheduler.getFramesAnalyzed(0));
+        assertEquals(FRAMES, mScheduler.getFramesAnalyzed(0) + dropped);
+        assertTrue(mScheduler.getLatencyPercentile(0, 50) > 0);
+        // Frames that arrive after shutdown are ignored
+        submitFrames(0);
+        assertEquals(dropped, mScheduler.getFramesDropped(0));
+        assertEquals(slow.analyzed, mScheduler.getFramesAnalyzed(0));
+    }
+
+    @Test
+    public void withoutAnalyzersSubmitDoesNothing() throws InterruptedException {
+        submitFrames(0);
+        assertEquals(0, mScheduler.getAnalyzerCount());
+    }
+}
@@ -0,0 +1,111 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ImageNamesTest {
+
+    private static final File DIRECTORY = new File("pictures");
+    private static final long TIME_MILLIS = 1527001234567L;
+    private static final int THREADS = 4;
+    private static final int NAMES_PER_THREAD = 500000;
+
+    @Test
+    public void nameCarriesTimeSequenceAndSize() {
+        ImageNames names = new ImageNames(DIRECTORY);
+        assertEquals("pictures" + File.separator + "IMAGE_1527001234567_0_1920x1080.jpg", names.next(TIME_MILLIS, 1920, 1080));
+        assertEquals("pictures" + File.separator + "IMAGE_1527001234567_1_640x480.jpg", names.next(TIME_MILLIS, 640, 480));
+        assertEquals(2, names.getCount());
+    }
+
+    @Test
+    public void namesInTheSameMillisecondDiffer() {
+        ImageNames names = new ImageNames(DIRECTORY);
+        Set<String> seen = new HashSet<String>();
+        for (int i = 0; i < 100000; i++) {
+            assertTrue(seen.add(names.next(TIME_MILLIS, 1920, 1080)));
+        }
+    }
+
+    @Test
+    public void millionsOfNamesFromManyThreadsNeverCollide() throws InterruptedException {
+        final ImageNames names = new ImageNames(DIRECTORY);
+        final String prefix = "pictures" + File.separator + "IMAGE_" + TIME_MILLIS + "_";
+        final String suffix = "_1920x1080.jpg";
+        final long[][] sequences = new long[THREADS][NAMES_PER_THREAD];
+        final boolean[] wellFormed = new boolean[THREADS];
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final int index = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    boolean ok = true;
+                    for (int i = 0; i < NAMES_PER_THREAD; i++) {
+                        // Every thread uses the same time and size, so only the sequence tells the names apart
+                        String name = names.next(TIME_MILLIS, 1920, 1080);
+                        ok &= name.startsWith(prefix) && name.endsWith(suffix);
+                        sequences[index][i] = Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+                    }
+                    wellFormed[index] = ok;
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        int total = THREADS * NAMES_PER_THREAD;
+        BitSet seen = new BitSet(total);
+        for (int t = 0; t < THREADS; t++) {
+            assertTrue(wellFormed[t]);
+            for (long sequence : sequences[t]) {
+                assertTrue(sequence >= 0 && sequence < total);
+                assertFalse("duplicate " + sequence, seen.get((int) sequence));
+                seen.set((int) sequence);
+            }
+        }
+        assertEquals(total, seen.cardinality());
+        assertEquals(total, names.getCount());
+    }
+}
@@ -0,0 +1,208 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ImageRetentionTest {
+
+    private static final long START_MILLIS = 1527001234567L;
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    // Names another camera app, or the user, could leave in the same directory
+    private static final String[] FOREIGN_NAMES = {
+            "IMAGE_20240101_123456.jpg",
+            "IMAGE_1_holiday.jpg",
+            "IMAGE_5_x.jpg",
+            "IMAGE_1527001234567.jpg",
+            "IMAGE_1527001234567_.jpg",
+            "IMAGE_1527001234567_1920x.jpg",
+            "IMAGE_1527001234567_x1080.jpg",
+            "IMAGE_1527001234567_3_1920x1080_copy.jpg",
+            "IMAGE_1527001234567_3_1920x1080.jpeg",
+            "IMAGE_152700123456_3_1920x1080.jpg",
+            "IMAGE_15270012345678_3_1920x1080.jpg",
+            "IMAGE_1527001234567_1234567890123456789_1920x1080.jpg",
+            "image_1527001234567_3_1920x1080.jpg",
+            "notes.txt",
+    };
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static void create(File file) throws IOException {
+        assertTrue(file.getPath(), file.createNewFile());
+    }
+
+    @Test
+    public void foreignNamesAreNeitherIndexedNorDeleted() throws IOException {
+        File directory = mFolder.getRoot();
+        for (String name : FOREIGN_NAMES) {
+            create(new File(directory, name));
+        }
+        File current = new File(new ImageNames(directory).next(START_MILLIS, 1920, 1080));
+        File legacy = new File(directory, "IMAGE_" + (START_MILLIS + 1) + "_1920x1080.jpg");
+        create(current);
+        create(legacy);
+
+        // Everything indexed is a day over the age limit, so all of it goes
+        ImageRetention retention = new ImageRetention(directory, 1, ImageRetention.UNLIMITED, DAY_MILLIS, null);
+        assertEquals(2, retention.scan());
+        assertEquals(2, retention.evict(START_MILLIS + 2 * DAY_MILLIS));
+        retention.shutdown();
+
+        assertFalse(current.exists());
+        assertFalse(legacy.exists());
+        for (String name : FOREIGN_NAMES) {
+            assertTrue(name, new File(directory, name).exists());
+        }
+        for (String name : FOREIGN_NAMES) {
+            assertFalse(name, retention.add(name, 1));
+        }
+        assertEquals(0, retention.getImageCount());
+    }
+
+    @Test
+    public void legacyNameIsOrderedByItsTime() throws IOException {
+        File directory = mFolder.getRoot();
+        ImageNames names = new ImageNames(directory);
+        File newer = new File(names.next(START_MILLIS + 10, 1920, 1080));
+        File legacy = new File(directory, "IMAGE_" + START_MILLIS + "_1280x720.jpg");
+        create(newer);
+        create(legacy);
+
+        ImageRetention retention = new ImageRetention(directory, 1, ImageRetention.UNLIMITED,
+                ImageRetention.UNLIMITED, null);
+        assertEquals(2, retention.scan());
+        assertEquals(1, retention.evict(START_MILLIS + 20));
+        retention.shutdown();
+        assertFalse(legacy.exists());
+        assertTrue(newer.exists());
+    }
+
+    @Test
+    public void imageWrittenDuringTheScanIsIndexedOnce() throws IOException {
+        File directory = mFolder.getRoot();
+        ImageNames names = new ImageNames(directory);
+        File old = new File(names.next(START_MILLIS, 1920, 1080));
+        // Listed by the scan, and reported by onImageWritten() after it
+        File written = new File(names.next(1920, 1080));
+        create(old);
+        create(written);
+        ImageRetention retention = new ImageRetention(directory, 0, ImageRetention.UNLIMITED,
+                ImageRetention.UNLIMITED, null);
+        assertEquals(2, retention.scan());
+        long bytes = retention.getBytes();
+
+        assertFalse(retention.add(written.getName(), 1000));
+        assertEquals(2, retention.getImageCount());
+        assertEquals(bytes, retention.getBytes());
+        // Images written after the scan are still added
+        File next = new File(names.next(1920, 1080));
+        create(next);
+        assertTrue(retention.add(next.getName(), 1000));
+        assertEquals(3, retention.getImageCount());
+        assertEquals(bytes + 1000, retention.getBytes());
+        retention.shutdown();
+    }
+
+    @Test
+    public void byteLimitEvictsOldestAdded() throws IOException {
+        File directory = mFolder.getRoot();
+        ImageNames names = new ImageNames(directory);
+        ImageRetention retention = new ImageRetention(directory, 0, 3000, ImageRetention.UNLIMITED, null);
+        // Nothing is indexed before the scan, it would find the image itself
+        assertFalse(retention.add(new File(names.next(START_MILLIS, 1920, 1080)).getName(), 1000));
+        assertEquals(0, retention.scan());
+
+        File[] files = new File[5];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = new File(names.next(START_MILLIS, 1920, 1080));
+            create(files[i]);
+            assertTrue(retention.add(files[i].getName(), 1000));
+            retention.evict(START_MILLIS);
+        }
+        retention.shutdown();
+
+        // Same millisecond throughout, so the sequence number decides the order
+        assertFalse(files[0].exists());
+        assertFalse(files[1].exists());
+        assertTrue(files[2].exists());
+        assertTrue(files[4].exists());
+        assertEquals(3, retention.getImageCount());
+        assertEquals(3000, retention.getBytes());
+        assertEquals(2, retention.getEvictedImages());
+        assertEquals(2000, retention.getEvictedBytes());
+    }
+
+    @Test
+    public void scanAndEvictHundredThousandImages() throws IOException {
+        final int images = 100000;
+        final int keep = 1000;
+        File directory = mFolder.getRoot();
+        ImageNames names = new ImageNames(directory);
+        // Written newest first, so the order comes from the names and not from the listing
+        File[] files = new File[images];
+        for (int i = images - 1; i >= 0; i--) {
+            files[i] = new File(names.next(START_MILLIS + i * 1000L, 1920, 1080));
+            create(files[i]);
+        }
+        for (int i = 0; i < 1000; i++) {
+            create(new File(directory, "IMAGE_20240101_" + (100000 + i) + ".jpg"));
+            create(new File(directory, "IMAGE_" + i + "_holiday.jpg"));
+        }
+
+        ImageRetention retention = new ImageRetention(directory, keep, ImageRetention.UNLIMITED,
+                ImageRetention.UNLIMITED, null);
+        assertEquals(images, retention.scan());
+        assertEquals(images - keep, retention.evict(START_MILLIS + images * 1000L));
+        retention.shutdown();
+
+        assertEquals(keep, retention.getImageCount());
+        assertEquals(images - keep, retention.getEvictedImages());
+        assertEquals(0, retention.getDeleteFailures());
+        for (int i = 0; i < images; i++) {
+            assertEquals(files[i].getName(), i >= images - keep, files[i].exists());
+        }
+        // Every foreign file is still there
+        assertEquals(keep + 2000, directory.list().length);
+    }
+}
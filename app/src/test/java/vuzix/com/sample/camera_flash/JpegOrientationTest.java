@@ -0,0 +1,96 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JpegOrientationTest {
+
+    private static final int[] SENSOR_ORIENTATIONS = { 0, 90, 180, 270 };
+    private static final boolean[] FACINGS = { false, true };
+
+    /**
+     * The formula from the CaptureRequest.JPEG_ORIENTATION documentation, which takes the device
+     * orientation as OrientationEventListener reports it, clockwise from natural
+     */
+    private static int reference(int sensorOrientation, boolean frontFacing, int deviceOrientation) {
+        if (frontFacing) {
+            deviceOrientation = -deviceOrientation;
+        }
+        return (sensorOrientation + deviceOrientation + 360) % 360;
+    }
+
+    @Test
+    public void everyCombinationMatchesTheReference() {
+        for (int sensor : SENSOR_ORIENTATIONS) {
+            for (boolean front : FACINGS) {
+                JpegOrientation table = new JpegOrientation(sensor, front);
+                for (int rotation = 0; rotation < JpegOrientation.ROTATION_DEGREES.length; rotation++) {
+                    int displayDegrees = JpegOrientation.ROTATION_DEGREES[rotation];
+                    // Turning the device clockwise turns the display the other way
+                    int deviceOrientation = (360 - displayDegrees) % 360;
+                    int expected = reference(sensor, front, deviceOrientation);
+                    String what = "sensor " + sensor + (front ? " front" : " back") + " rotation " + rotation;
+                    assertEquals(what, expected, JpegOrientation.compute(sensor, front, displayDegrees));
+                    assertEquals(what, expected, table.forRotation(rotation));
+                    assertTrue(what, expected >= 0 && expected < 360 && expected % 90 == 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void commonCameras() {
+        // Typical phone: back sensor mounted at 90, front at 270
+        JpegOrientation back = new JpegOrientation(90, false);
+        assertEquals(90, back.forRotation(0));
+        assertEquals(0, back.forRotation(1));
+        assertEquals(270, back.forRotation(2));
+        assertEquals(180, back.forRotation(3));
+        JpegOrientation front = new JpegOrientation(270, true);
+        assertEquals(270, front.forRotation(0));
+        assertEquals(0, front.forRotation(1));
+        assertEquals(90, front.forRotation(2));
+        assertEquals(180, front.forRotation(3));
+    }
+
+    @Test
+    public void rotationIndexWraps() {
+        JpegOrientation table = new JpegOrientation(90, false);
+        for (int rotation = 0; rotation < 4; rotation++) {
+            assertEquals(table.forRotation(rotation), table.forRotation(rotation + 4));
+        }
+    }
+}
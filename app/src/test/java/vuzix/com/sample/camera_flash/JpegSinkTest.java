@@ -0,0 +1,283 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class JpegSinkTest {
+
+    private static final int PADDING = 4096;
+    // The chunk JpegSink reads the entropy coded data in
+    private static final int CHUNK = 8192;
+    private static final byte[] HEADER = {
+            (byte) 0xFF, (byte) 0xD8,
+            (byte) 0xFF, (byte) 0xE0, 0, 6, 'J', 'F', 'I', 'F',
+            (byte) 0xFF, (byte) 0xDA, 0, 4, 1, 2,
+    };
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("sink", ".jpg");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    /**
+     * @return byte[] of a minimal JPEG: SOI, APP0, SOS with entropy data holding a stuffed 0xFF and a
+     * restart marker, then EOI
+     */
+    private static byte[] jpeg() {
+        return new byte[] {
+                (byte) 0xFF, (byte) 0xD8,
+                (byte) 0xFF, (byte) 0xE0, 0, 6, 'J', 'F', 'I', 'F',
+                (byte) 0xFF, (byte) 0xDA, 0, 4, 1, 2,
+                10, 20, (byte) 0xFF, 0, 30, (byte) 0xFF, (byte) 0xD3, 40, 50,
+                (byte) 0xFF, (byte) 0xD9,
+        };
+    }
+
+    private static ByteBuffer padded(byte[] jpeg) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(jpeg.length + PADDING);
+        buffer.put(jpeg);
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) 0xFF);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private byte[] readFile() throws IOException {
+        RandomAccessFile input = new RandomAccessFile(mFile, "r");
+        try {
+            byte[] data = new byte[(int) input.length()];
+            input.readFully(data);
+            return data;
+        } finally {
+            input.close();
+        }
+    }
+
+    @Test
+    public void paddingIsNotCounted() {
+        byte[] jpeg = jpeg();
+        ByteBuffer buffer = padded(jpeg);
+        assertEquals(jpeg.length, JpegSink.validLength(buffer));
+        assertEquals(0, buffer.position());
+    }
+
+    /**
+     * The byte at a time scan JpegSink used before it read the entropy coded data in chunks, kept as the
+     * reference the chunked scan must agree with
+     */
+    private static int referenceValidLength(ByteBuffer jpeg) {
+        final int start = jpeg.position();
+        final int limit = jpeg.limit();
+        if (limit - start < 4 || (jpeg.get(start) & 0xFF) != 0xFF || (jpeg.get(start + 1) & 0xFF) != 0xD8) {
+            return limit - start;
+        }
+        int i = start + 2;
+        while (i + 1 < limit) {
+            if ((jpeg.get(i) & 0xFF) != 0xFF) {
+                break;
+            }
+            int marker = jpeg.get(i + 1) & 0xFF;
+            if (marker == 0xFF) {
+                i++;
+                continue;
+            }
+            if (marker == 0xD9) {
+                return i + 2 - start;
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                i += 2;
+                continue;
+            }
+            if (i + 3 >= limit) {
+                break;
+            }
+            i += 2 + (((jpeg.get(i + 2) & 0xFF) << 8) | (jpeg.get(i + 3) & 0xFF));
+            if (marker == 0xDA) {
+                while (i + 1 < limit) {
+                    if ((jpeg.get(i) & 0xFF) == 0xFF) {
+                        int next = jpeg.get(i + 1) & 0xFF;
+                        if (next != 0 && !(next >= 0xD0 && next <= 0xD7)) {
+                            break;
+                        }
+                        i += 2;
+                    } else {
+                        i++;
+                    }
+                }
+            }
+        }
+        return limit - start;
+    }
+
+    /**
+     * @return byte[] of HEADER followed by length bytes of entropy coded data without any 0xFF
+     */
+    private static byte[] scan(int length) {
+        byte[] jpeg = new byte[HEADER.length + length];
+        System.arraycopy(HEADER, 0, jpeg, 0, HEADER.length);
+        for (int i = HEADER.length; i < jpeg.length; i++) {
+            jpeg[i] = (byte) (i % 251);
+        }
+        return jpeg;
+    }
+
+    @Test
+    public void markersAcrossChunkBoundariesAreFound() {
+        // Each chunk starts just after the last 0xFF found, so put every 0xFF at the end of a chunk with
+        // the byte after it in the next: a stuffed zero, a restart marker, a fill byte, then EOI
+        int ecs = HEADER.length;
+        int stuffed = ecs + CHUNK - 1;
+        int restart = stuffed + 2 + CHUNK - 1;
+        int fill = restart + 2 + CHUNK - 1;
+        byte[] jpeg = scan(fill + 3 - ecs);
+        jpeg[stuffed] = (byte) 0xFF;
+        jpeg[stuffed + 1] = 0;
+        jpeg[restart] = (byte) 0xFF;
+        jpeg[restart + 1] = (byte) 0xD5;
+        jpeg[fill] = (byte) 0xFF;
+        jpeg[fill + 1] = (byte) 0xFF;
+        jpeg[fill + 2] = (byte) 0xD9;
+        // Padded, then with EOI as the last bytes of the buffer
+        assertEquals(jpeg.length, JpegSink.validLength(padded(jpeg)));
+        assertEquals(jpeg.length, JpegSink.validLength(ByteBuffer.wrap(jpeg)));
+        assertEquals(referenceValidLength(ByteBuffer.wrap(jpeg)), JpegSink.validLength(ByteBuffer.wrap(jpeg)));
+    }
+
+    @Test
+    public void fillBytesAndStuffingAreNotTheEnd() {
+        byte[] jpeg = scan(3 * CHUNK + 10);
+        int i = HEADER.length + 5;
+        // A run of stuffed 0xFF00 pairs, then every restart marker, then a run of fill bytes before EOI
+        for (int k = 0; k < 1000; k++) {
+            jpeg[i++] = (byte) 0xFF;
+            jpeg[i++] = 0;
+        }
+        for (int rst = 0xD0; rst <= 0xD7; rst++) {
+            jpeg[i++] = (byte) 0xFF;
+            jpeg[i++] = (byte) rst;
+            jpeg[i++] = 7;
+        }
+        int eoi = HEADER.length + 2 * CHUNK + 100;
+        for (int k = eoi - 50; k < eoi; k++) {
+            jpeg[k] = (byte) 0xFF;
+        }
+        jpeg[eoi] = (byte) 0xD9;
+        assertEquals(eoi + 1, JpegSink.validLength(padded(jpeg)));
+        assertEquals(referenceValidLength(padded(jpeg)), JpegSink.validLength(padded(jpeg)));
+    }
+
+    @Test
+    public void chunkedScanMatchesByteScan() {
+        Random random = new Random(12);
+        byte[] special = { (byte) 0xFF, 0, (byte) 0xD0, (byte) 0xD7, (byte) 0xD9, (byte) 0xD8, 1 };
+        for (int n = 0; n < 2000; n++) {
+            byte[] jpeg = scan(random.nextInt(3 * CHUNK));
+            // Mostly plain data, with 0xFF and the bytes that can follow it much more common than by chance
+            int specials = random.nextInt(64);
+            for (int k = 0; k < specials && jpeg.length > HEADER.length; k++) {
+                int at = HEADER.length + random.nextInt(jpeg.length - HEADER.length);
+                jpeg[at] = special[random.nextInt(special.length)];
+            }
+            int offset = random.nextInt(4);
+            ByteBuffer buffer = ByteBuffer.allocate(offset + jpeg.length + random.nextInt(64));
+            buffer.position(offset);
+            buffer.put(jpeg);
+            buffer.position(offset);
+            assertEquals("input " + n, referenceValidLength(buffer), JpegSink.validLength(buffer));
+            assertEquals(offset, buffer.position());
+        }
+    }
+
+    @Test
+    public void malformedDataIsKeptWhole() {
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[] { 1, 2, 3, 4, 5 });
+        assertEquals(5, JpegSink.validLength(buffer));
+    }
+
+    @Test
+    public void writeLeavesThePaddingBehind() throws IOException {
+        byte[] jpeg = jpeg();
+        FileOutputStream output = new FileOutputStream(mFile);
+        try {
+            assertEquals(jpeg.length, JpegSink.write(padded(jpeg), output.getChannel()));
+        } finally {
+            output.close();
+        }
+        assertArrayEquals(jpeg, readFile());
+    }
+
+    @Test
+    public void knownLengthMatchesScannedLength() throws IOException {
+        byte[] jpeg = jpeg();
+        FileOutputStream output = new FileOutputStream(mFile);
+        try {
+            JpegSink.write(padded(jpeg), "shot", output.getChannel());
+        } finally {
+            output.close();
+        }
+        byte[] scanned = readFile();
+
+        ByteBuffer trimmed = ByteBuffer.allocateDirect(jpeg.length);
+        trimmed.put(jpeg).flip();
+        output = new FileOutputStream(mFile);
+        try {
+            assertEquals(scanned.length, JpegSink.write(trimmed, trimmed.remaining(), "shot", output.getChannel()));
+        } finally {
+            output.close();
+        }
+        assertArrayEquals(scanned, readFile());
+        assertEquals(jpeg.length + 4 + 4, scanned.length);
+        // The comment goes after APP0
+        assertEquals((byte) 0xFE, scanned[11]);
+    }
+}
@@ -0,0 +1,123 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JpegWriterTest {
+
+    private static final int DEPTH = 2;
+    private static final int THREADS = 4;
+    private static final int SHOTS_PER_THREAD = 500;
+
+    private final AtomicInteger mWritten = new AtomicInteger();
+    private final AtomicInteger mFailed = new AtomicInteger();
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("writer", "");
+        mDirectory.delete();
+        mDirectory.mkdir();
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : mDirectory.listFiles()) {
+            file.delete();
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void countersAddUpWithManySubmitters() throws InterruptedException {
+        // Start with buffers too small for the images, so submit() also has to grow them
+        final JpegWriter writer = new JpegWriter(DEPTH, 16, 0, new JpegWriter.Listener() {
+            @Override
+            public void onImageWritten(File file, int length) {
+                mWritten.incrementAndGet();
+            }
+
+            @Override
+            public void onImageDiscarded(File file) {
+            }
+
+            @Override
+            public void onImageWriteFailed(File file, IOException e) {
+                mFailed.incrementAndGet();
+            }
+        });
+        final AtomicInteger accepted = new AtomicInteger();
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final File file = new File(mDirectory, "IMAGE_" + t + ".jpg");
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    ByteBuffer image = ByteBuffer.allocateDirect(1024);
+                    try {
+                        for (int i = 0; i < SHOTS_PER_THREAD; i++) {
+                            if (writer.submit(image, file)) {
+                                accepted.incrementAndGet();
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        writer.shutdown();
+
+        assertEquals(0, mFailed.get());
+        assertEquals(accepted.get(), mWritten.get());
+        assertEquals(accepted.get(), writer.getImagesWritten());
+        assertEquals(THREADS * SHOTS_PER_THREAD, accepted.get() + writer.getImagesRejected());
+        // Each pooled buffer grows at most once
+        int allocations = writer.getBufferAllocations();
+        assertTrue(allocations > DEPTH && allocations <= 2 * DEPTH);
+    }
+}
@@ -0,0 +1,140 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class LatencyRecorderTest {
+
+    @Test
+    public void stagesAreKeptApart() {
+        LatencyRecorder recorder = new LatencyRecorder(8);
+        recorder.record(LatencyRecorder.STAGE_PRECAPTURE, 5000000);
+        recorder.record(LatencyRecorder.STAGE_FILE_WRITE, 7);
+        recorder.record(LatencyRecorder.STAGE_FILE_WRITE, 9);
+        assertEquals(1, recorder.getCount(LatencyRecorder.STAGE_PRECAPTURE));
+        assertEquals(2, recorder.getCount(LatencyRecorder.STAGE_FILE_WRITE));
+        assertEquals(0, recorder.getCount(LatencyRecorder.STAGE_SHOT_TOTAL));
+        assertEquals(9, recorder.getPercentile(LatencyRecorder.STAGE_FILE_WRITE, 100));
+        assertEquals(0, recorder.getPercentile(LatencyRecorder.STAGE_SHOT_TOTAL, 50));
+    }
+
+    @Test
+    public void ringKeepsTheNewestSamplesOldestFirst() throws IOException {
+        LatencyRecorder recorder = new LatencyRecorder(3);
+        for (int i = 1; i <= 5; i++) {
+            recorder.record(LatencyRecorder.STAGE_BUFFER_COPY, i);
+        }
+        StringWriter out = new StringWriter();
+        recorder.writeSamples(out);
+        assertEquals("stage,nanos\nbuffer_copy,3\nbuffer_copy,4\nbuffer_copy,5\n", out.toString());
+        // The histogram still counts every sample
+        assertEquals(5, recorder.getCount(LatencyRecorder.STAGE_BUFFER_COPY));
+    }
+
+    @Test
+    public void summaryHasALinePerStage() throws IOException {
+        LatencyRecorder recorder = new LatencyRecorder(16);
+        for (int i = 0; i < 100; i++) {
+            recorder.record(LatencyRecorder.STAGE_SHOT_TOTAL, 10000000L);
+        }
+        StringWriter out = new StringWriter();
+        recorder.writeSummary(out);
+        String[] lines = out.toString().split("\n");
+        assertEquals(LatencyRecorder.STAGE_COUNT, lines.length);
+        String shot = lines[LatencyRecorder.STAGE_SHOT_TOTAL];
+        assertTrue(shot, shot.startsWith("shot_total"));
+        assertTrue(shot, shot.contains("n=100"));
+        assertTrue(shot, shot.contains("p99="));
+    }
+
+    @Test
+    public void resetForgetsEveryStage() throws IOException {
+        LatencyRecorder recorder = new LatencyRecorder(4);
+        recorder.record(LatencyRecorder.STAGE_STARTUP, 1);
+        recorder.reset();
+        assertEquals(0, recorder.getCount(LatencyRecorder.STAGE_STARTUP));
+        StringWriter out = new StringWriter();
+        recorder.writeSamples(out);
+        assertEquals("stage,nanos\n", out.toString());
+    }
+
+    @Test
+    public void concurrentRecordsAreAllCounted() throws InterruptedException {
+        final LatencyRecorder recorder = new LatencyRecorder(64);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 100000; i++) {
+                        recorder.record(LatencyRecorder.STAGE_IMAGE_AVAILABLE, i);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(400000, recorder.getCount(LatencyRecorder.STAGE_IMAGE_AVAILABLE));
+    }
+
+    @Test
+    public void recordDoesNotAllocate() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        LatencyRecorder recorder = new LatencyRecorder(256);
+        long id = Thread.currentThread().getId();
+        for (int i = 0; i < 100000; i++) {
+            recorder.record(i % LatencyRecorder.STAGE_COUNT, i);
+        }
+        long before = threads.getThreadAllocatedBytes(id);
+        for (int i = 0; i < 1000000; i++) {
+            recorder.record(i % LatencyRecorder.STAGE_COUNT, i);
+        }
+        long allocated = threads.getThreadAllocatedBytes(id) - before;
+        // Allow for the measurement itself, but not for anything per record
+        assertTrue(allocated + " bytes", allocated < 1024);
+    }
+}
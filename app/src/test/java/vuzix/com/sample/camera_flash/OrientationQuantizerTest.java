@@ -0,0 +1,199 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OrientationQuantizerTest {
+
+    private static final int DEAD_BAND = 10;
+    private static final long DWELL_MILLIS = 200;
+    private static final long SAMPLE_MILLIS = 10;
+
+    private OrientationQuantizer mQuantizer;
+    private long mNow;
+
+    @Before
+    public void setUp() {
+        mQuantizer = new OrientationQuantizer(DEAD_BAND, DWELL_MILLIS);
+        mNow = 1000;
+    }
+
+    /**
+     * Feed one reading every SAMPLE_MILLIS for the given time
+     *
+     * @return int number of changes reported
+     */
+    private int hold(int orientation, long millis) {
+        int changes = 0;
+        for (long end = mNow + millis; mNow < end; mNow += SAMPLE_MILLIS) {
+            if (mQuantizer.update(orientation, mNow)) {
+                changes++;
+            }
+        }
+        return changes;
+    }
+
+    private void settleAt(int orientation) {
+        hold(orientation, DWELL_MILLIS + SAMPLE_MILLIS);
+    }
+
+    @Test
+    public void firstBucketWaitsForTheDwell() {
+        assertEquals(OrientationQuantizer.UNKNOWN, mQuantizer.getBucket());
+        assertFalse(mQuantizer.update(0, 0));
+        assertFalse(mQuantizer.update(0, DWELL_MILLIS - 1));
+        assertEquals(OrientationQuantizer.UNKNOWN, mQuantizer.getBucket());
+        assertTrue(mQuantizer.update(0, DWELL_MILLIS));
+        assertEquals(0, mQuantizer.getBucket());
+        assertFalse(mQuantizer.update(0, DWELL_MILLIS + 1));
+    }
+
+    @Test
+    public void sustainedTurnIsReportedOnce() {
+        settleAt(0);
+        assertEquals(1, hold(90, 1000));
+        assertEquals(1, mQuantizer.getBucket());
+        assertEquals(1, hold(180, 1000));
+        assertEquals(2, mQuantizer.getBucket());
+        assertEquals(1, hold(270, 1000));
+        assertEquals(3, mQuantizer.getBucket());
+    }
+
+    @Test
+    public void jitterAroundTheBoundaryIsIgnored() {
+        settleAt(0);
+        int changes = 0;
+        for (int i = 0; i < 1000; i++) {
+            changes += hold((i & 1) == 0 ? 44 : 46, SAMPLE_MILLIS);
+        }
+        assertEquals(0, changes);
+        assertEquals(0, mQuantizer.getBucket());
+    }
+
+    @Test
+    public void deadBandIsIgnoredHoweverLongItIsHeld() {
+        settleAt(0);
+        assertEquals(0, hold(45 - DEAD_BAND + 1, 5000));
+        assertEquals(0, hold(45 + DEAD_BAND - 1, 5000));
+        assertEquals(0, mQuantizer.getBucket());
+        // Just outside the dead-band counts as the next bucket
+        assertEquals(1, hold(45 + DEAD_BAND, 1000));
+        assertEquals(1, mQuantizer.getBucket());
+    }
+
+    @Test
+    public void shortExcursionIsIgnored() {
+        settleAt(0);
+        assertEquals(0, hold(90, DWELL_MILLIS - SAMPLE_MILLIS));
+        assertEquals(0, hold(0, 1000));
+        assertEquals(0, mQuantizer.getBucket());
+    }
+
+    @Test
+    public void oscillationBetweenBucketsNeverSettles() {
+        settleAt(0);
+        int changes = 0;
+        for (int i = 0; i < 100; i++) {
+            changes += hold(90, DWELL_MILLIS / 2);
+            changes += hold(0, DWELL_MILLIS / 2);
+        }
+        assertEquals(0, changes);
+    }
+
+    @Test
+    public void anglesWrapAroundZero() {
+        settleAt(90);
+        assertEquals(1, hold(355, 1000));
+        assertEquals(0, mQuantizer.getBucket());
+        settleAt(90);
+        assertEquals(1, hold(720, 1000));
+        assertEquals(0, mQuantizer.getBucket());
+        settleAt(90);
+        assertEquals(1, hold(360 - 45 + DEAD_BAND, 1000));
+        assertEquals(0, mQuantizer.getBucket());
+    }
+
+    @Test
+    public void unknownReadingsKeepTheCandidate() {
+        settleAt(0);
+        assertFalse(mQuantizer.update(90, mNow));
+        long start = mNow;
+        assertFalse(mQuantizer.update(-1, start + DWELL_MILLIS / 2));
+        assertTrue(mQuantizer.update(-1, start + DWELL_MILLIS));
+        assertEquals(1, mQuantizer.getBucket());
+        // Unknown readings alone never report anything
+        assertEquals(0, hold(-1, 5000));
+    }
+
+    @Test
+    public void turnIsReportedWhenReadingsStopAfterTheCrossing() {
+        settleAt(0);
+        assertEquals(-1, mQuantizer.getRemainingDwellMillis(mNow));
+        // One reading past the dead-band, then the device is held still and the sensor goes quiet
+        long crossing = mNow;
+        assertFalse(mQuantizer.update(90, crossing));
+        long remaining = mQuantizer.getRemainingDwellMillis(crossing);
+        assertEquals(DWELL_MILLIS, remaining);
+        assertFalse(mQuantizer.check(crossing + remaining - 1));
+        assertEquals(0, mQuantizer.getBucket());
+        // The delayed check the listener posts for when the dwell expires
+        assertTrue(mQuantizer.check(crossing + remaining));
+        assertEquals(1, mQuantizer.getBucket());
+        assertEquals(-1, mQuantizer.getRemainingDwellMillis(crossing + remaining));
+        assertFalse(mQuantizer.check(crossing + 10 * DWELL_MILLIS));
+    }
+
+    @Test
+    public void resetNeedsTheDwellAgain() {
+        settleAt(90);
+        mQuantizer.reset();
+        assertEquals(OrientationQuantizer.UNKNOWN, mQuantizer.getBucket());
+        assertFalse(mQuantizer.update(90, mNow));
+        assertEquals(1, hold(90, DWELL_MILLIS + SAMPLE_MILLIS));
+        assertEquals(1, mQuantizer.getBucket());
+    }
+
+    @Test
+    public void noDeadBandSplitsAt45() {
+        OrientationQuantizer quantizer = new OrientationQuantizer(0, 0);
+        assertTrue(quantizer.update(44, 0));
+        assertEquals(0, quantizer.getBucket());
+        assertTrue(quantizer.update(46, 0));
+        assertEquals(1, quantizer.getBucket());
+    }
+}
@@ -0,0 +1,153 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives PreviewRequestState the way MainActivity.updatePreviewRequest() does, through rotations and flash
+ * mode changes, and counts the repeating preview requests submitted.
+ */
+public class PreviewRequestStateTest {
+
+    // Display rotations of the M400 as JPEG orientations for a back camera mounted at 90 degrees
+    private static final int[] ROTATIONS = { 90, 270, 90, 90, 270, 270, 90 };
+
+    private PreviewRequestState mState;
+
+    @Before
+    public void setUp() {
+        mState = new PreviewRequestState();
+    }
+
+    /**
+     * @return int number of requests submitted, 0 or 1
+     */
+    private int update(FlashMode mode, int jpegOrientation) {
+        if (!mState.shouldSubmit(mode, jpegOrientation)) {
+            return 0;
+        }
+        mState.onSubmitted(mode, jpegOrientation);
+        return 1;
+    }
+
+    @Test
+    public void firstUpdateSubmits() {
+        assertTrue(mState.shouldSubmit(FlashMode.OFF, -1));
+        assertEquals(1, update(FlashMode.OFF, -1));
+        assertEquals(0, update(FlashMode.OFF, -1));
+        assertEquals(1, mState.getSubmissionCount());
+    }
+
+    @Test
+    public void rotationWithoutJpegPreviewSubmitsNothing() {
+        update(FlashMode.OFF, -1);
+        // Without zero shutter lag the preview carries no orientation, so a rotation changes nothing
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(0, update(FlashMode.OFF, -1));
+        }
+        assertEquals(1, mState.getSubmissionCount());
+    }
+
+    @Test
+    public void rotationWithJpegPreviewSubmitsOncePerChange() {
+        int last = ROTATIONS[0];
+        update(FlashMode.OFF, last);
+        int changes = 0;
+        for (int round = 0; round < 100; round++) {
+            for (int orientation : ROTATIONS) {
+                int submitted = update(FlashMode.OFF, orientation);
+                // At most one submission per rotation event, and only when the orientation changed
+                assertEquals(orientation != last ? 1 : 0, submitted);
+                changes += submitted;
+                last = orientation;
+            }
+        }
+        assertEquals(1 + changes, mState.getSubmissionCount());
+    }
+
+    @Test
+    public void rotationsAndModeChangesSubmitOncePerChange() {
+        FlashMode[] modes = { FlashMode.OFF, FlashMode.ON, FlashMode.ON, FlashMode.TORCH, FlashMode.PAIRED,
+                FlashMode.ON, FlashMode.OFF };
+        FlashMode mode = FlashMode.OFF;
+        int orientation = 90;
+        update(mode, orientation);
+        int expected = 1;
+        for (int i = 0; i < 700; i++) {
+            if (i % 2 == 0) {
+                int next = ROTATIONS[i % ROTATIONS.length];
+                expected += (next != orientation) ? 1 : 0;
+                orientation = next;
+            } else {
+                FlashMode next = modes[i % modes.length];
+                expected += (next != mode) ? 1 : 0;
+                mode = next;
+            }
+            assertTrue(update(mode, orientation) <= 1);
+        }
+        assertEquals(expected, mState.getSubmissionCount());
+    }
+
+    @Test
+    public void stoppedPreviewIsSubmittedAgainOnce() {
+        update(FlashMode.ON, 90);
+        mState.onStopped();
+        assertEquals(1, update(FlashMode.ON, 90));
+        assertEquals(0, update(FlashMode.ON, 90));
+        assertEquals(2, mState.getSubmissionCount());
+    }
+
+    @Test
+    public void modesWithTheSameKeysAreStillDifferentRequests() {
+        update(FlashMode.ON, -1);
+        // PAIRED meters as ON does, with the same AE trigger, but has a request of its own
+        assertEquals(FlashMode.ON.getPreviewAeTrigger(), FlashMode.PAIRED.getPreviewAeTrigger());
+        assertEquals(1, update(FlashMode.PAIRED, -1));
+        assertFalse(mState.shouldSubmit(FlashMode.PAIRED, -1));
+    }
+
+    @Test
+    public void switchFlashModeOnlySubmitsForAChange() {
+        update(FlashMode.OFF, 90);
+        assertEquals(PreviewRequestState.FlashSwitch.NONE,
+                mState.switchFlashMode(FlashMode.OFF, FlashMode.OFF, false, false, 90));
+        assertEquals(PreviewRequestState.FlashSwitch.SUBMIT,
+                mState.switchFlashMode(FlashMode.OFF, FlashMode.TORCH, false, false, 90));
+        assertEquals(1, mState.getSubmissionCount());
+    }
+}
@@ -0,0 +1,165 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReviewSchedulerTest {
+
+    private static final long HOLD_MILLIS = 300;
+
+    /**
+     * Stands in for the main looper: one thread that runs posted work in order, as a Handler does
+     */
+    private ScheduledExecutorService mLooper;
+    private final Map<Runnable, ScheduledFuture<?>> mPosted = new HashMap<Runnable, ScheduledFuture<?>>();
+    private final AtomicInteger mFinished = new AtomicInteger();
+    private final CountDownLatch mFinishedLatch = new CountDownLatch(1);
+    private ReviewScheduler mReview;
+
+    @Before
+    public void setUp() {
+        mLooper = Executors.newSingleThreadScheduledExecutor();
+        mReview = new ReviewScheduler(new ReviewScheduler.Scheduler() {
+            @Override
+            public void postDelayed(Runnable runnable, long delayMillis) {
+                mPosted.put(runnable, mLooper.schedule(runnable, delayMillis, TimeUnit.MILLISECONDS));
+            }
+            @Override
+            public void cancel(Runnable runnable) {
+                ScheduledFuture<?> posted = mPosted.remove(runnable);
+                if (null != posted) {
+                    posted.cancel(false);
+                }
+            }
+        }, new ReviewScheduler.Listener() {
+            @Override
+            public void onReviewFinished() {
+                mFinished.incrementAndGet();
+                mFinishedLatch.countDown();
+            }
+        }, HOLD_MILLIS);
+    }
+
+    @After
+    public void tearDown() {
+        mLooper.shutdownNow();
+    }
+
+    @Test
+    public void looperKeepsRunningDuringReview() throws Exception {
+        final AtomicLong startReturnedNanos = new AtomicLong();
+        mLooper.submit(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                mReview.startReview();
+                startReturnedNanos.set(System.nanoTime() - start);
+            }
+        }).get();
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(startReturnedNanos.get()) < HOLD_MILLIS / 10);
+        assertTrue(mReview.isReviewing());
+
+        // Messages posted during the review window are handled straight away, not after it
+        long worstLagMillis = 0;
+        for (int i = 0; i < 10; i++) {
+            final long posted = System.nanoTime();
+            long ran = mLooper.submit(new Callable<Long>() {
+                @Override
+                public Long call() {
+                    return System.nanoTime();
+                }
+            }).get();
+            worstLagMillis = Math.max(worstLagMillis, TimeUnit.NANOSECONDS.toMillis(ran - posted));
+            Thread.sleep(HOLD_MILLIS / 20);
+        }
+        assertTrue("looper lagged " + worstLagMillis + " ms", worstLagMillis < HOLD_MILLIS / 3);
+        assertEquals(0, mFinished.get());
+
+        assertTrue(mFinishedLatch.await(HOLD_MILLIS * 10, TimeUnit.MILLISECONDS));
+        assertEquals(1, mFinished.get());
+        assertFalse(mReview.isReviewing());
+    }
+
+    @Test
+    public void noneModeFinishesAtOnce() {
+        mReview.setMode(ReviewScheduler.Mode.NONE);
+        mReview.startReview();
+        assertEquals(1, mFinished.get());
+        assertFalse(mReview.isReviewing());
+        assertTrue(mPosted.isEmpty());
+    }
+
+    @Test
+    public void cancelSuppressesTheListener() throws Exception {
+        mLooper.submit(new Runnable() {
+            @Override
+            public void run() {
+                mReview.startReview();
+                mReview.cancel();
+            }
+        }).get();
+        assertFalse(mFinishedLatch.await(HOLD_MILLIS * 2, TimeUnit.MILLISECONDS));
+        assertEquals(0, mFinished.get());
+    }
+
+    @Test
+    public void restartingExtendsTheWindowOnce() throws Exception {
+        mLooper.submit(new Runnable() {
+            @Override
+            public void run() {
+                mReview.startReview();
+                mReview.startReview();
+            }
+        }).get();
+        assertTrue(mFinishedLatch.await(HOLD_MILLIS * 10, TimeUnit.MILLISECONDS));
+        Thread.sleep(HOLD_MILLIS);
+        assertEquals(1, mFinished.get());
+    }
+}
@@ -0,0 +1,102 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SharpnessAnalyzerTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    private static final long FRAME_NANOS = 33000000L;
+    private static final long TOLERANCE_NANOS = 100000000L;
+
+    /**
+     * @return ByteBuffer a frame of vertical stripes, sharper as the stripes get narrower
+     */
+    private static ByteBuffer stripes(int width) {
+        ByteBuffer luma = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                luma.put((byte) (((x / width) & 1) * 200));
+            }
+        }
+        luma.flip();
+        return luma;
+    }
+
+    private static double score(ByteBuffer luma) {
+        return new SharpnessScorer(WIDTH).scoreLuma(luma, WIDTH, WIDTH, HEIGHT);
+    }
+
+    @Test
+    public void stillTakesTheScoreOfTheClosestFrame() {
+        SharpnessAnalyzer analyzer = new SharpnessAnalyzer(WIDTH);
+        ByteBuffer sharp = stripes(1);
+        ByteBuffer soft = stripes(8);
+        analyzer.analyze(soft, WIDTH, WIDTH, HEIGHT, 0);
+        analyzer.analyze(sharp, WIDTH, WIDTH, HEIGHT, FRAME_NANOS);
+        analyzer.analyze(soft, WIDTH, WIDTH, HEIGHT, 2 * FRAME_NANOS);
+
+        assertEquals(score(sharp), analyzer.getScore(FRAME_NANOS + 5, TOLERANCE_NANOS), 0);
+        assertEquals(score(soft), analyzer.getScore(2 * FRAME_NANOS - 5, TOLERANCE_NANOS), 0);
+        assertTrue(score(sharp) > score(soft));
+    }
+
+    @Test
+    public void noFrameCloseEnoughGivesNaN() {
+        SharpnessAnalyzer analyzer = new SharpnessAnalyzer(WIDTH);
+        assertTrue(Double.isNaN(analyzer.getScore(0, TOLERANCE_NANOS)));
+        analyzer.analyze(stripes(2), WIDTH, WIDTH, HEIGHT, 0);
+        assertTrue(Double.isNaN(analyzer.getScore(TOLERANCE_NANOS + 1, TOLERANCE_NANOS)));
+        assertEquals(score(stripes(2)), analyzer.getScore(TOLERANCE_NANOS, TOLERANCE_NANOS), 0);
+    }
+
+    @Test
+    public void onlyTheLatestFramesAreKept() {
+        SharpnessAnalyzer analyzer = new SharpnessAnalyzer(WIDTH);
+        ByteBuffer sharp = stripes(1);
+        ByteBuffer soft = stripes(8);
+        analyzer.analyze(sharp, WIDTH, WIDTH, HEIGHT, 0);
+        for (int frame = 1; frame <= 100; frame++) {
+            analyzer.analyze(soft, WIDTH, WIDTH, HEIGHT, frame * FRAME_NANOS);
+        }
+        // The first frame has been overwritten, and the oldest one kept is too far from it
+        assertTrue(Double.isNaN(analyzer.getScore(0, TOLERANCE_NANOS)));
+        assertEquals(score(soft), analyzer.getScore(100 * FRAME_NANOS, 0), 0);
+    }
+}
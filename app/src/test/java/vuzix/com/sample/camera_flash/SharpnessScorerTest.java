@@ -0,0 +1,136 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SharpnessScorerTest {
+
+    private static final int WIDTH = 960;
+    private static final int HEIGHT = 544;
+    private static final int SQUARE = 16;
+    private static final int WORKING_WIDTH = 480;
+
+    /**
+     * @return byte[] a checkerboard of SQUARE pixel squares, black and white
+     */
+    private static byte[] checkerboard() {
+        byte[] luma = new byte[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                luma[y * WIDTH + x] = (byte) ((((x / SQUARE) + (y / SQUARE)) & 1) * 255);
+            }
+        }
+        return luma;
+    }
+
+    /**
+     * @return byte[] luma box blurred over (2 * radius + 1) pixels square, clamped at the edges
+     */
+    private static byte[] boxBlur(byte[] luma, int radius) {
+        byte[] blurred = new byte[luma.length];
+        int side = 2 * radius + 1;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int sum = 0;
+                for (int dy = -radius; dy <= radius; dy++) {
+                    int sy = Math.min(HEIGHT - 1, Math.max(0, y + dy));
+                    for (int dx = -radius; dx <= radius; dx++) {
+                        int sx = Math.min(WIDTH - 1, Math.max(0, x + dx));
+                        sum += luma[sy * WIDTH + sx] & 0xFF;
+                    }
+                }
+                blurred[y * WIDTH + x] = (byte) (sum / (side * side));
+            }
+        }
+        return blurred;
+    }
+
+    private static double score(byte[] luma) {
+        return new SharpnessScorer(WORKING_WIDTH).scoreLuma(ByteBuffer.wrap(luma), WIDTH, WIDTH, HEIGHT);
+    }
+
+    @Test
+    public void blurredPatternScoresLowerThanTheSharpOne() {
+        byte[] sharp = checkerboard();
+        double sharpScore = score(sharp);
+        double slightlyBlurred = score(boxBlur(sharp, 2));
+        double blurred = score(boxBlur(sharp, 6));
+        assertTrue("sharp " + sharpScore + " slightly blurred " + slightlyBlurred, slightlyBlurred < sharpScore);
+        assertTrue("slightly blurred " + slightlyBlurred + " blurred " + blurred, blurred < slightlyBlurred);
+        assertTrue("sharp " + sharpScore + " blurred " + blurred, blurred < sharpScore / 4);
+    }
+
+    @Test
+    public void flatImageScoresZero() {
+        byte[] grey = new byte[WIDTH * HEIGHT];
+        Arrays.fill(grey, (byte) 128);
+        assertEquals(0, score(grey), 0);
+    }
+
+    @Test
+    public void rowPaddingDoesNotChangeTheScore() {
+        byte[] packed = checkerboard();
+        int stride = WIDTH + 64;
+        // Start past the buffer's first byte too, as a plane may
+        ByteBuffer padded = ByteBuffer.allocateDirect(3 + stride * HEIGHT);
+        for (int y = 0; y < HEIGHT; y++) {
+            padded.position(3 + y * stride);
+            padded.put(packed, y * WIDTH, WIDTH);
+            while (padded.position() < 3 + (y + 1) * stride) {
+                padded.put((byte) 0x7F);
+            }
+        }
+        padded.position(3);
+        double score = new SharpnessScorer(WORKING_WIDTH).scoreLuma(padded, stride, WIDTH, HEIGHT);
+        assertEquals(score(packed), score, 0);
+        assertEquals(3, padded.position());
+    }
+
+    @Test
+    public void greyArgbScoresAsItsLuma() {
+        byte[] luma = boxBlur(checkerboard(), 3);
+        int[] argb = new int[luma.length];
+        for (int i = 0; i < luma.length; i++) {
+            int value = luma[i] & 0xFF;
+            argb[i] = 0xFF000000 | (value << 16) | (value << 8) | value;
+        }
+        double score = new SharpnessScorer(WORKING_WIDTH).scoreArgb(argb, WIDTH, WIDTH, HEIGHT);
+        assertEquals(score(luma), score, 0);
+    }
+}
@@ -0,0 +1,108 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ShotControllerTest {
+
+    /**
+     * FakeCamera that also counts precapture triggers
+     */
+    private static class FakeBackend extends FakeCamera implements ShotController.Backend {
+        int triggers;
+        int precapturesFinished;
+
+        @Override
+        public void triggerPrecapture() {
+            triggers++;
+        }
+
+        @Override
+        public void onPrecaptureFinished(boolean converged, long latencyNanos) {
+            precapturesFinished++;
+        }
+    }
+
+    private FakeBackend mBackend;
+    private ShotController mController;
+    private CaptureSessionManager mManager;
+
+    @Before
+    public void setUp() {
+        mBackend = new FakeBackend();
+        mController = new ShotController(mBackend, 1000, null);
+        mManager = mController.getSessionManager();
+        mManager.open();
+        mManager.onSessionConfigured();
+    }
+
+    @Test
+    public void shotWhileCapturingIsRefused() {
+        assertTrue(mController.takeStill(FlashMode.OFF, 1));
+        assertFalse(mController.takeStill(FlashMode.OFF, 1));
+        assertFalse(mController.takeStill(FlashMode.ON, 1));
+        assertEquals(1, mBackend.stills);
+        assertEquals(0, mBackend.triggers);
+        mManager.onFrameCompleted();
+        assertTrue(mController.takeStill(FlashMode.OFF, 3));
+        assertEquals(1, mBackend.bursts);
+    }
+
+    @Test
+    public void flashShotWaitsForPrecapture() {
+        assertTrue(mController.takeStill(FlashMode.ON, 1));
+        assertEquals(1, mBackend.triggers);
+        assertEquals(0, mBackend.stills);
+        // A second press while AE is metering is refused rather than queued behind it
+        assertFalse(mController.takeStill(FlashMode.ON, 1));
+        assertFalse(mController.takeStill(FlashMode.OFF, 1));
+        AePrecaptureSequence ae = mController.getAePrecapture();
+        ae.onTriggerResult(AePrecaptureSequence.AE_STATE_PRECAPTURE, 0);
+        ae.onResult(AePrecaptureSequence.AE_STATE_CONVERGED, 0);
+        assertEquals(1, mBackend.precapturesFinished);
+        assertEquals(1, mBackend.stills);
+    }
+
+    @Test
+    public void continuousRefusesShots() {
+        assertTrue(mManager.startContinuous());
+        assertFalse(mController.takeStill(FlashMode.OFF, 1));
+        assertFalse(mController.takeStill(FlashMode.ON, 1));
+        assertEquals(0, mBackend.triggers);
+    }
+}
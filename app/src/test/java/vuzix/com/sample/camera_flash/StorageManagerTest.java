@@ -0,0 +1,210 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StorageManagerTest {
+
+    private static final long LOW_WATERMARK = 200;
+    private static final long CRITICAL_WATERMARK = 50;
+    private static final long IMAGE_BYTES = 10;
+    private static final int GROUP_FILES = 3;
+    // Long enough that the writes of one test never reach it by themselves
+    private static final long GROUP_MILLIS = 300;
+
+    private File mDirectory;
+    private int mFiles;
+    private volatile long mUsableBytes;
+
+    private final StorageManager.FreeSpace mFreeSpace = new StorageManager.FreeSpace() {
+        @Override
+        public long getUsableBytes() {
+            return mUsableBytes;
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("storage", "");
+        mDirectory.delete();
+        mDirectory.mkdir();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (null != files) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    private StorageManager newStorage(long usableBytes, long groupMillis) {
+        mUsableBytes = usableBytes;
+        return new StorageManager(mFreeSpace, LOW_WATERMARK, CRITICAL_WATERMARK, GROUP_FILES, groupMillis, IMAGE_BYTES);
+    }
+
+    /**
+     * @return FileOutputStream with a few bytes written to a new file
+     */
+    private FileOutputStream write() throws IOException {
+        FileOutputStream output = new FileOutputStream(new File(mDirectory, "image" + mFiles++ + ".jpg"));
+        output.write(new byte[] { 1, 2, 3 });
+        return output;
+    }
+
+    private static void assertClosed(FileOutputStream output) {
+        try {
+            output.write(0);
+            fail("The stream is still open");
+        } catch (IOException e) {
+            // Closed, as expected
+        }
+    }
+
+    private static void assertOpen(FileOutputStream output) throws IOException {
+        output.write(0);
+    }
+
+    @Test
+    public void admissionChangesAtTheWatermarks() {
+        // The watermarks apply to what is left once the capture's images are written
+        assertEquals(StorageManager.Admission.ACCEPT, newStorage(LOW_WATERMARK + IMAGE_BYTES, GROUP_MILLIS).admit(1));
+        assertEquals(StorageManager.Admission.DEGRADE, newStorage(LOW_WATERMARK + IMAGE_BYTES - 1, GROUP_MILLIS).admit(1));
+        assertEquals(StorageManager.Admission.DEGRADE, newStorage(CRITICAL_WATERMARK + IMAGE_BYTES, GROUP_MILLIS).admit(1));
+        assertEquals(StorageManager.Admission.REJECT, newStorage(CRITICAL_WATERMARK + IMAGE_BYTES - 1, GROUP_MILLIS).admit(1));
+
+        StorageManager storage = newStorage(LOW_WATERMARK + 3 * IMAGE_BYTES, GROUP_MILLIS);
+        assertEquals(StorageManager.Admission.ACCEPT, storage.admit(3));
+        assertEquals(StorageManager.Admission.DEGRADE, storage.admit(4));
+    }
+
+    @Test
+    public void deletedFilesAreAdmittedAgain() {
+        StorageManager storage = newStorage(CRITICAL_WATERMARK + IMAGE_BYTES - 1, GROUP_MILLIS);
+        assertEquals(StorageManager.Admission.REJECT, storage.admit(1));
+        storage.onFileDeleted(1);
+        assertEquals(StorageManager.Admission.DEGRADE, storage.admit(1));
+    }
+
+    @Test
+    public void freeSpaceIsOnlyReadAgainAfterRefreshBytes() throws IOException {
+        long usable = 10 * StorageManager.REFRESH_BYTES;
+        StorageManager storage = newStorage(usable, GROUP_MILLIS);
+        assertEquals(1, storage.getRefreshCount());
+
+        // Written bytes are counted down without asking the file system
+        mUsableBytes = 1;
+        storage.onFileWritten(write(), StorageManager.REFRESH_BYTES - 1);
+        assertEquals(1, storage.getRefreshCount());
+        assertEquals(usable - StorageManager.REFRESH_BYTES + 1, storage.getFreeBytes());
+
+        storage.onFileWritten(write(), 1);
+        assertEquals(2, storage.getRefreshCount());
+        assertEquals(1, storage.getFreeBytes());
+        assertEquals(StorageManager.Admission.REJECT, storage.admit(1));
+    }
+
+    @Test
+    public void groupCommitFiresOnTheNthFile() throws IOException {
+        StorageManager storage = newStorage(Long.MAX_VALUE / 2, GROUP_MILLIS);
+        storage.setDurability(StorageManager.Durability.GROUP_COMMIT);
+        assertEquals(-1, storage.getCommitDelayMillis());
+
+        FileOutputStream[] outputs = new FileOutputStream[GROUP_FILES];
+        for (int i = 0; i < GROUP_FILES - 1; i++) {
+            outputs[i] = write();
+            storage.onFileWritten(outputs[i], 3);
+            assertEquals(0, storage.getSyncCount());
+            assertOpen(outputs[i]);
+        }
+        long delay = storage.getCommitDelayMillis();
+        assertTrue("delay " + delay, delay > 0 && delay <= GROUP_MILLIS);
+
+        outputs[GROUP_FILES - 1] = write();
+        storage.onFileWritten(outputs[GROUP_FILES - 1], 3);
+        assertEquals(GROUP_FILES, storage.getSyncCount());
+        assertEquals(-1, storage.getCommitDelayMillis());
+        for (FileOutputStream output : outputs) {
+            assertClosed(output);
+        }
+    }
+
+    @Test
+    public void groupCommitFiresAfterTheDelay() throws IOException, InterruptedException {
+        StorageManager storage = newStorage(Long.MAX_VALUE / 2, GROUP_MILLIS);
+        storage.setDurability(StorageManager.Durability.GROUP_COMMIT);
+        FileOutputStream first = write();
+        storage.onFileWritten(first, 3);
+        assertTrue(storage.getCommitDelayMillis() > 0);
+
+        // The writer thread waits getCommitDelayMillis() and then commits, or commits with its next file
+        Thread.sleep(GROUP_MILLIS + 50);
+        assertEquals(0, storage.getCommitDelayMillis());
+        assertEquals(0, storage.getSyncCount());
+        FileOutputStream second = write();
+        storage.onFileWritten(second, 3);
+        assertEquals(2, storage.getSyncCount());
+        assertEquals(-1, storage.getCommitDelayMillis());
+        assertClosed(first);
+        assertClosed(second);
+    }
+
+    @Test
+    public void perFileSyncsEachFileAndNoneSyncsNothing() throws IOException {
+        StorageManager storage = newStorage(Long.MAX_VALUE / 2, GROUP_MILLIS);
+        FileOutputStream output = write();
+        storage.onFileWritten(output, 3);
+        assertEquals(0, storage.getSyncCount());
+        assertClosed(output);
+
+        storage.setDurability(StorageManager.Durability.PER_FILE);
+        output = write();
+        storage.onFileWritten(output, 3);
+        assertEquals(1, storage.getSyncCount());
+        assertEquals(-1, storage.getCommitDelayMillis());
+        assertClosed(output);
+    }
+}
@@ -0,0 +1,194 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ThumbnailCacheTest {
+
+    private static final long MAX_BYTES = 1000;
+
+    /**
+     * Stands in for a Bitmap. Its size can change after it is cached, as a reconfigured Bitmap's can.
+     */
+    private static final class Thumb {
+        int bytes;
+
+        Thumb(int bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    private final List<String> mEvicted = new ArrayList<String>();
+    private ThumbnailCache<String, Thumb> mCache;
+
+    @Before
+    public void setUp() {
+        mCache = new ThumbnailCache<String, Thumb>(MAX_BYTES, new ThumbnailCache.Sizer<Thumb>() {
+            @Override
+            public int sizeOf(Thumb value) {
+                return value.bytes;
+            }
+        }, new ThumbnailCache.EvictionListener<String, Thumb>() {
+            @Override
+            public void onEvicted(String key, Thumb value) {
+                mEvicted.add(key);
+            }
+        });
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvictedFirst() {
+        mCache.put("a", new Thumb(300));
+        mCache.put("b", new Thumb(300));
+        mCache.put("c", new Thumb(300));
+        // Reading a makes b the least recently used
+        mCache.get("a");
+        mCache.put("d", new Thumb(300));
+        assertEquals(1, mEvicted.size());
+        assertEquals("b", mEvicted.get(0));
+        assertNull(mCache.get("b"));
+        mCache.put("e", new Thumb(600));
+        assertEquals("c", mEvicted.get(1));
+        assertEquals("a", mEvicted.get(2));
+        assertEquals(900, mCache.getBytes());
+        assertEquals(2, mCache.size());
+    }
+
+    @Test
+    public void bytesAreTheSumOfTheValues() {
+        mCache.put("a", new Thumb(100));
+        mCache.put("b", new Thumb(250));
+        assertEquals(350, mCache.getBytes());
+        mCache.remove("a");
+        assertEquals(250, mCache.getBytes());
+        mCache.remove("missing");
+        assertEquals(250, mCache.getBytes());
+    }
+
+    @Test
+    public void sizeIsMeasuredOnlyWhenAdded() {
+        Thumb thumb = new Thumb(100);
+        mCache.put("a", thumb);
+        thumb.bytes = 900;
+        assertEquals(100, mCache.getBytes());
+        mCache.remove("a");
+        assertEquals(0, mCache.getBytes());
+    }
+
+    @Test
+    public void replacingAValueReplacesItsBytes() {
+        Thumb first = new Thumb(400);
+        mCache.put("a", first);
+        mCache.put("a", new Thumb(100));
+        assertEquals(100, mCache.getBytes());
+        assertEquals(1, mEvicted.size());
+        // Putting the same value again is not an eviction
+        Thumb same = mCache.get("a");
+        mCache.put("a", same);
+        assertEquals(1, mEvicted.size());
+        assertEquals(100, mCache.getBytes());
+    }
+
+    @Test
+    public void valueLargerThanTheCacheIsRefused() {
+        mCache.put("a", new Thumb(100));
+        assertFalse(mCache.put("a", new Thumb((int) MAX_BYTES + 1)));
+        assertNull(mCache.get("a"));
+        assertEquals(0, mCache.getBytes());
+        assertTrue(mEvicted.isEmpty());
+        assertTrue(mCache.put("b", new Thumb((int) MAX_BYTES)));
+        assertEquals(MAX_BYTES, mCache.getBytes());
+    }
+
+    @Test
+    public void removeDoesNotCallTheListener() {
+        Thumb thumb = new Thumb(10);
+        mCache.put("a", thumb);
+        assertSame(thumb, mCache.remove("a"));
+        assertTrue(mEvicted.isEmpty());
+    }
+
+    @Test
+    public void trimEvictsOldestUntilItFits() {
+        for (int i = 0; i < 10; i++) {
+            mCache.put("k" + i, new Thumb(100));
+        }
+        mCache.trimTo(450);
+        assertEquals(400, mCache.getBytes());
+        assertEquals(6, mEvicted.size());
+        for (int i = 0; i < 6; i++) {
+            assertEquals("k" + i, mEvicted.get(i));
+        }
+        mCache.trimTo(0);
+        assertEquals(0, mCache.getBytes());
+        assertEquals(0, mCache.size());
+        assertEquals(10, mEvicted.size());
+    }
+
+    @Test
+    public void bytesStayExactUnderChurn() {
+        Random random = new Random(7);
+        for (int i = 0; i < 10000; i++) {
+            String key = "k" + random.nextInt(50);
+            if (random.nextInt(4) == 0) {
+                mCache.remove(key);
+            } else {
+                mCache.put(key, new Thumb(1 + random.nextInt(200)));
+            }
+        }
+        long bytes = mCache.getBytes();
+        assertTrue(bytes <= MAX_BYTES);
+        // Removing what is left must give back exactly the bytes that were counted
+        long removed = 0;
+        for (int i = 0; i < 50; i++) {
+            Thumb thumb = mCache.remove("k" + i);
+            if (null != thumb) {
+                removed += thumb.bytes;
+            }
+        }
+        assertEquals(bytes, removed);
+        assertEquals(0, mCache.getBytes());
+        assertEquals(0, mCache.size());
+    }
+}
@@ -0,0 +1,206 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class YuvJpegEncoderTest {
+
+    private static final int WIDTH = 6;
+    private static final int HEIGHT = 4;
+    // Rows are padded, as the HAL pads them to its alignment
+    private static final int Y_ROW_STRIDE = 8;
+    private static final int UV_ROW_STRIDE = 8;
+    private static final byte PAD = (byte) 0xEE;
+
+    private static byte luma(int x, int y) {
+        return (byte) (y * 16 + x);
+    }
+
+    private static byte u(int x, int y) {
+        return (byte) (100 + y * 8 + x);
+    }
+
+    private static byte v(int x, int y) {
+        return (byte) (200 + y * 8 + x);
+    }
+
+    private static byte[] lumaPlane() {
+        byte[] plane = new byte[Y_ROW_STRIDE * HEIGHT];
+        Arrays.fill(plane, PAD);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                plane[y * Y_ROW_STRIDE + x] = luma(x, y);
+            }
+        }
+        return plane;
+    }
+
+    /**
+     * @return byte[][] the U and V planes, with a pixel stride of 1
+     */
+    private static byte[][] planarChroma() {
+        byte[] uPlane = new byte[UV_ROW_STRIDE * HEIGHT / 2];
+        byte[] vPlane = new byte[UV_ROW_STRIDE * HEIGHT / 2];
+        Arrays.fill(uPlane, PAD);
+        Arrays.fill(vPlane, PAD);
+        for (int y = 0; y < HEIGHT / 2; y++) {
+            for (int x = 0; x < WIDTH / 2; x++) {
+                uPlane[y * UV_ROW_STRIDE + x] = u(x, y);
+                vPlane[y * UV_ROW_STRIDE + x] = v(x, y);
+            }
+        }
+        return new byte[][] { uPlane, vPlane };
+    }
+
+    /**
+     * @return byte[][] the U and V planes, with a pixel stride of 2. As from the HAL, both are views of one
+     * interleaved buffer, the V plane starting one byte after the U plane.
+     */
+    private static byte[][] semiPlanarChroma() {
+        byte[] interleaved = new byte[UV_ROW_STRIDE * HEIGHT / 2];
+        Arrays.fill(interleaved, PAD);
+        for (int y = 0; y < HEIGHT / 2; y++) {
+            for (int x = 0; x < WIDTH / 2; x++) {
+                interleaved[y * UV_ROW_STRIDE + 2 * x] = u(x, y);
+                interleaved[y * UV_ROW_STRIDE + 2 * x + 1] = v(x, y);
+            }
+        }
+        byte[] vPlane = new byte[interleaved.length - 1];
+        System.arraycopy(interleaved, 1, vPlane, 0, vPlane.length);
+        return new byte[][] { interleaved.clone(), vPlane };
+    }
+
+    private static byte[] expectedNv21(boolean rotate180) {
+        byte[] nv21 = new byte[WIDTH * HEIGHT * 3 / 2];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                nv21[y * WIDTH + x] = rotate180 ? luma(WIDTH - 1 - x, HEIGHT - 1 - y) : luma(x, y);
+            }
+        }
+        int chromaWidth = WIDTH / 2;
+        int chromaHeight = HEIGHT / 2;
+        for (int y = 0; y < chromaHeight; y++) {
+            for (int x = 0; x < chromaWidth; x++) {
+                int sourceX = rotate180 ? chromaWidth - 1 - x : x;
+                int sourceY = rotate180 ? chromaHeight - 1 - y : y;
+                int index = WIDTH * HEIGHT + y * WIDTH + 2 * x;
+                nv21[index] = v(sourceX, sourceY);
+                nv21[index + 1] = u(sourceX, sourceY);
+            }
+        }
+        return nv21;
+    }
+
+    private static byte[] convert(byte[][] chroma, int uvPixelStride, boolean rotate180) {
+        byte[] out = new byte[WIDTH * HEIGHT * 3 / 2];
+        YuvJpegEncoder.toNv21(lumaPlane(), Y_ROW_STRIDE, chroma[0], chroma[1], UV_ROW_STRIDE, uvPixelStride,
+                WIDTH, HEIGHT, rotate180, out);
+        return out;
+    }
+
+    @Test
+    public void planarChromaIsInterleaved() {
+        assertArrayEquals(expectedNv21(false), convert(planarChroma(), 1, false));
+    }
+
+    @Test
+    public void semiPlanarChromaIsInterleaved() {
+        assertArrayEquals(expectedNv21(false), convert(semiPlanarChroma(), 2, false));
+    }
+
+    @Test
+    public void planarChromaIsRotated() {
+        assertArrayEquals(expectedNv21(true), convert(planarChroma(), 1, true));
+    }
+
+    @Test
+    public void semiPlanarChromaIsRotated() {
+        assertArrayEquals(expectedNv21(true), convert(semiPlanarChroma(), 2, true));
+    }
+
+    @Test
+    public void encoderRuntimeExceptionFailsOnlyThatImage() throws InterruptedException {
+        final File bad = new File("bad.jpg");
+        final List<File> encoded = Collections.synchronizedList(new ArrayList<File>());
+        final List<File> failed = Collections.synchronizedList(new ArrayList<File>());
+        final List<IOException> failures = Collections.synchronizedList(new ArrayList<IOException>());
+        YuvJpegEncoder encoder = new YuvJpegEncoder(1, 2, 1000, new YuvJpegEncoder.Encoder() {
+            private int mCalls;
+
+            @Override
+            public void encode(byte[] nv21, int width, int height, OutputStream out) throws IOException {
+                if (0 == mCalls++) {
+                    throw new IllegalStateException("Encoder broke");
+                }
+                out.write(nv21, 0, 4);
+            }
+        }, new YuvJpegEncoder.Listener() {
+            @Override
+            public void onImageEncoded(ByteBuffer jpeg, File file) {
+                encoded.add(file);
+            }
+
+            @Override
+            public void onImageEncodeFailed(File file, IOException e) {
+                failed.add(file);
+                failures.add(e);
+            }
+        });
+        byte[][] chroma = planarChroma();
+        File good = new File("good.jpg");
+        for (File file : new File[] { bad, good }) {
+            assertTrue(encoder.submit(ByteBuffer.wrap(lumaPlane()), Y_ROW_STRIDE, ByteBuffer.wrap(chroma[0]),
+                    ByteBuffer.wrap(chroma[1]), UV_ROW_STRIDE, 1, WIDTH, HEIGHT, false, file));
+        }
+        encoder.shutdown();
+
+        assertEquals(Collections.singletonList(good), encoded);
+        assertEquals(Collections.singletonList(bad), failed);
+        assertTrue(failures.get(0).getCause() instanceof IllegalStateException);
+        assertEquals(1, encoder.getImagesEncoded());
+        assertEquals(1, encoder.getImagesFailed());
+    }
+}
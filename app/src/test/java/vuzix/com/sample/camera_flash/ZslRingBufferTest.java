@@ -0,0 +1,223 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ZslRingBufferTest {
+
+    private static final int SLOTS = 3;
+    private static final int CAPACITY = 64;
+
+    private ZslRingBuffer mRing;
+
+    /**
+     * Records the frame it is given, and accepts or refuses it
+     */
+    private static class Recorder implements ZslRingBuffer.Consumer {
+        final boolean accept;
+        long timestamp = -1;
+        byte firstByte;
+
+        Recorder(boolean accept) {
+            this.accept = accept;
+        }
+
+        @Override
+        public boolean accept(ByteBuffer jpeg, long timestampNanos) {
+            timestamp = timestampNanos;
+            firstByte = jpeg.get(jpeg.position());
+            return accept;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mRing = new ZslRingBuffer(SLOTS, CAPACITY);
+    }
+
+    /**
+     * @return ByteBuffer holding a frame whose bytes are all value
+     */
+    private static ByteBuffer frame(int value) {
+        ByteBuffer frame = ByteBuffer.allocate(16);
+        while (frame.hasRemaining()) {
+            frame.put((byte) value);
+        }
+        frame.flip();
+        return frame;
+    }
+
+    private void add(int value) {
+        assertTrue(mRing.add(frame(value), value * 1000L));
+    }
+
+    @Test
+    public void closestFrameIsTakenOnce() throws InterruptedException {
+        add(1);
+        add(2);
+        add(3);
+        Recorder recorder = new Recorder(true);
+        assertTrue(mRing.takeClosest(2100, recorder));
+        assertEquals(2000, recorder.timestamp);
+        assertEquals(2, recorder.firstByte);
+        recorder = new Recorder(true);
+        assertTrue(mRing.takeClosest(2100, recorder));
+        assertEquals(3000, recorder.timestamp);
+        recorder = new Recorder(true);
+        assertTrue(mRing.takeClosest(Long.MAX_VALUE, recorder));
+        assertEquals(1000, recorder.timestamp);
+        assertFalse(mRing.takeClosest(Long.MAX_VALUE, new Recorder(true)));
+    }
+
+    @Test
+    public void exactFrameIsTakenByItsTimestampOnly() throws InterruptedException {
+        add(1);
+        add(2);
+        add(3);
+        // No frame has this timestamp, so nothing close to it is taken
+        assertFalse(mRing.take(2100, new Recorder(true)));
+        Recorder recorder = new Recorder(true);
+        assertTrue(mRing.take(2000, recorder));
+        assertEquals(2000, recorder.timestamp);
+        assertEquals(2, recorder.firstByte);
+        assertFalse(mRing.take(2000, new Recorder(true)));
+        // A refused frame stays for the next take
+        assertFalse(mRing.take(3000, new Recorder(false)));
+        recorder = new Recorder(true);
+        assertTrue(mRing.takeClosest(Long.MAX_VALUE, recorder));
+        assertEquals(3000, recorder.timestamp);
+    }
+
+    @Test
+    public void refusedFrameIsPutBack() throws InterruptedException {
+        add(1);
+        add(2);
+        assertFalse(mRing.takeClosest(Long.MAX_VALUE, new Recorder(false)));
+        Recorder recorder = new Recorder(true);
+        assertTrue(mRing.takeClosest(Long.MAX_VALUE, recorder));
+        assertEquals(2000, recorder.timestamp);
+        assertEquals(2, recorder.firstByte);
+    }
+
+    @Test
+    public void addIsNotBlockedByASlowConsumer() throws InterruptedException {
+        add(1);
+        final CountDownLatch inConsumer = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread taker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mRing.takeClosest(Long.MAX_VALUE, new ZslRingBuffer.Consumer() {
+                        @Override
+                        public boolean accept(ByteBuffer jpeg, long timestampNanos) throws InterruptedException {
+                            inConsumer.countDown();
+                            release.await();
+                            return true;
+                        }
+                    });
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        taker.start();
+        assertTrue(inConsumer.await(5, TimeUnit.SECONDS));
+        long start = System.nanoTime();
+        for (int i = 2; i < 2 + 10 * SLOTS; i++) {
+            add(i);
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        // Only one frame can be out at a time
+        assertFalse(mRing.takeClosest(Long.MAX_VALUE, new Recorder(true)));
+        release.countDown();
+        taker.join();
+
+        Recorder recorder = new Recorder(true);
+        assertTrue(mRing.takeClosest(Long.MAX_VALUE, recorder));
+        assertEquals(1 + 10 * SLOTS, recorder.firstByte);
+    }
+
+    @Test
+    public void refusedFrameIsDroppedIfItsSlotWasReused() throws InterruptedException {
+        add(1);
+        assertFalse(mRing.takeClosest(Long.MAX_VALUE, new ZslRingBuffer.Consumer() {
+            @Override
+            public boolean accept(ByteBuffer jpeg, long timestampNanos) {
+                for (int i = 2; i < 2 + SLOTS; i++) {
+                    add(i);
+                }
+                return false;
+            }
+        }));
+        for (int i = 0; i < SLOTS; i++) {
+            Recorder recorder = new Recorder(true);
+            assertTrue(mRing.takeClosest(0, recorder));
+            assertTrue(recorder.timestamp >= 2000);
+            assertEquals(recorder.timestamp / 1000, recorder.firstByte);
+        }
+        assertFalse(mRing.takeClosest(0, new Recorder(true)));
+    }
+
+    @Test
+    public void refusedFrameIsNotPutBackAfterClear() throws InterruptedException {
+        add(1);
+        assertFalse(mRing.takeClosest(Long.MAX_VALUE, new ZslRingBuffer.Consumer() {
+            @Override
+            public boolean accept(ByteBuffer jpeg, long timestampNanos) {
+                mRing.clear();
+                return false;
+            }
+        }));
+        assertFalse(mRing.takeClosest(Long.MAX_VALUE, new Recorder(true)));
+        add(2);
+        assertTrue(mRing.takeClosest(Long.MAX_VALUE, new Recorder(true)));
+    }
+
+    @Test
+    public void oversizedFrameIsSkipped() {
+        ByteBuffer large = ByteBuffer.allocate(CAPACITY + 1);
+        assertFalse(mRing.add(large, 1));
+        assertEquals(1, mRing.getFramesTooLarge());
+        assertEquals(0, mRing.getFramesAdded());
+    }
+}
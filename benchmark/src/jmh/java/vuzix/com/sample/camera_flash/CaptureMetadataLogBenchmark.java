@@ -0,0 +1,189 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Recording and querying the metadata of many shots.
+ *
+ * append() adds one record to CaptureMetadataLog; it runs in batches on a new log each iteration so
+ * the file stays small. scanLog() reads back every record of a 10,000 shot log, and
+ * readJsonSidecars() is the per-file JSON alternative, reading 1,000 small sidecar files. Both report
+ * the time per shot.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CaptureMetadataLogBenchmark {
+
+    private static final int LOG_RECORDS = 10000;
+    private static final int SIDECAR_FILES = 1000;
+    private static final int APPEND_BATCH = 10000;
+
+    /**
+     * A new, empty log for each iteration of append()
+     */
+    @State(Scope.Thread)
+    public static class AppendState {
+        File mFile;
+        CaptureMetadataLog mLog;
+        final CaptureMetadataLog.Record mRecord = sampleRecord(0);
+
+        @Setup(Level.Iteration)
+        public void setUp() throws IOException {
+            mFile = File.createTempFile("append", ".bin");
+            mFile.delete();
+            mLog = new CaptureMetadataLog(mFile);
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() throws IOException {
+            mLog.close();
+            mFile.delete();
+        }
+    }
+
+    /**
+     * A full log and a directory of JSON sidecars holding the same kind of metadata
+     */
+    @State(Scope.Benchmark)
+    public static class QueryState {
+        File mLogFile;
+        File mDirectory;
+        File[] mSidecars;
+
+        @Setup
+        public void setUp() throws IOException {
+            mLogFile = File.createTempFile("scan", ".bin");
+            mLogFile.delete();
+            CaptureMetadataLog log = new CaptureMetadataLog(mLogFile);
+            for (int i = 0; i < LOG_RECORDS; i++) {
+                log.append(sampleRecord(i));
+            }
+            log.close();
+
+            mDirectory = Files.createTempDirectory("sidecars").toFile();
+            mSidecars = new File[SIDECAR_FILES];
+            for (int i = 0; i < SIDECAR_FILES; i++) {
+                CaptureMetadataLog.Record record = sampleRecord(i);
+                mSidecars[i] = new File(mDirectory, record.getFileName() + ".json");
+                FileWriter writer = new FileWriter(mSidecars[i]);
+                try {
+                    writer.write("{\"file\":\"" + record.getFileName() + "\",\"sensorTimestamp\":" + record.sensorTimestampNanos
+                            + ",\"exposureTime\":" + record.exposureTimeNanos + ",\"iso\":" + record.sensitivity
+                            + ",\"aeState\":" + record.aeState + ",\"flashState\":" + record.flashState
+                            + ",\"jpegOrientation\":" + record.jpegOrientation + "}");
+                } finally {
+                    writer.close();
+                }
+            }
+        }
+
+        @TearDown
+        public void tearDown() {
+            mLogFile.delete();
+            for (File file : mSidecars) {
+                file.delete();
+            }
+            mDirectory.delete();
+        }
+    }
+
+    static CaptureMetadataLog.Record sampleRecord(int shot) {
+        CaptureMetadataLog.Record record = new CaptureMetadataLog.Record();
+        record.sensorTimestampNanos = 1000000000L + shot * 33333333L;
+        record.wallTimeMillis = 1527001234567L + shot * 33L;
+        record.exposureTimeNanos = 8000000L + (shot % 7) * 1000000L;
+        record.frameDurationNanos = 33333333L;
+        record.sensitivity = 100 + (shot % 16) * 50;
+        record.aeMode = 1;
+        record.aeState = 2;
+        record.flashMode = 0;
+        record.flashState = 2;
+        record.jpegOrientation = (shot % 2) * 180;
+        record.frameNumber = shot;
+        record.setFileName("IMAGE_" + record.wallTimeMillis + "_" + shot + "_1920x1080.jpg");
+        return record;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 5, batchSize = APPEND_BATCH)
+    @Measurement(iterations = 10, batchSize = APPEND_BATCH)
+    public void append(AppendState state) throws IOException {
+        state.mLog.append(state.mRecord);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOG_RECORDS)
+    public long scanLog(QueryState state) throws IOException {
+        final long[] exposure = new long[1];
+        CaptureMetadataLog.scan(state.mLogFile, new CaptureMetadataLog.Visitor() {
+            @Override
+            public boolean visit(CaptureMetadataLog.Record record) {
+                exposure[0] += record.exposureTimeNanos;
+                return true;
+            }
+        });
+        return exposure[0];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIDECAR_FILES)
+    public long readJsonSidecars(QueryState state) throws IOException {
+        long exposure = 0;
+        for (File file : state.mSidecars) {
+            String json = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            int start = json.indexOf("\"exposureTime\":") + 15;
+            exposure += Long.parseLong(json.substring(start, json.indexOf(',', start)));
+        }
+        return exposure;
+    }
+}
@@ -0,0 +1,149 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * A whole shot, from takeStill() until every frame is written to a file, through ShotController,
+ * CaptureSessionManager, AePrecaptureSequence and JpegWriter on a SimulatedCamera.
+ *
+ * The camera latencies are fixed, so any change in the score comes from the capture flow and the
+ * save path. The sample time mode reports the p50 to p99.99 shot latency; its inverse is the shot
+ * throughput.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class EndToEndShotBenchmark {
+
+    private static final long CONFIGURE_MILLIS      = 150;
+    private static final long FRAME_INTERVAL_MILLIS = 33;
+    private static final int AE_CONVERGE_FRAMES     = 4;
+    private static final long JPEG_DELIVERY_MILLIS  = 60;
+    // Far longer than any shot should take, so a lost frame fails the run instead of hanging it
+    private static final long SHOT_TIMEOUT_MILLIS   = 10000;
+
+    @Param({"OFF", "ON"})
+    public FlashMode flash;
+
+    @Param({"1", "4"})
+    public int count;
+
+    private File mDirectory;
+    private File mFile;
+    private JpegWriter mWriter;
+    private SimulatedCamera mCamera;
+    private ShotController mController;
+    private final Semaphore mShotDone = new Semaphore(0);
+
+    @Setup
+    public void setUp() throws IOException, InterruptedException {
+        ByteBuffer jpeg = SyntheticJpeg.create(1 << 20, 0);
+        mDirectory = Files.createTempDirectory("shot").toFile();
+        mFile = new File(mDirectory, "IMAGE.jpg");
+        mWriter = new JpegWriter(4, jpeg.remaining() + 1024, 500, new JpegWriter.Listener() {
+            @Override
+            public void onImageWritten(File file, int length) {
+                onFrameDone();
+            }
+
+            @Override
+            public void onImageDiscarded(File file) {
+                onFrameDone();
+            }
+
+            @Override
+            public void onImageWriteFailed(File file, IOException e) {
+                onFrameDone();
+            }
+        });
+        mCamera = new SimulatedCamera(CONFIGURE_MILLIS, FRAME_INTERVAL_MILLIS, AE_CONVERGE_FRAMES,
+                JPEG_DELIVERY_MILLIS, jpeg, new SimulatedCamera.FrameSink() {
+            @Override
+            public void onFrame(ByteBuffer frame, long timestampNanos) {
+                try {
+                    if (!mWriter.submit(frame, mFile)) {
+                        onFrameDone();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        mController = new ShotController(mCamera, 1000, null);
+        mCamera.attach(mController);
+        mController.getSessionManager().open();
+        while (mController.getSessionManager().getState() != CaptureSessionManager.State.READY) {
+            Thread.sleep(10);
+        }
+    }
+
+    private void onFrameDone() {
+        if (mController.getSessionManager().onFrameCompleted()) {
+            mShotDone.release();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        mCamera.shutdown();
+        mWriter.shutdown();
+        mFile.delete();
+        mDirectory.delete();
+    }
+
+    @Benchmark
+    public void shot() throws InterruptedException {
+        // A refused shot would never release mShotDone, and would not measure a shot anyway
+        if (!mController.takeStill(flash, count)) {
+            throw new IllegalStateException("Shot refused in state " + mController.getSessionManager().getState());
+        }
+        if (!mShotDone.tryAcquire(SHOT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+            throw new IllegalStateException("Shot not finished after " + SHOT_TIMEOUT_MILLIS + " ms");
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Fusing a synthetic 1080p NV21 flash/no-flash pair with FlashFusion split across 1, 2 and 4 threads.
+ *
+ * The ambient frame is a dim gradient with noise. The flash frame is the same scene brighter, with
+ * saturated glare spots covering about a tenth of it, so both the plain and the blended paths of the
+ * kernel are exercised.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FlashFusionBenchmark {
+
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+    private static final int GLARE_SPOTS = 40;
+    private static final int GLARE_RADIUS = 80;
+
+    @Param({"1", "2", "4"})
+    public int threads;
+
+    private byte[] mAmbient;
+    private byte[] mFlash;
+    private byte[] mFused;
+    private FlashFusion mFusion;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        int luma = WIDTH * HEIGHT;
+        mAmbient = new byte[luma * 3 / 2];
+        mFlash = new byte[luma * 3 / 2];
+        mFused = new byte[luma * 3 / 2];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int base = 40 + 100 * x / WIDTH + random.nextInt(16);
+                mAmbient[y * WIDTH + x] = (byte) base;
+                mFlash[y * WIDTH + x] = (byte) Math.min(255, base * 3 / 2 + 20);
+            }
+        }
+        for (int i = 0; i < GLARE_SPOTS; i++) {
+            int cx = random.nextInt(WIDTH);
+            int cy = random.nextInt(HEIGHT);
+            for (int y = Math.max(0, cy - GLARE_RADIUS); y < Math.min(HEIGHT, cy + GLARE_RADIUS); y++) {
+                for (int x = Math.max(0, cx - GLARE_RADIUS); x < Math.min(WIDTH, cx + GLARE_RADIUS); x++) {
+                    int dx = x - cx;
+                    int dy = y - cy;
+                    int distance2 = dx * dx + dy * dy;
+                    if (distance2 < GLARE_RADIUS * GLARE_RADIUS) {
+                        int glare = 255 - 60 * distance2 / (GLARE_RADIUS * GLARE_RADIUS);
+                        mFlash[y * WIDTH + x] = (byte) Math.max(mFlash[y * WIDTH + x] & 0xFF, glare);
+                    }
+                }
+            }
+        }
+        for (int i = luma; i < mAmbient.length; i++) {
+            mAmbient[i] = (byte) (128 + random.nextInt(9) - 4);
+            mFlash[i] = (byte) (128 + random.nextInt(9) - 4);
+        }
+        mFusion = new FlashFusion(threads, 200, 245);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mFusion.shutdown();
+    }
+
+    @Benchmark
+    public byte[] fuse() throws InterruptedException {
+        mFusion.fuse(mAmbient, mFlash, WIDTH, HEIGHT, mFused);
+        return mFused;
+    }
+}
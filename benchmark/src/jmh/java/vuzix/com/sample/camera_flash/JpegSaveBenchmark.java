@@ -0,0 +1,162 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Saving one JPEG from a camera style buffer to a file.
+ *
+ * legacySave() is the original save path: copy the whole plane, padding included, to a new byte array
+ * and write it with a FileOutputStream. sinkSave() writes only the encoded bytes straight from the
+ * buffer, and writerRoundTrip() is a submit() to JpegWriter until its thread has written the file.
+ *
+ * Scores are saves per second, and each save also reports bytesWritten, the file bytes per second.
+ * Allocations per image come from the gc profiler, which build.gradle turns on, as gc.alloc.rate.norm
+ * in bytes per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class JpegSaveBenchmark {
+
+    @Param({"1048576"})
+    public int jpegBytes;
+
+    @Param({"0", "1048576"})
+    public int paddingBytes;
+
+    private ByteBuffer mJpeg;
+    private File mDirectory;
+    private File mFile;
+    private JpegWriter mWriter;
+    private final Semaphore mWritten = new Semaphore(0);
+    private volatile int mWrittenLength;
+
+    /**
+     * Bytes that reached the file, reported as a rate next to the time per save
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public long bytesWritten;
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        mJpeg = SyntheticJpeg.create(jpegBytes, paddingBytes);
+        mDirectory = Files.createTempDirectory("save").toFile();
+        mFile = new File(mDirectory, "IMAGE.jpg");
+        mWriter = new JpegWriter(4, jpegBytes + 1024, 500, new JpegWriter.Listener() {
+            @Override
+            public void onImageWritten(File file, int length) {
+                mWrittenLength = length;
+                mWritten.release();
+            }
+
+            @Override
+            public void onImageDiscarded(File file) {
+                mWritten.release();
+            }
+
+            @Override
+            public void onImageWriteFailed(File file, IOException e) {
+                mWritten.release();
+            }
+        });
+    }
+
+    @TearDown
+    public void tearDown() {
+        mWriter.shutdown();
+        mFile.delete();
+        mDirectory.delete();
+    }
+
+    @Benchmark
+    public int validLength() {
+        return JpegSink.validLength(mJpeg);
+    }
+
+    @Benchmark
+    public int legacySave(Bytes bytesWritten) throws IOException {
+        ByteBuffer buffer = mJpeg.duplicate();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        FileOutputStream output = new FileOutputStream(mFile);
+        try {
+            output.write(bytes);
+        } finally {
+            output.close();
+        }
+        bytesWritten.bytesWritten += bytes.length;
+        return bytes.length;
+    }
+
+    @Benchmark
+    public int sinkSave(Bytes bytesWritten) throws IOException {
+        FileOutputStream output = new FileOutputStream(mFile);
+        try {
+            int length = JpegSink.write(mJpeg.duplicate(), output.getChannel());
+            bytesWritten.bytesWritten += length;
+            return length;
+        } finally {
+            output.close();
+        }
+    }
+
+    @Benchmark
+    public boolean writerRoundTrip(Bytes bytesWritten) throws InterruptedException {
+        boolean queued = mWriter.submit(mJpeg, mFile);
+        if (queued) {
+            mWritten.acquire();
+            bytesWritten.bytesWritten += mWrittenLength;
+        }
+        return queued;
+    }
+}
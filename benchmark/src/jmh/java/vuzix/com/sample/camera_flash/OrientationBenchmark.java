@@ -0,0 +1,95 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The orientation work done for every capture and every orientation sensor event.
+ *
+ * compute() is the arithmetic rotateImageForOrientation() used to do per capture, and forRotation() is
+ * the table lookup that replaced it. quantize() feeds the RotationListener quantizer a jittery sweep
+ * that crosses every bucket boundary.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class OrientationBenchmark {
+
+    private static final int SAMPLES = 1024;
+
+    private final int[] mAngles = new int[SAMPLES];
+    private JpegOrientation mTable;
+    private OrientationQuantizer mQuantizer;
+    private int mIndex;
+    private long mNowMillis;
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < SAMPLES; i++) {
+            // A slow sweep with +/-8 degrees of jitter, as from a hand held device
+            int jitter = ((i * 7919) % 17) - 8;
+            mAngles[i] = ((i * 360 / SAMPLES) + jitter + 360) % 360;
+        }
+        mTable = new JpegOrientation(90, false);
+        mQuantizer = new OrientationQuantizer(10, 200);
+    }
+
+    private int next() {
+        mIndex = (mIndex + 1) & (SAMPLES - 1);
+        return mIndex;
+    }
+
+    @Benchmark
+    public int compute() {
+        return JpegOrientation.compute(90, false, JpegOrientation.ROTATION_DEGREES[next() & 3]);
+    }
+
+    @Benchmark
+    public int forRotation() {
+        return mTable.forRotation(next());
+    }
+
+    @Benchmark
+    public boolean quantize() {
+        // 5 ms between events, the SENSOR_DELAY_GAME rate
+        mNowMillis += 5;
+        return mQuantizer.update(mAngles[next()], mNowMillis);
+    }
+}
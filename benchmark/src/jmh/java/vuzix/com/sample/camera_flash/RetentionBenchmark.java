@@ -0,0 +1,112 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * ImageRetention on a temp directory filled with synthetic image files, as a shared device collects
+ * them. scan is the one directory listing made when the camera opens; writeAndEvict is the steady
+ * state once the directory is full, where each new image indexed deletes the oldest one.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RetentionBenchmark {
+
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    @Param({"100000"})
+    public int images;
+
+    private File mDirectory;
+    private ImageNames mNames;
+    private ImageRetention mRetention;
+    private long mNowMillis;
+
+    @Setup
+    public void setUp() throws IOException {
+        mDirectory = Files.createTempDirectory("retention").toFile();
+        mNames = new ImageNames(mDirectory);
+        // Spread over the last 30 days, with a few files that are not ours
+        mNowMillis = System.currentTimeMillis();
+        long start = mNowMillis - 30 * DAY_MILLIS;
+        long step = 30 * DAY_MILLIS / images;
+        for (int i = 0; i < images; i++) {
+            new File(mNames.next(start + i * step, 1920, 1080)).createNewFile();
+        }
+        for (int i = 0; i < 100; i++) {
+            new File(mDirectory, "notes_" + i + ".txt").createNewFile();
+        }
+        mRetention = new ImageRetention(mDirectory, images, ImageRetention.UNLIMITED, ImageRetention.UNLIMITED, null);
+        mRetention.scan();
+    }
+
+    @TearDown
+    public void tearDown() {
+        mRetention.shutdown();
+        for (File file : mDirectory.listFiles()) {
+            file.delete();
+        }
+        mDirectory.delete();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int scan() {
+        ImageRetention retention = new ImageRetention(mDirectory, images, ImageRetention.UNLIMITED, ImageRetention.UNLIMITED, null);
+        int indexed = retention.scan();
+        retention.shutdown();
+        return indexed;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    public int writeAndEvict() throws IOException {
+        File file = new File(mNames.next(++mNowMillis, 1920, 1080));
+        file.createNewFile();
+        mRetention.add(file.getName(), 0);
+        return mRetention.evict(mNowMillis);
+    }
+}
@@ -0,0 +1,146 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Scoring synthetic scenes: a 1080p luma plane as the YUV path would see it, and the 480x270 ARGB
+ * bitmap the writer decodes a 1080p JPEG to with inSampleSize 4. The scene is a field of random
+ * rectangles, and the blurred copy smears it 9 pixels horizontally like head motion would.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SharpnessBenchmark {
+
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+    private static final int SAMPLE_SIZE = 4;
+
+    private ByteBuffer mSharpLuma;
+    private ByteBuffer mBlurredLuma;
+    private int[] mSharpArgb;
+    private int[] mBlurredArgb;
+    private final SharpnessScorer mScorer = new SharpnessScorer(480);
+
+    @Setup
+    public void setUp() {
+        byte[] sharp = scene(WIDTH, HEIGHT);
+        byte[] blurred = motionBlur(sharp, WIDTH, HEIGHT, 9);
+        mSharpLuma = ByteBuffer.allocateDirect(sharp.length);
+        mSharpLuma.put(sharp).flip();
+        mBlurredLuma = ByteBuffer.allocateDirect(blurred.length);
+        mBlurredLuma.put(blurred).flip();
+        mSharpArgb = toArgb(sharp, WIDTH, HEIGHT, SAMPLE_SIZE);
+        mBlurredArgb = toArgb(blurred, WIDTH, HEIGHT, SAMPLE_SIZE);
+        double sharpScore = mScorer.scoreLuma(mSharpLuma, WIDTH, WIDTH, HEIGHT);
+        double blurredScore = mScorer.scoreLuma(mBlurredLuma, WIDTH, WIDTH, HEIGHT);
+        if (sharpScore <= blurredScore) {
+            throw new IllegalStateException("Blurred scene scored " + blurredScore + ", sharp " + sharpScore);
+        }
+    }
+
+    @Benchmark
+    public double lumaSharp() {
+        return mScorer.scoreLuma(mSharpLuma, WIDTH, WIDTH, HEIGHT);
+    }
+
+    @Benchmark
+    public double lumaBlurred() {
+        return mScorer.scoreLuma(mBlurredLuma, WIDTH, WIDTH, HEIGHT);
+    }
+
+    @Benchmark
+    public double argbSharp() {
+        return mScorer.scoreArgb(mSharpArgb, WIDTH / SAMPLE_SIZE, WIDTH / SAMPLE_SIZE, HEIGHT / SAMPLE_SIZE);
+    }
+
+    @Benchmark
+    public double argbBlurred() {
+        return mScorer.scoreArgb(mBlurredArgb, WIDTH / SAMPLE_SIZE, WIDTH / SAMPLE_SIZE, HEIGHT / SAMPLE_SIZE);
+    }
+
+    private static byte[] scene(int width, int height) {
+        Random random = new Random(42);
+        byte[] luma = new byte[width * height];
+        for (int i = 0; i < 400; i++) {
+            int x0 = random.nextInt(width);
+            int y0 = random.nextInt(height);
+            int x1 = Math.min(width, x0 + 8 + random.nextInt(200));
+            int y1 = Math.min(height, y0 + 8 + random.nextInt(200));
+            byte shade = (byte) random.nextInt(256);
+            for (int y = y0; y < y1; y++) {
+                for (int x = x0; x < x1; x++) {
+                    luma[y * width + x] = shade;
+                }
+            }
+        }
+        return luma;
+    }
+
+    private static byte[] motionBlur(byte[] luma, int width, int height, int length) {
+        byte[] blurred = new byte[luma.length];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int sum = 0;
+                for (int k = 0; k < length; k++) {
+                    sum += luma[y * width + Math.min(width - 1, x + k)] & 0xFF;
+                }
+                blurred[y * width + x] = (byte) (sum / length);
+            }
+        }
+        return blurred;
+    }
+
+    private static int[] toArgb(byte[] luma, int width, int height, int sampleSize) {
+        int outWidth = width / sampleSize;
+        int outHeight = height / sampleSize;
+        int[] argb = new int[outWidth * outHeight];
+        for (int y = 0; y < outHeight; y++) {
+            for (int x = 0; x < outWidth; x++) {
+                int value = luma[y * sampleSize * width + x * sampleSize] & 0xFF;
+                argb[y * outWidth + x] = 0xFF000000 | (value << 16) | (value << 8) | value;
+            }
+        }
+        return argb;
+    }
+}
@@ -0,0 +1,109 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Write throughput of each StorageManager Durability policy, saving a JPEG to a temp directory as the
+ * writer thread does. Files are reused round robin so the directory stays small. admit() is the
+ * per-shot free space check, which must not reach the file system.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class StorageBenchmark {
+
+    private static final int FILES = 16;
+
+    @Param({"NONE", "PER_FILE", "GROUP_COMMIT"})
+    public StorageManager.Durability durability;
+
+    @Param({"1048576"})
+    public int jpegBytes;
+
+    private ByteBuffer mJpeg;
+    private File mDirectory;
+    private File[] mFiles;
+    private int mNext;
+    private StorageManager mStorage;
+
+    @Setup
+    public void setUp() throws IOException {
+        mJpeg = SyntheticJpeg.create(jpegBytes, 0);
+        mDirectory = Files.createTempDirectory("storage").toFile();
+        mFiles = new File[FILES];
+        for (int i = 0; i < FILES; i++) {
+            mFiles[i] = new File(mDirectory, "IMAGE_" + i + ".jpg");
+        }
+        mStorage = new StorageManager(mDirectory, 0, 0, 8, 1000, jpegBytes);
+        mStorage.setDurability(durability);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mStorage.commit();
+        for (File file : mFiles) {
+            file.delete();
+        }
+        mDirectory.delete();
+    }
+
+    @Benchmark
+    public int write() throws IOException {
+        File file = mFiles[mNext];
+        mNext = (mNext + 1) % FILES;
+        FileOutputStream output = new FileOutputStream(file);
+        int length = JpegSink.write(mJpeg.duplicate(), output.getChannel());
+        mStorage.onFileWritten(output, length);
+        return length;
+    }
+
+    @Benchmark
+    public StorageManager.Admission admit() {
+        return mStorage.admit(4);
+    }
+}
@@ -0,0 +1,74 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Builds a JPEG shaped buffer for the benchmarks: the markers are real but the entropy coded data is
+ * random. Like a camera JPEG plane, the image can be followed by padding.
+ */
+final class SyntheticJpeg {
+
+    private SyntheticJpeg() {
+    }
+
+    /**
+     * @param entropyBytes int size of the scan data
+     * @param paddingBytes int number of zero bytes after the end-of-image marker
+     * @return ByteBuffer direct buffer holding the JPEG and padding between position 0 and its limit
+     */
+    static ByteBuffer create(int entropyBytes, int paddingBytes) {
+        ByteBuffer jpeg = ByteBuffer.allocateDirect(entropyBytes + paddingBytes + 64);
+        Random random = new Random(42);
+        jpeg.put((byte) 0xFF).put((byte) 0xD8);                    // SOI
+        jpeg.put((byte) 0xFF).put((byte) 0xE0).putShort((short) 16); // APP0
+        jpeg.put(new byte[] { 'J', 'F', 'I', 'F', 0, 1, 1, 0, 0, 1, 0, 1, 0, 0 });
+        jpeg.put((byte) 0xFF).put((byte) 0xDA).putShort((short) 8);  // SOS
+        jpeg.put(new byte[] { 1, 1, 0, 0, 63, 0 });
+        for (int i = 0; i < entropyBytes; i++) {
+            byte b = (byte) random.nextInt(256);
+            jpeg.put(b);
+            if (b == (byte) 0xFF) {
+                jpeg.put((byte) 0x00);  // Byte stuffing, as the encoder would do
+                i++;
+            }
+        }
+        jpeg.put((byte) 0xFF).put((byte) 0xD9);                    // EOI
+        for (int i = 0; i < paddingBytes && jpeg.hasRemaining(); i++) {
+            jpeg.put((byte) 0);
+        }
+        jpeg.flip();
+        return jpeg;
+    }
+}
@@ -0,0 +1,167 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Encoding a burst of synthetic 1080p YUV_420_888 frames with 1, 2 and 4 YuvJpegEncoder workers.
+ *
+ * YuvImage only exists on Android, so the JVM encoder converts NV21 to RGB and uses ImageIO. Its
+ * absolute cost differs from the device, but the scaling with the number of workers is what this
+ * measures. toNv21() is the plane conversion every worker does before encoding.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class YuvEncodeBenchmark {
+
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+    private static final int BURST = 8;
+
+    @Param({"1", "2", "4"})
+    public int workers;
+
+    private ByteBuffer mY;
+    private ByteBuffer mU;
+    private ByteBuffer mV;
+    private byte[] mYBytes;
+    private byte[] mUBytes;
+    private byte[] mVBytes;
+    private byte[] mNv21;
+    private final File mFile = new File("unused.jpg");
+    private final Semaphore mEncoded = new Semaphore(0);
+    private YuvJpegEncoder mEncoder;
+
+    @Setup
+    public void setUp() {
+        // Semi-planar chroma, as most camera HALs deliver it: U and V share one interleaved buffer
+        Random random = new Random(42);
+        mYBytes = new byte[WIDTH * HEIGHT];
+        random.nextBytes(mYBytes);
+        byte[] chroma = new byte[WIDTH * HEIGHT / 2];
+        random.nextBytes(chroma);
+        mY = ByteBuffer.allocateDirect(mYBytes.length);
+        mY.put(mYBytes).flip();
+        ByteBuffer interleaved = ByteBuffer.allocateDirect(chroma.length);
+        interleaved.put(chroma).flip();
+        mU = interleaved.duplicate();
+        mU.limit(chroma.length - 1);
+        mV = interleaved.duplicate();
+        mV.position(1);
+        mV = mV.slice();
+        mUBytes = new byte[mU.remaining()];
+        mU.duplicate().get(mUBytes);
+        mVBytes = new byte[mV.remaining()];
+        mV.duplicate().get(mVBytes);
+        mNv21 = new byte[WIDTH * HEIGHT * 3 / 2];
+
+        mEncoder = new YuvJpegEncoder(workers, BURST, 1000, new YuvJpegEncoder.Encoder() {
+            @Override
+            public void encode(byte[] nv21, int width, int height, OutputStream out) throws IOException {
+                ImageIO.write(toRgb(nv21, width, height), "jpg", out);
+            }
+        }, new YuvJpegEncoder.Listener() {
+            @Override
+            public void onImageEncoded(ByteBuffer jpeg, File file) {
+                mEncoded.release();
+            }
+
+            @Override
+            public void onImageEncodeFailed(File file, IOException e) {
+                mEncoded.release();
+            }
+        });
+    }
+
+    @TearDown
+    public void tearDown() {
+        mEncoder.shutdown();
+    }
+
+    @Benchmark
+    public int encodeBurst() throws InterruptedException {
+        for (int i = 0; i < BURST; i++) {
+            mEncoder.submit(mY, WIDTH, mU, mV, WIDTH, 2, WIDTH, HEIGHT, false, mFile);
+        }
+        mEncoded.acquire(BURST);
+        return mEncoder.getImagesEncoded();
+    }
+
+    @Benchmark
+    public byte[] toNv21() {
+        YuvJpegEncoder.toNv21(mYBytes, WIDTH, mUBytes, mVBytes, WIDTH, 2, WIDTH, HEIGHT, false, mNv21);
+        return mNv21;
+    }
+
+    private static BufferedImage toRgb(byte[] nv21, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] row = new int[width];
+        int chroma = width * height;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int luma = nv21[y * width + x] & 0xFF;
+                int uv = chroma + (y >> 1) * width + (x & ~1);
+                int v = (nv21[uv] & 0xFF) - 128;
+                int u = (nv21[uv + 1] & 0xFF) - 128;
+                int r = clamp(luma + ((359 * v) >> 8));
+                int g = clamp(luma - ((88 * u + 183 * v) >> 8));
+                int b = clamp(luma + ((454 * u) >> 8));
+                row[x] = (r << 16) | (g << 8) | b;
+            }
+            image.setRGB(0, y, width, 1, row, 0, width);
+        }
+        return image;
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+}
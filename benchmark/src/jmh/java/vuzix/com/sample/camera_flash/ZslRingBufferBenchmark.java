@@ -0,0 +1,83 @@
+/***************************************************************************
+Copyright (c) 2018, Vuzix Corporation
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+
+*  Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+*  Redistributions in binary form must reproduce the above copyright
+   notice, this list of conditions and the following disclaimer in the
+   documentation and/or other materials provided with the distribution.
+
+*  Neither the name of Vuzix Corporation nor the names of
+   its contributors may be used to endorse or promote products derived
+   from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ***************************************************************************/
+package vuzix.com.sample.camera_flash;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The per-frame cost of keeping zero shutter lag frames, and of picking one when the shutter is pressed
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ZslRingBufferBenchmark {
+
+    private static final long FRAME_NANOS = 33333333L;
+
+    private ByteBuffer mJpeg;
+    private ZslRingBuffer mRing;
+    private long mTimestamp;
+
+    private final ZslRingBuffer.Consumer mConsumer = new ZslRingBuffer.Consumer() {
+        @Override
+        public boolean accept(ByteBuffer jpeg, long timestampNanos) {
+            return jpeg.remaining() > 0;
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        mJpeg = SyntheticJpeg.create(1048576, 1048576);
+        mRing = new ZslRingBuffer(4, 1048576 + 1024);
+    }
+
+    @Benchmark
+    public boolean add() {
+        mTimestamp += FRAME_NANOS;
+        return mRing.add(mJpeg, mTimestamp);
+    }
+
+    @Benchmark
+    public boolean addAndTake() throws InterruptedException {
+        mTimestamp += FRAME_NANOS;
+        mRing.add(mJpeg, mTimestamp);
+        return mRing.takeClosest(mTimestamp - FRAME_NANOS / 2, mConsumer);
+    }
+}